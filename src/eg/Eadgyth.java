@@ -47,6 +47,7 @@ public class Eadgyth {
          viewSetWin.setVisible(false);
       });
       EventQueue.invokeLater(mw::makeVisible);
+      EventQueue.invokeLater(tabDocs::recoverUnsavedDocuments);
    }
 
    private static void uiManagerSettings() {
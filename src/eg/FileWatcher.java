@@ -0,0 +1,327 @@
+package eg;
+
+import java.awt.EventQueue;
+
+import javax.swing.Timer;
+
+import java.io.IOException;
+
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+//--Eadgyth--/
+import eg.utils.FileUtils;
+
+/**
+ * The watching of directories for files that are created, deleted or
+ * changed by other programs.
+ * <p>
+ * The directories are registered with a <code>WatchService</code>
+ * whose events are received in a thread of their own. The
+ * directories in which entries changed are collected until no event
+ * arrives for {@link #DELAY} milliseconds, like during a
+ * <code>git checkout</code>, and are then passed on the EDT at once.
+ * <p>
+ * In addition, the directories of one directory tree can be watched
+ * for which the changed entries are collected and passed in the same
+ * way. Directories that are created in the tree are registered and
+ * deleted directories are no more watched. A directory that is
+ * watched for both purposes is registered once.
+ */
+public final class FileWatcher {
+
+   /**
+    * The time in milliseconds that passes without events before
+    * changes are passed */
+   static final int DELAY = 300;
+
+   private final Map<Path, WatchKey> keys = new HashMap<>();
+   private final Set<Path> dirs = new HashSet<>();
+   private final Set<Path> treeDirs = new HashSet<>();
+   private final Set<Path> changed = ConcurrentHashMap.newKeySet();
+   private final Set<Path> changedInTree = ConcurrentHashMap.newKeySet();
+   private final Consumer<Set<Path>> changedDirs;
+   private final Timer timer;
+
+   private WatchService watcher = null;
+   private Path treeRoot = null;
+   private Predicate<Path> isWatchedInTree = null;
+   private Consumer<Set<Path>> changedPaths = null;
+   private int treeCount = 0;
+
+   /**
+    * @param changedDirs  the Consumer that accepts the directories in
+    * which entries changed and is invoked on the EDT
+    */
+   FileWatcher(Consumer<Set<Path>> changedDirs) {
+      this.changedDirs = changedDirs;
+      timer = new Timer(DELAY, e -> passChanges());
+      timer.setRepeats(false);
+      try {
+         watcher = FileSystems.getDefault().newWatchService();
+         Thread t = new Thread(this::receiveChanges, "File watcher");
+         t.setDaemon(true);
+         t.start();
+      }
+      catch (IOException | UnsupportedOperationException e) {
+         FileUtils.log(e);
+      }
+   }
+
+   /**
+    * Sets the directories that are watched. Directories that are not
+    * contained in the specified directories are no more watched.
+    *
+    * @param dirs  the absolute paths of the directories
+    */
+   synchronized void watch(Collection<Path> dirs) {
+      if (watcher == null) {
+         return;
+      }
+      this.dirs.clear();
+      this.dirs.addAll(dirs);
+      cancelUnused();
+      for (Path d : dirs) {
+         register(d);
+      }
+   }
+
+   /**
+    * Watches the directories of the specified directory tree in place
+    * of a tree that was watched before. The directories are
+    * registered in the background.
+    *
+    * @param root  the absolute path of the root of the tree
+    * @param isWatched  the Predicate that tests if a directory in the
+    * tree and its subdirectories are watched
+    * @param changedPaths  the Consumer that accepts the paths of the
+    * entries in the tree that were created, deleted or changed and is
+    * invoked on the EDT. The paths contain the root if events were
+    * lost.
+    * @return  true if the tree is watched; false if watching is not
+    * supported
+    */
+   public synchronized boolean watchTree(Path root,
+         Predicate<Path> isWatched, Consumer<Set<Path>> changedPaths) {
+
+      if (watcher == null) {
+         return false;
+      }
+      unwatchTree();
+      treeRoot = root;
+      isWatchedInTree = isWatched;
+      this.changedPaths = changedPaths;
+      int count = treeCount;
+      Thread t = new Thread(() -> registerTree(root, count),
+            "File watcher registration");
+
+      t.setDaemon(true);
+      t.start();
+      return true;
+   }
+
+   /**
+    * Stops watching the directory tree
+    */
+   public synchronized void unwatchTree() {
+      treeCount++;
+      treeRoot = null;
+      isWatchedInTree = null;
+      changedPaths = null;
+      treeDirs.clear();
+      changedInTree.clear();
+      cancelUnused();
+   }
+
+   /**
+    * Stops watching
+    */
+   void close() {
+      timer.stop();
+      if (watcher != null) {
+         try {
+            watcher.close();
+         }
+         catch (IOException e) {
+            FileUtils.log(e);
+         }
+      }
+   }
+
+   //
+   //--private--/
+   //
+
+   private void register(Path dir) {
+      if (!keys.containsKey(dir)) {
+         try {
+            keys.put(dir, dir.register(watcher,
+                  StandardWatchEventKinds.ENTRY_CREATE,
+                  StandardWatchEventKinds.ENTRY_DELETE,
+                  StandardWatchEventKinds.ENTRY_MODIFY));
+         }
+         catch (IOException | ClosedWatchServiceException e) {
+            // the directory was removed or the watcher is closed
+         }
+      }
+   }
+
+   //
+   // Cancels the keys of directories that are watched for neither
+   // purpose
+   private void cancelUnused() {
+      Iterator<Map.Entry<Path, WatchKey>> it = keys.entrySet().iterator();
+      while (it.hasNext()) {
+         Map.Entry<Path, WatchKey> e = it.next();
+         if (!dirs.contains(e.getKey()) && !treeDirs.contains(e.getKey())) {
+            e.getValue().cancel();
+            it.remove();
+         }
+      }
+   }
+
+   //
+   // Registers the directories of the tree, or of a new subtree, that
+   // are watched. Stops if another tree is watched meanwhile.
+   private void registerTree(Path dir, int count) {
+      try {
+         Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+
+            @Override
+            public FileVisitResult preVisitDirectory(Path d,
+                  BasicFileAttributes attr) {
+
+               return registerInTree(d, count);
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path f, IOException e) {
+               return FileVisitResult.CONTINUE;
+            }
+         });
+      }
+      catch (IOException e) {
+         // not thrown by the visitor
+      }
+   }
+
+   private synchronized FileVisitResult registerInTree(Path dir,
+         int count) {
+
+      if (count != treeCount) {
+         return FileVisitResult.TERMINATE;
+      }
+      if (!isWatchedInTree.test(dir)) {
+         return FileVisitResult.SKIP_SUBTREE;
+      }
+      treeDirs.add(dir);
+      register(dir);
+      return FileVisitResult.CONTINUE;
+   }
+
+   //
+   // Runs on the watcher thread. The directory of a key is collected
+   // for any event including lost events. The key of a directory that
+   // was deleted is no longer valid and is removed.
+   private void receiveChanges() {
+      while (true) {
+         WatchKey key;
+         try {
+            key = watcher.take();
+         }
+         catch (InterruptedException | ClosedWatchServiceException e) {
+            return;
+         }
+         List<WatchEvent<?>> events = key.pollEvents();
+         Path dir = (Path) key.watchable();
+         if (!key.reset()) {
+            removeKey(dir, key);
+         }
+         if (!events.isEmpty()) {
+            received(dir, events);
+         }
+      }
+   }
+
+   private synchronized void removeKey(Path dir, WatchKey key) {
+      if (keys.get(dir) == key) {
+         keys.remove(dir);
+         treeDirs.remove(dir);
+      }
+   }
+
+   //
+   // Collects the changes. Directories that are created in the tree
+   // are registered outside the lock.
+   private void received(Path dir, List<WatchEvent<?>> events) {
+      List<Path> newDirs = new ArrayList<>();
+      int count;
+      synchronized (this) {
+         count = treeCount;
+         if (dirs.contains(dir)) {
+            changed.add(dir);
+         }
+         if (treeDirs.contains(dir)) {
+            for (WatchEvent<?> ev : events) {
+               if (ev.kind() == StandardWatchEventKinds.OVERFLOW) {
+                  changedInTree.add(treeRoot);
+                  continue;
+               }
+               Path p = dir.resolve((Path) ev.context());
+               changedInTree.add(p);
+               if (ev.kind() == StandardWatchEventKinds.ENTRY_CREATE
+                     && Files.isDirectory(p)) {
+
+                  newDirs.add(p);
+               }
+            }
+         }
+      }
+      for (Path d : newDirs) {
+         registerTree(d, count);
+      }
+      EventQueue.invokeLater(timer::restart);
+   }
+
+   private void passChanges() {
+      Set<Path> dirs = drain(changed);
+      if (!dirs.isEmpty()) {
+         changedDirs.accept(dirs);
+      }
+      Set<Path> paths = drain(changedInTree);
+      if (!paths.isEmpty() && changedPaths != null) {
+         changedPaths.accept(paths);
+      }
+   }
+
+   private static Set<Path> drain(Set<Path> set) {
+      Set<Path> copy = new HashSet<>();
+      Iterator<Path> it = set.iterator();
+      while (it.hasNext()) {
+         copy.add(it.next());
+         it.remove();
+      }
+      return copy;
+   }
+}
@@ -83,6 +83,24 @@ public final class Prefs {
     * Key for a multiple screen setting (not preset);
     * a 'Yes-No' property */
    public static final String MULTIPLE_SCREENS_KEY = "MultipleScreens";
+   /**
+    * Key for the number of characters from which on syntax
+    * highlighting is restricted to the visible lines and proceeds
+    * while scrolling (not preset) */
+   public static final String LAZY_HIGHLIGHT_KEY = "LazyHighlightMinLength";
+   /**
+    * Key for the file size in MB from which on a file is opened in a
+    * read-only viewer (not preset) */
+   public static final String VIEWER_MIN_SIZE_KEY = "ViewerMinFileSize";
+   /**
+    * Key for the memory in MB that the undoable edits of a document
+    * may occupy (not preset) */
+   public static final String UNDO_BUDGET_KEY = "UndoBudget";
+   /**
+    * Key for keeping the undoable edits of a file in a journal that
+    * is restored when the file is opened again (not preset); a
+    * 'Yes-No' property */
+   public static final String UNDO_JOURNAL_KEY = "UndoJournal";
    /**
     * The name of the properties file to store the configuration
     * of a project */
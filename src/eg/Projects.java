@@ -12,6 +12,7 @@ import eg.ui.filetree.FileTree;
 import eg.projects.ProjectCommands;
 import eg.projects.ProjectSelector;
 import eg.projects.ProjectTypes;
+import eg.document.BulkSaving;
 import eg.document.EditableDocument;
 import eg.utils.Dialogs;
 
@@ -261,30 +262,37 @@ public class Projects {
    }
 
    /**
-    * Saves open files of the current project and compiles the project
+    * Saves open files of the current project in the background and
+    * compiles the project when all files are written
     */
    public void compile() {
-      if (save()) {
-         currentProject.compile();
-      }
+      ProjectCommands project = currentProject;
+      save(project::compile);
    }
 
    /**
-    * Saves open files of the current project if saving is enabled
-    * and runs the project.
+    * Saves open files of the current project in the background if
+    * saving is enabled and runs the project when all files are
+    * written.
     * Saving is enabled in {@link ProjectCommands#enable}
     */
    public void run() {
-      if (isSaveAndRun && !save()) {
-         return;
-      }
-      if (currentProject.hasSetSourceFile()
-            || currentProject.projectType() == ProjectTypes.GENERIC) {
+      ProjectCommands project = currentProject;
+      Runnable r;
+      if (project.hasSetSourceFile()
+            || project.projectType() == ProjectTypes.GENERIC) {
 
-         currentProject.run();
+         r = project::run;
+      }
+      else {
+         String filepath = edtDoc[iDoc].filepath();
+         r = () -> project.run(filepath);
+      }
+      if (isSaveAndRun) {
+         save(r);
       }
       else {
-         currentProject.run(edtDoc[iDoc].filepath());
+         r.run();
       }
    }
 
@@ -374,13 +382,18 @@ public class Projects {
       pau.update();
    }
 
-   private boolean save() {
+   //
+   // Saves the changed files of the current project in the background
+   // and runs the action when all files are written. The action is not
+   // run if files are missing or could not be written.
+   private void save(Runnable action) {
       StringBuilder missingFiles = new StringBuilder();
+      List<EditableDocument> toSave = new ArrayList<>();
       for (EditableDocument d : edtDoc) {
          if (d != null && d.hasFile() && currentProject.isInProject(d.fileParent())) {
             if (d.file().exists()) {
                if (d.isChanged()) {
-                  d.saveFile();
+                  toSave.add(d);
                }
             }
             else {
@@ -390,9 +403,26 @@ public class Projects {
       }
       if (missingFiles.length() > 0) {
          missingFilesMsg(missingFiles.toString());
-         return false;
+         return;
+      }
+      new BulkSaving(toSave).start(this::updateEditingState, report -> {
+         if (report.isEmpty()) {
+            action.run();
+         }
+         else {
+            Dialogs.errorMessage("Some files could not be saved:\n"
+                  + report, null);
+         }
+      });
+   }
+
+   //
+   // Reads the editing state of the selected document since saving in
+   // the background may finish when another document is selected
+   private void updateEditingState() {
+      if (edtDoc[iDoc] != null) {
+         edtDoc[iDoc].readEditingState();
       }
-      return true;
    }
 
    private int replaceRes(ProjectTypes newProjType, ProjectTypes prevProjType) {
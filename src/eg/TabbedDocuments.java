@@ -10,10 +10,21 @@ import javax.swing.event.ChangeEvent;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Consumer;
 
 //--Eadgyth--/
+import eg.document.BulkSaving;
 import eg.document.EditableDocument;
 import eg.document.EditingStateReadable;
+import eg.document.RecoveredEdits;
+import eg.edittools.AddableEditTool;
+import eg.edittools.ProjectFinder;
 import eg.ui.MainWin;
 import eg.ui.EditArea;
 import eg.ui.tabpane.ExtTabbedPane;
@@ -38,6 +49,7 @@ public class TabbedDocuments {
    public static final int MAX_TABS = 15;
 
    private static final String UNNAMED_LABEL = "unnamed";
+   private static final long DEFAULT_VIEWER_MIN_SIZE = 64;
 
    private final MainWin mw;
    private final ExtTabbedPane tabPane;
@@ -49,9 +61,14 @@ public class TabbedDocuments {
    private final Formatter format;
    private final Edit edit;
    private final Projects proj;
+   private final FileTree fileTree;
+   private final FileWatcher watcher;
 
    private int iTab = -1;
    private Languages lang;
+   private Consumer<File> fileWritten = null;
+   private boolean isAskingReload = false;
+   private boolean isReloadCheckPending = false;
 
    /**
     * @param mw  the reference to MainWin
@@ -81,10 +98,22 @@ public class TabbedDocuments {
       edit = new Edit(true);
       mw.setEditActions(edit, this::changeLanguage);
 
-      FileTree ft = new FileTree(mw.treePanel(), this::open);
+      fileTree = new FileTree(mw.treePanel(), this::open);
+      watcher = new FileWatcher(this::filesChanged);
+      for (AddableEditTool t : mw.editTools()) {
+         if (t instanceof ProjectFinder) {
+            ProjectFinder pf = (ProjectFinder) t;
+            pf.setFileTree(fileTree, this::show, this::openDocuments,
+                  watcher);
+
+            fileWritten = pf::fileWritten;
+         }
+      }
+      fileTree.setListingListener(this::updateWatchedDirs);
+
       String projectRoot = prefs.property("ProjectRoot");
-      ft.setProjectTree(projectRoot);
-      proj = new Projects(mw, ft, edtDoc);
+      fileTree.setProjectTree(projectRoot);
+      proj = new Projects(mw, fileTree, edtDoc);
       mw.setProjectActions(proj);
 
       String recentDir = prefs.property(Prefs.RECENT_DIR_KEY);
@@ -118,30 +147,81 @@ public class TabbedDocuments {
    }
 
    /**
-    * Saves the text content of the selected document; uses 'save as' if
-    * the document has no file or a file that no more exists
+    * Asks for each document with unsaved changes that were left when
+    * the editor was not closed properly if the changes are recovered.
+    * The document is opened and the changes are applied if confirmed
+    * and the changes are discarded otherwise. Meant to be called once
+    * when the editor is started.
+    */
+   public void recoverUnsavedDocuments() {
+      for (RecoveredEdits re : RecoveredEdits.find()) {
+         File f = re.file();
+         String name = f != null ? f.getName() : "an unnamed document";
+         int res = Dialogs.confirmYesNo(
+               "Eadgyth was not closed properly.\n"
+               + "Recover the unsaved changes to " + name + "?");
+
+         EditableDocument doc = null;
+         if (res == JOptionPane.YES_OPTION) {
+            doc = documentForRecovery(f);
+         }
+         if (doc != null) {
+            doc.recover(re);
+         }
+         else {
+            re.discard();
+         }
+      }
+   }
+
+   /**
+    * Saves the text content of the selected document in the
+    * background; uses 'save as' if the document has no file or a file
+    * that no more exists
     */
    public void save() {
-      save(true);
+      if (!isSaveable()) {
+         return;
+      }
+      if (edtDoc[iTab].hasFile() && edtDoc[iTab].file().exists()) {
+         edtDoc[iTab].saveFile(e -> {
+            if (e != null) {
+               FileUtils.log(e);
+            }
+            updateEditingState();
+         });
+      }
+      else {
+         saveAs(true);
+      }
    }
 
    /**
     * Saves the text content in all open documents; uses 'save as' for
-    * documents that have no file or a file that no more exists
+    * documents that have no file or a file that no more exists. The
+    * other documents are saved concurrently in the background and
+    * files that could not be written are reported together.
     */
    public void saveAll() {
+      List<EditableDocument> docs = new ArrayList<>();
       for (int i = 0; i < nTabs(); i++) {
          if (!edtDoc[i].isChanged()) {
             continue;
          }
          if (edtDoc[i].hasFile() && edtDoc[i].file().exists()) {
-             edtDoc[i].saveFile();
+            docs.add(edtDoc[i]);
          }
          else {
             tabPane.setSelectedIndex(i);
             saveAs(true);
          }
       }
+      new BulkSaving(docs).start(this::updateEditingState, report -> {
+         if (!report.isEmpty()) {
+            Dialogs.errorMessage("Some files could not be saved:\n" + report,
+                  null);
+         }
+      });
    }
 
    /**
@@ -166,6 +246,9 @@ public class TabbedDocuments {
     * specified in the file chooser
     */
    public void rename() {
+      if (!isSaveable()) {
+         return;
+      }
       if (edtDoc[iTab].hasFile() && !edtDoc[iTab].file().exists()) {
          int res = saveDeletedRes();
          if (res == JOptionPane.YES_OPTION) {
@@ -186,10 +269,13 @@ public class TabbedDocuments {
       }
       try {
          Files.delete(edtDoc[iTab].file().toPath());
-         if (edtDoc[iTab].setFile(f)) {
-            changeFile();
-            proj.updateFileTree();
-         }
+         EditableDocument d = edtDoc[iTab];
+         d.setFile(f, e -> {
+            fileSet(d);
+            if (isSaved(e)) {
+               proj.updateFileTree();
+            }
+         });
       }
       catch (IOException e) {
          FileUtils.log(e);
@@ -222,6 +308,8 @@ public class TabbedDocuments {
       closeAll(false);
       boolean b = iTab == -1;
       if (b) {
+         EditableDocument.awaitJournalWriting();
+         watcher.close();
          format.storeProperties();
          edit.storeIndentProperties();
          prefs.setProperty(Prefs.LANG_KEY, lang.toString());
@@ -245,15 +333,73 @@ public class TabbedDocuments {
       if (f == null || !exists(f) || isFileOpen(f) || isMaxTabNumber()) {
          return;
       }
-      Runnable r = () -> {
-         if (isOnlyUnnamedBlank()) {
-            removeTab();
+      if (isOnlyUnnamedBlank()) {
+         removeTab();
+      }
+      if (isTabOpenable()) {
+         createDocument(f);
+      }
+   }
+
+   private List<EditableDocument> openDocuments() {
+      List<EditableDocument> list = new ArrayList<>();
+      for (int i = 0; i < nTabs(); i++) {
+         list.add(edtDoc[i]);
+      }
+      return list;
+   }
+
+   //
+   // Selects the tab of the document with the specified file if the
+   // file is open and opens the file otherwise
+   private void show(File f) {
+      for (int i = 0; i < nTabs(); i++) {
+         if (edtDoc[i].hasFile() && edtDoc[i].file().equals(f)) {
+            tabPane.setSelectedIndex(i);
+            return;
          }
-         if (isTabOpenable()) {
-            createDocument(f);
+      }
+      open(f);
+   }
+
+   //
+   // Returns the document opened with the specified file or the
+   // unnamed blank document if the file is null. Null is returned if
+   // the document cannot be opened.
+   private EditableDocument documentForRecovery(File f) {
+      if (f == null) {
+         if (!isOnlyUnnamedBlank()) {
+            openBlankDocument();
          }
-      };
-      mw.busyFunction().execute(r);
+         boolean isBlank = iTab != -1
+               && !edtDoc[iTab].hasFile()
+               && !edtDoc[iTab].isChanged();
+
+         return isBlank ? edtDoc[iTab] : null;
+      }
+      if (!f.exists()) {
+         return null;
+      }
+      open(f);
+      for (int i = 0; i < nTabs(); i++) {
+         if (edtDoc[i].hasFile() && edtDoc[i].file().equals(f)) {
+            return edtDoc[i];
+         }
+      }
+      return null;
+   }
+
+   //
+   // Closes the tab of a document whose file content was not read
+   // completely
+   private void closeUnread(File f) {
+      for (int i = 0; i < nTabs(); i++) {
+         if (edtDoc[i].hasFile() && edtDoc[i].file().equals(f)) {
+            iTab = i;
+            close(true);
+            return;
+         }
+      }
    }
 
    private static boolean exists(File f) {
@@ -308,49 +454,212 @@ public class TabbedDocuments {
       format.createEditAreaAt(n);
       edtDoc[n] = new EditableDocument(editArea[n], lang);
       edtDoc[n].setEditingStateReadable(editState);
+      edtDoc[n].setFileWrittenConsumer(fileWritten);
       tabPane.addClosableTab(UNNAMED_LABEL, editArea[n].content());
    }
 
    private void createDocument(File f) {
       int n = nTabs();
       format.createEditAreaAt(n);
-      edtDoc[n] = new EditableDocument(editArea[n], f, lang);
+      if (f.length() >= viewerMinSize()) {
+         edtDoc[n] = new EditableDocument(editArea[n], f,
+               () -> closeUnread(f));
+      }
+      else {
+         edtDoc[n] = new EditableDocument(editArea[n], f, lang,
+               () -> closeUnread(f));
+      }
       edtDoc[n].setEditingStateReadable(editState);
+      edtDoc[n].setFileWrittenConsumer(fileWritten);
       tabPane.addClosableTab(edtDoc[n].filename(), editArea[n].content());
       proj.retrieve();
+      updateWatchedDirs();
    }
 
-   private boolean save(boolean setFile) {
-      if (edtDoc[iTab].hasFile() && edtDoc[iTab].file().exists()) {
-         return edtDoc[iTab].saveFile();
+   //
+   // Saves the selected document, or a copy if it has no file or a file
+   // that no more exists, and waits until the file is written. Used
+   // when the document is closed.
+   private boolean saveAndWait() {
+      if (!isSaveable()) {
+         return false;
+      }
+      EditableDocument d = edtDoc[iTab];
+      if (d.hasFile() && d.file().exists()) {
+         d.saveFile(e -> {});
+         return isSaved(d.awaitSaving());
       }
       else {
-         return saveAs(setFile);
+         return saveCopyAndWait();
       }
    }
 
-   private boolean saveAs(boolean setFile) {
-      File f = chSave.selectedFileToSave(displayFilename());
+   private boolean saveCopyAndWait() {
+      File f = fileToSaveAs();
       if (f == null) {
          return false;
       }
-      if (!replaceExistingFile(f)) {
-         return false;
+      EditableDocument d = edtDoc[iTab];
+      d.saveCopy(f, e -> {});
+      boolean b = isSaved(d.awaitSaving());
+      if (b) {
+         proj.updateFileTree(f.getParent());
       }
-      boolean b;
-      if (setFile) {
-         b = edtDoc[iTab].setFile(f);
-         if (b) {
-            changeFile();
+      return b;
+   }
+
+   //
+   // Updates the editing state and logs the exception that prevented
+   // writing a file. Returns true if the file was written.
+   private boolean isSaved(IOException e) {
+      updateEditingState();
+      if (e != null) {
+         FileUtils.log(e);
+      }
+      return e == null;
+   }
+
+   //
+   // Updates the editing state of the selected document since saving
+   // or reloading in the background may finish when another document
+   // is selected
+   private void updateEditingState() {
+      if (iTab > -1) {
+         edtDoc[iTab].readEditingState();
+      }
+   }
+
+   //
+   // Watches the directories of the open files and the directories
+   // shown in the file tree
+   private void updateWatchedDirs() {
+      Set<Path> dirs = new HashSet<>();
+      for (int i = 0; i < nTabs(); i++) {
+         if (edtDoc[i].hasFile()) {
+            dirs.add(edtDoc[i].file().getAbsoluteFile().toPath().getParent());
+         }
+      }
+      for (File d : fileTree.listedDirectories()) {
+         dirs.add(d.toPath());
+      }
+      watcher.watch(dirs);
+   }
+
+   //
+   // Updates the changed directories in the file tree and asks if the
+   // documents whose files were changed on disk are reloaded. Asking
+   // once applies to the documents without unsaved changes. For each
+   // document with unsaved changes, which are replaced by reloading,
+   // it is asked separately. Changes reported while asking are checked
+   // again when the answers are given.
+   private void filesChanged(Set<Path> dirs) {
+      dirs.forEach(d -> fileTree.updateDirectory(d.toFile()));
+      if (isAskingReload) {
+         isReloadCheckPending = true;
+         return;
+      }
+      List<EditableDocument> unchanged = new ArrayList<>();
+      List<EditableDocument> changed = new ArrayList<>();
+      StringBuilder details = new StringBuilder();
+      for (int i = 0; i < nTabs(); i++) {
+         if (edtDoc[i].isFileChangedOnDisk()) {
+            if (edtDoc[i].isChanged()) {
+               changed.add(edtDoc[i]);
+            }
+            else {
+               unchanged.add(edtDoc[i]);
+               details.append(edtDoc[i].filepath()).append("\n");
+            }
          }
       }
+      isAskingReload = true;
+      if (!unchanged.isEmpty()) {
+         int res = Dialogs.confirmYesNo(
+               "Files were changed by another program. Reload?",
+               details.toString());
+
+         for (EditableDocument d : unchanged) {
+            reloadOrIgnore(d, res == JOptionPane.YES_OPTION);
+         }
+      }
+      for (EditableDocument d : changed) {
+         int res = Dialogs.warnConfirmYesNo(
+               d.filepath()
+               + "\nwas changed by another program.\n"
+               + "Reload and replace the unsaved changes?");
+
+         reloadOrIgnore(d, res == JOptionPane.YES_OPTION);
+      }
+      isAskingReload = false;
+      if (isReloadCheckPending) {
+         isReloadCheckPending = false;
+         filesChanged(new HashSet<>());
+      }
+   }
+
+   private void reloadOrIgnore(EditableDocument d, boolean reload) {
+      if (reload) {
+         d.reloadFile(this::updateEditingState);
+      }
       else {
-         b = edtDoc[iTab].saveCopy(f);
+         d.ignoreFileChange();
       }
-      if (b) {
-         proj.updateFileTree(f.getParent());
+   }
+
+   //
+   // Saves the selected document, or a copy of it, in the background
+   // as a new file that is specified in the file chooser
+   private void saveAs(boolean setFile) {
+      File f = fileToSaveAs();
+      if (f == null) {
+         return;
+      }
+      EditableDocument d = edtDoc[iTab];
+      Consumer<IOException> done = e -> {
+         if (setFile) {
+            fileSet(d);
+         }
+         if (isSaved(e)) {
+            proj.updateFileTree(f.getParent());
+         }
+      };
+      if (setFile) {
+         d.setFile(f, done);
+      }
+      else {
+         d.saveCopy(f, done);
+      }
+   }
+
+   //
+   // Returns the file specified in the file chooser to save the
+   // selected document as; null if the document cannot be saved or
+   // no writeable file was chosen
+   private File fileToSaveAs() {
+      if (!isSaveable()) {
+         return null;
+      }
+      File f = chSave.selectedFileToSave(displayFilename());
+      if (f == null || !replaceExistingFile(f)
+            || !FileUtils.isWriteable(f)) {
+
+         return null;
+      }
+      return f;
+   }
+
+   private boolean isSaveable() {
+      return !edtDoc[iTab].isLoading() && !edtDoc[iTab].isReadOnly();
+   }
+
+   private long viewerMinSize() {
+      String s = prefs.property(Prefs.VIEWER_MIN_SIZE_KEY);
+      try {
+         return Long.parseLong(s) << 20;
+      }
+      catch (NumberFormatException e) {
+         return DEFAULT_VIEWER_MIN_SIZE << 20;
       }
-      return b;
    }
 
    private boolean replaceExistingFile(File f) {
@@ -380,57 +689,80 @@ public class TabbedDocuments {
       }
    }
 
+   //
+   // Asks for each document with unsaved changes or a deleted file
+   // if it is saved before any document is closed. Documents with an
+   // existing file are then saved concurrently. A document whose file
+   // could not be written stays open.
    private void closeAll(boolean openBlankDoc) {
       if (openBlankDoc && isOnlyUnnamedBlank()) {
          return;
       }
-      int iDeleted = iDeletedFile();
-      int iUnsaved = iUnsavedFile();
-      boolean b = iUnsaved == nTabs() && iDeleted == nTabs();
-      if (b) {
+      List<EditableDocument> toSave = new ArrayList<>();
+      for (int i = 0; i < nTabs(); i++) {
+         if (!canCloseWithAll(i, toSave)) {
+            return;
+         }
+      }
+      List<EditableDocument> notSaved = new ArrayList<>();
+      if (!toSave.isEmpty()) {
+         BulkSaving bs = new BulkSaving(toSave);
+         notSaved = bs.saveAndWait();
+         if (!notSaved.isEmpty()) {
+            Dialogs.errorMessage("Some files could not be saved and"
+                  + " remain open:\n" + bs.report(), null);
+         }
+      }
+      if (notSaved.isEmpty()) {
          int i = nTabs() - 1;
          while (i > -1) {
+            edtDoc[i].close();
             tabPane.removeTabAt(i);
             edtDoc[i] = null;
             editArea[i] = null;
             i--;
          }
+         updateWatchedDirs();
          if (openBlankDoc) {
             openBlankDocument();
          }
       }
       else {
-         if (iDeleted != nTabs()) {
-            b = canCloseDeletedFile(iDeleted);
-         }
-         else if (iUnsaved != nTabs()) {
-            b = canCloseUnsavedFile(iUnsaved);
-         }
-         if (b) {
-            removeTab();
-            closeAll(openBlankDoc);
+         for (int i = nTabs() - 1; i > -1; i--) {
+            if (!notSaved.contains(edtDoc[i])) {
+               iTab = i;
+               removeTab();
+            }
          }
       }
    }
 
-   private int iUnsavedFile() {
-      int i;
-      for (i = 0; i < nTabs(); i++) {
-         if (edtDoc[i].isChanged()) {
-            break;
-         }
+   //
+   // Returns false if closing is cancelled
+   private boolean canCloseWithAll(int i, List<EditableDocument> toSave) {
+      EditableDocument d = edtDoc[i];
+      if (d.hasFile() && !d.file().exists()) {
+         return canCloseDeletedFile(i);
       }
-      return i;
-   }
+      if (!d.isChanged()) {
+         return true;
+      }
+      if (!d.hasFile()) {
+         return canCloseUnsavedFile(i);
+      }
+      tabPane.setSelectedIndex(i);
+      int res = Dialogs.confirmYesNoCancel(
+            "Save changes in "
+            + displayFilename()
+            + "?");
 
-   private int iDeletedFile() {
-      int i;
-      for (i = 0; i < nTabs(); i++) {
-         if (edtDoc[i].hasFile() && !edtDoc[i].file().exists()) {
-            break;
-         }
+      if (JOptionPane.YES_OPTION == res) {
+         toSave.add(d);
+         return true;
+      }
+      else {
+         return JOptionPane.NO_OPTION == res;
       }
-      return i;
    }
 
    private boolean canCloseUnsavedFile(int i) {
@@ -442,7 +774,7 @@ public class TabbedDocuments {
 
       boolean b;
       if (JOptionPane.YES_OPTION == res) {
-         b = save(false);
+         b = saveAndWait();
       }
       else {
          b = JOptionPane.NO_OPTION == res;
@@ -455,7 +787,7 @@ public class TabbedDocuments {
       int res = saveDeletedRes();
       boolean b;
       if (JOptionPane.YES_OPTION == res) {
-         b = saveAs(false);
+         b = saveCopyAndWait();
       }
       else {
          b = JOptionPane.NO_OPTION == res;
@@ -471,6 +803,7 @@ public class TabbedDocuments {
    }
 
    private void removeTab() {
+      edtDoc[iTab].close();
       int count = iTab;
       tabPane.removeTabAt(iTab);
       for (int i = count; i < nTabs(); i++) {
@@ -484,6 +817,7 @@ public class TabbedDocuments {
          iTab = tabPane.getSelectedIndex();
          changedTabUpdate();
       }
+      updateWatchedDirs();
    }
 
    String displayFilename() {
@@ -499,10 +833,22 @@ public class TabbedDocuments {
       return tabPane.getTabCount();
    }
 
-   private void changeFile() {
-      changedFileUpdate(edtDoc[iTab]);
-      tabPane.setTitleAt(iTab, edtDoc[iTab].filename());
-      EventQueue.invokeLater(proj::retrieve);
+   //
+   // Updates the tab and, if the document is selected, the title when
+   // a new file was set in the specified document. Does nothing if
+   // the document was closed meanwhile.
+   private void fileSet(EditableDocument d) {
+      for (int i = 0; i < nTabs(); i++) {
+         if (edtDoc[i] == d) {
+            updateWatchedDirs();
+            tabPane.setTitleAt(i, d.filename());
+            if (i == iTab) {
+               changedFileUpdate(d);
+            }
+            EventQueue.invokeLater(proj::retrieve);
+            return;
+         }
+      }
    }
 
    private void changedTabUpdate() {
@@ -0,0 +1,102 @@
+package eg.document;
+
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * The saving of the files of several documents at once.
+ * <p>
+ * The text of each document is taken as snapshot when saving starts
+ * and the files are written concurrently by the fixed number of
+ * threads that write files in the background. The files that could
+ * not be written are collected in one report.
+ */
+public final class BulkSaving {
+
+   private final List<EditableDocument> docs;
+   private final StringBuilder report = new StringBuilder();
+
+   private int nPending = 0;
+
+   /**
+    * @param docs  the documents which have a file
+    */
+   public BulkSaving(List<EditableDocument> docs) {
+      this.docs = new ArrayList<>(docs);
+   }
+
+   /**
+    * Starts saving and returns. Must be called on the EDT.
+    *
+    * @param saved  the Runnable that is run on the EDT each time a
+    * file is written
+    * @param done  the Consumer that is invoked on the EDT when all
+    * files are written or failed and accepts the report which is
+    * empty if all files were written
+    */
+   public void start(Runnable saved, Consumer<String> done) {
+      nPending = docs.size();
+      if (nPending == 0) {
+         done.accept("");
+         return;
+      }
+      for (EditableDocument d : docs) {
+         d.saveFile(e -> {
+            if (e != null) {
+               addToReport(d, e);
+            }
+            else {
+               saved.run();
+            }
+            nPending--;
+            if (nPending == 0) {
+               done.accept(report.toString());
+            }
+         });
+      }
+   }
+
+   /**
+    * Saves and returns when all files are written or failed. Must be
+    * called on the EDT.
+    *
+    * @return  the documents whose files could not be written
+    */
+   public List<EditableDocument> saveAndWait() {
+      for (EditableDocument d : docs) {
+         d.saveFile(e -> {});
+      }
+      List<EditableDocument> notSaved = new ArrayList<>();
+      for (EditableDocument d : docs) {
+         IOException e = d.awaitSaving();
+         if (e != null) {
+            addToReport(d, e);
+            notSaved.add(d);
+         }
+      }
+      return notSaved;
+   }
+
+   /**
+    * Returns the report of the files that could not be written
+    *
+    * @return  the report which has a line for each file; the empty
+    * string if all files were written
+    */
+   public String report() {
+      return report.toString();
+   }
+
+   //
+   //--private--/
+   //
+
+   private void addToReport(EditableDocument d, IOException e) {
+      report.append(d.filename()).append(": ")
+            .append(e.toString())
+            .append('\n');
+   }
+}
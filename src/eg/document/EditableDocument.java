@@ -2,24 +2,29 @@ package eg.document;
 
 import javax.swing.JTextPane;
 
+import javax.swing.text.StyledDocument;
+
 import java.io.File;
 import java.io.BufferedReader;
 import java.io.InputStreamReader;
 import java.io.FileInputStream;
-import java.io.BufferedWriter;
-import java.io.FileOutputStream;
-import java.io.OutputStreamWriter;
+import java.io.InputStream;
 import java.io.IOException;
-import java.nio.charset.StandardCharsets;
+
+import java.util.function.Consumer;
 
 //--Eadgyth--/
 import eg.Languages;
+import eg.utils.Dialogs;
 import eg.utils.FileUtils;
+import eg.utils.SystemParams;
 import eg.ui.EditArea;
 import eg.syntax.SyntaxHighlighter;
 import eg.syntax.Highlighter;
+import eg.document.styledtext.EditSpans;
 import eg.document.styledtext.EditableText;
 import eg.document.styledtext.PrintableText;
+import eg.document.styledtext.PieceTable.Snapshot;
 
 /**
  * Represents the editable document with a language and possibly a
@@ -27,6 +32,8 @@ import eg.document.styledtext.PrintableText;
  */
 public final class EditableDocument {
 
+   private static final int JOURNAL_WRITING_TIMEOUT = 5000;
+
    private final EditorUpdating update;
    private final EditableText txt;
    private final UndoEditing undo;
@@ -37,20 +44,59 @@ public final class EditableDocument {
    private String filename = "";
    private String filepath = "";
    private String fileParent = "";
-
-   /**
-    * Creates an <code>EditableDocument</code> with the specified file
+   private FileLoading loading = null;
+   private FileSaving saving = null;
+   private Consumer<IOException> savingDone = null;
+   private FileReloading reloading = null;
+   private long fileModified = 0;
+   private long fileLength = -1;
+   private FileFormat format = FileFormat.DEFAULT;
+   private FileViewer viewer = null;
+   private RecoveryJournal recovery = null;
+   private RecoveredEdits pendingRecovery = null;
+   private Runnable whenLoaded = null;
+   private Consumer<File> fileWritten = null;
+
+   /**
+    * Creates an <code>EditableDocument</code> with the specified file.
+    * The content of the file is read outside the EDT while the edit
+    * area shows the progress and can be edited when reading is
+    * complete.
     *
     * @param editArea  the {@link EditArea}
-    * @param prevLang  the language set previously
     * @param f  the file
+    * @param prevLang  the language set previously
+    * @param cancelled  the Runnable that is run if reading is
+    * cancelled in the edit area or fails
     */
-   public EditableDocument(EditArea editArea, File f, Languages prevLang) {
+   public EditableDocument(EditArea editArea, File f, Languages prevLang,
+         Runnable cancelled) {
+
       this(editArea);
       currLang.setLanguage(prevLang);
       setFileParams(f);
       setEditingMode(f);
-      update.editText(() -> displayFileContentImpl(f), EditorUpdating.ALL_TEXT);
+      loadFileContent(editArea, f, cancelled);
+   }
+
+   /**
+    * Creates an <code>EditableDocument</code> that shows the specified
+    * file in a read-only {@link FileViewer}. Meant for a file that is
+    * too large to be edited.
+    *
+    * @param editArea  the {@link EditArea}
+    * @param f  the file
+    * @param failed  the Runnable that is run if the file cannot be
+    * mapped
+    */
+   public EditableDocument(EditArea editArea, File f, Runnable failed) {
+      this(editArea);
+      currLang.setLanguage(Languages.NORMAL_TEXT);
+      setFileParams(f);
+      setEditingMode();
+      update.disableUpdating(true);
+      txt.textArea().setEditable(false);
+      viewer = new FileViewer(editArea, f, failed);
    }
 
    /**
@@ -64,6 +110,7 @@ public final class EditableDocument {
       this(editArea);
       currLang.setLanguage(lang);
       setEditingMode();
+      enableRecovery();
    }
 
    /**
@@ -73,6 +120,19 @@ public final class EditableDocument {
     */
    public void setEditingStateReadable(EditingStateReadable esr) {
       update.setEditingStateReadable(esr);
+      if (viewer != null) {
+         viewer.setEditingStateReadable(esr);
+      }
+   }
+
+   /**
+    * Sets the <code>Consumer</code> that is notified when the text
+    * was written to a file
+    *
+    * @param fileWritten  the Consumer that accepts the written file
+    */
+   public void setFileWrittenConsumer(Consumer<File> fileWritten) {
+      this.fileWritten = fileWritten;
    }
 
    /**
@@ -101,6 +161,111 @@ public final class EditableDocument {
     */
    public void readEditingState() {
       update.readEditingState();
+      if (viewer != null) {
+         viewer.readCursorState();
+      }
+   }
+
+   /**
+    * Returns if the content of the file is being read
+    *
+    * @return  true if being read; false otherwise
+    */
+   public boolean isLoading() {
+      return loading != null;
+   }
+
+   /**
+    * Runs the specified <code>Runnable</code> when the content of the
+    * file is read completely or right away if the content is not
+    * being read. The <code>Runnable</code> is not run if reading
+    * fails or is cancelled. A <code>Runnable</code> set before
+    * reading is complete is replaced.
+    *
+    * @param r  the Runnable
+    */
+   public void whenLoaded(Runnable r) {
+      if (isLoading()) {
+         whenLoaded = r;
+      }
+      else {
+         r.run();
+      }
+   }
+
+   /**
+    * Returns if the file is shown in a read-only viewer
+    *
+    * @return  true if shown in a viewer; false otherwise
+    */
+   public boolean isReadOnly() {
+      return viewer != null;
+   }
+
+   /**
+    * Cancels reading the content of the file and closes the viewer
+    * if the file is shown in a read-only viewer. Does nothing if the
+    * content is not being read and not shown in a viewer.
+    */
+   public void cancelLoading() {
+      if (loading != null) {
+         loading.cancel();
+         loading = null;
+      }
+      reloading = null;
+      if (viewer != null) {
+         viewer.close();
+      }
+   }
+
+   /**
+    * Waits until the journals of the closed documents are written and
+    * the journals of unsaved changes are deleted but at most for five
+    * seconds. Meant to be called after all documents were closed and
+    * before the application exits.
+    */
+   public static void awaitJournalWriting() {
+      long deadline = System.currentTimeMillis() + JOURNAL_WRITING_TIMEOUT;
+      UndoJournal.awaitWriting(JOURNAL_WRITING_TIMEOUT);
+      RecoveryJournal.awaitWriting(
+            Math.max(0, deadline - System.currentTimeMillis()));
+   }
+
+   /**
+    * Cancels reading the content of the file, closes the viewer,
+    * writes the journal of undoable edits if one is kept and deletes
+    * the journal of unsaved changes. Meant to be called when the
+    * document is closed.
+    */
+   public void close() {
+      awaitSaving();
+      cancelLoading();
+      undo.closeJournal();
+      if (recovery != null) {
+         recovery.discard();
+      }
+   }
+
+   /**
+    * Applies the specified unsaved changes that were recovered from
+    * an earlier session to the text. The changes are applied when
+    * the content of the file is read completely if it is being read.
+    * The changes are discarded if the document is read-only and are
+    * discarded with a warning if the text is not the text that the
+    * changes refer to.
+    *
+    * @param re  the {@link RecoveredEdits}
+    */
+   public void recover(RecoveredEdits re) {
+      if (isReadOnly()) {
+         re.discard();
+      }
+      else if (isLoading()) {
+         pendingRecovery = re;
+      }
+      else {
+         recoverImpl(re);
+      }
    }
 
    /**
@@ -161,44 +326,138 @@ public final class EditableDocument {
     }
 
    /**
-    * Saves the text content to this file
+    * Saves the text content to this file in the background. The
+    * changed state is reset when the file is written unless the text
+    * was edited meanwhile.
     *
-    * @return  true if the text content could be saved; false
-    * otherwise
+    * @param done  the Consumer that is invoked on the EDT when saving
+    * is finished and accepts the exception that prevented writing the
+    * file or null if the file was written
     */
-   public boolean saveFile() {
+   public void saveFile(Consumer<IOException> done) {
       checkFileForNull();
-      boolean isWritten = writeToFile(file);
-      if (isWritten) {
-         update.resetChangedState();
+      startSaving(file, done);
+   }
+
+   /**
+    * Waits until saving in the background is finished. The Consumer
+    * given to the method that started saving is invoked before this
+    * method returns. Meant to be used when the document or the
+    * application is closed.
+    *
+    * @return  the exception that prevented writing the file; null if
+    * the file was written or is not being saved
+    */
+   public IOException awaitSaving() {
+      if (saving == null) {
+         return null;
       }
-      return isWritten;
+      FileSaving fs = saving;
+      fs.await();
+      finishSaving();
+      return fs.error();
+   }
+
+   /**
+    * Returns if the file was changed on disk since its content was
+    * read or since it was last written by this document. False if the
+    * file does not exist, is shown in a read-only viewer or if the
+    * content is being read or saved.
+    *
+    * @return  true if changed; false otherwise
+    */
+   public boolean isFileChangedOnDisk() {
+      if (file == null || isLoading() || isReadOnly() || saving != null
+            || reloading != null || !file.exists()) {
+
+         return false;
+      }
+      return file.lastModified() != fileModified
+            || file.length() != fileLength;
+   }
+
+   /**
+    * Takes the current state of the file on disk as the state in which
+    * the file was read so that a change is not reported again by
+    * {@link #isFileChangedOnDisk}
+    */
+   public void ignoreFileChange() {
+      checkFileForNull();
+      recordFileState();
+   }
+
+   /**
+    * Reads the content of the file again in the background and
+    * applies the difference to the text as one undoable edit. Only
+    * the changed lines are replaced so that the caret keeps its place
+    * in the unchanged text and syntax highlighting is updated only in
+    * the changed lines. The text is in the unchanged state afterwards.
+    * Does nothing if the content is being read or the document is
+    * read-only.
+    *
+    * @param done  the Runnable that is run on the EDT when the
+    * content was applied
+    */
+   public void reloadFile(Runnable done) {
+      checkFileForNull();
+      if (isLoading() || isReadOnly() || reloading != null) {
+         return;
+      }
+      awaitSaving();
+      recordFileState();
+      FileReloading fr = new FileReloading(file, txt.content().snapshot());
+      reloading = fr;
+      fr.start(() -> {
+         if (reloading != fr) {
+            return;
+         }
+         reloading = null;
+         if (fr.error() != null) {
+            FileUtils.log(fr.error());
+         }
+         else if (txt.content().isChangedSince(fr.text())) {
+            reloadFile(done);
+         }
+         else {
+            applyReload(fr);
+            done.run();
+         }
+      });
    }
 
    /**
     * Sets the specified file and saves the text content to the file
+    * in the background
     *
     * @param f  the file
-    * @return  true if the text content could be saved; false otherwise
+    * @param done  the Consumer that is invoked on the EDT when saving
+    * is finished and accepts the exception that prevented writing the
+    * file or null if the file was written
     */
-   public boolean setFile(File f) {
+   public void setFile(File f, Consumer<IOException> done) {
       setFileParams(f);
       setEditingMode(f);
+      enableUndoJournal(f);
+      if (recovery != null) {
+         recovery.setFile(f);
+      }
       update.editText(() -> {}, EditorUpdating.ALL_TEXT);
-      update.resetChangedState();
-      return writeToFile(f);
+      startSaving(f, done);
    }
 
    /**
-    * Saves the text content to the specified file but does not
-    * set the file in this <code>EditableDocument</code>
+    * Saves the text content to the specified file in the background
+    * but does not set the file in this <code>EditableDocument</code>.
+    * The file is written in the format of this file but a change of
+    * the format that is needed to write the copy is not taken over.
     *
     * @param f  the file
-    * @return  true if the text content could be saved, false
-    * otherwise
+    * @param done  the Consumer that is invoked on the EDT when saving
+    * is finished and accepts the exception that prevented writing the
+    * file or null if the file was written
     */
-   public boolean saveCopy(File f) {
-      return writeToFile(f);
+   public void saveCopy(File f, Consumer<IOException> done) {
+      startSaving(f, done);
    }
 
    /**
@@ -231,13 +490,35 @@ public final class EditableDocument {
       return txt.text();
    }
 
+   /**
+    * Returns a snapshot of the document text which, unlike
+    * {@link #text()}, does not copy the text
+    *
+    * @return  the {@link Snapshot}
+    */
+   public Snapshot snapshot() {
+      return txt.content().snapshot();
+   }
+
+   /**
+    * Returns if the document text was changed after the specified
+    * snapshot was taken
+    *
+    * @param snapshot  the snapshot taken by {@link #snapshot()}
+    * @return  true if changed or if the snapshot was taken of another
+    * document; false otherwise
+    */
+   public boolean isChangedSince(Snapshot snapshot) {
+      return txt.content().isChangedSince(snapshot);
+   }
+
    /**
     * Returns the length of the document text
     *
     * @return  the length
     */
    public int textLength() {
-      return txt.text().length();
+      return txt.content().length();
    }
 
    /**
@@ -380,6 +661,24 @@ public final class EditableDocument {
       update.editText(tc, EditorUpdating.INSERT);
    }
 
+   /**
+    * Replaces the sections of text in the specified spans in one
+    * change of the document. The replacements are merged into one
+    * undoable edit and syntax highlighting is updated once in the
+    * lines that contain the range of all replacements.
+    *
+    * @param spans  the {@link EditSpans} whose positions refer to the
+    * current text
+    */
+   public void replace(EditSpans spans) {
+      TextChange tc = () -> {
+         undo.disableBreakpointAdding(true);
+         txt.replace(spans);
+         undo.disableBreakpointAdding(false);
+      };
+      update.editText(tc, EditorUpdating.RANGE);
+   }
+
    /**
     * Undoes edits
     */
@@ -418,28 +717,114 @@ public final class EditableDocument {
       LineNumbers lineNum = new LineNumbers(editArea.lineNrArea());
       indent = new Indentation(txt);
       update = new EditorUpdating(txt, undo, lineNum, indent);
+      editArea.addViewportChangeListener(e -> update.updateView());
       editArea.textArea().addPropertyChangeListener("font", e ->
          txt.setTabLength(indent.indentUnit().length())
       );
    }
 
    private void setFileParams(File f) {
+      reloading = null; // a pending reload is for the previous file
       file = f;
       filename = f.getName();
       filepath = f.getPath();
       fileParent = f.getParent();
    }
 
+   private void loadFileContent(EditArea editArea, File f,
+         Runnable cancelled) {
+
+      update.disableUpdating(true);
+      txt.textArea().setEditable(false);
+      StyledDocument loadedDoc = txt.createDocument();
+      FileLoading fl = new FileLoading(f, loadedDoc);
+      recordFileState();
+      loading = fl;
+      editArea.showProgress("Reading " + f.getName(), e -> {
+         cancelLoading();
+         editArea.hideTopBar();
+         cancelled.run();
+      });
+      Runnable done = () -> {
+         loading = null;
+         format = fl.format();
+         editArea.hideTopBar();
+         txt.textArea().setEditable(true);
+         update.editText(() -> {
+            txt.setDocument(loadedDoc);
+            update.disableUpdating(false);
+         }, EditorUpdating.ALL_TEXT);
+         update.resetChangedState();
+         enableUndoJournal(f);
+         enableRecovery();
+         if (pendingRecovery != null) {
+            recoverImpl(pendingRecovery);
+            pendingRecovery = null;
+         }
+         if (whenLoaded != null) {
+            whenLoaded.run();
+            whenLoaded = null;
+         }
+      };
+      Runnable failed = () -> {
+         loading = null;
+         whenLoaded = null;
+         if (pendingRecovery != null) {
+            pendingRecovery.discard();
+            pendingRecovery = null;
+         }
+         editArea.hideTopBar();
+         cancelled.run();
+      };
+      fl.start(editArea::setProgress, done, failed);
+   }
+
+   private void enableUndoJournal(File f) {
+      undo.enableJournal(f, () -> {
+         if (txt.textArea().isShowing()) {
+            update.readEditingState();
+         }
+      });
+   }
+
+   private void enableRecovery() {
+      if (SystemParams.existsEadgythDataDir()) {
+         recovery = new RecoveryJournal(file, txt.content());
+         update.setRecoveryJournal(recovery);
+      }
+   }
+
+   //
+   // Applies the recovered changes as one undoable edit. The
+   // recovered journal is deleted since the changes are recorded
+   // again by the journal of this document.
+   private void recoverImpl(RecoveredEdits re) {
+      re.discard();
+      if (!re.isBase(txt.text())) {
+         Dialogs.warnMessage(
+               "The unsaved changes to "
+               + (file != null ? filename : "an unnamed document")
+               + " cannot be recovered because the file was changed.");
+         return;
+      }
+      replace(re.spans());
+   }
+
    private void displayFileContentImpl(File f) {
       update.disableUpdating(true);
       readFileContent(f);
       update.disableUpdating(false);
    }
 
+   //
+   // Reads the content in the detected format which is not kept since
+   // no file is set
    private void readFileContent(File f) {
-      try (BufferedReader br = new BufferedReader(
-         new InputStreamReader(
-            new FileInputStream(f), StandardCharsets.UTF_8))) {
+      try (InputStream in = new FileInputStream(f)) {
+         FileFormat ff = FileFormat.detect(f);
+         in.skip(ff.bom().length);
+         BufferedReader br = new BufferedReader(
+               new InputStreamReader(in, ff.charset()));
 
          StringBuilder sb = new StringBuilder();
          String line;
@@ -461,25 +846,88 @@ public final class EditableDocument {
       update.setEditingMode(currLang);
    }
 
-   private boolean writeToFile(File f) {
-      if (!FileUtils.isWriteable(f)) {
-         return false;
+   private void startSaving(File f, Consumer<IOException> done) {
+      awaitSaving();
+      FileSaving fs = new FileSaving(f, txt.content().snapshot(), format);
+      saving = fs;
+      savingDone = done;
+      fs.start(e -> {
+         if (saving == fs) {
+            finishSaving();
+         }
+      });
+   }
+
+   //
+   // Takes over the format in which this file was written and reports
+   // if the charset had to be changed
+   private void changeFormat(FileSaving fs) {
+      FileFormat written = fs.format();
+      if (!written.charset().equals(format.charset())) {
+         Dialogs.infoMessage(
+               fs.file().getName()
+               + " was saved as " + written.charset()
+               + " because it contains characters that cannot be saved as "
+               + format.charset() + ".",
+               null);
       }
-      try (BufferedWriter writer = new BufferedWriter(
-         new OutputStreamWriter(
-            new FileOutputStream(f), StandardCharsets.UTF_8))) {
+      if (fs.file().equals(file)) {
+         format = written;
+      }
+   }
 
-         String text = txt.text();
-         String normalized = text
-               .replaceAll("\r\n|\r", "\n")
-               .replace("\n", System.lineSeparator());
+   //
+   // Applies the result of saving in the background and passes it to
+   // the Consumer given when saving started
+   private void finishSaving() {
+      FileSaving fs = saving;
+      Consumer<IOException> done = savingDone;
+      saving = null;
+      savingDone = null;
+      if (fs.error() == null) {
+         changeFormat(fs);
+         if (fs.file().equals(file)) {
+            recordFileState();
+            if (!txt.content().isChangedSince(fs.text())) {
+               update.resetChangedState(fs.textHash());
+            }
+         }
+         if (fileWritten != null) {
+            fileWritten.accept(fs.file());
+         }
+      }
+      done.accept(fs.error());
+   }
 
-         writer.write(normalized);
-         return true;
-      } catch (IOException e) {
-         FileUtils.log(e);
+   private void recordFileState() {
+      fileModified = file.lastModified();
+      fileLength = file.length();
+   }
+
+   //
+   // Replaces the changed lines and moves the caret by the change of
+   // the text before it. A caret within a replaced section stays at
+   // the same offset from its start if possible.
+   private void applyReload(FileReloading fr) {
+      EditSpans spans = fr.spans();
+      format = fr.format();
+      if (spans.size() > 0) {
+         int caret = txt.textArea().getCaretPosition();
+         int newCaret = caret;
+         for (int i = 0; i < spans.size() && spans.start(i) < caret; i++) {
+            int start = spans.start(i);
+            int length = spans.text(i).length();
+            if (spans.end(i) <= caret) {
+               newCaret += length - (spans.end(i) - start);
+            }
+            else {
+               newCaret += start - caret + Math.min(caret - start, length);
+            }
+         }
+         replace(spans);
+         txt.textArea().setCaretPosition(Math.min(newCaret, textLength()));
       }
-      return false;
+      update.resetChangedState();
    }
 
    private void checkFileForNull() {
@@ -9,9 +9,10 @@ import javax.swing.event.CaretEvent;
 
 //--Eadgyth--/
 import eg.Languages;
-import eg.utils.LinesFinder;
+import eg.Prefs;
 import eg.syntax.*;
 import eg.document.styledtext.EditableText;
+import eg.document.styledtext.PieceTable;
 
 /**
  * The updating of the editor during changing the text
@@ -25,23 +26,35 @@ public class EditorUpdating {
     * Value for syntax highlighting after a possibly multiline
     * insertion or replacement */
    public static final int INSERT = 1;
+   /**
+    * Value for syntax highlighting of the lines that contain the range
+    * of several changes which is completed outside the range */
+   public static final int RANGE = 2;
    /**
     * Value for omitting syntax highlighting */
    public static final int OMIT = 3;
 
+   private static final int DEFAULT_LAZY_HIGHLIGHT_MIN_LENGTH = 1000000;
+   private static final int LAZY_HIGHLIGHT_MIN_LENGTH = lazyHighlightMinLength();
+
    private final EditableText txt;
    private final LineNumbers lineNum;
    private final SyntaxHighlighter syntax;
+   private final BackgroundHighlighter bgSyntax;
    private final Indentation indent;
    private final UndoEditing undo;
 
+   private RecoveryJournal recovery = null;
    private boolean isUpdate = true;
    private boolean isTypedEdit = true;
    private boolean isCodeEditing = false;
    private boolean isUndoRedo = false;
+   private boolean isRangeEdit = false;
 
    private boolean isInsert;
    private int chgPos = 0;
+   private int undoRedoStart = -1;
+   private int undoRedoEnd = -1;
    private String change = "";
 
    private EditingStateReadable esr;
@@ -64,6 +77,8 @@ public class EditorUpdating {
       this.lineNum = lineNum;
       this.indent = indent;
       syntax = new SyntaxHighlighter(txt);
+      bgSyntax = new BackgroundHighlighter(txt, syntax,
+            LAZY_HIGHLIGHT_MIN_LENGTH);
       txt.addDocumentListener(docListener);
       txt.textArea().addCaretListener(caretListener);
    }
@@ -81,6 +96,16 @@ public class EditorUpdating {
       this.esr = esr;
    }
 
+   /**
+    * Sets the <code>RecoveryJournal</code> that records the changes
+    * to the text
+    *
+    * @param recovery  the RecoveryJournal
+    */
+   void setRecoveryJournal(RecoveryJournal recovery) {
+      this.recovery = recovery;
+   }
+
    /**
     * Disables or re-enables the updating provided that no editing
     * has happened before. Disabled updating is intended for loading
@@ -89,13 +114,14 @@ public class EditorUpdating {
     * @param b  true to disable; false to enable
     */
    public void disableUpdating(boolean b) {
-      if (undo.canUndo() || undo.canRedo() || !txt.text().isEmpty()) {
+      if (undo.canUndo() || undo.canRedo() || txt.content().length() > 0) {
          throw new IllegalStateException(
                "Cannot disable updating because the document has been "
                + " already edited.");
       }
       isUpdate = !b;
       if (!b) {
+         txt.updateTextCopy();
          updateText();
          txt.textArea().setCaretPosition(0);
       }
@@ -113,9 +139,10 @@ public class EditorUpdating {
    public void setEditingMode(CurrentLanguage cl) {
       boolean isNormalText = cl.lang() == Languages.NORMAL_TEXT;
       if (isCodeEditing && isNormalText) {
-         txt.resetAttributes(0, txt.text().length());
+         txt.resetAttributes(0, txt.content().length());
       }
       syntax.setHighlighter(cl.createHighlighter());
+      bgSyntax.setHighlighter(isNormalText ? null : cl::createHighlighter);
       indent.enableCurlyBracketMode(cl.curlyBracketMode());
       isCodeEditing = !isNormalText;
    }
@@ -123,20 +150,27 @@ public class EditorUpdating {
    /**
     * Makes the specified <code>TextChange</code> and updates
     * (or omits) syntax highlighting if source code editing is
-    * enabled
+    * enabled. Highlighting of the entire text is done in the
+    * background.
     *
     * @param tc  the TextChange which may be empty to only
     * update syntax highlighting
     * @param editValue  the value that indicates the type of
     * syntax highlighting required: {@link #ALL_TEXT},
-    * {@link #INSERT} or {@link #OMIT}.
+    * {@link #INSERT}, {@link #RANGE} or {@link #OMIT}.
     */
    public void editText(TextChange tc, int editValue) {
       isTypedEdit = false;
+      isRangeEdit = editValue == EditorUpdating.RANGE;
+      undoRedoStart = -1;
       tc.edit();
+      isRangeEdit = false;
       if (isCodeEditing && editValue != EditorUpdating.OMIT) {
-         if (editValue == EditorUpdating.ALL_TEXT && !txt.text().isEmpty()) {
-            syntax.highlight();
+         if (editValue == EditorUpdating.ALL_TEXT && txt.content().length() > 0) {
+            bgSyntax.highlight();
+         }
+         else if (editValue == EditorUpdating.RANGE && undoRedoStart != -1) {
+            highlightUndoRedo();
          }
          else if (editValue == EditorUpdating.INSERT && isInsert) {
             syntax.highlight(change, chgPos);
@@ -145,33 +179,34 @@ public class EditorUpdating {
       isTypedEdit = true;
    }
 
+   /**
+    * Updates syntax highlighting after the visible part of the
+    * text changed if source code editing is enabled. Only needed
+    * for a text that is highlighted lazily.
+    */
+   public void updateView() {
+      if (isCodeEditing) {
+         bgSyntax.updateVisible();
+      }
+   }
+
    /**
     * Makes the specified <code>TextChange</code> that undoes or
     * redoes edits and updates the undoable/redoable/changed state
     * as well as syntax highlighting if source code editing is
-    * enabled
+    * enabled. Syntax highlighting is updated once in the lines that
+    * contain the range of all changes.
     *
     * @param undoRedo  the TextChange
     */
    public void updateUndoRedo(TextChange undoRedo) {
       isUndoRedo = true;
+      undoRedoStart = -1;
       undoRedo.edit();
       updateUndoableState();
       updateChangedState();
-      if (isCodeEditing) {
-         if (isInsert) {
-            //
-            // compromise; defined quite arbitrarily
-            if (txt.text().length() > 90000) {
-               EventQueue.invokeLater(syntax::highlight);
-            }
-            else {
-               syntax.highlight();
-            }
-         }
-         else {
-            syntax.highlight(chgPos, false);
-         }
+      if (isCodeEditing && undoRedoStart != -1) {
+         highlightUndoRedo();
       }
       isUndoRedo = false;
    }
@@ -182,8 +217,23 @@ public class EditorUpdating {
     * {@link EditingStateReadable#updateChangedState}
     */
    public void resetChangedState() {
+      resetChangedState(UndoJournal.hash(txt.content()));
+   }
+
+   /**
+    * Resets the state which indicates that the text has been changed
+    * and marks a saving point for the text with the specified hash
+    * which is the current text
+    *
+    * @param textHash  the hash of the text (see
+    * {@link UndoJournal#hash(CharSequence)})
+    */
+   void resetChangedState(long textHash) {
       changedState = false;
-      undo.markSavingPoint();
+      undo.markSavingPoint(textHash);
+      if (recovery != null) {
+         recovery.rebase(textHash);
+      }
       esr.updateChangedState(changedState);
    }
 
@@ -213,12 +263,70 @@ public class EditorUpdating {
    //--private--/
    //
 
+   private static int lazyHighlightMinLength() {
+      String s = new Prefs().property(Prefs.LAZY_HIGHLIGHT_KEY);
+      try {
+         return Integer.parseInt(s);
+      }
+      catch (NumberFormatException e) {
+         return DEFAULT_LAZY_HIGHLIGHT_MIN_LENGTH;
+      }
+   }
+
    private void updateText() {
-      txt.updateTextCopy();
-      lineNum.updateLineNumber(txt.text());
+      lineNum.updateLineNumber(txt.lines().lineCount());
       updateChangedState();
    }
 
+   private void highlightSection(int pos, boolean isNewline) {
+      syntax.highlight(pos, isNewline);
+   }
+
+   //
+   // Extends the range of the changes made by undoing or redoing or
+   // by an edit with the RANGE value by a change at pos. The range
+   // refers to the text after the change.
+   private void addUndoRedoChange(int pos, int length) {
+      if (undoRedoStart == -1) {
+         undoRedoStart = pos;
+         undoRedoEnd = pos;
+      }
+      if (isInsert) {
+         if (undoRedoStart > pos) {
+            undoRedoStart += length;
+         }
+         if (undoRedoEnd >= pos) {
+            undoRedoEnd += length;
+         }
+         undoRedoEnd = Math.max(undoRedoEnd, pos + length);
+      }
+      else {
+         if (undoRedoStart > pos) {
+            undoRedoStart = Math.max(pos, undoRedoStart - length);
+         }
+         if (undoRedoEnd > pos) {
+            undoRedoEnd = Math.max(pos, undoRedoEnd - length);
+         }
+      }
+      undoRedoStart = Math.min(undoRedoStart, pos);
+   }
+
+   //
+   // Highlights the lines that contain the range of the changes made
+   // by undoing or redoing or by a RANGE edit and completes the
+   // highlighting outside these lines or, if the range covers more
+   // than half of the text, starts a pass of BackgroundHighlighter
+   private void highlightUndoRedo() {
+      PieceTable content = txt.content();
+      if (undoRedoEnd - undoRedoStart > content.length() / 2) {
+         bgSyntax.highlight();
+      }
+      else {
+         String change = content.subSequence(undoRedoStart, undoRedoEnd);
+         syntax.highlightAndComplete(change, undoRedoStart);
+      }
+   }
+
    private void updateChangedState() {
       if (esr == null) {
          return;
@@ -254,11 +362,11 @@ public class EditorUpdating {
    }
 
    private void updateCursorState(int dot) {
-      if (esr == null) {
+      if (esr == null || !isUpdate) {
          return;
       }
-      int lastNewLine = LinesFinder.lastNewline(txt.text(), dot);
-      lineNr = LinesFinder.lineNrAtPos(txt.text(), dot);
+      int lastNewLine = txt.lines().lastNewline(dot);
+      lineNr = txt.lines().lineNrAtPos(dot);
       if (lastNewLine == -1) {
          colNr = dot + 1;
       }
@@ -292,9 +400,16 @@ public class EditorUpdating {
             return;
          }
          isInsert = true;
+         bgSyntax.update();
          chgPos = de.getOffset();
+         change = txt.updateInsert(chgPos, de.getLength());
+         if (recovery != null) {
+            recovery.insert(chgPos, change);
+         }
+         if (isUndoRedo || isRangeEdit) {
+            addUndoRedoChange(chgPos, de.getLength());
+         }
          updateText();
-         change = txt.text().substring(chgPos, chgPos + de.getLength());
          if (!isCodeEditing) {
             EventQueue.invokeLater(
                   () -> txt.resetAttributes(chgPos, change.length()));
@@ -304,7 +419,7 @@ public class EditorUpdating {
             updateUndoableState();
             if (isTypedEdit && isCodeEditing) {
                boolean isNewline = change.equals("\n");
-               EventQueue.invokeLater(() -> syntax.highlight(chgPos, isNewline));
+               EventQueue.invokeLater(() -> highlightSection(chgPos, isNewline));
                EventQueue.invokeLater(() -> indent.adjustIndent(chgPos));
             }
          }
@@ -316,14 +431,21 @@ public class EditorUpdating {
             return;
          }
          isInsert = false;
+         bgSyntax.update();
          chgPos = de.getOffset();
-         change = txt.text().substring(chgPos, chgPos + de.getLength());
+         change = txt.updateRemove(chgPos, de.getLength());
+         if (recovery != null) {
+            recovery.remove(chgPos, change.length());
+         }
+         if (isUndoRedo || isRangeEdit) {
+            addUndoRedoChange(chgPos, de.getLength());
+         }
          updateText();
          if (!isUndoRedo) {
             undo.addEdit(change, chgPos, isInsert);
             updateUndoableState();
             if (isTypedEdit && isCodeEditing) {
-               EventQueue.invokeLater(() -> syntax.highlight(chgPos, false));
+               EventQueue.invokeLater(() -> highlightSection(chgPos, false));
             }
          }
       }
@@ -0,0 +1,256 @@
+package eg.document;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The character encoding, the byte order mark (BOM) and the line
+ * separator of a file and if the file ends with a line separator.
+ * <p>
+ * The format is detected from the first 8 KB of a file. A BOM selects
+ * UTF-8, UTF-16BE or UTF-16LE. Otherwise the file is UTF-8 if these
+ * bytes are valid UTF-8 and ISO-8859-1 (Latin-1) if not. The line
+ * separator is the one that occurs most often in these bytes or the
+ * separator of the system if none occurs. A file is written back in
+ * the format in which it was read so that bytes do not change where
+ * the text was not edited.
+ */
+final class FileFormat {
+
+   /**
+    * The format of a new file: UTF-8 without BOM, the line separator
+    * of the system and a final line separator */
+   static final FileFormat DEFAULT = new FileFormat(StandardCharsets.UTF_8,
+         new byte[0], System.lineSeparator(), true);
+
+   static final int SAMPLE_LENGTH = 8192;
+
+   private static final byte[] UTF_8_BOM
+         = {(byte) 0xef, (byte) 0xbb, (byte) 0xbf};
+
+   private static final byte[] UTF_16BE_BOM = {(byte) 0xfe, (byte) 0xff};
+   private static final byte[] UTF_16LE_BOM = {(byte) 0xff, (byte) 0xfe};
+
+   private final Charset charset;
+   private final byte[] bom;
+   private final String lineSep;
+   private final boolean isFinalLineSep;
+
+   private FileFormat(Charset charset, byte[] bom, String lineSep,
+         boolean isFinalLineSep) {
+
+      this.charset = charset;
+      this.bom = bom;
+      this.lineSep = lineSep;
+      this.isFinalLineSep = isFinalLineSep;
+   }
+
+   /**
+    * Detects the format of the specified file from its first bytes.
+    * The returned format has a final line separator.
+    *
+    * @param f  the file
+    * @return  the FileFormat
+    * @throws IOException  if the file cannot be read
+    */
+   static FileFormat detect(File f) throws IOException {
+      ByteBuffer sample = ByteBuffer.allocate(SAMPLE_LENGTH);
+      boolean isComplete;
+      try (FileChannel ch = FileChannel.open(f.toPath(),
+            StandardOpenOption.READ)) {
+
+         while (sample.hasRemaining() && ch.read(sample) != -1) {
+            // fill buffer
+         }
+         isComplete = ch.position() >= ch.size();
+      }
+      sample.flip();
+      return detect(sample, isComplete);
+   }
+
+   /**
+    * Detects the format from the specified first bytes of a file
+    *
+    * @param sample  the bytes which are not consumed
+    * @param isComplete  true if the bytes are the entire content of
+    * the file
+    * @return  the FileFormat
+    */
+   static FileFormat detect(ByteBuffer sample, boolean isComplete) {
+      Charset cs;
+      byte[] bom = new byte[0];
+      if (startsWith(sample, UTF_8_BOM)) {
+         cs = StandardCharsets.UTF_8;
+         bom = UTF_8_BOM;
+      }
+      else if (startsWith(sample, UTF_16BE_BOM)) {
+         cs = StandardCharsets.UTF_16BE;
+         bom = UTF_16BE_BOM;
+      }
+      else if (startsWith(sample, UTF_16LE_BOM)) {
+         cs = StandardCharsets.UTF_16LE;
+         bom = UTF_16LE_BOM;
+      }
+      else if (isUtf8(sample, isComplete)) {
+         cs = StandardCharsets.UTF_8;
+      }
+      else {
+         cs = StandardCharsets.ISO_8859_1;
+      }
+      ByteBuffer bb = sample.duplicate();
+      bb.position(bb.position() + bom.length);
+      CharBuffer chars = CharBuffer.allocate(bb.remaining());
+      cs.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE)
+            .decode(bb, chars, true);
+
+      chars.flip();
+      return new FileFormat(cs, bom, lineSeparator(chars), true);
+   }
+
+   /**
+    * Returns the charset
+    *
+    * @return  the charset
+    */
+   Charset charset() {
+      return charset;
+   }
+
+   /**
+    * Returns the bytes of the BOM
+    *
+    * @return  the bytes which are empty if there is no BOM
+    */
+   byte[] bom() {
+      return bom.clone();
+   }
+
+   /**
+    * Returns the line separator
+    *
+    * @return  the line separator
+    */
+   String lineSeparator() {
+      return lineSep;
+   }
+
+   /**
+    * Returns if the file ends with a line separator. If not, the last
+    * '\n' of a text is not written since a text that is read from
+    * the file gets a final '\n'.
+    *
+    * @return  true if the file ends with a line separator; false
+    * otherwise
+    */
+   boolean isFinalLineSeparator() {
+      return isFinalLineSep;
+   }
+
+   /**
+    * Returns a decoder for the charset. Malformed UTF-8 is reported
+    * so that the content can be read as ISO-8859-1 instead.
+    *
+    * @return  the CharsetDecoder
+    */
+   CharsetDecoder newDecoder() {
+      CodingErrorAction malformed = charset.equals(StandardCharsets.UTF_8)
+            ? CodingErrorAction.REPORT : CodingErrorAction.REPLACE;
+
+      return charset.newDecoder()
+            .onMalformedInput(malformed)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+   }
+
+   /**
+    * Returns this format with the specified charset and without BOM
+    *
+    * @param cs  the charset
+    * @return  the FileFormat
+    */
+   FileFormat withCharset(Charset cs) {
+      return new FileFormat(cs, new byte[0], lineSep, isFinalLineSep);
+   }
+
+   /**
+    * Returns this format with or without a final line separator
+    *
+    * @param b  true if the file ends with a line separator
+    * @return  the FileFormat
+    */
+   FileFormat withFinalLineSeparator(boolean b) {
+      return new FileFormat(charset, bom, lineSep, b);
+   }
+
+   //
+   //--private--/
+   //
+
+   private static boolean startsWith(ByteBuffer bb, byte[] prefix) {
+      if (bb.remaining() < prefix.length) {
+         return false;
+      }
+      for (int i = 0; i < prefix.length; i++) {
+         if (bb.get(bb.position() + i) != prefix[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   //
+   // A sequence that is cut off at the end of an incomplete sample is
+   // not malformed
+   private static boolean isUtf8(ByteBuffer sample, boolean isComplete) {
+      CharsetDecoder dec = StandardCharsets.UTF_8.newDecoder()
+            .onMalformedInput(CodingErrorAction.REPORT)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+      CharBuffer out = CharBuffer.allocate(sample.remaining());
+      return !dec.decode(sample.duplicate(), out, isComplete).isError();
+   }
+
+   private static String lineSeparator(CharBuffer chars) {
+      int nCrLf = 0;
+      int nLf = 0;
+      int nCr = 0;
+      int length = chars.remaining();
+      for (int i = 0; i < length; i++) {
+         char c = chars.get(i);
+         if (c == '\n') {
+            nLf++;
+         }
+         else if (c == '\r') {
+            if (i + 1 < length && chars.get(i + 1) == '\n') {
+               nCrLf++;
+               i++;
+            }
+            else {
+               nCr++;
+            }
+         }
+      }
+      if (nCrLf == 0 && nLf == 0 && nCr == 0) {
+         return System.lineSeparator();
+      }
+      else if (nCrLf >= nLf && nCrLf >= nCr) {
+         return "\r\n";
+      }
+      else if (nLf >= nCr) {
+         return "\n";
+      }
+      else {
+         return "\r";
+      }
+   }
+}
@@ -0,0 +1,256 @@
+package eg.document;
+
+import java.awt.EventQueue;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import java.util.function.IntConsumer;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.StyledDocument;
+
+//--Eadgyth--/
+import eg.utils.FileUtils;
+
+/**
+ * The reading of the content of a file into a
+ * <code>StyledDocument</code> outside the event dispatch thread (EDT)
+ * or into a string.
+ * <p>
+ * The file is decoded in chunks in the {@link FileFormat} that is
+ * detected from its first bytes. The file is read through a buffer
+ * and not memory-mapped since a mapping is released only by the
+ * garbage collector and, on Windows, prevents that the file is
+ * replaced when it is saved. If a file that is detected as UTF-8
+ * turns out to contain malformed UTF-8 after the detected part, it
+ * is read again as ISO-8859-1 so that no bytes are replaced. Line
+ * separators are converted to '\n' and a text that does not end with
+ * a newline gets one. The decoded chunks are inserted into a document
+ * that is not displayed while reading.
+ */
+final class FileLoading {
+
+   private static final int BUFFER_SIZE = 1 << 16;
+   private static final int CHUNK_LENGTH = 1 << 18;
+
+   private final File f;
+   private final StyledDocument doc;
+   private final StringBuilder chunk = new StringBuilder(CHUNK_LENGTH);
+   private final StringBuilder content;
+
+   private volatile boolean isCancelled = false;
+   private FileFormat format = FileFormat.DEFAULT;
+   private boolean isAfterCr = false;
+   private char lastChar = '\n';
+   private int percent = -1;
+
+   /**
+    * @param f  the file
+    * @param doc  the document into which the content is inserted
+    */
+   FileLoading(File f, StyledDocument doc) {
+      this.f = f;
+      this.doc = doc;
+      content = null;
+   }
+
+   /**
+    * Creates a <code>FileLoading</code> that reads the content into a
+    * string by {@link #readText()}
+    *
+    * @param f  the file
+    */
+   FileLoading(File f) {
+      this.f = f;
+      doc = null;
+      content = new StringBuilder();
+   }
+
+   /**
+    * Starts reading in a new thread. The specified functions are
+    * invoked on the EDT and not after {@link #cancel()} was called.
+    *
+    * @param progress  the IntConsumer that accepts the progress in
+    * percent
+    * @param done  the Runnable that is run when reading is complete
+    * @param failed  the Runnable that is run after an exception was
+    * logged
+    */
+   void start(IntConsumer progress, Runnable done, Runnable failed) {
+      Thread t = new Thread(() -> {
+         try {
+            read(progress);
+            invokeIfNotCancelled(done);
+         }
+         catch (IOException | BadLocationException e) {
+            invokeIfNotCancelled(() -> {
+               FileUtils.log(e);
+               failed.run();
+            });
+         }
+      }, "File loading");
+      t.setDaemon(true);
+      t.start();
+   }
+
+   /**
+    * Reads the content on the calling thread. Only for a
+    * <code>FileLoading</code> created without a document.
+    *
+    * @return  the text
+    * @throws IOException  if the file cannot be read
+    */
+   String readText() throws IOException {
+      try {
+         read(null);
+      }
+      catch (BadLocationException e) {
+         throw new IllegalStateException(e); // not a document
+      }
+      return content.toString();
+   }
+
+   /**
+    * Returns the format of the file. Valid when reading is complete.
+    *
+    * @return  the {@link FileFormat}
+    */
+   FileFormat format() {
+      return format;
+   }
+
+   /**
+    * Cancels reading
+    */
+   void cancel() {
+      isCancelled = true;
+   }
+
+   //
+   //--private--/
+   //
+
+   private void read(IntConsumer progress)
+         throws IOException, BadLocationException {
+
+      format = FileFormat.detect(f);
+      if (!read(progress, format.newDecoder()) && !isCancelled) {
+         if (doc != null) {
+            doc.remove(0, doc.getLength());
+         }
+         else {
+            content.setLength(0);
+         }
+         format = format.withCharset(StandardCharsets.ISO_8859_1);
+         read(progress, format.newDecoder());
+      }
+      format = format.withFinalLineSeparator(lastChar == '\n');
+      if (lastChar != '\n') {
+         append("\n");
+      }
+   }
+
+   //
+   // Returns false if the content is malformed for the decoder
+   private boolean read(IntConsumer progress, CharsetDecoder dec)
+         throws IOException, BadLocationException {
+
+      isAfterCr = false;
+      lastChar = '\n';
+      try (FileChannel ch = FileChannel.open(f.toPath(),
+            StandardOpenOption.READ)) {
+
+         long size = ch.size();
+         ch.position(format.bom().length);
+         ByteBuffer in = ByteBuffer.allocate(BUFFER_SIZE);
+         in.flip();
+         CharBuffer out = CharBuffer.allocate(CHUNK_LENGTH);
+         boolean isEnd = false;
+         while (!isCancelled) {
+            CoderResult cr = dec.decode(in, out, isEnd);
+            if (cr.isError()) {
+               return false;
+            }
+            if (cr.isOverflow()) {
+               insert(out);
+            }
+            else if (isEnd) {
+               break;
+            }
+            else {
+               in.compact();
+               isEnd = ch.read(in) == -1;
+               in.flip();
+            }
+            long pos = ch.position();
+            reportProgress(progress, size == 0 ? 100 : (int) (pos * 100 / size));
+         }
+         while (!isCancelled && dec.flush(out).isOverflow()) {
+            insert(out);
+         }
+         insert(out);
+      }
+      return true;
+   }
+
+   //
+   // Inserts the decoded chars and converts '\r\n' and '\r' to '\n'.
+   // A '\r' at the end of a chunk is remembered to skip a following
+   // '\n' in the next chunk.
+   private void insert(CharBuffer out) throws BadLocationException {
+      out.flip();
+      while (out.hasRemaining()) {
+         char c = out.get();
+         if (isAfterCr) {
+            isAfterCr = false;
+            if (c == '\n') {
+               continue;
+            }
+         }
+         if (c == '\r') {
+            isAfterCr = true;
+            c = '\n';
+         }
+         chunk.append(c);
+      }
+      out.clear();
+      if (chunk.length() > 0 && !isCancelled) {
+         lastChar = chunk.charAt(chunk.length() - 1);
+         append(chunk);
+      }
+      chunk.setLength(0);
+   }
+
+   private void append(CharSequence s) throws BadLocationException {
+      if (doc != null) {
+         doc.insertString(doc.getLength(), s.toString(), null);
+      }
+      else {
+         content.append(s);
+      }
+   }
+
+   private void reportProgress(IntConsumer progress, int p) {
+      if (progress != null && p != percent) {
+         percent = p;
+         invokeIfNotCancelled(() -> progress.accept(p));
+      }
+   }
+
+   private void invokeIfNotCancelled(Runnable r) {
+      EventQueue.invokeLater(() -> {
+         if (!isCancelled) {
+            r.run();
+         }
+      });
+   }
+}
@@ -0,0 +1,107 @@
+package eg.document;
+
+import java.awt.EventQueue;
+
+import java.io.File;
+import java.io.IOException;
+
+//--Eadgyth--/
+import eg.document.styledtext.EditSpans;
+import eg.document.styledtext.PieceTable.Snapshot;
+
+/**
+ * The reading of the content of a file that was changed on disk and
+ * the finding of the edits that change a snapshot of the text in a
+ * document to this content outside the event dispatch thread (EDT).
+ * <p>
+ * The edits are found by a {@link LineDiff} so that only the changed
+ * lines need to be replaced in the document.
+ */
+final class FileReloading {
+
+   private final File f;
+   private final Snapshot text;
+
+   private EditSpans spans = null;
+   private FileFormat format = null;
+   private IOException error = null;
+
+   /**
+    * @param f  the file
+    * @param text  the snapshot of the text in the document
+    */
+   FileReloading(File f, Snapshot text) {
+      this.f = f;
+      this.text = text;
+   }
+
+   /**
+    * Starts reading and comparing in a new thread
+    *
+    * @param done  the Runnable that is run on the EDT when finished
+    */
+   void start(Runnable done) {
+      Thread t = new Thread(() -> {
+         try {
+            FileLoading fl = new FileLoading(f);
+            String content = fl.readText();
+            format = fl.format();
+            spans = LineDiff.spans(text.toString(), content);
+         }
+         catch (IOException e) {
+            error = e;
+         }
+         EventQueue.invokeLater(done);
+      }, "File reloading");
+      t.setDaemon(true);
+      t.start();
+   }
+
+   /**
+    * Returns the file
+    *
+    * @return  the file
+    */
+   File file() {
+      return f;
+   }
+
+   /**
+    * Returns the snapshot of the text
+    *
+    * @return  the snapshot
+    */
+   Snapshot text() {
+      return text;
+   }
+
+   /**
+    * Returns the edits that change the snapshot to the content of the
+    * file. Valid when finished without error.
+    *
+    * @return  the {@link EditSpans}
+    */
+   EditSpans spans() {
+      return spans;
+   }
+
+   /**
+    * Returns the format of the file. Valid when finished without
+    * error.
+    *
+    * @return  the {@link FileFormat}
+    */
+   FileFormat format() {
+      return format;
+   }
+
+   /**
+    * Returns the exception that prevented reading the file. Valid when
+    * finished.
+    *
+    * @return  the IOException; null if the file was read
+    */
+   IOException error() {
+      return error;
+   }
+}
@@ -0,0 +1,324 @@
+package eg.document;
+
+import java.awt.EventQueue;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnmappableCharacterException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+
+//--Eadgyth--/
+import eg.document.styledtext.PieceTable.Snapshot;
+
+/**
+ * The writing of a snapshot of the text in a document to a file,
+ * which may be done outside the event dispatch thread (EDT).
+ * <p>
+ * The text is written in the {@link FileFormat} of the file. It is
+ * read in chunks and each chunk is written in one pass in which
+ * '\r\n' and '\r' are converted to '\n', '\n' is replaced with the
+ * line separator of the format and the chars are encoded into a
+ * buffer of bytes that is written to a <code>FileChannel</code>. A
+ * text that contains characters which the charset of the format
+ * cannot encode is written as UTF-8. The bytes go to a temporary file
+ * in the directory of the file which then replaces the file,
+ * atomically if the file system supports this, so that the file is
+ * never left partly written. The temporary file gets the permissions
+ * of the replaced file or the default permissions of a new file.
+ * <p>
+ * Files are written in the background by a fixed number of threads
+ * that are shared by all documents.
+ */
+final class FileSaving {
+
+   private static final int CHUNK_LENGTH = 1 << 16;
+   private static final int BUFFER_SIZE = 1 << 16;
+   private static final int N_THREADS = 4;
+
+   private static final Random RANDOM = new Random();
+
+   private static final ExecutorService EXECUTOR
+         = Executors.newFixedThreadPool(N_THREADS, r -> {
+              Thread t = new Thread(r, "File saving");
+              t.setDaemon(true);
+              return t;
+           });
+
+   private final File f;
+   private final Snapshot text;
+   private final CountDownLatch finished = new CountDownLatch(1);
+
+   private FileFormat format;
+   private IOException error = null;
+   private long textHash = 0;
+
+   /**
+    * @param f  the file
+    * @param text  the snapshot of the text
+    * @param format  the format in which the file is written
+    */
+   FileSaving(File f, Snapshot text, FileFormat format) {
+      this.f = f;
+      this.text = text;
+      this.format = format;
+   }
+
+   /**
+    * Returns the format in which the file was written which differs
+    * from the format given to the constructor if the text could not
+    * be encoded in its charset
+    *
+    * @return  the {@link FileFormat}
+    */
+   FileFormat format() {
+      return format;
+   }
+
+   /**
+    * Returns the file
+    *
+    * @return  the file
+    */
+   File file() {
+      return f;
+   }
+
+   /**
+    * Returns the snapshot of the text
+    *
+    * @return  the snapshot
+    */
+   Snapshot text() {
+      return text;
+   }
+
+   /**
+    * Returns the hash of the text (see
+    * {@link UndoJournal#hash(CharSequence)}) which is computed while
+    * writing. Valid when the file was written.
+    *
+    * @return  the hash
+    */
+   long textHash() {
+      return textHash;
+   }
+
+   /**
+    * Returns the exception that prevented writing the file. Valid
+    * when writing is finished.
+    *
+    * @return  the IOException; null if the file was written
+    */
+   IOException error() {
+      return error;
+   }
+
+   /**
+    * Starts writing in the background
+    *
+    * @param done  the Consumer that is invoked on the EDT when writing
+    * is finished and accepts the exception that prevented writing the
+    * file or null if the file was written
+    */
+   void start(Consumer<IOException> done) {
+      EXECUTOR.execute(() -> {
+         try {
+            write();
+         }
+         catch (IOException e) {
+            error = e;
+         }
+         finally {
+            finished.countDown();
+         }
+         EventQueue.invokeLater(() -> done.accept(error));
+      });
+   }
+
+   /**
+    * Waits until writing that was started by {@link #start} is
+    * finished
+    */
+   void await() {
+      try {
+         finished.await();
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+   }
+
+   /**
+    * Writes the file on the calling thread
+    *
+    * @throws IOException  if the file could not be written
+    */
+   void write() throws IOException {
+      Path p = f.toPath().toAbsolutePath();
+      if (Files.isSymbolicLink(p)) {
+         p = p.toRealPath();
+      }
+      Path tmp = createTempFile(p);
+      try {
+         try {
+            write(tmp);
+         }
+         catch (UnmappableCharacterException e) {
+            if (format.charset().equals(StandardCharsets.UTF_8)) {
+               throw e;
+            }
+            format = format.withCharset(StandardCharsets.UTF_8);
+            write(tmp);
+         }
+         if (Files.exists(p)) {
+            try {
+               Files.setPosixFilePermissions(tmp,
+                     Files.getPosixFilePermissions(p));
+            }
+            catch (UnsupportedOperationException e) {
+               // not a POSIX file system
+            }
+         }
+         try {
+            Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE);
+         }
+         catch (AtomicMoveNotSupportedException e) {
+            Files.move(tmp, p, StandardCopyOption.REPLACE_EXISTING);
+         }
+      }
+      finally {
+         Files.deleteIfExists(tmp);
+      }
+   }
+
+   //
+   //--private--/
+   //
+
+   //
+   // Creates the temporary file next to p. Unlike a file created by
+   // Files.createTempFile, which is readable by the owner only, the
+   // file gets the default permissions of a new file.
+   private static Path createTempFile(Path p) throws IOException {
+      while (true) {
+         Path tmp = p.resolveSibling("." + p.getFileName() + "."
+               + Long.toHexString(RANDOM.nextLong() >>> 1) + ".tmp");
+
+         try {
+            return Files.createFile(tmp);
+         }
+         catch (FileAlreadyExistsException e) {
+            // try another name
+         }
+      }
+   }
+
+   private void write(Path p) throws IOException {
+      try (FileChannel ch = FileChannel.open(p, StandardOpenOption.WRITE,
+            StandardOpenOption.TRUNCATE_EXISTING)) {
+
+         write(ch);
+         ch.force(false);
+      }
+   }
+
+   private void write(FileChannel ch) throws IOException {
+      CharsetEncoder enc = format.charset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPORT);
+
+      String lineSep = format.lineSeparator();
+      char[] chunk = new char[CHUNK_LENGTH];
+      //
+      // large enough for a chunk of newlines and a high surrogate
+      // that is left from the previous chunk
+      CharBuffer in = CharBuffer.allocate(CHUNK_LENGTH * lineSep.length() + 1);
+      ByteBuffer out = ByteBuffer.allocate(BUFFER_SIZE);
+      out.put(format.bom());
+      boolean isAfterCr = false;
+      long h = UndoJournal.HASH_BASIS;
+      int length = text.length();
+      if (!format.isFinalLineSeparator() && length > 0
+            && text.charAt(length - 1) == '\n') {
+
+         length--;
+      }
+      for (int pos = 0; pos < length; pos += CHUNK_LENGTH) {
+         int end = Math.min(pos + CHUNK_LENGTH, length);
+         text.getChars(pos, end, chunk, 0);
+         for (int i = 0; i < end - pos; i++) {
+            char c = chunk[i];
+            h = UndoJournal.hash(h, c);
+            if (isAfterCr) {
+               isAfterCr = false;
+               if (c == '\n') {
+                  continue;
+               }
+            }
+            if (c == '\r') {
+               isAfterCr = true;
+               c = '\n';
+            }
+            if (c == '\n') {
+               in.put(lineSep);
+            }
+            else {
+               in.put(c);
+            }
+         }
+         in.flip();
+         encode(enc, in, out, ch, false);
+         in.compact();
+      }
+      in.flip();
+      encode(enc, in, out, ch, true);
+      while (enc.flush(out).isOverflow()) {
+         drain(out, ch);
+      }
+      drain(out, ch);
+      if (length < text.length()) {
+         h = UndoJournal.hash(h, '\n');
+      }
+      textHash = h;
+   }
+
+   private void encode(CharsetEncoder enc, CharBuffer in, ByteBuffer out,
+         FileChannel ch, boolean isEnd) throws IOException {
+
+      CoderResult cr;
+      while ((cr = enc.encode(in, out, isEnd)).isOverflow()) {
+         drain(out, ch);
+      }
+      if (cr.isError()) {
+         cr.throwException();
+      }
+   }
+
+   private void drain(ByteBuffer out, FileChannel ch) throws IOException {
+      out.flip();
+      while (out.hasRemaining()) {
+         ch.write(out);
+      }
+      out.clear();
+   }
+}
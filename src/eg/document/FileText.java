@@ -0,0 +1,108 @@
+package eg.document;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+
+//--Eadgyth--/
+import eg.document.styledtext.PieceTable;
+
+/**
+ * The text of a file that is not open in a document, which is decoded
+ * from the bytes of the file outside the event dispatch thread.
+ * <p>
+ * The bytes are decoded in the {@link FileFormat} that is detected
+ * from the first bytes and the text is converted like the text that
+ * {@link FileLoading} reads into a document: line separators are
+ * converted to '\n' and a text that does not end with a newline gets
+ * one. Positions in the text are therefore the positions in the
+ * document when the file is opened. A changed text is written back by
+ * a {@link FileSaving} in the detected format.
+ */
+public final class FileText {
+
+   private final String text;
+   private final FileFormat format;
+
+   private FileText(String text, FileFormat format) {
+      this.text = text;
+      this.format = format;
+   }
+
+   /**
+    * Decodes the content of a file
+    *
+    * @param content  the bytes of the file which are not consumed
+    * @return  the FileText
+    */
+   public static FileText decode(ByteBuffer content) {
+      ByteBuffer sample = content.duplicate();
+      boolean isComplete = sample.remaining() <= FileFormat.SAMPLE_LENGTH;
+      if (!isComplete) {
+         sample.limit(sample.position() + FileFormat.SAMPLE_LENGTH);
+      }
+      FileFormat format = FileFormat.detect(sample, isComplete);
+      ByteBuffer bb = content.duplicate();
+      bb.position(bb.position() + format.bom().length);
+      CharBuffer chars;
+      try {
+         chars = format.newDecoder().decode(bb);
+      }
+      catch (CharacterCodingException e) {
+         //
+         // UTF-8 that is malformed after the detected part
+         format = format.withCharset(StandardCharsets.ISO_8859_1);
+         chars = StandardCharsets.ISO_8859_1.decode(content.duplicate());
+      }
+      StringBuilder sb = new StringBuilder(chars.remaining() + 1);
+      char lastChar = '\n';
+      boolean isAfterCr = false;
+      while (chars.hasRemaining()) {
+         char c = chars.get();
+         if (isAfterCr) {
+            isAfterCr = false;
+            if (c == '\n') {
+               continue;
+            }
+         }
+         if (c == '\r') {
+            isAfterCr = true;
+            c = '\n';
+         }
+         sb.append(c);
+         lastChar = c;
+      }
+      format = format.withFinalLineSeparator(lastChar == '\n');
+      if (lastChar != '\n') {
+         sb.append('\n');
+      }
+      return new FileText(sb.toString(), format);
+   }
+
+   /**
+    * Returns the text
+    *
+    * @return  the text in which lines end with '\n'
+    */
+   public String text() {
+      return text;
+   }
+
+   /**
+    * Writes the specified text to the file in the format in which
+    * this text was decoded
+    *
+    * @param f  the file
+    * @param text  the text in which lines end with '\n'
+    * @throws IOException  if the file could not be written
+    */
+   public void write(File f, String text) throws IOException {
+      PieceTable pt = new PieceTable();
+      pt.setText(text);
+      new FileSaving(f, pt.snapshot(), format).write();
+   }
+}
@@ -0,0 +1,332 @@
+package eg.document;
+
+import java.awt.Dimension;
+import java.awt.EventQueue;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+
+import java.util.Arrays;
+
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JLabel;
+import javax.swing.JPanel;
+import javax.swing.JTextField;
+import javax.swing.JTextPane;
+
+//--Eadgyth--/
+import eg.ui.EditArea;
+import eg.ui.UIComponents;
+import eg.utils.Dialogs;
+import eg.utils.FileUtils;
+import eg.utils.ScreenParams;
+
+/**
+ * The read-only view of a file that is too large to be edited.
+ * <p>
+ * The file is memory-mapped by {@link MappedFile} and the index of
+ * lines is built in the background. The text area shows one page of
+ * lines at a time which is decoded (as UTF-8) from the mapped file.
+ * A bar above the text area has the controls for paging, going to a
+ * line and for a case sensitive search in the mapped file. Going to
+ * a line and the reading of the line and column of the cursor are
+ * possible when the index of lines is built.
+ */
+final class FileViewer {
+
+   private static final int PAGE_LINES = 1000;
+   private static final int PAGE_MAX_BYTES = 1 << 20;
+
+   private final JTextPane textArea;
+   private final Runnable failed;
+   private final JButton prevBt = new JButton("Previous");
+   private final JButton nextBt = new JButton("Next");
+   private final JLabel linesLb = UIComponents.label("");
+   private final JTextField lineTf = UIComponents.textField();
+   private final JTextField findTf = UIComponents.textField();
+   private final JButton findBt = new JButton("Find next");
+
+   private volatile boolean isClosed = false;
+   private EditingStateReadable esr = null;
+   private MappedFile mf = null;
+   private boolean isIndexed = false;
+   private boolean isSearching = false;
+   private long pageStart = 0;
+   private long pageEnd = 0;
+   private long pageFirstLine = 0;
+   private int[] pageLineStarts = new int[] {0};
+   private long foundEnd = -1;
+
+   /**
+    * Creates a <code>FileViewer</code> and starts mapping the file
+    * in a new thread
+    *
+    * @param editArea  the EditArea whose text area shows the pages
+    * @param f  the file
+    * @param failed  the Runnable that is run after an exception
+    * was logged
+    */
+   FileViewer(EditArea editArea, File f, Runnable failed) {
+      this.failed = failed;
+      textArea = editArea.textArea();
+      editArea.showTopBar(controlsPnl());
+      enableControls(false);
+      linesLb.setText("Mapping " + f.getName());
+      textArea.addCaretListener(e -> readCursorState());
+      Thread t = new Thread(() -> map(f), "File mapping");
+      t.setDaemon(true);
+      t.start();
+   }
+
+   /**
+    * Sets the <code>EditingStateReadable</code> that is updated with
+    * the line and column of the cursor in the file
+    *
+    * @param esr  the {@link EditingStateReadable}
+    */
+   void setEditingStateReadable(EditingStateReadable esr) {
+      this.esr = esr;
+   }
+
+   /**
+    * Updates the <code>EditingStateReadable</code> with the line and
+    * column of the cursor in the file. Does nothing before the index
+    * of lines is built.
+    */
+   void readCursorState() {
+      if (esr == null || mf == null || !isIndexed) {
+         return;
+      }
+      int dot = textArea.getCaretPosition();
+      int i = Arrays.binarySearch(pageLineStarts, dot);
+      if (i < 0) {
+         i = -i - 2;
+      }
+      long lineNr = pageFirstLine + i;
+      esr.updateCursorState((int) Math.min(lineNr, Integer.MAX_VALUE),
+            dot - pageLineStarts[i] + 1);
+   }
+
+   /**
+    * Stops indexing and any search and releases the mapped file
+    */
+   void close() {
+      isClosed = true;
+      mf = null;
+   }
+
+   //
+   //--private--/
+   //
+
+   private void map(File f) {
+      try {
+         MappedFile mapped = new MappedFile(f);
+         invokeIfNotClosed(() -> {
+            mf = mapped;
+            enableControls(true);
+            showPage(0);
+         });
+         if (mapped.indexLines(() -> isClosed)) {
+            invokeIfNotClosed(() -> {
+               isIndexed = true;
+               lineTf.setEnabled(true);
+               updateLinesLabel();
+               readCursorState();
+            });
+         }
+      }
+      catch (IOException e) {
+         invokeIfNotClosed(() -> {
+            FileUtils.log(e);
+            failed.run();
+         });
+      }
+   }
+
+   private void showPage(long start) {
+      long end = start;
+      long limit = start + PAGE_MAX_BYTES;
+      for (int i = 0; i < PAGE_LINES && end < limit && end < mf.size(); i++) {
+         end = mf.nextLineStart(end, limit);
+      }
+      end = mf.charStart(end);
+      String text = decode(start, end);
+      pageStart = start;
+      pageEnd = end;
+      pageLineStarts = lineStarts(text);
+      updateLinesLabel();
+      textArea.setText(text);
+      textArea.setCaretPosition(0);
+      prevBt.setEnabled(start > 0);
+      nextBt.setEnabled(end < mf.size());
+   }
+
+   private void showPreviousPage() {
+      long start = pageStart;
+      long limit = pageStart - PAGE_MAX_BYTES;
+      for (int i = 0; i < PAGE_LINES && start > 0 && start > limit; i++) {
+         start = mf.lineStartAt(start - 1, limit);
+      }
+      showPage(mf.charStart(start));
+   }
+
+   private void goToLine() {
+      long lineNr;
+      try {
+         lineNr = Long.parseLong(lineTf.getText().trim());
+      }
+      catch (NumberFormatException e) {
+         lineNr = 0;
+      }
+      if (lineNr < 1 || lineNr > mf.lineCount()) {
+         Dialogs.warnMessage(
+               "The line number must be between 1 and "
+               + mf.lineCount() + ".");
+
+         return;
+      }
+      showPage(mf.lineStart(lineNr));
+   }
+
+   //
+   // Searches the next occurrence of the search term behind the
+   // previous occurrence or the start of the page in a new thread
+   private void find() {
+      String term = findTf.getText();
+      if (term.isEmpty() || isSearching) {
+         return;
+      }
+      byte[] b = term.getBytes(StandardCharsets.UTF_8);
+      long from = foundEnd > pageStart && foundEnd <= pageEnd
+            ? foundEnd : pageStart;
+
+      MappedFile mapped = mf;
+      isSearching = true;
+      findBt.setEnabled(false);
+      Thread t = new Thread(() -> {
+         long pos = mapped.indexOf(b, from, () -> isClosed);
+         invokeIfNotClosed(() -> {
+            isSearching = false;
+            findBt.setEnabled(true);
+            if (pos == -1) {
+               Dialogs.infoMessage(term + " was not found.", null);
+            }
+            else {
+               select(pos, pos + b.length);
+            }
+         });
+      }, "File search");
+      t.setDaemon(true);
+      t.start();
+   }
+
+   private void select(long start, long end) {
+      if (start < pageStart || end > pageEnd) {
+         showPage(mf.charStart(
+               mf.lineStartAt(start, start - PAGE_MAX_BYTES / 2)));
+         if (end > pageEnd) {
+            showPage(start);
+         }
+      }
+      foundEnd = end;
+      int selStart = decode(pageStart, start).length();
+      int selEnd = selStart + decode(start, end).length();
+      textArea.requestFocusInWindow();
+      textArea.select(selStart, selEnd);
+   }
+
+   private String decode(long start, long end) {
+      String s = new String(mf.bytes(start, end), StandardCharsets.UTF_8);
+      return s.replace("\r\n", "\n");
+   }
+
+   private int[] lineStarts(String text) {
+      int[] starts = new int[16];
+      int n = 1;
+      int i = text.indexOf('\n');
+      while (i != -1) {
+         if (n == starts.length) {
+            starts = Arrays.copyOf(starts, n * 2);
+         }
+         starts[n++] = i + 1;
+         i = text.indexOf('\n', i + 1);
+      }
+      return Arrays.copyOf(starts, n);
+   }
+
+   private void updateLinesLabel() {
+      if (mf == null) {
+         return;
+      }
+      if (isIndexed) {
+         pageFirstLine = mf.lineNrAt(pageStart);
+         long last = pageEnd > pageStart
+               ? mf.lineNrAt(pageEnd - 1) : pageFirstLine;
+
+         linesLb.setText("Lines " + pageFirstLine + " - " + last + " of "
+               + mf.lineCount());
+      }
+      else {
+         linesLb.setText("Indexing lines...");
+      }
+   }
+
+   private JPanel controlsPnl() {
+      JPanel pnl = new JPanel();
+      pnl.setLayout(new BoxLayout(pnl, BoxLayout.LINE_AXIS));
+      pnl.setBorder(BorderFactory.createEmptyBorder(3, 5, 3, 5));
+      prevBt.setFocusable(false);
+      nextBt.setFocusable(false);
+      findBt.setFocusable(false);
+      setWidth(lineTf, 80);
+      setWidth(findTf, 160);
+      pnl.add(prevBt);
+      pnl.add(nextBt);
+      pnl.add(Box.createRigidArea(ScreenParams.scaledDimension(10, 0)));
+      pnl.add(linesLb);
+      pnl.add(Box.createHorizontalGlue());
+      pnl.add(UIComponents.label("Go to line: "));
+      pnl.add(lineTf);
+      pnl.add(Box.createRigidArea(ScreenParams.scaledDimension(10, 0)));
+      pnl.add(UIComponents.label("Find: "));
+      pnl.add(findTf);
+      pnl.add(findBt);
+      prevBt.addActionListener(e -> showPreviousPage());
+      nextBt.addActionListener(e -> showPage(pageEnd));
+      lineTf.addActionListener(e -> goToLine());
+      findTf.addActionListener(e -> find());
+      findBt.addActionListener(e -> find());
+      return pnl;
+   }
+
+   private void setWidth(JTextField tf, int width) {
+      Dimension dim = ScreenParams.scaledDimension(width,
+            tf.getPreferredSize().height);
+
+      dim.height = tf.getPreferredSize().height;
+      tf.setPreferredSize(dim);
+      tf.setMaximumSize(dim);
+   }
+
+   private void enableControls(boolean b) {
+      prevBt.setEnabled(b);
+      nextBt.setEnabled(b);
+      lineTf.setEnabled(b && isIndexed);
+      findTf.setEnabled(b);
+      findBt.setEnabled(b);
+   }
+
+   private void invokeIfNotClosed(Runnable r) {
+      EventQueue.invokeLater(() -> {
+         if (!isClosed) {
+            r.run();
+         }
+      });
+   }
+}
@@ -77,7 +77,7 @@ public class Indentation {
     * @param pos  the position
     */
    public void adjustIndent(int pos) {
-      char charAtPos = txt.text().charAt(pos);
+      char charAtPos = txt.content().charAt(pos);
       if ('\n' == charAtPos) {
          indent(pos);
       }
@@ -102,7 +102,7 @@ public class Indentation {
       else {
          indent.append(joinSpaces(length));
       }
-      if (curlyBracketMode && pos >= 1 && '{' == txt.text().charAt(pos - 1)) {
+      if (curlyBracketMode && pos >= 1 && '{' == txt.content().charAt(pos - 1)) {
          if (useTabs) {
             indent.append('\t');
          }
@@ -151,8 +151,8 @@ public class Indentation {
 
    private int outdentPos(int pos) {
       int outdentPos = 0;
-      int lastOpeningPos = txt.text().lastIndexOf('{', pos - 1);
-      int lastClosingPos = txt.text().lastIndexOf('}', pos - 1);
+      int lastOpeningPos = txt.content().lastIndexOf('{', pos - 1);
+      int lastClosingPos = txt.content().lastIndexOf('}', pos - 1);
       int indentAtLastBrace = 0;
       if (lastOpeningPos > lastClosingPos) {
          indentAtLastBrace = indentLengthAt(lastOpeningPos);
@@ -190,11 +190,11 @@ public class Indentation {
    }
 
    private int lineStart(int pos) {
-      return txt.text().lastIndexOf('\n', pos) + 1;
+      return txt.content().lastIndexOf('\n', pos) + 1;
    }
 
    private String line(int lineStart, int pos) {
-       return txt.text().substring(lineStart, pos);
+       return txt.content().subSequence(lineStart, pos);
    }
 
    private String joinTabs(int length) {
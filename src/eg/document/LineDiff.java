@@ -0,0 +1,224 @@
+package eg.document;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//--Eadgyth--/
+import eg.document.styledtext.EditSpans;
+
+/**
+ * The difference between two texts by lines.
+ * <p>
+ * The lines that both texts begin and end with are skipped and the
+ * lines between are compared by the O(ND) algorithm of Myers which
+ * finds a shortest sequence of inserted and removed lines. If more
+ * than {@link #MAX_EDITS} lines are inserted or removed, the lines
+ * between are replaced as a whole.
+ */
+final class LineDiff {
+
+   /**
+    * The maximum number of inserted and removed lines that are found
+    * separately */
+   static final int MAX_EDITS = 1000;
+
+   private LineDiff() {}
+
+   /**
+    * Returns the edits that change the specified old text to the
+    * specified new text
+    *
+    * @param oldText  the old text
+    * @param newText  the new text
+    * @return  the {@link EditSpans} whose positions refer to the old
+    * text; empty if the texts are equal
+    */
+   static EditSpans spans(String oldText, String newText) {
+      EditSpans spans = new EditSpans();
+      if (oldText.equals(newText)) {
+         return spans;
+      }
+      Map<String, Integer> ids = new HashMap<>();
+      int[] oldStarts = lineStarts(oldText);
+      int[] newStarts = lineStarts(newText);
+      int[] a = lineIds(oldText, oldStarts, ids);
+      int[] b = lineIds(newText, newStarts, ids);
+      int n = a.length;
+      int m = b.length;
+      int pre = 0;
+      while (pre < n && pre < m && a[pre] == b[pre]) {
+         pre++;
+      }
+      int suf = 0;
+      while (suf < n - pre && suf < m - pre
+            && a[n - 1 - suf] == b[m - 1 - suf]) {
+
+         suf++;
+      }
+      for (int[] h : hunks(a, pre, n - suf, b, pre, m - suf)) {
+         int pos = newStarts[h[2]];
+         int oldLength = oldStarts[h[1]] - oldStarts[h[0]];
+         if (oldLength > 0) {
+            spans.remove(pos, oldLength);
+         }
+         if (h[3] > h[2]) {
+            spans.insert(pos, newText.substring(pos, newStarts[h[3]]));
+         }
+      }
+      return spans;
+   }
+
+   //
+   //--private--/
+   //
+
+   //
+   // Returns the start positions of the lines and the length of the
+   // text as last element
+   private static int[] lineStarts(String text) {
+      int[] starts = new int[16];
+      int n = 0;
+      int pos = 0;
+      while (pos < text.length()) {
+         if (n + 1 >= starts.length) {
+            starts = Arrays.copyOf(starts, starts.length * 2);
+         }
+         starts[n++] = pos;
+         int next = text.indexOf('\n', pos);
+         pos = next == -1 ? text.length() : next + 1;
+      }
+      starts[n] = text.length();
+      return Arrays.copyOf(starts, n + 1);
+   }
+
+   private static int[] lineIds(String text, int[] starts,
+         Map<String, Integer> ids) {
+
+      int[] lineIds = new int[starts.length - 1];
+      for (int i = 0; i < lineIds.length; i++) {
+         String line = text.substring(starts[i], starts[i + 1]);
+         Integer id = ids.get(line);
+         if (id == null) {
+            id = ids.size();
+            ids.put(line, id);
+         }
+         lineIds[i] = id;
+      }
+      return lineIds;
+   }
+
+   //
+   // Returns the ranges of lines that differ in ascending order. Each
+   // range is {oldFrom, oldTo, newFrom, newTo}.
+   private static List<int[]> hunks(int[] a, int aFrom, int aTo,
+         int[] b, int bFrom, int bTo) {
+
+      List<int[]> hunks = new ArrayList<>();
+      int n = aTo - aFrom;
+      int m = bTo - bFrom;
+      if (n == 0 && m == 0) {
+         return hunks;
+      }
+      boolean[] removed = new boolean[n];
+      boolean[] inserted = new boolean[m];
+      if (!compare(a, aFrom, n, b, bFrom, m, removed, inserted)) {
+         hunks.add(new int[] {aFrom, aTo, bFrom, bTo});
+         return hunks;
+      }
+      int i = 0;
+      int j = 0;
+      while (i < n || j < m) {
+         if (i < n && j < m && !removed[i] && !inserted[j]) {
+            i++;
+            j++;
+            continue;
+         }
+         int fromI = i;
+         int fromJ = j;
+         while ((i < n && removed[i]) || (j < m && inserted[j])) {
+            if (i < n && removed[i]) {
+               i++;
+            }
+            else {
+               j++;
+            }
+         }
+         hunks.add(new int[] {aFrom + fromI, aFrom + i, bFrom + fromJ,
+               bFrom + j});
+      }
+      return hunks;
+   }
+
+   //
+   // Marks the removed and inserted lines of a shortest edit script.
+   // Returns false if more than MAX_EDITS lines are removed and
+   // inserted. The state of the furthest paths is kept for each
+   // number of edits to trace back the path that reaches the end.
+   private static boolean compare(int[] a, int aFrom, int n, int[] b,
+         int bFrom, int m, boolean[] removed, boolean[] inserted) {
+
+      int max = Math.min(n + m, MAX_EDITS);
+      int offset = max + 1;
+      int[] v = new int[2 * max + 3];
+      List<int[]> trace = new ArrayList<>();
+      for (int d = 0; d <= max; d++) {
+         trace.add(Arrays.copyOfRange(v, offset - d - 1, offset + d + 2));
+         for (int k = -d; k <= d; k += 2) {
+            int x;
+            if (k == -d || (k != d && v[offset + k - 1] < v[offset + k + 1])) {
+               x = v[offset + k + 1];
+            }
+            else {
+               x = v[offset + k - 1] + 1;
+            }
+            int y = x - k;
+            while (x < n && y < m && a[aFrom + x] == b[bFrom + y]) {
+               x++;
+               y++;
+            }
+            v[offset + k] = x;
+            if (x >= n && y >= m) {
+               traceBack(trace, n, m, removed, inserted);
+               return true;
+            }
+         }
+      }
+      return false;
+   }
+
+   private static void traceBack(List<int[]> trace, int n, int m,
+         boolean[] removed, boolean[] inserted) {
+
+      int x = n;
+      int y = m;
+      for (int d = trace.size() - 1; d > 0; d--) {
+         int[] v = trace.get(d);
+         int off = d + 1; // index of k = 0 in the kept state
+         int k = x - y;
+         int prevK;
+         if (k == -d || (k != d && v[off + k - 1] < v[off + k + 1])) {
+            prevK = k + 1;
+         }
+         else {
+            prevK = k - 1;
+         }
+         int prevX = v[off + prevK];
+         int prevY = prevX - prevK;
+         while (x > prevX && y > prevY) {
+            x--;
+            y--;
+         }
+         if (x == prevX) {
+            inserted[prevY] = true;
+         }
+         else {
+            removed[prevX] = true;
+         }
+         x = prevX;
+         y = prevY;
+      }
+   }
+}
@@ -11,7 +11,6 @@ import javax.swing.text.StyleConstants;
 
 //--Eadgyth--//
 import eg.utils.FileUtils;
-import eg.utils.LinesFinder;
 
 /**
  * The line numbering
@@ -42,12 +41,11 @@ public class LineNumbers {
    }
 
    /**
-    * Updates the line numbers for the specified text
+    * Updates the line numbers for the specified number of lines
     *
-    * @param text  the text
+    * @param nNew  the number of lines
     */
-   public void updateLineNumber(String text) {
-      int nNew = LinesFinder.lineCount(text);
+   public void updateLineNumber(int nNew) {
       if (nNew > nOld) {
          appendLineNumbers(nOld, nNew);
       }
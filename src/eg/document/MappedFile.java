@@ -0,0 +1,272 @@
+package eg.document;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+/**
+ * A file that is memory-mapped in segments of at most 1 GB and read
+ * as bytes.
+ * <p>
+ * Lines are separated by '\n'. An index of the positions of every
+ * {@link #LINE_STEP}-th line may be built by {@link #indexLines}
+ * which is meant to be called outside the EDT before the index is
+ * used.
+ */
+final class MappedFile {
+
+   /**
+    * The distance in lines between two indexed line starts */
+   static final int LINE_STEP = 1024;
+
+   private static final int SEGMENT_BITS = 30;
+   private static final long SEGMENT_MASK = (1L << SEGMENT_BITS) - 1;
+
+   private final MappedByteBuffer[] segments;
+   private final long size;
+
+   private long[] lineIndex = null;
+   private long lineCount = 0;
+
+   /**
+    * @param f  the file
+    * @throws IOException  if the file cannot be mapped
+    */
+   MappedFile(File f) throws IOException {
+      try (FileChannel ch = FileChannel.open(f.toPath(),
+            StandardOpenOption.READ)) {
+
+         size = ch.size();
+         int n = (int) ((size + SEGMENT_MASK) >>> SEGMENT_BITS);
+         segments = new MappedByteBuffer[n];
+         for (int i = 0; i < n; i++) {
+            long pos = (long) i << SEGMENT_BITS;
+            long length = Math.min(size - pos, 1L << SEGMENT_BITS);
+            segments[i] = ch.map(FileChannel.MapMode.READ_ONLY, pos, length);
+         }
+      }
+   }
+
+   /**
+    * Returns the size of the file
+    *
+    * @return  the size in bytes
+    */
+   long size() {
+      return size;
+   }
+
+   /**
+    * Returns the byte at the specified position
+    *
+    * @param pos  the position
+    * @return  the byte
+    */
+   byte byteAt(long pos) {
+      return segments[(int) (pos >>> SEGMENT_BITS)].get((int) (pos & SEGMENT_MASK));
+   }
+
+   /**
+    * Returns the bytes in the specified range
+    *
+    * @param start  the start position
+    * @param end  the end position
+    * @return  the bytes
+    */
+   byte[] bytes(long start, long end) {
+      byte[] b = new byte[(int) (end - start)];
+      for (int i = 0; i < b.length; i++) {
+         b[i] = byteAt(start + i);
+      }
+      return b;
+   }
+
+   /**
+    * Returns the position behind the next '\n' at or behind the
+    * specified position
+    *
+    * @param pos  the position
+    * @param limit  the position where the search ends
+    * @return  the position behind '\n'; the limit or the size of the
+    * file if not found before
+    */
+   long nextLineStart(long pos, long limit) {
+      long end = Math.min(limit, size);
+      for (long i = pos; i < end; i++) {
+         if (byteAt(i) == '\n') {
+            return i + 1;
+         }
+      }
+      return end;
+   }
+
+   /**
+    * Returns the start of the UTF-8 encoded character that contains
+    * the specified position. A position between '\r' and '\n' is
+    * moved to the '\r'.
+    *
+    * @param pos  the position
+    * @return  the start of the character
+    */
+   long charStart(long pos) {
+      if (pos <= 0 || pos >= size) {
+         return Math.max(0, Math.min(pos, size));
+      }
+      long start = pos;
+      while (start > 0 && pos - start < 3 && (byteAt(start) & 0xc0) == 0x80) {
+         start--;
+      }
+      if ((byteAt(start) & 0xc0) == 0x80) {
+         return pos;
+      }
+      if (start > 0 && byteAt(start) == '\n' && byteAt(start - 1) == '\r') {
+         start--;
+      }
+      return start;
+   }
+
+   /**
+    * Returns the start of the line that contains the specified
+    * position
+    *
+    * @param pos  the position
+    * @param limit  the position where the search ends
+    * @return  the line start; the limit or 0 if not found behind
+    */
+   long lineStartAt(long pos, long limit) {
+      long start = Math.max(limit, 0);
+      for (long i = pos - 1; i >= start; i--) {
+         if (byteAt(i) == '\n') {
+            return i + 1;
+         }
+      }
+      return start;
+   }
+
+   /**
+    * Returns the position of the next occurrence of the specified
+    * bytes
+    *
+    * @param b  the bytes
+    * @param pos  the position where the search starts
+    * @param isCancelled  the BooleanSupplier that is asked from time
+    * to time if the search is cancelled
+    * @return  the position; -1 if not found or cancelled
+    */
+   long indexOf(byte[] b, long pos, BooleanSupplier isCancelled) {
+      if (b.length == 0) {
+         return -1;
+      }
+      long last = size - b.length;
+      for (long i = pos; i <= last; i++) {
+         if ((i & 0xfffff) == 0 && isCancelled.getAsBoolean()) {
+            return -1;
+         }
+         if (byteAt(i) == b[0] && matches(b, i)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Builds the index of line starts
+    *
+    * @param isCancelled  the BooleanSupplier that is asked from time
+    * to time if indexing is cancelled
+    * @return  true if the index is complete; false if cancelled
+    */
+   boolean indexLines(BooleanSupplier isCancelled) {
+      long[] index = new long[16];
+      int n = 1;
+      long count = 1;
+      for (int i = 0; i < segments.length; i++) {
+         if (isCancelled.getAsBoolean()) {
+            return false;
+         }
+         MappedByteBuffer seg = segments[i];
+         long offset = (long) i << SEGMENT_BITS;
+         int segSize = seg.limit();
+         for (int j = 0; j < segSize; j++) {
+            if (seg.get(j) == '\n' && offset + j + 1 < size) {
+               if (count % LINE_STEP == 0) {
+                  if (n == index.length) {
+                     index = Arrays.copyOf(index, n * 2);
+                  }
+                  index[n++] = offset + j + 1;
+               }
+               count++;
+            }
+         }
+      }
+      lineIndex = Arrays.copyOf(index, n);
+      lineCount = size == 0 ? 0 : count;
+      return true;
+   }
+
+   /**
+    * Returns the number of lines. Requires that the index is built.
+    *
+    * @return  the number of lines
+    */
+   long lineCount() {
+      return lineCount;
+   }
+
+   /**
+    * Returns the start position of the specified line. Requires that
+    * the index is built.
+    *
+    * @param lineNr  the (one-based) line number
+    * @return  the position
+    */
+   long lineStart(long lineNr) {
+      int i = (int) ((lineNr - 1) / LINE_STEP);
+      long pos = lineIndex[i];
+      for (long n = (long) i * LINE_STEP + 1; n < lineNr; n++) {
+         pos = nextLineStart(pos, size);
+      }
+      return pos;
+   }
+
+   /**
+    * Returns the number of the line that contains the specified
+    * position. Requires that the index is built.
+    *
+    * @param pos  the position
+    * @return  the (one-based) line number
+    */
+   long lineNrAt(long pos) {
+      int i = Arrays.binarySearch(lineIndex, pos);
+      if (i < 0) {
+         i = -i - 2;
+      }
+      long lineNr = (long) i * LINE_STEP + 1;
+      long start = lineIndex[i];
+      long next;
+      while ((next = nextLineStart(start, size)) <= pos && next < size) {
+         start = next;
+         lineNr++;
+      }
+      return lineNr;
+   }
+
+   //
+   //--private--/
+   //
+
+   private boolean matches(byte[] b, long pos) {
+      for (int i = 1; i < b.length; i++) {
+         if (byteAt(pos + i) != b[i]) {
+            return false;
+         }
+      }
+      return true;
+   }
+}
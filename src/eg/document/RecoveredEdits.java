@@ -0,0 +1,173 @@
+package eg.document;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//--Eadgyth--/
+import eg.document.styledtext.EditSpans;
+import eg.utils.FileUtils;
+
+/**
+ * The unsaved changes to a document that are read from a journal
+ * file which was left by a {@link RecoveryJournal} when the editor
+ * was not closed properly
+ */
+public final class RecoveredEdits {
+
+   private final File journalFile;
+   private final File file;
+   private final long baseHash;
+   private final EditSpans spans;
+
+   private RecoveredEdits(File journalFile, File file, long baseHash,
+         EditSpans spans) {
+
+      this.journalFile = journalFile;
+      this.file = file;
+      this.baseHash = baseHash;
+      this.spans = spans;
+   }
+
+   /**
+    * Reads the journal files that contain unsaved changes and are not
+    * in use by a running editor. Other files in the folder of journal
+    * files that are not in use, including journal files that cannot
+    * be read or contain no changes, are deleted.
+    *
+    * @return  the list of <code>RecoveredEdits</code>
+    */
+   public static List<RecoveredEdits> find() {
+      List<RecoveredEdits> list = new ArrayList<>();
+      File[] files = new File(RecoveryJournal.DIR).listFiles();
+      if (files == null) {
+         return list;
+      }
+      for (File f : files) {
+         if (RecoveryJournal.isInUse(f)) {
+            continue;
+         }
+         RecoveredEdits re = f.getName().endsWith(".recovery") ? read(f) : null;
+         if (re != null && re.spans.size() > 0) {
+            list.add(re);
+         }
+         else {
+            RecoveryJournal.delete(f);
+         }
+      }
+      return list;
+   }
+
+   /**
+    * Returns the file of the document
+    *
+    * @return  the file; null if the document had no file
+    */
+   public File file() {
+      return file;
+   }
+
+   /**
+    * Deletes the journal file
+    */
+   public void discard() {
+      RecoveryJournal.delete(journalFile);
+   }
+
+   /**
+    * Returns if the specified text is the base text of the changes.
+    * The text may end with a newline that the base text does not end
+    * with since reading a file adds a missing newline at the end.
+    *
+    * @param text  the text
+    * @return  true if the base text; false otherwise
+    */
+   boolean isBase(CharSequence text) {
+      int length = text.length();
+      return baseHash == UndoJournal.hash(text)
+            || (length > 0 && text.charAt(length - 1) == '\n'
+            && baseHash == UndoJournal.hash(text.subSequence(0, length - 1)));
+   }
+
+   /**
+    * Returns the changes to the base text
+    *
+    * @return  the EditSpans
+    */
+   EditSpans spans() {
+      return spans;
+   }
+
+   //
+   //--private--/
+   //
+
+   //
+   // Reads the spans of the checkpoint and composes the following
+   // changes with them. A change that is cut off at the end of the
+   // file is ignored.
+   private static RecoveredEdits read(File journalFile) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(journalFile)))) {
+
+         if (in.readInt() != RecoveryJournal.MAGIC
+               || in.readInt() != RecoveryJournal.VERSION) {
+            return null;
+         }
+         String path = in.readUTF();
+         File file = path.isEmpty() ? null : new File(path);
+         long baseHash = in.readLong();
+         EditSpans spans = new EditSpans();
+         int shift = 0;
+         try {
+            int type;
+            while ((type = in.read()) != -1) {
+               int pos = in.readInt();
+               switch (type) {
+                  case RecoveryJournal.SPAN:
+                     int end = in.readInt();
+                     String s = readString(in);
+                     spans.remove(pos + shift, end - pos);
+                     spans.insert(pos + shift, s);
+                     shift += s.length() - (end - pos);
+                     break;
+                  case RecoveryJournal.INSERT:
+                     spans.insert(pos, readString(in));
+                     break;
+                  case RecoveryJournal.REMOVE:
+                     spans.remove(pos, in.readInt());
+                     break;
+                  default:
+                     return null;
+               }
+            }
+         }
+         catch (EOFException e) {
+            // incomplete last change
+         }
+         return new RecoveredEdits(journalFile, file, baseHash, spans);
+      }
+      catch (IOException e) {
+         FileUtils.log(e);
+         return null;
+      }
+   }
+
+   private static String readString(DataInputStream in) throws IOException {
+      int length = in.readInt();
+      if (length < 0) {
+         throw new IOException("Invalid length in journal");
+      }
+      char[] c = new char[length];
+      for (int i = 0; i < length; i++) {
+         c[i] = in.readChar();
+      }
+      return new String(c);
+   }
+}
@@ -0,0 +1,372 @@
+package eg.document;
+
+import java.awt.EventQueue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import java.util.Random;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import javax.swing.Timer;
+
+//--Eadgyth--/
+import eg.document.styledtext.EditSpans;
+import eg.utils.FileUtils;
+import eg.utils.SystemParams;
+
+/**
+ * The journal of the unsaved changes to the text of a document which
+ * is written to a file in the 'recovery' folder of the '.eadgyth'
+ * directory and allows to recover the changes if the editor was not
+ * closed properly (see {@link RecoveredEdits}).
+ * <p>
+ * The changes refer to a base text, the text saved last, which is
+ * identified by a hash. A checkpoint writes the changes since the
+ * base as {@link EditSpans} and later changes are appended as
+ * single insertions and removals. Changes are collected on the EDT
+ * and written on a background thread at the latest one second after
+ * a change. A new checkpoint replaces the content of the file every
+ * 30 seconds if changes were appended meanwhile. No file exists while
+ * the text is unchanged.
+ * <p>
+ * The names of the journal files start with a marker of the running
+ * editor so that two editors that edit the same file do not write the
+ * same journal. Before the first journal is written the editor locks
+ * a file named by the marker and holds the lock until it exits. The
+ * journals of an editor whose lock file is locked are in use.
+ */
+final class RecoveryJournal {
+
+   static final String DIR
+         = SystemParams.EADGYTH_DATA_DIR + File.separator + "recovery";
+
+   static final int MAGIC = 0x45475243;
+   static final int VERSION = 1;
+   static final byte SPAN = 1;
+   static final byte INSERT = 2;
+   static final byte REMOVE = 3;
+
+   private static final ExecutorService WRITER
+         = Executors.newSingleThreadExecutor(r -> {
+              Thread t = new Thread(r, "Recovery journal");
+              t.setDaemon(true);
+              return t;
+           });
+
+   private static final int FLUSH_DELAY = 1000;
+   private static final int CHECKPOINT_INTERVAL = 30000;
+
+   private static final String MARKER
+         = Long.toHexString(new Random().nextLong() >>> 1);
+   //
+   // accessed on the writer thread
+   private static FileLock lock = null;
+
+   private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+   private final DataOutputStream out = new DataOutputStream(buffer);
+   private final Timer flushTimer;
+   private final Timer checkpointTimer;
+
+   private File journalFile;
+   private String filepath;
+   private long baseHash;
+   private EditSpans spans = new EditSpans();
+   private boolean isCheckpointDue = true;
+   private boolean isAppended = false;
+   private boolean isDiscarded = false;
+
+   /**
+    * @param f  the file of the document; may be null
+    * @param text  the base text
+    */
+   RecoveryJournal(File f, CharSequence text) {
+      setFile(f);
+      baseHash = UndoJournal.hash(text);
+      flushTimer = new Timer(FLUSH_DELAY, e -> flush());
+      flushTimer.setRepeats(false);
+      checkpointTimer = new Timer(CHECKPOINT_INTERVAL, e -> {
+         if (isAppended) {
+            isCheckpointDue = true;
+            flush();
+         }
+      });
+   }
+
+   /**
+    * Deletes the specified journal file in the background after any
+    * pending writes (see {@link #awaitWriting})
+    *
+    * @param f  the journal file
+    */
+   static void delete(File f) {
+      WRITER.execute(f::delete);
+   }
+
+   /**
+    * Returns if the specified journal file or lock file belongs to an
+    * editor that is running, which may be this editor. The file of an
+    * editor that was not closed properly or a file without marker is
+    * not in use.
+    *
+    * @param f  the file
+    * @return  true if in use; false otherwise
+    */
+   static boolean isInUse(File f) {
+      String name = f.getName();
+      int end = 0;
+      while (end < name.length()
+            && Character.digit(name.charAt(end), 16) != -1) {
+
+         end++;
+      }
+      String marker = name.substring(0, end);
+      if (marker.equals(MARKER)) {
+         return true;
+      }
+      File lockFile = new File(DIR, marker + ".lock");
+      if (marker.isEmpty() || !lockFile.exists()) {
+         return false;
+      }
+      try (FileChannel ch = FileChannel.open(lockFile.toPath(),
+            StandardOpenOption.WRITE)) {
+
+         return ch.tryLock() == null;
+      }
+      catch (OverlappingFileLockException e) {
+         return true;
+      }
+      catch (IOException e) {
+         return false;
+      }
+   }
+
+   /**
+    * Waits until the pending writes and deletions are done but at most
+    * for the specified time. Meant to be called before the application
+    * exits.
+    *
+    * @param timeout  the maximum time to wait in milliseconds
+    */
+   static void awaitWriting(long timeout) {
+      try {
+         WRITER.submit(() -> {}).get(timeout, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      catch (ExecutionException | TimeoutException e) {
+         FileUtils.log(e);
+      }
+   }
+
+   /**
+    * Sets the file of the document. The journal file of the previous
+    * file is deleted.
+    *
+    * @param f  the file; may be null
+    */
+   void setFile(File f) {
+      if (journalFile != null) {
+         delete(journalFile);
+         isCheckpointDue = true;
+      }
+      filepath = f != null ? f.getAbsolutePath() : "";
+      String name = f != null
+            ? Long.toHexString(UndoJournal.hash(filepath))
+            : "unnamed-" + Long.toHexString(System.nanoTime());
+
+      journalFile = new File(DIR, MARKER + "-" + name + ".recovery");
+   }
+
+   /**
+    * Sets a new base text which is the text saved last. Any
+    * recorded changes and the journal file are deleted.
+    *
+    * @param textHash  the hash of the text (see
+    * {@link UndoJournal#hash(CharSequence)})
+    */
+   void rebase(long textHash) {
+      baseHash = textHash;
+      spans = new EditSpans();
+      buffer.reset();
+      flushTimer.stop();
+      checkpointTimer.stop();
+      isCheckpointDue = true;
+      isAppended = false;
+      delete(journalFile);
+   }
+
+   /**
+    * Records an insertion
+    *
+    * @param pos  the position
+    * @param s  the inserted text
+    */
+   void insert(int pos, String s) {
+      spans.insert(pos, s);
+      try {
+         out.writeByte(INSERT);
+         out.writeInt(pos);
+         writeString(out, s);
+      }
+      catch (IOException e) {
+         throw new AssertionError(e); // not thrown by the buffer
+      }
+      changed();
+   }
+
+   /**
+    * Records a removal
+    *
+    * @param pos  the position
+    * @param length  the length of the removed text
+    */
+   void remove(int pos, int length) {
+      spans.remove(pos, length);
+      try {
+         out.writeByte(REMOVE);
+         out.writeInt(pos);
+         out.writeInt(length);
+      }
+      catch (IOException e) {
+         throw new AssertionError(e);
+      }
+      changed();
+   }
+
+   /**
+    * Ends recording and deletes the journal file
+    */
+   void discard() {
+      isDiscarded = true;
+      flushTimer.stop();
+      checkpointTimer.stop();
+      delete(journalFile);
+   }
+
+   //
+   //--private--/
+   //
+
+   private static void writeString(DataOutputStream dos, String s)
+         throws IOException {
+
+      dos.writeInt(s.length());
+      dos.writeChars(s);
+   }
+
+   private void changed() {
+      if (isDiscarded) {
+         return;
+      }
+      if (!flushTimer.isRunning()) {
+         flushTimer.start();
+      }
+      if (!checkpointTimer.isRunning()) {
+         checkpointTimer.start();
+      }
+   }
+
+   //
+   // Writes a checkpoint, if required, or appends the buffered
+   // changes
+   private void flush() {
+      flushTimer.stop();
+      byte[] b;
+      boolean isCheckpoint = isCheckpointDue;
+      if (isCheckpoint) {
+         b = checkpoint();
+         isCheckpointDue = false;
+         isAppended = false;
+      }
+      else {
+         b = buffer.toByteArray();
+         isAppended = true;
+      }
+      buffer.reset();
+      File f = journalFile;
+      WRITER.execute(() -> write(f, b, isCheckpoint));
+   }
+
+   private byte[] checkpoint() {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream dos = new DataOutputStream(bytes);
+      try {
+         dos.writeInt(MAGIC);
+         dos.writeInt(VERSION);
+         dos.writeUTF(filepath);
+         dos.writeLong(baseHash);
+         for (int i = 0; i < spans.size(); i++) {
+            dos.writeByte(SPAN);
+            dos.writeInt(spans.start(i));
+            dos.writeInt(spans.end(i));
+            writeString(dos, spans.text(i));
+         }
+      }
+      catch (IOException e) {
+         throw new AssertionError(e);
+      }
+      return bytes.toByteArray();
+   }
+
+   //
+   // Runs on the writer thread. A checkpoint is written to a temporary
+   // file which then replaces the journal file so that a checkpoint
+   // is never incomplete.
+   private static void write(File f, byte[] b, boolean isCheckpoint) {
+      if (b.length == 0) {
+         return;
+      }
+      new File(DIR).mkdirs();
+      try {
+         if (lock == null) {
+            lock = FileChannel.open(Paths.get(DIR, MARKER + ".lock"),
+                  StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+                  .tryLock();
+         }
+         if (isCheckpoint) {
+            Path tmp = Paths.get(f.getPath() + ".tmp");
+            write(tmp, b, StandardOpenOption.TRUNCATE_EXISTING);
+            Files.move(tmp, f.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                  StandardCopyOption.ATOMIC_MOVE);
+         }
+         else {
+            write(f.toPath(), b, StandardOpenOption.APPEND);
+         }
+      }
+      catch (IOException e) {
+         EventQueue.invokeLater(() -> FileUtils.log(e));
+      }
+   }
+
+   private static void write(Path p, byte[] b, StandardOpenOption mode)
+         throws IOException {
+
+      try (FileChannel ch = FileChannel.open(p, StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE, mode)) {
+
+         ByteBuffer bb = ByteBuffer.wrap(b);
+         while (bb.hasRemaining()) {
+            ch.write(bb);
+         }
+         ch.force(false);
+      }
+   }
+}
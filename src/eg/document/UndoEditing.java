@@ -4,10 +4,14 @@ import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.event.KeyAdapter;
 
+import java.io.File;
+
 import java.util.ArrayList;
 import java.util.List;
 
 //--Eadgyth--/
+import eg.Prefs;
+import eg.document.styledtext.EditSpans;
 import eg.document.styledtext.EditableText;
 
 /**
@@ -20,7 +24,9 @@ import eg.document.styledtext.EditableText;
  * is none) in reverse order. Accordingly, a redo action redoes the
  * edits in front of a breakpoint (or all if there is none) in
  * forward direction. The starting point of an action is always
- * the edit were undoing or redoing has stopped before.
+ * the edit were undoing or redoing has stopped before. The edits of
+ * an action are composed to {@link EditSpans} which are replaced in
+ * the document in one transaction.
  * <p>
  * When a new edit is added a breakpoint is set if:
  * <ul>
@@ -32,26 +38,37 @@ import eg.document.styledtext.EditableText;
  * <li> The edit is a removal and the content is longer than one
  *      character.
  * <li> A mark was set by {@link #markBreakpoint()} or
-        {@link #markSavingPoint()} after the previous edit.
+        {@link #markSavingPoint(long)} after the previous edit.
  * </ul>
  * <p>
  * Adding breakpoints may be disabled to form a larger undoable
  * unit (see {@link #disableBreakpointAdding(boolean)}).
  * <p>
  * If the number of breakpoints exceeds 50 the edits up this
- * breakpoint are removed.
+ * breakpoint are removed. The edits are kept in an {@link UndoStore}
+ * whose size is limited by a budget of memory (by default 8 MB).
+ * While the budget is exceeded the oldest edits up to the first
+ * breakpoint, or all edits if there is no breakpoint, are removed
+ * so that an undoable unit is never removed in part.
  * <p>
  * Any undone edits are removed when a new edit is added.
+ * <p>
+ * The edits may be kept in an {@link UndoJournal} on the disk. The
+ * journal of a file is restored when the file is opened again,
+ * provided that the text saved last equals the content of the file.
+ * The journal is read in the background into a separate store that
+ * is trimmed to the budget while reading and replaces the empty
+ * store when reading is complete.
  */
 public class UndoEditing {
 
    private static final int LIMIT = 50;
+   private static final long DEFAULT_BUDGET = 8L << 20;
+   private static final long BUDGET = budget();
 
    private final EditableText txt;
-   private final List<String> contents = new ArrayList<>(360);
-   private final List<Integer> positions = new ArrayList<>(360);
-   private final List<Boolean> types = new ArrayList<>(360);
-   private final List<Integer> breakpoints = new ArrayList<>(60);
+   private UndoStore store = new UndoStore();
+   private List<Integer> breakpoints = new ArrayList<>(60);
 
    private int iEd = -1;
    private int iBr = -1;
@@ -59,6 +76,9 @@ public class UndoEditing {
    private boolean isMark = false;
    private boolean isMerging = false;
    private boolean isDeleteTyped = false;
+   private UndoJournal journal = null;
+   private UndoJournal checkedJournal = null;
+   private boolean isReplayValid = true;
 
    /**
     * @param txt  the {@link EditableText}
@@ -68,6 +88,13 @@ public class UndoEditing {
       txt.textArea().addKeyListener(keyListener);
    }
 
+   //
+   // Creates an UndoEditing without text that only receives the edits
+   // replayed from a journal on the thread that reads the journal
+   private UndoEditing() {
+      txt = null;
+   }
+
    /**
     * Adds an edit
     *
@@ -79,10 +106,11 @@ public class UndoEditing {
    public void addEdit(String content, int pos, boolean isInsert) {
       trimEnd();
       trimStart();
-      contents.add(content);
-      positions.add(pos);
-      types.add(isInsert);
-      iEd = contents.size() - 1;
+      store.add(content, pos, isInsert);
+      if (journal != null) {
+         journal.add(content, pos, isInsert);
+      }
+      iEd = store.size() - 1;
       if (isMark) {
          addBreakpoint();
          isMark = false;
@@ -107,6 +135,7 @@ public class UndoEditing {
       if (isInsert) {
          isDeleteTyped = false;
       }
+      trimToBudget();
       iBr = breakpoints.size() - 1;
    }
 
@@ -125,7 +154,16 @@ public class UndoEditing {
     * @return  true if contents can be redone
     */
    public boolean canRedo() {
-      return iEd < contents.size() - 1;
+      return iEd < store.size() - 1;
+   }
+
+   /**
+    * Returns the memory that is allocated to store the edits
+    *
+    * @return  the number of bytes
+    */
+   public long memoryUse() {
+      return store.memoryUse();
    }
 
    /**
@@ -136,15 +174,16 @@ public class UndoEditing {
       if (!canUndo()) {
          return;
       }
+      EditSpans spans = new EditSpans();
       int nextPos = 0;
       while (iEd > -1) {
          if (isInsert(iEd)) {
             nextPos = pos(iEd);
-            txt.remove(nextPos, content(iEd).length());
+            spans.remove(nextPos, store.length(iEd));
          }
          else {
-            nextPos = pos(iEd) + content(iEd).length();
-            txt.insert(pos(iEd), content(iEd));
+            nextPos = pos(iEd) + store.length(iEd);
+            spans.insert(pos(iEd), content(iEd));
          }
          iEd--;
          if (iBr > -1 && iEd == breakPt(iBr)) {
@@ -155,6 +194,7 @@ public class UndoEditing {
       if (iEd == -1) {
          iBr--;
       }
+      txt.replace(spans);
       setCaretPosition(nextPos);
    }
 
@@ -166,16 +206,17 @@ public class UndoEditing {
       if (!canRedo()) {
          return;
       }
+      EditSpans spans = new EditSpans();
       int nextPos = 0;
-      while (iEd < contents.size() - 1) {
+      while (iEd < store.size() - 1) {
          int iNext = iEd + 1;
          if (isInsert(iNext)) {
-            nextPos = pos(iNext) + content(iNext).length();
-            txt.insert(pos(iNext), content(iNext));
+            nextPos = pos(iNext) + store.length(iNext);
+            spans.insert(pos(iNext), content(iNext));
          }
          else {
             nextPos = pos(iNext);
-            txt.remove(nextPos, content(iNext).length());
+            spans.remove(nextPos, store.length(iNext));
          }
          iEd++;
          int iBrAhead = iBr + 2;
@@ -184,9 +225,10 @@ public class UndoEditing {
             break;
          }
       }
-      if (iEd == contents.size() - 1) {
+      if (iEd == store.size() - 1) {
          iBr++;
       }
+      txt.replace(spans);
       setCaretPosition(nextPos);
    }
 
@@ -194,10 +236,15 @@ public class UndoEditing {
     * Marks the current edit as saving point and also as breakpoint
     * which is set as soon as another edit is added.
     *
+    * @param textHash  the hash of the saved text (see
+    * {@link UndoJournal#hash(CharSequence)})
     */
-   public void markSavingPoint() {
+   public void markSavingPoint(long textHash) {
       iSaved = iEd;
       markBreakpoint();
+      if (journal != null) {
+         journal.saved(iSaved, textHash);
+      }
    }
 
    /**
@@ -215,7 +262,7 @@ public class UndoEditing {
     * another edit is added
     */
    public void markBreakpoint() {
-      if (!contents.isEmpty()) {
+      if (store.size() > 0) {
          isMark = true;
       }
    }
@@ -228,7 +275,7 @@ public class UndoEditing {
     * @param b  true to disable, false to re-enable
     */
    public void disableBreakpointAdding(boolean b) {
-      if (b && !txt.text().isEmpty()) {
+      if (b && txt.content().length() > 0) {
          addBreakpoint(iEd);
       }
       else {
@@ -237,6 +284,68 @@ public class UndoEditing {
       isMerging = b;
    }
 
+   /**
+    * Enables keeping the edits in a journal for the specified file if
+    * journals are enabled in the preferences (see
+    * {@link UndoJournal#isEnabled}). A journal that exists for the
+    * file is read in the background and its edits are restored if the
+    * text saved last equals the current text and no edit has been
+    * added meanwhile. Otherwise, the journal is replaced by the current
+    * edits.
+    *
+    * @param f  the file
+    * @param restorable  the Runnable that is run if the edits in the
+    * journal were restored
+    */
+   public void enableJournal(File f, Runnable restorable) {
+      closeJournal();
+      if (!UndoJournal.isEnabled()) {
+         return;
+      }
+      File dir = UndoJournal.defaultDir();
+      UndoJournal j = new UndoJournal(f, dir, 4 * BUDGET, () -> {
+         if (journal != null) {
+            rewriteJournal();
+         }
+      });
+      checkedJournal = j;
+      UndoEditing replayed = new UndoEditing();
+      j.replay(txt.content().snapshot(), replayed.replay, isRead -> {
+         if (checkedJournal != j) {
+            return;
+         }
+         checkedJournal = null;
+         boolean isRestored = isRead && replayed.isReplayValid
+               && replayed.iSaved > -2 && store.size() == 0;
+
+         if (isRestored) {
+            store = replayed.store;
+            breakpoints = replayed.breakpoints;
+            iSaved = replayed.iSaved;
+            setPosition(iSaved);
+            markBreakpoint();
+         }
+         journal = j;
+         rewriteJournal();
+         if (isRestored) {
+            restorable.run();
+         }
+      });
+   }
+
+   /**
+    * Writes the records of the journal that are not yet written and
+    * ends keeping the edits in the journal. Does nothing if no
+    * journal is kept.
+    */
+   public void closeJournal() {
+      checkedJournal = null;
+      if (journal != null) {
+         journal.close();
+         journal = null;
+      }
+   }
+
    //
    //--private--/
    //
@@ -251,34 +360,62 @@ public class UndoEditing {
       if (index != -1 && !breakpoints.contains(index)) {
          breakpoints.add(index);
          iBr = breakpoints.size() - 1;
+         if (journal != null) {
+            journal.breakpoint(index);
+         }
+      }
+   }
+
+   private static long budget() {
+      String s = new Prefs().property(Prefs.UNDO_BUDGET_KEY);
+      try {
+         return Long.parseLong(s) << 20;
+      }
+      catch (NumberFormatException e) {
+         return DEFAULT_BUDGET;
       }
    }
 
    private void trimStart() {
-      if (breakpoints.size() <= LIMIT) {
-         return;
+      if (breakpoints.size() > LIMIT) {
+         cut(breakPt(0) + 1);
       }
-      int iCut = breakPt(0);
-      int cutLength = iCut + 1;
-      breakpoints.remove(0);
+   }
+
+   private void trimToBudget() {
+      while (store.usedBytes() > BUDGET) {
+         cut(breakpoints.isEmpty() ? store.size() : breakPt(0) + 1);
+      }
+      iEd = store.size() - 1;
+   }
+
+   private void cut(int cutLength) {
+      int iCut = cutLength - 1;
+      int n = 0;
+      while (n < breakpoints.size() && breakPt(n) <= iCut) {
+         n++;
+      }
+      breakpoints.subList(0, n).clear();
       for (int i = 0; i < breakpoints.size(); i++) {
          int prevBreakPt = breakPt(i);
          breakpoints.set(i, prevBreakPt - cutLength);
       }
       iSaved = iSaved > -1 && iSaved >= iCut ? iSaved - cutLength : -2;
-      contents.subList(0, cutLength).clear();
-      positions.subList(0, cutLength).clear();
-      types.subList(0, cutLength).clear();
+      store.removeFirst(cutLength);
+      if (journal != null) {
+         journal.cut(cutLength);
+      }
    }
 
    private void trimEnd() {
-      if (iEd == contents.size() - 1) {
+      if (iEd == store.size() - 1) {
          return; // no contents are undone or all undone contents are redone
       }
-      for (int i = contents.size() - 1; i > iEd; i--) {
-         contents.remove(i);
-         positions.remove(i);
-         types.remove(i);
+      if (journal != null) {
+         journal.removeEnd(iEd);
+      }
+      for (int i = store.size() - 1; i > iEd; i--) {
+         store.removeLast();
          int iLastBreak = breakpoints.size() - 1;
          if (iLastBreak > -1 && i == breakPt(iLastBreak)) {
             breakpoints.remove(iLastBreak);
@@ -289,16 +426,54 @@ public class UndoEditing {
       }
    }
 
+   //
+   // Replaces the content of the journal with the current edits
+   private void rewriteJournal() {
+      journal.reset();
+      for (int i = 0; i < store.size(); i++) {
+         journal.add(content(i), pos(i), isInsert(i));
+      }
+      for (int i = 0; i < breakpoints.size(); i++) {
+         journal.breakpoint(breakPt(i));
+      }
+      if (iSaved == iEd) {
+         journal.saved(iSaved, UndoJournal.hash(txt.content()));
+      }
+      else if (iSaved > -2) {
+         journal.saved(iSaved);
+      }
+   }
+
+   //
+   // Sets the edit at the specified index as the edit where undoing
+   // or redoing starts
+   private void setPosition(int index) {
+      iEd = index;
+      if (index == store.size() - 1) {
+         iBr = breakpoints.size() - 1;
+      }
+      else if (index == -1) {
+         iBr = -2;
+      }
+      else {
+         int n = 0;
+         while (n < breakpoints.size() && breakPt(n) < index) {
+            n++;
+         }
+         iBr = n - 1;
+      }
+   }
+
    private int pos(int i) {
-      return positions.get(i);
+      return store.pos(i);
    }
 
    private String content(int i) {
-      return contents.get(i);
+      return store.content(i);
    }
 
    private boolean isInsert(int i) {
-      return types.get(i);
+      return store.isInsert(i);
    }
 
    private int breakPt(int i) {
@@ -312,6 +487,75 @@ public class UndoEditing {
       }
    }
 
+   //
+   // Adds the edits read from a journal and trims the edits to the
+   // budget while reading. The indices in the journal that follow
+   // refer to the edits without this trimming and are shifted by
+   // nTrimmed.
+   private final UndoJournal.Replay replay = new UndoJournal.Replay() {
+
+      private int nTrimmed = 0;
+
+      @Override
+      public void add(String content, int pos, boolean isInsert) {
+         store.add(content, pos, isInsert);
+         int size = store.size();
+         trimToBudget();
+         nTrimmed += size - store.size();
+      }
+
+      @Override
+      public void breakpoint(int index) {
+         int i = index - nTrimmed;
+         if (index < 0 || i >= store.size()) {
+            isReplayValid = false;
+         }
+         else if (i >= 0) {
+            addBreakpoint(i);
+         }
+      }
+
+      @Override
+      public void removeEnd(int index) {
+         int i = index - nTrimmed;
+         if (index < -1 || i >= store.size()) {
+            isReplayValid = false;
+         }
+         else {
+            iEd = Math.max(i, -1);
+            trimEnd();
+            iEd = store.size() - 1;
+            nTrimmed = Math.min(nTrimmed, index + 1);
+         }
+      }
+
+      @Override
+      public void cut(int length) {
+         int n = length - nTrimmed;
+         if (length <= 0 || n > store.size()) {
+            isReplayValid = false;
+         }
+         else if (n > 0) {
+            UndoEditing.this.cut(n);
+            nTrimmed = 0;
+         }
+         else {
+            nTrimmed -= length;
+         }
+      }
+
+      @Override
+      public void saved(int index) {
+         int i = index - nTrimmed;
+         if (index < -1 || i >= store.size()) {
+            isReplayValid = false;
+         }
+         else {
+            iSaved = i >= -1 ? i : -2;
+         }
+      }
+   };
+
    private final KeyListener keyListener = new KeyAdapter() {
 
       @Override
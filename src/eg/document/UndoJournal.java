@@ -0,0 +1,539 @@
+package eg.document;
+
+import java.awt.EventQueue;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Consumer;
+
+import javax.swing.Timer;
+
+//--Eadgyth--/
+import eg.Prefs;
+import eg.utils.FileUtils;
+import eg.utils.SystemParams;
+
+/**
+ * The journal of the undoable edits of a document that is written
+ * to a file in a given directory, which is the 'undo' folder of the
+ * '.eadgyth' directory in the editor.
+ * <p>
+ * The journal is an append-only binary log. It starts with the path
+ * of the document file which also determines the name of the journal
+ * file. The records describe the edits that are added in
+ * {@link UndoEditing}, the breakpoints, the removal of edits and the
+ * saving points together with a hash of the text that was saved.
+ * Records are collected in a buffer on the EDT. The buffer is
+ * appended and forced to the disk on a background thread at the
+ * latest one second after a record was added and when the journal
+ * is closed, without waiting for the writing to finish.
+ * <p>
+ * A journal can be restored when the file is opened again if the
+ * hash of the last saving point equals the hash of the content of
+ * the file. It is read as a stream of records and not at once on
+ * the background thread.
+ */
+final class UndoJournal {
+
+   /**
+    * Receives the records that are read from a journal
+    */
+   interface Replay {
+
+      /**
+       * Adds an edit
+       *
+       * @param content  the text content of the edit
+       * @param pos  the position of the edit
+       * @param isInsert  true for an insertion, false for a removal
+       */
+      void add(String content, int pos, boolean isInsert);
+
+      /**
+       * Adds a breakpoint
+       *
+       * @param index  the index of the edit that is the breakpoint
+       */
+      void breakpoint(int index);
+
+      /**
+       * Removes the edits behind an index
+       *
+       * @param index  the index of the last edit that is kept
+       */
+      void removeEnd(int index);
+
+      /**
+       * Removes edits from the start
+       *
+       * @param length  the number of edits
+       */
+      void cut(int length);
+
+      /**
+       * Sets the saving point
+       *
+       * @param index  the index of the edit at the saving point
+       */
+      void saved(int index);
+   }
+
+   /**
+    * The hash of an empty text */
+   static final long HASH_BASIS = 0xcbf29ce484222325L;
+
+   private static final ExecutorService WRITER
+         = Executors.newSingleThreadExecutor(r -> {
+              Thread t = new Thread(r, "Undo journal");
+              t.setDaemon(true);
+              return t;
+           });
+
+   private static final int MAGIC = 0x45475544;
+   private static final int VERSION = 1;
+   private static final int FLUSH_DELAY = 1000;
+   private static final byte INSERT = 1;
+   private static final byte REMOVE = 2;
+   private static final byte BREAKPOINT = 3;
+   private static final byte REMOVE_END = 4;
+   private static final byte CUT = 5;
+   private static final byte SAVED = 6;
+
+   private final File dir;
+   private final File journalFile;
+   private final String filepath;
+   private final long maxSize;
+   private final Runnable oversized;
+   private final Timer flushTimer;
+   private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+   private final DataOutputStream out = new DataOutputStream(buffer);
+
+   private boolean isRewrite = false;
+   private boolean hasSavedHash = false;
+   private long savedHash = 0;
+   //
+   // accessed on the writer thread
+   private boolean isOversizeReported = false;
+
+   /**
+    * @param f  the file of the document
+    * @param dir  the directory of the journal file which is created
+    * when the journal is written
+    * @param maxSize  the size of the journal file in bytes from which
+    * on the journal is oversized
+    * @param oversized  the Runnable that is run on the EDT when the
+    * journal file became oversized; it is expected to rewrite the
+    * journal (see {@link #reset})
+    */
+   UndoJournal(File f, File dir, long maxSize, Runnable oversized) {
+      filepath = f.getAbsolutePath();
+      this.dir = dir;
+      journalFile = new File(dir,
+            Long.toHexString(hash(filepath)) + ".journal");
+
+      this.maxSize = maxSize;
+      this.oversized = oversized;
+      flushTimer = new Timer(FLUSH_DELAY, e -> flush());
+      flushTimer.setRepeats(false);
+   }
+
+   /**
+    * Returns if journals are enabled in the preferences and the
+    * '.eadgyth' directory exists
+    *
+    * @return  true if enabled; false otherwise
+    */
+   static boolean isEnabled() {
+      return SystemParams.existsEadgythDataDir()
+            && new Prefs().yesNoProperty(Prefs.UNDO_JOURNAL_KEY);
+   }
+
+   /**
+    * Returns the 'undo' folder of the '.eadgyth' directory in which
+    * the editor keeps the journals
+    *
+    * @return  the directory
+    */
+   static File defaultDir() {
+      return new File(SystemParams.EADGYTH_DATA_DIR, "undo");
+   }
+
+   /**
+    * Returns a hash of the specified text
+    *
+    * @param text  the text
+    * @return  the hash
+    */
+   static long hash(CharSequence text) {
+      long h = HASH_BASIS;
+      for (int i = 0; i < text.length(); i++) {
+         h = hash(h, text.charAt(i));
+      }
+      return h;
+   }
+
+   /**
+    * Returns the hash of a text that is extended by the specified
+    * character. A text that is hashed character by character starting
+    * with {@link #HASH_BASIS} gets the hash returned by
+    * {@link #hash(CharSequence)}.
+    *
+    * @param h  the hash of the text
+    * @param c  the character
+    * @return  the hash
+    */
+   static long hash(long h, char c) {
+      return (h ^ c) * 0x100000001b3L;
+   }
+
+   /**
+    * Waits until the records that were passed to the background
+    * thread are written but at most for the specified time. Meant to
+    * be called before the application exits.
+    *
+    * @param timeout  the maximum time to wait in milliseconds
+    */
+   static void awaitWriting(long timeout) {
+      try {
+         WRITER.submit(() -> {}).get(timeout, TimeUnit.MILLISECONDS);
+      }
+      catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+      }
+      catch (ExecutionException | TimeoutException e) {
+         FileUtils.log(e);
+      }
+   }
+
+   /**
+    * Checks in the background if the journal file exists and can be
+    * restored for the specified text and, if so, reads the records
+    * and passes them to the specified <code>Replay</code> in the
+    * background as well. Meant to be called before any records are
+    * added.
+    *
+    * @param text  the text which is the content of the file and must
+    * not be changed
+    * @param r  the Replay which is invoked on the background thread
+    * @param result  the Consumer that accepts true if the journal was
+    * restorable and all records were read, false otherwise; invoked
+    * on the EDT
+    */
+   void replay(CharSequence text, Replay r, Consumer<Boolean> result) {
+      WRITER.execute(() -> {
+         boolean b = false;
+         if (journalFile.exists()) {
+            HashReading hr = new HashReading();
+            try {
+               b = read(hr) && hr.hasHash && hr.hash == hash(text)
+                     && read(r);
+            }
+            catch (IOException e) {
+               EventQueue.invokeLater(() -> FileUtils.log(e));
+            }
+         }
+         boolean isRead = b;
+         EventQueue.invokeLater(() -> result.accept(isRead));
+      });
+   }
+
+   /**
+    * Discards the records that are not yet written and makes that
+    * the records added next replace the content of the journal file
+    */
+   void reset() {
+      buffer.reset();
+      isRewrite = true;
+      startFlushTimer();
+   }
+
+   /**
+    * Adds an edit
+    *
+    * @param content  the text content of the edit
+    * @param pos  the position of the edit
+    * @param isInsert  true for an insertion, false for a removal
+    */
+   void add(String content, int pos, boolean isInsert) {
+      try {
+         out.writeByte(isInsert ? INSERT : REMOVE);
+         out.writeInt(pos);
+         out.writeInt(content.length());
+         out.writeChars(content);
+      }
+      catch (IOException e) {
+         throw new AssertionError(e); // not thrown by the buffer
+      }
+      startFlushTimer();
+   }
+
+   /**
+    * Adds a breakpoint
+    *
+    * @param index  the index of the edit that is the breakpoint
+    */
+   void breakpoint(int index) {
+      addRecord(BREAKPOINT, index);
+   }
+
+   /**
+    * Removes the edits behind the specified index
+    *
+    * @param index  the index of the last edit that is kept
+    */
+   void removeEnd(int index) {
+      addRecord(REMOVE_END, index);
+   }
+
+   /**
+    * Removes the specified number of edits from the start
+    *
+    * @param length  the number of edits
+    */
+   void cut(int length) {
+      addRecord(CUT, length);
+   }
+
+   /**
+    * Sets the saving point
+    *
+    * @param index  the index of the edit at the saving point
+    * @param textHash  the hash of the text that was saved
+    */
+   void saved(int index, long textHash) {
+      savedHash = textHash;
+      hasSavedHash = true;
+      saved(index);
+   }
+
+   /**
+    * Sets the saving point with the hash of the text that was saved
+    * last. Does nothing if no text was saved since this journal was
+    * created.
+    *
+    * @param index  the index of the edit at the saving point
+    */
+   void saved(int index) {
+      if (!hasSavedHash) {
+         return;
+      }
+      addRecord(SAVED, index);
+      try {
+         out.writeLong(savedHash);
+      }
+      catch (IOException e) {
+         throw new AssertionError(e);
+      }
+   }
+
+   /**
+    * Writes the records that are not yet written in the background
+    * (see {@link #awaitWriting})
+    */
+   void close() {
+      flush();
+   }
+
+   //
+   //--private--/
+   //
+
+   private void addRecord(byte type, int value) {
+      try {
+         out.writeByte(type);
+         out.writeInt(value);
+      }
+      catch (IOException e) {
+         throw new AssertionError(e);
+      }
+      startFlushTimer();
+   }
+
+   private void startFlushTimer() {
+      if (!flushTimer.isRunning()) {
+         flushTimer.start();
+      }
+   }
+
+   private void flush() {
+      flushTimer.stop();
+      byte[] b = buffer.toByteArray();
+      boolean truncate = isRewrite;
+      buffer.reset();
+      isRewrite = false;
+      WRITER.execute(() -> write(b, truncate));
+   }
+
+   //
+   // Appends the bytes to the journal file or replaces the content
+   // if truncate is true. Runs on the writer thread.
+   private void write(byte[] b, boolean truncate) {
+      if (b.length == 0 && !truncate) {
+         return;
+      }
+      dir.mkdirs();
+      StandardOpenOption mode = truncate
+            ? StandardOpenOption.TRUNCATE_EXISTING
+            : StandardOpenOption.APPEND;
+
+      try (FileChannel ch = FileChannel.open(journalFile.toPath(),
+            StandardOpenOption.CREATE, StandardOpenOption.WRITE, mode)) {
+
+         if (ch.size() == 0) {
+            writeFully(ch, header());
+         }
+         writeFully(ch, b);
+         ch.force(false);
+         if (truncate) {
+            isOversizeReported = false;
+         }
+         else if (ch.size() > maxSize && !isOversizeReported) {
+            isOversizeReported = true;
+            EventQueue.invokeLater(oversized);
+         }
+      }
+      catch (IOException e) {
+         EventQueue.invokeLater(() -> FileUtils.log(e));
+      }
+   }
+
+   private void writeFully(FileChannel ch, byte[] b) throws IOException {
+      ByteBuffer bb = ByteBuffer.wrap(b);
+      while (bb.hasRemaining()) {
+         ch.write(bb);
+      }
+   }
+
+   private byte[] header() throws IOException {
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream dos = new DataOutputStream(bytes);
+      dos.writeInt(MAGIC);
+      dos.writeInt(VERSION);
+      dos.writeUTF(filepath);
+      return bytes.toByteArray();
+   }
+
+   //
+   // Reads the records and passes them to r. Returns false if the
+   // header does not belong to this journal. A record that is cut
+   // off at the end, as after a crash while writing, is ignored.
+   private boolean read(Replay r) throws IOException {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+            new FileInputStream(journalFile)))) {
+
+         try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                  || !filepath.equals(in.readUTF())) {
+               return false;
+            }
+            int type;
+            while ((type = in.read()) != -1) {
+               if (!readRecord(in, type, r)) {
+                  return false;
+               }
+            }
+         }
+         catch (EOFException e) {
+            // incomplete last record
+         }
+         return true;
+      }
+   }
+
+   private boolean readRecord(DataInputStream in, int type, Replay r)
+         throws IOException {
+
+      int value = in.readInt();
+      switch (type) {
+         case INSERT:
+         case REMOVE:
+            int length = in.readInt();
+            if (value < 0 || length < 0) {
+               return false;
+            }
+            if (r instanceof HashReading) {
+               skipFully(in, 2L * length);
+            }
+            else {
+               char[] c = new char[length];
+               for (int i = 0; i < length; i++) {
+                  c[i] = in.readChar();
+               }
+               r.add(new String(c), value, type == INSERT);
+            }
+            return true;
+         case BREAKPOINT:
+            r.breakpoint(value);
+            return true;
+         case REMOVE_END:
+            r.removeEnd(value);
+            return true;
+         case CUT:
+            r.cut(value);
+            return true;
+         case SAVED:
+            long h = in.readLong();
+            if (r instanceof HashReading) {
+               ((HashReading) r).setHash(h);
+            }
+            r.saved(value);
+            return true;
+         default:
+            return false;
+      }
+   }
+
+   private void skipFully(DataInputStream in, long n) throws IOException {
+      while (n > 0) {
+         int skipped = in.skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+         if (skipped == 0) {
+            throw new EOFException();
+         }
+         n -= skipped;
+      }
+   }
+
+   //
+   // Finds the hash of the last saving point
+   private static class HashReading implements Replay {
+
+      private boolean hasHash = false;
+      private long hash = 0;
+
+      private void setHash(long h) {
+         hasHash = true;
+         hash = h;
+      }
+
+      @Override
+      public void add(String content, int pos, boolean isInsert) {}
+
+      @Override
+      public void breakpoint(int index) {}
+
+      @Override
+      public void removeEnd(int index) {}
+
+      @Override
+      public void cut(int length) {}
+
+      @Override
+      public void saved(int index) {}
+   }
+}
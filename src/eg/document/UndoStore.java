@@ -0,0 +1,209 @@
+package eg.document;
+
+/**
+ * The storage of the edits in {@link UndoEditing}.
+ * <p>
+ * The text of all edits is packed into one char array (the arena)
+ * and the offset in the arena, the length, the position and the type
+ * of each edit are kept in primitive arrays. Edits are added to the
+ * end and removed from the end or from the start. The space that
+ * became unused at the start is reclaimed when more space is needed
+ * and an arena that is much larger than needed is shrunk then.
+ */
+final class UndoStore {
+
+   private static final int BYTES_PER_EDIT = 17;
+   private static final int MIN_ARENA_LENGTH = 1024;
+   private static final byte INSERT = 1;
+
+   private char[] arena = new char[MIN_ARENA_LENGTH];
+   private long arenaBase = 0;
+   private int arenaEnd = 0;
+
+   private long[] offsets = new long[64];
+   private int[] lengths = new int[64];
+   private int[] positions = new int[64];
+   private byte[] flags = new byte[64];
+   private int head = 0;
+   private int size = 0;
+
+   /**
+    * Returns the number of edits
+    *
+    * @return  the number
+    */
+   int size() {
+      return size;
+   }
+
+   /**
+    * Adds an edit to the end
+    *
+    * @param content  the text content of the edit
+    * @param pos  the position of the edit
+    * @param isInsert  true for an insertion, false for a removal
+    */
+   void add(String content, int pos, boolean isInsert) {
+      int length = content.length();
+      ensureArenaSpace(length);
+      ensureEditSpace();
+      content.getChars(0, length, arena, arenaEnd);
+      int slot = head + size;
+      offsets[slot] = arenaBase + arenaEnd;
+      lengths[slot] = length;
+      positions[slot] = pos;
+      flags[slot] = isInsert ? INSERT : 0;
+      arenaEnd += length;
+      size++;
+   }
+
+   /**
+    * Returns the text content of the edit at the specified index
+    *
+    * @param i  the index
+    * @return  the text content
+    */
+   String content(int i) {
+      int slot = head + i;
+      return new String(arena, (int) (offsets[slot] - arenaBase),
+            lengths[slot]);
+   }
+
+   /**
+    * Returns the length of the text content of the edit at the
+    * specified index
+    *
+    * @param i  the index
+    * @return  the length
+    */
+   int length(int i) {
+      return lengths[head + i];
+   }
+
+   /**
+    * Returns the position of the edit at the specified index
+    *
+    * @param i  the index
+    * @return  the position
+    */
+   int pos(int i) {
+      return positions[head + i];
+   }
+
+   /**
+    * Returns if the edit at the specified index is an insertion
+    *
+    * @param i  the index
+    * @return  true if an insertion, false if a removal
+    */
+   boolean isInsert(int i) {
+      return flags[head + i] == INSERT;
+   }
+
+   /**
+    * Removes the last edit
+    */
+   void removeLast() {
+      size--;
+      arenaEnd = (int) (offsets[head + size] - arenaBase);
+   }
+
+   /**
+    * Removes the specified number of edits from the start
+    *
+    * @param n  the number
+    */
+   void removeFirst(int n) {
+      head += n;
+      size -= n;
+      if (size == 0) {
+         head = 0;
+         arenaEnd = 0;
+      }
+   }
+
+   /**
+    * Returns the number of bytes that the stored edits occupy
+    *
+    * @return  the number of bytes
+    */
+   long usedBytes() {
+      return 2L * (arenaEnd - arenaStart()) + (long) BYTES_PER_EDIT * size;
+   }
+
+   /**
+    * Returns the number of bytes of the allocated arrays
+    *
+    * @return  the number of bytes
+    */
+   long memoryUse() {
+      return 2L * arena.length + (long) BYTES_PER_EDIT * offsets.length;
+   }
+
+   //
+   //--private--/
+   //
+
+   private int arenaStart() {
+      return size == 0 ? arenaEnd : (int) (offsets[head] - arenaBase);
+   }
+
+   private void ensureArenaSpace(int length) {
+      if (arenaEnd + length <= arena.length) {
+         return;
+      }
+      int start = arenaStart();
+      int used = arenaEnd - start;
+      int needed = used + length;
+      int newLength = arena.length;
+      while (newLength < needed) {
+         newLength *= 2;
+      }
+      while (newLength > MIN_ARENA_LENGTH && newLength >= 4 * needed) {
+         newLength /= 2;
+      }
+      char[] target = newLength == arena.length ? arena : new char[newLength];
+      System.arraycopy(arena, start, target, 0, used);
+      arena = target;
+      arenaBase += start;
+      arenaEnd = used;
+   }
+
+   private void ensureEditSpace() {
+      if (head + size < offsets.length) {
+         return;
+      }
+      if (head > 0 && size < offsets.length / 2) {
+         System.arraycopy(offsets, head, offsets, 0, size);
+         System.arraycopy(lengths, head, lengths, 0, size);
+         System.arraycopy(positions, head, positions, 0, size);
+         System.arraycopy(flags, head, flags, 0, size);
+      }
+      else {
+         int n = offsets.length * 2;
+         offsets = copy(offsets, n);
+         lengths = copy(lengths, n);
+         positions = copy(positions, n);
+         flags = copy(flags, n);
+      }
+      head = 0;
+   }
+
+   private long[] copy(long[] arr, int n) {
+      long[] res = new long[n];
+      System.arraycopy(arr, head, res, 0, size);
+      return res;
+   }
+
+   private int[] copy(int[] arr, int n) {
+      int[] res = new int[n];
+      System.arraycopy(arr, head, res, 0, size);
+      return res;
+   }
+
+   private byte[] copy(byte[] arr, int n) {
+      byte[] res = new byte[n];
+      System.arraycopy(arr, head, res, 0, size);
+      return res;
+   }
+}
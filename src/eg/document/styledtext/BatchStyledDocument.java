@@ -0,0 +1,173 @@
+package eg.document.styledtext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.UndoableEditEvent;
+
+import javax.swing.text.AttributeSet;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.Element;
+import javax.swing.text.SimpleAttributeSet;
+
+/**
+ * A <code>DefaultStyledDocument</code> that sets the character
+ * attributes of a sequence of {@link StyleRuns} at once and that
+ * replaces the sections of text in {@link EditSpans} in one
+ * transaction.
+ * <p>
+ * The runs are set while the document is locked for writing once
+ * and listeners are notified by a single change event. The character
+ * elements in the affected part of each paragraph are replaced by
+ * new elements where neighbouring runs with equal attributes form one
+ * element.
+ */
+@SuppressWarnings("serial")
+public class BatchStyledDocument extends DefaultStyledDocument {
+
+   /**
+    * Sets the character attributes of the specified runs. The
+    * attributes of a run are added to the existing attributes.
+    *
+    * @param runs  the StyleRuns which must not overlap and be
+    * sorted by the start position
+    * @param offset  the offset added to the start positions of the
+    * runs
+    */
+   public void setCharacterAttributes(StyleRuns runs, int offset) {
+      if (runs.size() == 0) {
+         return;
+      }
+      int last = runs.size() - 1;
+      int start = runs.start(0) + offset;
+      int end = Math.min(runEnd(runs, last, offset), getLength());
+      if (start >= end) {
+         return;
+      }
+      try {
+         writeLock();
+         DefaultDocumentEvent changes = new DefaultDocumentEvent(start,
+               end - start, DocumentEvent.EventType.CHANGE);
+
+         Element root = getDefaultRootElement();
+         int iRun = 0;
+         for (int i = root.getElementIndex(start);
+               i <= root.getElementIndex(end - 1); i++) {
+
+            iRun = replaceLeaves(root.getElement(i), runs, iRun, offset,
+                  changes);
+         }
+         changes.end();
+         fireChangedUpdate(changes);
+         if (getUndoableEditListeners().length > 0) {
+            fireUndoableEditUpdate(new UndoableEditEvent(this, changes));
+         }
+      }
+      finally {
+         writeUnlock();
+      }
+   }
+
+   /**
+    * Replaces the sections of text in the specified spans while the
+    * document is locked for writing once. The spans are replaced
+    * beginning with the last span so that the positions of the spans
+    * refer to the text before the replacement.
+    *
+    * @param spans  the EditSpans
+    * @throws BadLocationException  if a span is outside the text
+    */
+   public void replace(EditSpans spans) throws BadLocationException {
+      try {
+         writeLock();
+         for (int i = spans.size() - 1; i >= 0; i--) {
+            int start = spans.start(i);
+            replace(start, spans.end(i) - start, spans.text(i), null);
+         }
+      }
+      finally {
+         writeUnlock();
+      }
+   }
+
+   //
+   //--private--/
+   //
+
+   //
+   // Replaces the character elements of a paragraph which overlap
+   // the runs beginning at index iRun and returns the index of the
+   // first run that ends behind the paragraph
+   private int replaceLeaves(Element par, StyleRuns runs, int iRun,
+         int offset, DefaultDocumentEvent changes) {
+
+      int parEnd = par.getEndOffset();
+      while (iRun < runs.size()
+            && runEnd(runs, iRun, offset) <= par.getStartOffset()) {
+
+         iRun++;
+      }
+      if (iRun == runs.size() || runs.start(iRun) + offset >= parEnd) {
+         return iRun;
+      }
+      int first = par.getElementIndex(runs.start(iRun) + offset);
+      int lastRun = iRun;
+      while (lastRun + 1 < runs.size()
+            && runs.start(lastRun + 1) + offset < parEnd) {
+
+         lastRun++;
+      }
+      int runsEnd = runEnd(runs, lastRun, offset);
+      int lastLeaf = par.getElementIndex(Math.min(runsEnd, parEnd) - 1);
+      Element[] removed = new Element[lastLeaf - first + 1];
+      List<Element> added = new ArrayList<>();
+      int segStart = par.getElement(first).getStartOffset();
+      AttributeSet segAttr = null;
+      int r = iRun;
+      for (int i = first; i <= lastLeaf; i++) {
+         Element leaf = par.getElement(i);
+         removed[i - first] = leaf;
+         int pos = leaf.getStartOffset();
+         int leafEnd = leaf.getEndOffset();
+         while (pos < leafEnd) {
+            while (r <= lastRun && runEnd(runs, r, offset) <= pos) {
+               r++;
+            }
+            int next;
+            AttributeSet attr;
+            if (r <= lastRun && runs.start(r) + offset <= pos) {
+               next = Math.min(leafEnd, runEnd(runs, r, offset));
+               SimpleAttributeSet set
+                     = new SimpleAttributeSet(leaf.getAttributes());
+
+               set.addAttributes(runs.set(r));
+               attr = set;
+            }
+            else {
+               next = r <= lastRun
+                     ? Math.min(leafEnd, runs.start(r) + offset) : leafEnd;
+
+               attr = leaf.getAttributes();
+            }
+            if (segAttr != null && !segAttr.isEqual(attr)) {
+               added.add(createLeafElement(par, segAttr, segStart, pos));
+               segStart = pos;
+            }
+            segAttr = attr;
+            pos = next;
+         }
+      }
+      int segEnd = par.getElement(lastLeaf).getEndOffset();
+      added.add(createLeafElement(par, segAttr, segStart, segEnd));
+      Element[] addedArr = added.toArray(new Element[added.size()]);
+      ((BranchElement) par).replace(first, removed.length, addedArr);
+      changes.addEdit(new ElementEdit(par, first, removed, addedArr));
+      return runsEnd > parEnd ? lastRun : lastRun + 1;
+   }
+
+   private int runEnd(StyleRuns runs, int i, int offset) {
+      return runs.start(i) + runs.length(i) + offset;
+   }
+}
@@ -0,0 +1,281 @@
+package eg.document.styledtext;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The composition of a sequence of edits to a minimal sequence of
+ * spans each of which replaces a section of the original text.
+ * <p>
+ * The position of an edit refers to the text that results from the
+ * edits added before. The spans are sorted by their position in the
+ * original text and neither overlap nor touch each other. Edits in
+ * sequence are found without searching the spans from the start
+ * again. The text of a span is kept in a gap buffer so that edits
+ * close to each other within a long span do not copy its text.
+ */
+public final class EditSpans {
+
+   private final List<Span> spans = new ArrayList<>();
+
+   private int hint = 0;
+   private int hintShift = 0;
+
+   /**
+    * Adds an insertion
+    *
+    * @param pos  the position
+    * @param s  the inserted text
+    */
+   public void insert(int pos, String s) {
+      if (s.isEmpty()) {
+         return;
+      }
+      int shift = startShift(pos);
+      int i = hint;
+      while (i < spans.size()) {
+         Span sp = spans.get(i);
+         int start = sp.start + shift;
+         if (pos < start) {
+            break;
+         }
+         if (pos <= start + sp.length()) {
+            sp.insert(pos - start, s);
+            setHint(i, shift);
+            return;
+         }
+         shift += sp.delta();
+         i++;
+      }
+      int origPos = pos - shift;
+      Span sp = new Span(origPos, origPos);
+      sp.insert(0, s);
+      spans.add(i, sp);
+      setHint(i, shift);
+   }
+
+   /**
+    * Adds a removal
+    *
+    * @param pos  the position
+    * @param length  the length of the removed text
+    */
+   public void remove(int pos, int length) {
+      int end = pos + length;
+      int shift = startShift(pos);
+      int i = hint;
+      while (i < spans.size()) {
+         Span sp = spans.get(i);
+         if (pos <= sp.start + shift + sp.length()) {
+            break;
+         }
+         shift += sp.delta();
+         i++;
+      }
+      int first = i;
+      int shiftBefore = shift;
+      int origStart = pos - shift;
+      Span merged = null;
+      if (i < spans.size() && spans.get(i).start + shift <= pos) {
+         merged = spans.get(i);
+         int start = merged.start + shift;
+         if (end <= start + merged.length()) {
+            merged.delete(pos - start, end - start);
+            if (merged.length() == 0 && merged.start == merged.end) {
+               spans.remove(i);
+            }
+            setHint(first, shiftBefore);
+            return;
+         }
+         origStart = merged.start;
+         shift += merged.delta();
+         merged.delete(pos - start, merged.length());
+         i++;
+      }
+      int origEnd = -1;
+      while (i < spans.size()) {
+         Span sp = spans.get(i);
+         int start = sp.start + shift;
+         if (end < start) {
+            break;
+         }
+         int spEnd = start + sp.length();
+         if (end <= spEnd) {
+            origEnd = sp.end;
+            if (merged == null) {
+               sp.delete(0, end - start);
+               merged = sp;
+            }
+            else {
+               merged.append(sp, end - start);
+            }
+            i++;
+            break;
+         }
+         shift += sp.delta();
+         i++;
+      }
+      if (origEnd == -1) {
+         origEnd = end - shift;
+      }
+      if (merged == null) {
+         merged = new Span(origStart, origEnd);
+      }
+      merged.start = origStart;
+      merged.end = origEnd;
+      spans.subList(first, i).clear();
+      if (origStart < origEnd || merged.length() > 0) {
+         spans.add(first, merged);
+      }
+      setHint(first, shiftBefore);
+   }
+
+   /**
+    * Returns the number of spans
+    *
+    * @return  the number
+    */
+   public int size() {
+      return spans.size();
+   }
+
+   /**
+    * Returns the start of the replaced section in the original text
+    *
+    * @param i  the index of the span
+    * @return  the start position
+    */
+   public int start(int i) {
+      return spans.get(i).start;
+   }
+
+   /**
+    * Returns the end of the replaced section in the original text
+    *
+    * @param i  the index of the span
+    * @return  the end position
+    */
+   public int end(int i) {
+      return spans.get(i).end;
+   }
+
+   /**
+    * Returns the text that replaces the section
+    *
+    * @param i  the index of the span
+    * @return  the text
+    */
+   public String text(int i) {
+      return spans.get(i).toString();
+   }
+
+   //
+   //--private--/
+   //
+
+   //
+   // Returns the shift of positions before the span at the hint if
+   // the span before the hint ends before pos or resets the hint
+   // otherwise
+   private int startShift(int pos) {
+      if (hint > spans.size()) {
+         hint = 0;
+      }
+      if (hint > 0) {
+         Span prev = spans.get(hint - 1);
+         int prevShift = hintShift - prev.delta();
+         if (pos > prev.start + prevShift + prev.length()) {
+            return hintShift;
+         }
+      }
+      hint = 0;
+      hintShift = 0;
+      return 0;
+   }
+
+   private void setHint(int i, int shift) {
+      hint = i;
+      hintShift = shift;
+   }
+
+   private static class Span {
+
+      private int start;
+      private int end;
+      private char[] buf = new char[16];
+      private int gapStart = 0;
+      private int gapEnd = buf.length;
+
+      private Span(int start, int end) {
+         this.start = start;
+         this.end = end;
+      }
+
+      private int length() {
+         return buf.length - gapEnd + gapStart;
+      }
+
+      private int delta() {
+         return length() - (end - start);
+      }
+
+      private void insert(int offset, String s) {
+         moveGap(offset);
+         ensureGap(s.length());
+         s.getChars(0, s.length(), buf, gapStart);
+         gapStart += s.length();
+      }
+
+      private void delete(int from, int to) {
+         moveGap(from);
+         gapEnd += to - from;
+      }
+
+      //
+      // Appends the text of the specified span from the specified
+      // offset on
+      private void append(Span sp, int from) {
+         int n = sp.length() - from;
+         moveGap(length());
+         ensureGap(n);
+         sp.moveGap(from);
+         System.arraycopy(sp.buf, sp.gapEnd, buf, gapStart, n);
+         gapStart += n;
+      }
+
+      @Override
+      public String toString() {
+         char[] c = new char[length()];
+         System.arraycopy(buf, 0, c, 0, gapStart);
+         System.arraycopy(buf, gapEnd, c, gapStart, buf.length - gapEnd);
+         return new String(c);
+      }
+
+      private void moveGap(int offset) {
+         if (offset < gapStart) {
+            int n = gapStart - offset;
+            System.arraycopy(buf, offset, buf, gapEnd - n, n);
+            gapStart -= n;
+            gapEnd -= n;
+         }
+         else if (offset > gapStart) {
+            int n = offset - gapStart;
+            System.arraycopy(buf, gapEnd, buf, gapStart, n);
+            gapStart += n;
+            gapEnd += n;
+         }
+      }
+
+      private void ensureGap(int n) {
+         if (gapEnd - gapStart >= n) {
+            return;
+         }
+         int tail = buf.length - gapEnd;
+         char[] newBuf = new char[Math.max(2 * buf.length, length() + n)];
+         System.arraycopy(buf, 0, newBuf, 0, gapStart);
+         System.arraycopy(buf, gapEnd, newBuf, newBuf.length - tail, tail);
+         gapEnd = newBuf.length - tail;
+         buf = newBuf;
+      }
+   }
+}
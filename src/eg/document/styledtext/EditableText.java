@@ -2,12 +2,16 @@ package eg.document.styledtext;
 
 import java.awt.FontMetrics;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import javax.swing.JTextPane;
 
 import javax.swing.event.DocumentListener;
 
 import javax.swing.text.BadLocationException;
 import javax.swing.text.StyleConstants;
+import javax.swing.text.StyledDocument;
 import javax.swing.text.TabSet;
 import javax.swing.text.TabStop;
 
@@ -26,7 +30,11 @@ public class EditableText extends StyledText {
 
    private final JTextPane textArea;
 
-   private String text = "";
+   private final PieceTable content = new PieceTable();
+   private final LineIndex lines = new LineIndex();
+   private final List<DocumentListener> listeners = new ArrayList<>();
+
+   private String text = null;
 
    /**
     * @param textArea  the JTextPane that displays the text
@@ -41,23 +49,87 @@ public class EditableText extends StyledText {
       return ATTR;
    }
 
+   /**
+    * {@inheritDoc}
+    * <p>
+    * The text is copied from this <code>PieceTable</code> when
+    * requested for the first time after a change
+    */
    @Override
    public final String text() {
+      if (text == null) {
+         text = content.toString();
+      }
       return text;
    }
 
+   @Override
+   public final PieceTable content() {
+      return content;
+   }
+
+   /**
+    * Returns the index of lines in the text
+    *
+    * @return  the LineIndex
+    */
+   public final LineIndex lines() {
+      return lines;
+   }
+
    /**
-    * Updates this copy of the text contained in the document
+    * Updates this copy of the text with the entire text contained
+    * in the document
     */
    public final void updateTextCopy() {
       try {
-         text = doc.getText(0, doc.getLength());
+         content.setText(doc.getText(0, doc.getLength()));
+         lines.setText(content);
+         text = null;
       }
       catch (BadLocationException e) {
          FileUtils.log(e);
       }
    }
 
+   /**
+    * Updates this copy of the text after an insertion into the
+    * document
+    *
+    * @param pos  the position of the insertion
+    * @param length  the length of the insertion
+    * @return  the inserted text
+    */
+   public final String updateInsert(int pos, int length) {
+      String s = "";
+      try {
+         s = doc.getText(pos, length);
+         content.insert(pos, s);
+         lines.insert(pos, s);
+         text = null;
+      }
+      catch (BadLocationException e) {
+         FileUtils.log(e);
+      }
+      return s;
+   }
+
+   /**
+    * Updates this copy of the text after a removal from the
+    * document
+    *
+    * @param pos  the position of the removal
+    * @param length  the length of the removal
+    * @return  the removed text
+    */
+   public final String updateRemove(int pos, int length) {
+      String s = content.subSequence(pos, pos + length);
+      content.remove(pos, length);
+      lines.remove(pos, length);
+      text = null;
+      return s;
+   }
+
    /**
     * Inserts text
     *
@@ -73,6 +145,30 @@ public class EditableText extends StyledText {
       }
    }
 
+   /**
+    * Replaces the sections of text in the specified spans in one
+    * transaction if the document is a {@link BatchStyledDocument}
+    *
+    * @param spans  the EditSpans
+    */
+   public final void replace(EditSpans spans) {
+      try {
+         if (doc instanceof BatchStyledDocument) {
+            ((BatchStyledDocument) doc).replace(spans);
+         }
+         else {
+            for (int i = spans.size() - 1; i >= 0; i--) {
+               int start = spans.start(i);
+               doc.remove(start, spans.end(i) - start);
+               doc.insertString(start, spans.text(i), null);
+            }
+         }
+      }
+      catch (BadLocationException e) {
+         FileUtils.log(e);
+      }
+   }
+
    /**
     * Removes text
     *
@@ -116,6 +212,37 @@ public class EditableText extends StyledText {
     */
    public final void addDocumentListener(DocumentListener dl) {
       doc.addDocumentListener(dl);
+      listeners.add(dl);
+   }
+
+   /**
+    * Creates a new empty document of the kind that the text area
+    * displays. The document may be filled outside the EDT before
+    * it is set in {@link #setDocument(StyledDocument)}.
+    *
+    * @return  the new StyledDocument
+    */
+   public final StyledDocument createDocument() {
+      return (StyledDocument) textArea.getEditorKit().createDefaultDocument();
+   }
+
+   /**
+    * Replaces the document that contains the text and that is
+    * displayed in the text area. The paragraph attributes for normal
+    * text are set in the new document and the added
+    * <code>DocumentListener</code> objects are moved to it. This copy
+    * of the text is not updated.
+    *
+    * @param newDoc  the new document
+    */
+   public final void setDocument(StyledDocument newDoc) {
+      newDoc.setParagraphAttributes(0, newDoc.getLength(), normal, false);
+      for (DocumentListener dl : listeners) {
+         doc.removeDocumentListener(dl);
+         newDoc.addDocumentListener(dl);
+      }
+      doc = newDoc;
+      textArea.setStyledDocument(newDoc);
    }
 
    /**
@@ -0,0 +1,179 @@
+package eg.document.styledtext;
+
+import java.util.Arrays;
+
+/**
+ * The index of the positions of newline characters in a text which
+ * is patched at each insertion and removal.
+ * <p>
+ * The positions are kept in a sorted int array. The shift of the
+ * positions behind an edit is not applied at once but recorded as a
+ * pending shift for all positions from a certain index on. The
+ * pending shift is moved only across the positions between the
+ * previous and the next edit, so that repeated edits at the same
+ * location do not touch the positions in the rest of the text.
+ * Line numbers and line starts are found by binary search.
+ */
+public final class LineIndex {
+
+   private int[] newlines = new int[64];
+   private int size = 0;
+   //
+   // positions at indices >= shiftFrom are stored without shift
+   private int shiftFrom = 0;
+   private int shift = 0;
+
+   /**
+    * Builds the index for the specified text
+    *
+    * @param text  the text
+    */
+   public void setText(CharSequence text) {
+      size = 0;
+      shiftFrom = 0;
+      shift = 0;
+      for (int i = 0; i < text.length(); i++) {
+         if (text.charAt(i) == '\n') {
+            add(size, i);
+         }
+      }
+      shiftFrom = size;
+   }
+
+   /**
+    * Updates the index after an insertion
+    *
+    * @param pos  the position of the insertion
+    * @param s  the inserted text
+    */
+   public void insert(int pos, String s) {
+      int k = firstAtOrAfter(pos);
+      moveShift(k);
+      for (int i = 0; i < s.length(); i++) {
+         if (s.charAt(i) == '\n') {
+            add(k, pos + i);
+            k++;
+         }
+      }
+      shiftFrom = k;
+      shift += s.length();
+   }
+
+   /**
+    * Updates the index after a removal
+    *
+    * @param pos  the position of the removal
+    * @param length  the length of the removal
+    */
+   public void remove(int pos, int length) {
+      int k = firstAtOrAfter(pos);
+      int end = firstAtOrAfter(pos + length);
+      moveShift(k);
+      System.arraycopy(newlines, end, newlines, k, size - end);
+      size -= end - k;
+      shift -= length;
+   }
+
+   /**
+    * Returns the number of lines
+    *
+    * @return  the number of lines
+    */
+   public int lineCount() {
+      return size + 1;
+   }
+
+   /**
+    * Returns the number of the line that contains the specified
+    * position
+    *
+    * @param pos  the position
+    * @return  the line number which starts at 1
+    */
+   public int lineNrAtPos(int pos) {
+      return firstAtOrAfter(pos) + 1;
+   }
+
+   /**
+    * Returns the position of the last newline before the specified
+    * position even if a newline is found at the position
+    *
+    * @param pos  the position
+    * @return  the position of the last newline; -1 if the position
+    * is in the first line
+    */
+   public int lastNewline(int pos) {
+      int i = firstAtOrAfter(pos);
+      return i == 0 ? -1 : position(i - 1);
+   }
+
+   /**
+    * Returns the position where the line with the specified number
+    * starts
+    *
+    * @param lineNr  the line number which starts at 1
+    * @return  the start position of the line
+    */
+   public int lineStart(int lineNr) {
+      if (lineNr < 1 || lineNr > size + 1) {
+         throw new IndexOutOfBoundsException("line number: " + lineNr);
+      }
+      return lineNr == 1 ? 0 : position(lineNr - 2) + 1;
+   }
+
+   //
+   //--private--/
+   //
+
+   private int position(int i) {
+      return i >= shiftFrom ? newlines[i] + shift : newlines[i];
+   }
+
+   //
+   // Returns the index of the first newline at or behind pos, which
+   // equals the number of newlines before pos
+   private int firstAtOrAfter(int pos) {
+      int lo = 0;
+      int hi = size;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (position(mid) < pos) {
+            lo = mid + 1;
+         }
+         else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+
+   private void moveShift(int k) {
+      if (shift == 0) {
+         shiftFrom = k;
+         return;
+      }
+      if (k > shiftFrom) {
+         for (int i = shiftFrom; i < k; i++) {
+            newlines[i] += shift;
+         }
+      }
+      else {
+         for (int i = k; i < shiftFrom; i++) {
+            newlines[i] -= shift;
+         }
+      }
+      shiftFrom = k;
+      if (shiftFrom == size) {
+         shift = 0;
+      }
+   }
+
+   private void add(int i, int pos) {
+      if (size == newlines.length) {
+         newlines = Arrays.copyOf(newlines, size * 2);
+      }
+      System.arraycopy(newlines, i, newlines, i + 1, size - i);
+      newlines[i] = pos;
+      size++;
+   }
+}
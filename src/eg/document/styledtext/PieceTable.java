@@ -0,0 +1,583 @@
+package eg.document.styledtext;
+
+import java.util.Arrays;
+
+/**
+ * A piece table that holds a copy of the text in a document and is
+ * updated incrementally at each insertion and removal.
+ * <p>
+ * The text is described by a sequence of pieces each of which
+ * refers to a section in either the unchanged original text or in
+ * a buffer to which all insertions are appended. Thus, an edit
+ * does not copy the text but only splits, adds or removes pieces.
+ * Reading is done through the methods of <code>CharSequence</code>
+ * and the methods to search for characters or strings. The last
+ * accessed piece is remembered so that reading in sequence does
+ * not need to search the pieces again.
+ * <p>
+ * If the number of pieces exceeds a limit, or if the buffer has grown
+ * to a multiple of the length of the text, the pieces are compacted
+ * to a new original text.
+ * <p>
+ * A {@link Snapshot} of the text shares the original text and the
+ * buffer and may be read on another thread while the table is edited.
+ * The buffer is only appended to beyond the length that a snapshot
+ * reads and is replaced by a new array when it grows.
+ */
+public final class PieceTable implements CharSequence {
+
+   private static final int MAX_PIECES = 2048;
+   static final int MIN_ADDED_COMPACTED = 1 << 16;
+
+   private Object buffers = new Object();
+   private String original = "";
+   private char[] added = new char[0];
+   private int addedLength = 0;
+   private int version = 0;
+   private int[] starts = new int[16];
+   private int[] lengths = new int[16];
+   private boolean[] inAdded = new boolean[16];
+   private int nPieces = 0;
+   private int length = 0;
+   //
+   // the piece that was accessed last and its offset in the text
+   private int iCache = 0;
+   private int cacheOffset = 0;
+
+   /**
+    * Replaces the entire content with the specified text
+    *
+    * @param text  the text
+    */
+   public void setText(String text) {
+      buffers = new Object();
+      original = text;
+      added = new char[0];
+      addedLength = 0;
+      nPieces = 0;
+      length = 0;
+      if (!text.isEmpty()) {
+         addPiece(0, 0, text.length(), false);
+         length = text.length();
+      }
+      version++;
+      resetCache();
+   }
+
+   /**
+    * Inserts text
+    *
+    * @param pos  the insert position
+    * @param s  the inserted text
+    */
+   public void insert(int pos, String s) {
+      checkRange(pos, pos);
+      if (s.isEmpty()) {
+         return;
+      }
+      int addStart = addedLength;
+      append(s);
+      int i = split(pos);
+      if (i > 0 && inAdded[i - 1]
+            && starts[i - 1] + lengths[i - 1] == addStart) {
+
+         lengths[i - 1] += s.length();
+      }
+      else {
+         addPiece(i, addStart, s.length(), true);
+      }
+      length += s.length();
+      version++;
+      resetCache();
+      compactIfNeeded();
+   }
+
+   /**
+    * Removes text
+    *
+    * @param pos  the start position of the removal
+    * @param len  the length of the removal
+    */
+   public void remove(int pos, int len) {
+      checkRange(pos, pos + len);
+      if (len == 0) {
+         return;
+      }
+      int iStart = split(pos);
+      int iEnd = split(pos + len);
+      int n = iEnd - iStart;
+      System.arraycopy(starts, iEnd, starts, iStart, nPieces - iEnd);
+      System.arraycopy(lengths, iEnd, lengths, iStart, nPieces - iEnd);
+      System.arraycopy(inAdded, iEnd, inAdded, iStart, nPieces - iEnd);
+      nPieces -= n;
+      length -= len;
+      version++;
+      resetCache();
+   }
+
+   @Override
+   public int length() {
+      return length;
+   }
+
+   @Override
+   public char charAt(int index) {
+      if (index < 0 || index >= length) {
+         throw new IndexOutOfBoundsException("index: " + index);
+      }
+      int i = pieceAt(index);
+      return bufferCharAt(i, starts[i] + index - cacheOffset);
+   }
+
+   /**
+    * Returns a copy of a section of the text
+    *
+    * @param start  the start index, inclusive
+    * @param end  the end index, exclusive
+    * @return  the section as <code>String</code>
+    */
+   @Override
+   public String subSequence(int start, int end) {
+      checkRange(start, end);
+      if (start == end) {
+         return "";
+      }
+      StringBuilder sb = new StringBuilder(end - start);
+      int i = pieceAt(start);
+      int offset = cacheOffset;
+      int pos = start;
+      while (pos < end) {
+         int from = starts[i] + pos - offset;
+         int to = starts[i] + Math.min(lengths[i], end - offset);
+         if (inAdded[i]) {
+            sb.append(added, from, to - from);
+         }
+         else {
+            sb.append(original, from, to);
+         }
+         pos += to - from;
+         offset += lengths[i];
+         i++;
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Returns the position of the first occurrence of the specified
+    * character starting at the specified position
+    *
+    * @param c  the character
+    * @param from  the position where the search starts
+    * @return  the position; -1 if not found
+    */
+   public int indexOf(char c, int from) {
+      if (from < 0) {
+         from = 0;
+      }
+      if (from >= length) {
+         return -1;
+      }
+      int i = pieceAt(from);
+      int offset = cacheOffset;
+      int pos = from;
+      while (i < nPieces) {
+         int end = starts[i] + lengths[i];
+         for (int j = starts[i] + pos - offset; j < end; j++) {
+            if (bufferCharAt(i, j) == c) {
+               return offset + j - starts[i];
+            }
+         }
+         offset += lengths[i];
+         pos = offset;
+         i++;
+      }
+      return -1;
+   }
+
+   /**
+    * Returns the position of the first occurrence of the specified
+    * string starting at the specified position
+    *
+    * @param s  the string
+    * @param from  the position where the search starts
+    * @return  the position; -1 if not found
+    */
+   public int indexOf(String s, int from) {
+      if (s.isEmpty()) {
+         return Math.max(0, Math.min(from, length));
+      }
+      int i = indexOf(s.charAt(0), from);
+      while (i != -1 && i + s.length() <= length) {
+         if (regionMatches(i, s)) {
+            return i;
+         }
+         i = indexOf(s.charAt(0), i + 1);
+      }
+      return -1;
+   }
+
+   /**
+    * Returns the position of the last occurrence of the specified
+    * character searching backward from the specified position
+    *
+    * @param c  the character
+    * @param from  the position where the search starts
+    * @return  the position; -1 if not found
+    */
+   public int lastIndexOf(char c, int from) {
+      if (from >= length) {
+         from = length - 1;
+      }
+      if (from < 0) {
+         return -1;
+      }
+      int i = pieceAt(from);
+      int offset = cacheOffset;
+      int pos = from;
+      while (i >= 0) {
+         for (int j = starts[i] + pos - offset; j >= starts[i]; j--) {
+            if (bufferCharAt(i, j) == c) {
+               return offset + j - starts[i];
+            }
+         }
+         i--;
+         if (i >= 0) {
+            offset -= lengths[i];
+            pos = offset + lengths[i] - 1;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Returns the position of the last occurrence of the specified
+    * string searching backward from the specified position
+    *
+    * @param s  the string
+    * @param from  the position where the search starts
+    * @return  the position; -1 if not found
+    */
+   public int lastIndexOf(String s, int from) {
+      int start = Math.min(from, length - s.length());
+      if (start < 0) {
+         return -1;
+      }
+      if (s.isEmpty()) {
+         return start;
+      }
+      int i = lastIndexOf(s.charAt(0), start);
+      while (i != -1) {
+         if (regionMatches(i, s)) {
+            return i;
+         }
+         i = lastIndexOf(s.charAt(0), i - 1);
+      }
+      return -1;
+   }
+
+   /**
+    * Returns a snapshot of the current text. Only the pieces are
+    * copied.
+    *
+    * @return  the {@link Snapshot}
+    */
+   public Snapshot snapshot() {
+      return new Snapshot(this);
+   }
+
+   /**
+    * Returns the version of the text which changes with each
+    * change of the text
+    *
+    * @return  the version
+    */
+   public int version() {
+      return version;
+   }
+
+   /**
+    * Returns if the text was changed after the specified snapshot was
+    * taken
+    *
+    * @param snapshot  the snapshot which is regarded as changed if it
+    * was not taken of this <code>PieceTable</code> or before the text
+    * was last set
+    * @return  true if changed; false otherwise
+    */
+   public boolean isChangedSince(Snapshot snapshot) {
+      return snapshot.buffers != buffers || snapshot.version != version;
+   }
+
+   /**
+    * Returns a copy of the entire text
+    *
+    * @return  the text
+    */
+   @Override
+   public String toString() {
+      return subSequence(0, length);
+   }
+
+   /**
+    * Returns the number of characters appended to the buffer since
+    * the pieces were last compacted
+    *
+    * @return  the number of characters
+    */
+   int addedLength() {
+      return addedLength;
+   }
+
+   /**
+    * An immutable snapshot of the text in a <code>PieceTable</code>
+    */
+   public static final class Snapshot implements CharSequence {
+
+      private final Object buffers;
+      private final String original;
+      private final char[] added;
+      private final int[] starts;
+      private final int[] offsets;
+      private final boolean[] inAdded;
+      private final int length;
+      private final int version;
+
+      private Snapshot(PieceTable pt) {
+         buffers = pt.buffers;
+         original = pt.original;
+         added = pt.added;
+         starts = Arrays.copyOf(pt.starts, pt.nPieces);
+         inAdded = Arrays.copyOf(pt.inAdded, pt.nPieces);
+         offsets = new int[pt.nPieces + 1];
+         for (int i = 0; i < pt.nPieces; i++) {
+            offsets[i + 1] = offsets[i] + pt.lengths[i];
+         }
+         length = pt.length;
+         version = pt.version;
+      }
+
+      /**
+       * Copies characters into the specified array
+       *
+       * @param start  the start index in the text, inclusive
+       * @param end  the end index in the text, exclusive
+       * @param dst  the destination array
+       * @param dstBegin  the start offset in the destination array
+       */
+      public void getChars(int start, int end, char[] dst, int dstBegin) {
+         if (start < 0 || end > length || start > end) {
+            throw new IndexOutOfBoundsException(
+                  "start: " + start + ", end: " + end + ", length: " + length);
+         }
+         int i = piece(start);
+         int pos = start;
+         while (pos < end) {
+            int from = starts[i] + pos - offsets[i];
+            int to = starts[i] + Math.min(offsets[i + 1], end) - offsets[i];
+            if (inAdded[i]) {
+               System.arraycopy(added, from, dst, dstBegin, to - from);
+            }
+            else {
+               original.getChars(from, to, dst, dstBegin);
+            }
+            dstBegin += to - from;
+            pos += to - from;
+            i++;
+         }
+      }
+
+      /**
+       * Returns if a section of this text equals a section of another
+       * snapshot. Sections of pieces that refer to the same position
+       * in the buffers of the same <code>PieceTable</code> are not
+       * compared by character.
+       *
+       * @param pos  the start position in this text
+       * @param other  the other snapshot
+       * @param otherPos  the start position in the other text
+       * @param len  the length of the sections
+       * @return  true if equal; false otherwise
+       */
+      public boolean regionMatches(int pos, Snapshot other, int otherPos,
+            int len) {
+
+         if (pos < 0 || otherPos < 0 || len < 0 || pos + len > length
+               || otherPos + len > other.length) {
+
+            return false;
+         }
+         boolean isSameBuffers = buffers == other.buffers;
+         int i = piece(pos);
+         int k = other.piece(otherPos);
+         while (len > 0) {
+            int n = Math.min(len, Math.min(offsets[i + 1] - pos,
+                  other.offsets[k + 1] - otherPos));
+
+            int from = starts[i] + pos - offsets[i];
+            int otherFrom = other.starts[k] + otherPos - other.offsets[k];
+            if (!isSameBuffers || inAdded[i] != other.inAdded[k]
+                  || from != otherFrom) {
+
+               for (int j = 0; j < n; j++) {
+                  if (bufferCharAt(i, from + j)
+                        != other.bufferCharAt(k, otherFrom + j)) {
+
+                     return false;
+                  }
+               }
+            }
+            pos += n;
+            otherPos += n;
+            len -= n;
+            if (pos == offsets[i + 1]) {
+               i++;
+            }
+            if (otherPos == other.offsets[k + 1]) {
+               k++;
+            }
+         }
+         return true;
+      }
+
+      @Override
+      public int length() {
+         return length;
+      }
+
+      @Override
+      public char charAt(int index) {
+         if (index < 0 || index >= length) {
+            throw new IndexOutOfBoundsException("index: " + index);
+         }
+         int i = piece(index);
+         return bufferCharAt(i, starts[i] + index - offsets[i]);
+      }
+
+      @Override
+      public String subSequence(int start, int end) {
+         char[] c = new char[end - start];
+         getChars(start, end, c, 0);
+         return new String(c);
+      }
+
+      @Override
+      public String toString() {
+         return subSequence(0, length);
+      }
+
+      //
+      // Returns the index of the piece that contains the position
+      private int piece(int pos) {
+         int i = Arrays.binarySearch(offsets, pos);
+         return i >= 0 ? i : -i - 2;
+      }
+
+      private char bufferCharAt(int i, int bufferPos) {
+         return inAdded[i] ? added[bufferPos] : original.charAt(bufferPos);
+      }
+   }
+
+   //
+   //--private--/
+   //
+
+   private boolean regionMatches(int pos, String s) {
+      for (int k = 0; k < s.length(); k++) {
+         if (charAt(pos + k) != s.charAt(k)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private char bufferCharAt(int i, int bufferPos) {
+      return inAdded[i] ? added[bufferPos] : original.charAt(bufferPos);
+   }
+
+   //
+   // Appends to the buffer. A full buffer is replaced by a larger copy
+   // so that the array shared with snapshots is not written to below
+   // the length they read
+   private void append(String s) {
+      int n = addedLength + s.length();
+      if (n > added.length) {
+         added = Arrays.copyOf(added, Math.max(n, added.length * 2));
+      }
+      s.getChars(0, s.length(), added, addedLength);
+      addedLength = n;
+   }
+
+   //
+   // Returns the index of the piece that contains the position and
+   // sets cacheOffset to the offset of this piece in the text
+   private int pieceAt(int pos) {
+      if (pos < cacheOffset) {
+         while (pos < cacheOffset) {
+            iCache--;
+            cacheOffset -= lengths[iCache];
+         }
+      }
+      else {
+         while (pos >= cacheOffset + lengths[iCache]) {
+            cacheOffset += lengths[iCache];
+            iCache++;
+         }
+      }
+      return iCache;
+   }
+
+   //
+   // Splits the piece that contains the position such that a piece
+   // starts at the position. Returns the index of this piece which
+   // is nPieces if pos is the text length
+   private int split(int pos) {
+      if (pos == length) {
+         return nPieces;
+      }
+      int i = pieceAt(pos);
+      int rel = pos - cacheOffset;
+      if (rel == 0) {
+         return i;
+      }
+      addPiece(i + 1, starts[i] + rel, lengths[i] - rel, inAdded[i]);
+      lengths[i] = rel;
+      return i + 1;
+   }
+
+   private void addPiece(int i, int start, int len, boolean isAdded) {
+      if (nPieces == starts.length) {
+         int n = nPieces * 2;
+         starts = Arrays.copyOf(starts, n);
+         lengths = Arrays.copyOf(lengths, n);
+         inAdded = Arrays.copyOf(inAdded, n);
+      }
+      System.arraycopy(starts, i, starts, i + 1, nPieces - i);
+      System.arraycopy(lengths, i, lengths, i + 1, nPieces - i);
+      System.arraycopy(inAdded, i, inAdded, i + 1, nPieces - i);
+      starts[i] = start;
+      lengths[i] = len;
+      inAdded[i] = isAdded;
+      nPieces++;
+   }
+
+   private void compactIfNeeded() {
+      if (nPieces > MAX_PIECES
+            || (addedLength > MIN_ADDED_COMPACTED
+            && addedLength > 2 * length)) {
+
+         setText(toString());
+      }
+   }
+
+   private void resetCache() {
+      iCache = 0;
+      cacheOffset = 0;
+   }
+
+   private void checkRange(int start, int end) {
+      if (start < 0 || end > length || start > end) {
+         throw new IndexOutOfBoundsException(
+               "start: " + start + ", end: " + end + ", length: " + length);
+      }
+   }
+}
@@ -48,6 +48,11 @@ public class PrintableText extends StyledText {
       return text;
    }
 
+   @Override
+   public final CharSequence content() {
+      return text;
+   }
+
    /**
     * Prints this styled text
     */
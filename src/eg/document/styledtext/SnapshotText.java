@@ -0,0 +1,140 @@
+package eg.document.styledtext;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+
+import javax.swing.text.DefaultStyledDocument;
+import javax.swing.text.SimpleAttributeSet;
+import javax.swing.text.StyleConstants;
+
+/**
+ * The styled text of a snapshot of the text in another
+ * <code>StyledText</code>. Attributes are not set in a document but
+ * recorded, so that the styling can be done outside the event
+ * dispatch thread and be transferred later as {@link StyleRuns}.
+ * <p>
+ * The recording can be cancelled from another thread. The next
+ * attempt to set attributes then throws a
+ * <code>CancellationException</code>.
+ */
+public final class SnapshotText extends StyledText {
+
+   private final StyledText target;
+   private final String text;
+   private final byte[] styles;
+   private final List<SimpleAttributeSet> sets = new ArrayList<>();
+
+   private volatile boolean isCancelled = false;
+
+   /**
+    * @param text  the snapshot of the text
+    * @param target  the StyledText which the recorded attributes
+    * are meant for
+    */
+   public SnapshotText(String text, StyledText target) {
+      super(new DefaultStyledDocument(),
+            StyleConstants.getForeground(target.normal));
+
+      this.target = target;
+      this.text = text;
+      styles = new byte[text.length()];
+      sets.add(target.normal);
+   }
+
+   @Override
+   public Attributes attributes() {
+      return target.attributes();
+   }
+
+   @Override
+   public String text() {
+      return text;
+   }
+
+   @Override
+   public CharSequence content() {
+      return text;
+   }
+
+   /**
+    * Records the attributes for a section of the text.
+    *
+    * @throws CancellationException  if the recording is cancelled
+    */
+   @Override
+   public void setAttributes(int pos, int length, SimpleAttributeSet set) {
+      if (isCancelled) {
+         throw new CancellationException();
+      }
+      SimpleAttributeSet s = set == normal ? target.normal : set;
+      int i = styleIndex(s);
+      int end = Math.min(pos + length, styles.length);
+      for (int j = Math.max(pos, 0); j < end; j++) {
+         styles[j] = (byte) i;
+      }
+   }
+
+   @Override
+   public boolean hasAttributes(int pos, SimpleAttributeSet set) {
+      return attributesAt(pos) == (set == normal ? target.normal : set);
+   }
+
+   /**
+    * Returns the recorded attributes at the specified position
+    *
+    * @param pos  the position
+    * @return  the SimpleAttributeSet
+    */
+   public SimpleAttributeSet attributesAt(int pos) {
+      return sets.get(styles[pos]);
+   }
+
+   /**
+    * Cancels the recording
+    */
+   public void cancel() {
+      isCancelled = true;
+   }
+
+   /**
+    * Returns if the recording is cancelled
+    *
+    * @return  true if cancelled; false otherwise
+    */
+   public boolean isCancelled() {
+      return isCancelled;
+   }
+
+   /**
+    * Returns the recorded attributes as sequence of non-overlapping
+    * runs that cover the entire text
+    *
+    * @return  the StyleRuns
+    */
+   public StyleRuns runs() {
+      StyleRuns runs = new StyleRuns();
+      int start = 0;
+      for (int i = 1; i <= styles.length; i++) {
+         if (i == styles.length || styles[i] != styles[start]) {
+            runs.add(start, i - start, sets.get(styles[start]));
+            start = i;
+         }
+      }
+      return runs;
+   }
+
+   //
+   //--private--/
+   //
+
+   private int styleIndex(SimpleAttributeSet set) {
+      for (int i = 0; i < sets.size(); i++) {
+         if (sets.get(i) == set) {
+            return i;
+         }
+      }
+      sets.add(set);
+      return sets.size() - 1;
+   }
+}
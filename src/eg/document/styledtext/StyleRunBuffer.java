@@ -0,0 +1,89 @@
+package eg.document.styledtext;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.swing.text.SimpleAttributeSet;
+
+/**
+ * The collection of runs of character attributes in the order they
+ * are set. The collected runs may overlap and are resolved to
+ * {@link StyleRuns} where a run overrides earlier runs and
+ * neighbouring runs with the same attributes are merged.
+ */
+final class StyleRunBuffer {
+
+   private int[] starts = new int[256];
+   private int[] lengths = new int[256];
+   private SimpleAttributeSet[] sets = new SimpleAttributeSet[256];
+   private int size = 0;
+   private int start = Integer.MAX_VALUE;
+   private int end = 0;
+
+   /**
+    * Adds a run
+    *
+    * @param pos  the start position
+    * @param length  the length
+    * @param set  the SimpleAttributeSet
+    */
+   void add(int pos, int length, SimpleAttributeSet set) {
+      if (pos < 0) {
+         length += pos;
+         pos = 0;
+      }
+      if (length <= 0) {
+         return;
+      }
+      if (size == starts.length) {
+         int n = size * 2;
+         starts = Arrays.copyOf(starts, n);
+         lengths = Arrays.copyOf(lengths, n);
+         sets = Arrays.copyOf(sets, n);
+      }
+      starts[size] = pos;
+      lengths[size] = length;
+      sets[size] = set;
+      size++;
+      start = Math.min(start, pos);
+      end = Math.max(end, pos + length);
+   }
+
+   /**
+    * Returns the collected runs as sequence of non-overlapping runs
+    * sorted by the start position. Sections where no run was added
+    * are not covered.
+    *
+    * @return  the StyleRuns
+    */
+   StyleRuns runs() {
+      StyleRuns runs = new StyleRuns();
+      if (size == 0) {
+         return runs;
+      }
+      List<SimpleAttributeSet> distinct = new ArrayList<>();
+      distinct.add(null);
+      byte[] styles = new byte[end - start];
+      for (int i = 0; i < size; i++) {
+         int iSet = distinct.indexOf(sets[i]);
+         if (iSet == -1) {
+            distinct.add(sets[i]);
+            iSet = distinct.size() - 1;
+         }
+         int from = starts[i] - start;
+         Arrays.fill(styles, from, from + lengths[i], (byte) iSet);
+      }
+      int runStart = 0;
+      for (int i = 1; i <= styles.length; i++) {
+         if (i == styles.length || styles[i] != styles[runStart]) {
+            int iSet = styles[runStart] & 0xff;
+            if (iSet != 0) {
+               runs.add(runStart + start, i - runStart, distinct.get(iSet));
+            }
+            runStart = i;
+         }
+      }
+      return runs;
+   }
+}
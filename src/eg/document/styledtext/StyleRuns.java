@@ -0,0 +1,125 @@
+package eg.document.styledtext;
+
+import java.util.Arrays;
+
+import javax.swing.text.SimpleAttributeSet;
+
+/**
+ * A sequence of runs of character attributes which are defined by
+ * a start position, a length and a <code>SimpleAttributeSet</code>.
+ * The runs are meant to be added in ascending order of the start
+ * position.
+ */
+public final class StyleRuns {
+
+   private int[] starts = new int[64];
+   private int[] lengths = new int[64];
+   private SimpleAttributeSet[] sets = new SimpleAttributeSet[64];
+   private int size = 0;
+
+   /**
+    * Adds a run
+    *
+    * @param start  the start position
+    * @param length  the length
+    * @param set  the SimpleAttributeSet
+    */
+   public void add(int start, int length, SimpleAttributeSet set) {
+      if (size == starts.length) {
+         int n = size * 2;
+         starts = Arrays.copyOf(starts, n);
+         lengths = Arrays.copyOf(lengths, n);
+         sets = Arrays.copyOf(sets, n);
+      }
+      starts[size] = start;
+      lengths[size] = length;
+      sets[size] = set;
+      size++;
+   }
+
+   /**
+    * Returns the number of runs
+    *
+    * @return  the number
+    */
+   public int size() {
+      return size;
+   }
+
+   /**
+    * Returns the start position of the run at the specified index
+    *
+    * @param i  the index
+    * @return  the start position
+    */
+   public int start(int i) {
+      return starts[i];
+   }
+
+   /**
+    * Returns the length of the run at the specified index
+    *
+    * @param i  the index
+    * @return  the length
+    */
+   public int length(int i) {
+      return lengths[i];
+   }
+
+   /**
+    * Returns the <code>SimpleAttributeSet</code> of the run at the
+    * specified index
+    *
+    * @param i  the index
+    * @return  the SimpleAttributeSet
+    */
+   public SimpleAttributeSet set(int i) {
+      return sets[i];
+   }
+
+   /**
+    * Returns the index of the first run that ends behind the
+    * specified position
+    *
+    * @param pos  the position
+    * @return  the index; the number of runs if no run ends behind
+    * the position
+    */
+   public int indexAt(int pos) {
+      int lo = 0;
+      int hi = size;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (starts[mid] + lengths[mid] <= pos) {
+            lo = mid + 1;
+         }
+         else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+
+   /**
+    * Sets the run at the specified index in the specified
+    * <code>StyledText</code>
+    *
+    * @param i  the index
+    * @param txt  the StyledText
+    */
+   public void apply(int i, StyledText txt) {
+      txt.setAttributes(starts[i], lengths[i], sets[i]);
+   }
+
+   /**
+    * Sets the run at the specified index in the specified
+    * <code>StyledText</code> where the run is moved by an offset
+    *
+    * @param i  the index
+    * @param txt  the StyledText
+    * @param offset  the offset added to the start position
+    */
+   public void apply(int i, StyledText txt, int offset) {
+      txt.setAttributes(starts[i] + offset, lengths[i], sets[i]);
+   }
+}
@@ -16,7 +16,9 @@ public abstract class StyledText {
    protected final SimpleAttributeSet normal = new SimpleAttributeSet();
    /**
     * The <code>StyledDocument</code> that contains the text */
-   protected final StyledDocument doc;
+   protected StyledDocument doc;
+
+   private StyleRunBuffer runBuffer = null;
 
    /**
     * @param doc  the document that contains the text
@@ -43,6 +45,14 @@ public abstract class StyledText {
     */
    public abstract String text();
 
+   /**
+    * Returns the text as <code>CharSequence</code> which may be
+    * read without copying the text
+    *
+    * @return  the text
+    */
+   public abstract CharSequence content();
+
    /**
     * Resets character attributes to the attributes for normal text
     * in a section of text
@@ -55,7 +65,9 @@ public abstract class StyledText {
    }
 
    /**
-    * Sets character attributes in a section of the text
+    * Sets character attributes in a section of the text. The
+    * attributes are only collected if {@link #collectAttributes()}
+    * was called.
     *
     * @param pos  the position where the section starts
     * @param length  the length of the section
@@ -63,6 +75,74 @@ public abstract class StyledText {
     * to be selected from {@link Attributes}
     */
    public void setAttributes(int pos, int length, SimpleAttributeSet set) {
-      doc.setCharacterAttributes(pos, length, set, false);
+      if (runBuffer != null) {
+         runBuffer.add(pos, length, set);
+      }
+      else {
+         doc.setCharacterAttributes(pos, length, set, false);
+      }
+   }
+
+   /**
+    * Sets the character attributes of a sequence of runs. The runs
+    * are set at once if the document is a
+    * {@link BatchStyledDocument}.
+    *
+    * @param runs  the StyleRuns which must not overlap and be
+    * sorted by the start position
+    * @param offset  the offset added to the start positions of the
+    * runs
+    */
+   public void setAttributes(StyleRuns runs, int offset) {
+      if (runBuffer == null && doc instanceof BatchStyledDocument) {
+         ((BatchStyledDocument) doc).setCharacterAttributes(runs, offset);
+      }
+      else {
+         for (int i = 0; i < runs.size(); i++) {
+            runs.apply(i, this, offset);
+         }
+      }
+   }
+
+   /**
+    * Starts collecting the attributes passed to
+    * {@link #setAttributes(int,int,SimpleAttributeSet)} instead of
+    * setting them in the document one by one. Does nothing if
+    * attributes are already collected.
+    */
+   public void collectAttributes() {
+      if (runBuffer == null) {
+         runBuffer = new StyleRunBuffer();
+      }
+   }
+
+   /**
+    * Sets the attributes collected since {@link #collectAttributes()}
+    * was called in one batch and stops collecting. Where the collected
+    * attributes overlap the attributes collected last take effect.
+    */
+   public void applyCollectedAttributes() {
+      if (runBuffer == null) {
+         return;
+      }
+      StyleRuns runs = runBuffer.runs();
+      runBuffer = null;
+      setAttributes(runs, 0);
+   }
+
+   /**
+    * Returns if the character at the specified position has the
+    * specified attributes. Collected attributes that are not yet set
+    * are not considered.
+    *
+    * @param pos  the position
+    * @param set  the attributes; expected to be selected from
+    * {@link Attributes}
+    * @return  true if the character has the attributes; false
+    * otherwise
+    */
+   public boolean hasAttributes(int pos, SimpleAttributeSet set) {
+      return doc.getCharacterElement(pos).getAttributes()
+            .containsAttributes(set);
    }
 }
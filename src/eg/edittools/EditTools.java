@@ -6,6 +6,7 @@ package eg.edittools;
 public enum EditTools {
 
    FINDER("Find/replace", "Finder"),
+   PROJECT_FINDER("Find in project", "ProjectFinder"),
    EXCHANGE_EDITOR("Notes", "ExchangeEditor");
 
    private final String display;
@@ -0,0 +1,290 @@
+package eg.edittools;
+
+import java.awt.EventQueue;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+
+//--Eadgyth--/
+import eg.document.FileText;
+
+/**
+ * The search of a search term or of a regular expression in the files
+ * of a directory tree.
+ * <p>
+ * The tree is walked by a {@link FileWalk} in a pool with one thread
+ * per processor, or only the candidate files given by a
+ * {@link TrigramIndex} are searched. The text is decoded as
+ * {@link FileText} in the detected encoding and line separators are
+ * converted to '\n' like when a file is opened so that the positions
+ * of matches are also positions in the opened document.
+ * <p>
+ * The matches found in each file are queued and can be polled while
+ * the search is running. The search stops after {@link #MAX_MATCHES}
+ * matches.
+ */
+final class FileSearch {
+
+   /**
+    * The maximum number of matches */
+   static final int MAX_MATCHES = 10000;
+
+   private static final int MAX_LINE_LENGTH = 200;
+
+   private final ForkJoinPool pool
+         = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+   private final ConcurrentLinkedQueue<List<FileMatch>> found
+         = new ConcurrentLinkedQueue<>();
+
+   private final AtomicInteger count = new AtomicInteger();
+   private final AtomicInteger nFiles = new AtomicInteger();
+   private final Path root;
+   private final FileWalk walk;
+   private final List<Path> candidates;
+   private final String term;
+   private final boolean isCaseSensitive;
+   private final boolean reqWord;
+   private final Pattern pattern;
+
+   private volatile boolean isCancelled = false;
+   private volatile boolean isCapped = false;
+
+   /**
+    * @param root  the root of the directory tree
+    * @param excludedDir  the directory that is not searched; may be
+    * null
+    * @param term  the search term or regular expression which is not
+    * empty
+    * @param isCaseSensitive  true to search case-sensitive
+    * @param reqWord  true to search only whole words
+    * @param pattern  the pattern of the regular expression; null to
+    * search the term literally
+    * @param candidates  the files in the tree that may contain the
+    * term and are searched instead of walking the tree; null to walk
+    * the tree
+    */
+   FileSearch(File root, File excludedDir, String term,
+         boolean isCaseSensitive, boolean reqWord, Pattern pattern,
+         List<Path> candidates) {
+
+      this.root = root.toPath().toAbsolutePath();
+      walk = new FileWalk(this.root,
+            excludedDir != null ? excludedDir.toPath().toAbsolutePath() : null,
+            () -> isCancelled);
+
+      this.candidates = candidates;
+      this.term = term;
+      this.isCaseSensitive = isCaseSensitive;
+      this.reqWord = reqWord;
+      this.pattern = pattern;
+   }
+
+   /**
+    * Starts the search
+    *
+    * @param done  the Runnable that is run on the EDT when the search
+    * is complete or stopped at the maximum number of matches. Not run
+    * if the search is cancelled.
+    */
+   void start(Runnable done) {
+      pool.execute(() -> {
+         if (candidates != null) {
+            walk.visit(candidates, this::search);
+         }
+         else {
+            walk.walk(this::search);
+         }
+         pool.shutdown();
+         if (!isCancelled || isCapped) {
+            EventQueue.invokeLater(done);
+         }
+      });
+   }
+
+   /**
+    * Cancels the search
+    */
+   void cancel() {
+      isCancelled = true;
+      pool.shutdownNow();
+   }
+
+   /**
+    * Removes the matches found since the previous call from the
+    * queue of matches. The matches of one file are in ascending
+    * order.
+    *
+    * @return  the list of matches
+    */
+   List<FileMatch> poll() {
+      List<FileMatch> list = new ArrayList<>();
+      List<FileMatch> l;
+      while ((l = found.poll()) != null) {
+         list.addAll(l);
+      }
+      return list;
+   }
+
+   /**
+    * Returns the number of matches found so far
+    *
+    * @return  the number
+    */
+   int count() {
+      return Math.min(count.get(), MAX_MATCHES);
+   }
+
+   /**
+    * Returns the number of files with matches found so far
+    *
+    * @return  the number
+    */
+   int nFiles() {
+      return nFiles.get();
+   }
+
+   /**
+    * Returns if the search stopped at the maximum number of matches
+    *
+    * @return  true if stopped; false otherwise
+    */
+   boolean isCapped() {
+      return isCapped;
+   }
+
+   /**
+    * A match of the search
+    */
+   static final class FileMatch {
+
+      private final File file;
+      private final int start;
+      private final int end;
+      private final String display;
+
+      private FileMatch(File file, int start, int end, String display) {
+         this.file = file;
+         this.start = start;
+         this.end = end;
+         this.display = display;
+      }
+
+      /**
+       * Returns the file
+       *
+       * @return  the file
+       */
+      File file() {
+         return file;
+      }
+
+      /**
+       * Returns the start position of the match in the text
+       *
+       * @return  the position
+       */
+      int start() {
+         return start;
+      }
+
+      /**
+       * Returns the end position of the match in the text
+       *
+       * @return  the position
+       */
+      int end() {
+         return end;
+      }
+
+      @Override
+      public String toString() {
+         return display;
+      }
+   }
+
+   //
+   //--private--/
+   //
+
+   //
+   // Searches the content of a file and queues its matches
+   private void search(Path p, ByteBuffer bb) throws IOException {
+      String text = FileText.decode(bb).text();
+      int[] starts;
+      int[] ends = null;
+      if (pattern != null) {
+         int[][] res = SearchSession.searchRegex(text, pattern, () -> isCancelled);
+         if (res == null) {
+            return;
+         }
+         starts = res[0];
+         ends = res[1];
+      }
+      else {
+         starts = SearchSession.search(text, 0, text.length(), term,
+               isCaseSensitive, reqWord, () -> isCancelled);
+
+         if (starts == null) {
+            return;
+         }
+      }
+      if (starts.length == 0) {
+         return;
+      }
+      int n = starts.length;
+      int prev = count.getAndAdd(n);
+      if (prev >= MAX_MATCHES) {
+         return;
+      }
+      if (prev + n >= MAX_MATCHES) {
+         n = MAX_MATCHES - prev;
+         isCapped = true;
+         isCancelled = true;
+      }
+      found.add(matches(p, text, starts, ends, n));
+      nFiles.incrementAndGet();
+   }
+
+   //
+   // Creates the first n matches. The displayed text is the path
+   // relative to the root, the line number and the line.
+   private List<FileMatch> matches(Path p, String text, int[] starts,
+         int[] ends, int n) {
+
+      List<FileMatch> list = new ArrayList<>(n);
+      File f = p.toFile();
+      String path = root.relativize(p).toString();
+      int line = 1;
+      int lineStart = 0;
+      for (int i = 0; i < n; i++) {
+         int start = starts[i];
+         int lineEnd = text.indexOf('\n', lineStart);
+         while (lineEnd != -1 && lineEnd < start) {
+            line++;
+            lineStart = lineEnd + 1;
+            lineEnd = text.indexOf('\n', lineStart);
+         }
+         if (lineEnd == -1) {
+            lineEnd = text.length();
+         }
+         lineEnd = Math.min(lineEnd, lineStart + MAX_LINE_LENGTH);
+         String display = path + ":" + line + ":  "
+               + text.substring(lineStart, lineEnd).trim();
+
+         int end = ends != null ? ends[i] : start + term.length();
+         list.add(new FileMatch(f, start, end, display));
+      }
+      return list;
+   }
+}
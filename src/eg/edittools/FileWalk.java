@@ -0,0 +1,240 @@
+package eg.edittools;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BiPredicate;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The parallel walk through the text files of a directory tree.
+ * <p>
+ * The walk consists of fork/join tasks for each directory and file
+ * and is meant to run in a <code>ForkJoinPool</code>. Each file is
+ * read into a buffer. Files are not memory-mapped since a mapping is
+ * released only by the garbage collector and, on Windows, prevents
+ * that the file is replaced when it is saved. Files that contain a
+ * null byte near the start are considered binary and are skipped as
+ * are files larger than 64 MB, hidden directories, links to
+ * directories and a specified excluded directory.
+ */
+final class FileWalk {
+
+   private static final long MAX_FILE_SIZE = 64L << 20;
+   private static final int BINARY_CHECK_LENGTH = 8192;
+
+   private final Path root;
+   private final Path excludedDir;
+   private final BooleanSupplier isCancelled;
+
+   /**
+    * The receiver of the content of a file
+    */
+   @FunctionalInterface
+   interface FileVisitor {
+
+      /**
+       * Receives the content of a file. Called on a thread of the
+       * pool.
+       *
+       * @param p  the path of the file
+       * @param content  the content which is not binary
+       * @throws IOException  if an I/O error occurs when handling
+       * the content
+       */
+      void visit(Path p, ByteBuffer content) throws IOException;
+   }
+
+   /**
+    * @param root  the root of the directory tree
+    * @param excludedDir  the directory that is not walked; may be
+    * null
+    * @param isCancelled  the BooleanSupplier that is checked before
+    * each directory entry if the walk is cancelled
+    */
+   FileWalk(Path root, Path excludedDir, BooleanSupplier isCancelled) {
+      this.root = root;
+      this.excludedDir = excludedDir;
+      this.isCancelled = isCancelled;
+   }
+
+   /**
+    * Walks the tree and returns when all files are visited or the
+    * walk is cancelled. Must be called on a thread of a
+    * <code>ForkJoinPool</code>. Files and directories that cannot be
+    * read are left out.
+    *
+    * @param visitor  the FileVisitor
+    */
+   void walk(FileVisitor visitor) {
+      walk((p, attr) -> true, visitor);
+   }
+
+   /**
+    * Walks the tree like {@link #walk(FileVisitor)} but reads only the
+    * files that are accepted by the specified filter
+    *
+    * @param filter  the BiPredicate that receives the path and the
+    * attributes of each file and is called on a thread of the pool
+    * @param visitor  the FileVisitor
+    */
+   void walk(BiPredicate<Path, BasicFileAttributes> filter,
+         FileVisitor visitor) {
+
+      new DirectoryTask(root, filter, visitor).invoke();
+   }
+
+   /**
+    * Reads the specified files in parallel and passes the content of
+    * the files that exist and are not binary to the visitor. Must be
+    * called on a thread of a <code>ForkJoinPool</code>.
+    *
+    * @param files  the files
+    * @param visitor  the FileVisitor
+    */
+   void visit(List<Path> files, FileVisitor visitor) {
+      List<RecursiveAction> tasks = new ArrayList<>(files.size());
+      for (Path p : files) {
+         tasks.add(new FileTask(p, -1, visitor));
+      }
+      RecursiveAction.invokeAll(tasks);
+   }
+
+   /**
+    * Returns if the specified directory is not walked
+    *
+    * @param dir  the directory
+    * @return  true if not walked; false otherwise
+    */
+   boolean isSkipped(Path dir) {
+      return dir.getFileName().toString().startsWith(".")
+            || dir.equals(excludedDir);
+   }
+
+   /**
+    * Returns if the specified content of a file is binary, i.e.
+    * contains a null byte near the start
+    *
+    * @param bb  the content
+    * @return  true if binary; false otherwise
+    */
+   static boolean isBinary(ByteBuffer bb) {
+      int end = Math.min(bb.limit(), BINARY_CHECK_LENGTH);
+      for (int i = 0; i < end; i++) {
+         if (bb.get(i) == 0) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   //
+   //--private--/
+   //
+
+   private ByteBuffer read(Path p, long size) throws IOException {
+      try (FileChannel ch = FileChannel.open(p, StandardOpenOption.READ)) {
+         if (size < 0) {
+            size = ch.size();
+            if (size > MAX_FILE_SIZE) {
+               throw new IOException("File too large");
+            }
+         }
+         ByteBuffer bb = ByteBuffer.allocate((int) size);
+         while (bb.hasRemaining() && ch.read(bb) != -1) {
+            // fill buffer
+         }
+         bb.flip();
+         return bb;
+      }
+   }
+
+   private final class DirectoryTask extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+
+      private final Path dir;
+      private final BiPredicate<Path, BasicFileAttributes> filter;
+      private final FileVisitor visitor;
+
+      private DirectoryTask(Path dir,
+            BiPredicate<Path, BasicFileAttributes> filter,
+            FileVisitor visitor) {
+
+         this.dir = dir;
+         this.filter = filter;
+         this.visitor = visitor;
+      }
+
+      @Override
+      protected void compute() {
+         List<RecursiveAction> tasks = new ArrayList<>();
+         try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+            for (Path p : ds) {
+               if (isCancelled.getAsBoolean()) {
+                  return;
+               }
+               BasicFileAttributes attr = Files.readAttributes(p,
+                     BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+
+               if (attr.isDirectory()) {
+                  if (!isSkipped(p)) {
+                     tasks.add(new DirectoryTask(p, filter, visitor));
+                  }
+               }
+               else if (attr.isRegularFile() && attr.size() <= MAX_FILE_SIZE
+                     && filter.test(p, attr)) {
+
+                  tasks.add(new FileTask(p, attr.size(), visitor));
+               }
+            }
+         }
+         catch (IOException e) {
+            // a directory that cannot be read is not walked
+         }
+         invokeAll(tasks);
+      }
+   }
+
+   private final class FileTask extends RecursiveAction {
+
+      private static final long serialVersionUID = 1L;
+
+      private final Path p;
+      private final long size; // negative if unknown
+      private final FileVisitor visitor;
+
+      private FileTask(Path p, long size, FileVisitor visitor) {
+         this.p = p;
+         this.size = size;
+         this.visitor = visitor;
+      }
+
+      @Override
+      protected void compute() {
+         if (isCancelled.getAsBoolean()) {
+            return;
+         }
+         try {
+            ByteBuffer bb = read(p, size);
+            if (!isBinary(bb)) {
+               visitor.visit(p, bb);
+            }
+         }
+         catch (IOException e) {
+            // a file that cannot be read is left out
+         }
+      }
+   }
+}
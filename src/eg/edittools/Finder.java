@@ -42,8 +42,9 @@ public class Finder implements AddableEditTool {
    private final JButton replaceBt    = new JButton("Replace");
    private final JButton replaceAllBt = new JButton("Replace all");
    private final JButton closeBt      = new JButton();
+   private final JLabel statusLb      = UIComponents.label("");
 
-   private final TextSearch search = new TextSearch();
+   private final TextSearch search = new TextSearch(statusLb::setText);
 
    public Finder() {
       initFinderPnl();
@@ -80,12 +81,9 @@ public class Finder implements AddableEditTool {
       search.setDocument(edtDoc);
    }
 
-   /**
-    * Does nothing in this class
-    */
    @Override
    public void end() {
-	  // not used
+      search.end();
    }
 
    //
@@ -114,6 +112,7 @@ public class Finder implements AddableEditTool {
       pnl.add(checkBoxPnl());
       pnl.add(Box.createVerticalStrut(10));
       pnl.add(buttonsPnl(searchBt));
+      pnl.add(statusPnl());
       pnl.add(Box.createVerticalStrut(20));
       pnl.add(labelPnl("Replace with:"));
       setSize(replaceTf);
@@ -136,6 +135,16 @@ public class Finder implements AddableEditTool {
       return pnl;
    }
 
+   private JPanel statusPnl() {
+      JPanel pnl = new JPanel(new FlowLayout(FlowLayout.LEFT));
+      pnl.setOpaque(false);
+      pnl.add(statusLb);
+      statusLb.setText("0 of 0");
+      setSize(pnl);
+      statusLb.setText("");
+      return pnl;
+   }
+
    private JPanel radioBtPnl() {
       JPanel pnl = new JPanel(new FlowLayout(FlowLayout.LEFT));
       pnl.setOpaque(false);
@@ -165,8 +174,13 @@ public class Finder implements AddableEditTool {
       cBxCase.addItemListener(e ->
          search.setCaseSensitivity(e.getStateChange() == ItemEvent.SELECTED));
 
+      JCheckBox cBxRegex = UIComponents.checkBox("Regular expression");
+      cBxRegex.addItemListener(e ->
+         search.setRegex(e.getStateChange() == ItemEvent.SELECTED));
+
       pnl.add(cBxWord);
       pnl.add(cBxCase);
+      pnl.add(cBxRegex);
       pnl.setBorder(UIComponents.titledBorderForBkgr("Search options"));
       setSize(pnl);
       return pnl;
@@ -219,12 +233,14 @@ public class Finder implements AddableEditTool {
       @Override
       public void insertUpdate(DocumentEvent documentEvent) {
          enableButtons(true);
+         search.setSearchTerm(inputTf.getText());
       }
 
       @Override
       public void removeUpdate(DocumentEvent documentEvent) {
          boolean enable = inputTf.getText().length() > 0;
          enableButtons(enable);
+         search.setSearchTerm(inputTf.getText());
       }
    };
 }
@@ -0,0 +1,597 @@
+package eg.edittools;
+
+import java.awt.Component;
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.Dimension;
+
+import java.awt.event.KeyAdapter;
+import java.awt.event.KeyEvent;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+
+import java.io.File;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.DefaultListModel;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JOptionPane;
+import javax.swing.JLabel;
+import javax.swing.JList;
+import javax.swing.JPanel;
+import javax.swing.JScrollPane;
+import javax.swing.JTextField;
+import javax.swing.JToolBar;
+import javax.swing.Timer;
+
+import javax.swing.border.EmptyBorder;
+
+//--Eadgyth--/
+import eg.FileOpener;
+import eg.FileWatcher;
+import eg.FunctionalAction;
+import eg.document.EditableDocument;
+import eg.document.styledtext.PieceTable.Snapshot;
+import eg.edittools.FileSearch.FileMatch;
+import eg.edittools.ReplaceInFiles.FileChange;
+import eg.ui.UIComponents;
+import eg.ui.filetree.FileTree;
+import eg.utils.Dialogs;
+import eg.utils.ScreenParams;
+import eg.utils.SystemParams;
+
+/**
+ * The graphical view for finding and replacing text in the files of
+ * the project whose file system is shown in the file tree.
+ * <p>
+ * The matches are listed while the search is running and a clicked
+ * match is selected in the document of the file which is opened if
+ * necessary. The folder for compiled files of a project is not
+ * searched.
+ * <p>
+ * The replacements in all files are shown in a preview before they
+ * are applied. Files that are open are changed in their documents
+ * such that the replacement can be undone and other files are
+ * written directly.
+ *
+ * @see FileSearch
+ * @see ReplaceInFiles
+ */
+public class ProjectFinder implements AddableEditTool {
+
+   private static final int LIST_UPDATE_DELAY = 100;
+
+   private final JPanel content       = new JPanel(new BorderLayout());
+   private final JTextField inputTf   = UIComponents.textField();
+   private final JTextField replaceTf = UIComponents.textField();
+   private final JButton searchBt     = new JButton("Find");
+   private final JButton stopBt       = new JButton("Stop");
+   private final JButton replaceBt    = new JButton("Replace...");
+   private final JButton closeBt      = new JButton();
+   private final JCheckBox cBxWord    = UIComponents.checkBox("Only whole words");
+   private final JCheckBox cBxCase    = UIComponents.checkBox("Case sensitive");
+   private final JCheckBox cBxRegex   = UIComponents.checkBox("Regular expression");
+   private final JLabel statusLb      = UIComponents.label("");
+   private final DefaultListModel<FileMatch> model = new DefaultListModel<>();
+   private final JList<FileMatch> resultList = new JList<>(model);
+   private final Timer listTimer;
+
+   private FileTree fileTree = null;
+   private FileOpener opener = null;
+   private Supplier<List<EditableDocument>> documents = null;
+   private FileWatcher watcher = null;
+   private EditableDocument doc = null;
+   private FileSearch search = null;
+   private TrigramIndex index = null;
+   private ReplaceInFiles replacing = null;
+   private FileMatch target = null;
+
+   public ProjectFinder() {
+      listTimer = new Timer(LIST_UPDATE_DELAY, e -> updateList());
+      initFinderPnl();
+      setActions();
+   }
+
+   /**
+    * Sets the file tree whose project root is searched, the
+    * <code>FileOpener</code> that opens the file of a clicked match,
+    * the access to the open documents and the watcher of changed
+    * files
+    *
+    * @param ft  the {@link FileTree}
+    * @param opener  the FileOpener which is expected to also show
+    * the document if the file is already open
+    * @param documents  the Supplier of the list of open documents
+    * @param watcher  the {@link FileWatcher} which reports the changes
+    * in the searched tree to the index
+    */
+   public void setFileTree(FileTree ft, FileOpener opener,
+         Supplier<List<EditableDocument>> documents, FileWatcher watcher) {
+
+      fileTree = ft;
+      this.opener = opener;
+      this.documents = documents;
+      this.watcher = watcher;
+   }
+
+   /**
+    * Notifies that the text of a document was written to the
+    * specified file
+    *
+    * @param f  the file
+    */
+   public void fileWritten(File f) {
+      if (index != null) {
+         index.update(f);
+      }
+   }
+
+   @Override
+   public void addClosingAction(FunctionalAction act) {
+      closeBt.setAction(act);
+   }
+
+   @Override
+   public int width() {
+      if (content.getWidth() == 0) {
+         return ScreenParams.scaledSize(250); //250 is freely chosen
+      }
+      else {
+         return content.getWidth();
+      }
+   }
+
+   @Override
+   public boolean resize() {
+      return false;
+   }
+
+   @Override
+   public Component content() {
+      return content;
+   }
+
+   @Override
+   public void setDocument(EditableDocument edtDoc) {
+      doc = edtDoc;
+      selectTarget();
+   }
+
+   @Override
+   public void end() {
+      stop();
+      closeIndex();
+   }
+
+   //
+   //--private--//
+   //
+
+   private void initFinderPnl() {
+      stopBt.setEnabled(false);
+      searchBt.setEnabled(false);
+      replaceBt.setEnabled(false);
+      content.add(toolbar(), BorderLayout.NORTH);
+      JPanel pnl = new JPanel(new BorderLayout());
+      pnl.add(controlsPnl(), BorderLayout.NORTH);
+      pnl.add(resultsPnl(), BorderLayout.CENTER);
+      content.add(pnl, BorderLayout.CENTER);
+   }
+
+   private JToolBar toolbar() {
+      return UIComponents.toolbar(null, null, closeBt);
+   }
+
+   private JPanel controlsPnl() {
+      JPanel pnl = UIComponents.panel();
+      pnl.setLayout(new BoxLayout(pnl, BoxLayout.PAGE_AXIS));
+      pnl.add(labelPnl("Search in project:"));
+      setSize(inputTf);
+      pnl.add(inputTf);
+      pnl.add(Box.createVerticalStrut(10));
+      pnl.add(checkBoxPnl());
+      pnl.add(Box.createVerticalStrut(10));
+      pnl.add(buttonsPnl(searchBt, stopBt));
+      pnl.add(statusPnl());
+      pnl.add(Box.createVerticalStrut(10));
+      pnl.add(labelPnl("Replace with:"));
+      setSize(replaceTf);
+      pnl.add(replaceTf);
+      pnl.add(Box.createVerticalStrut(10));
+      pnl.add(buttonsPnl(replaceBt));
+      pnl.setBorder(new EmptyBorder(10, 10, 0, 10));
+      return pnl;
+   }
+
+   private JScrollPane resultsPnl() {
+      JScrollPane scroll = UIComponents.scrollPane();
+      scroll.setViewportView(resultList);
+      scroll.setBorder(new EmptyBorder(0, 10, 10, 10));
+      resultList.setFont(ScreenParams.SANSSERIF_PLAIN_8);
+      return scroll;
+   }
+
+   private JPanel labelPnl(String text) {
+      JPanel pnl = new JPanel(new FlowLayout(FlowLayout.LEFT));
+      pnl.setOpaque(false);
+      JLabel lb = UIComponents.label(text);
+      pnl.add(lb);
+      setSize(pnl);
+      return pnl;
+   }
+
+   private JPanel statusPnl() {
+      JPanel pnl = new JPanel(new FlowLayout(FlowLayout.LEFT));
+      pnl.setOpaque(false);
+      pnl.add(statusLb);
+      statusLb.setText("Preparing replacement...");
+      setSize(pnl);
+      statusLb.setText("");
+      return pnl;
+   }
+
+   private JPanel checkBoxPnl() {
+      JPanel pnl = new JPanel(new FlowLayout(FlowLayout.LEFT));
+      pnl.setOpaque(false);
+      pnl.add(cBxWord);
+      pnl.add(cBxCase);
+      pnl.add(cBxRegex);
+      pnl.setBorder(UIComponents.titledBorderForBkgr("Search options"));
+      setSize(pnl);
+      return pnl;
+   }
+
+   private JPanel buttonsPnl(JButton... bt) {
+      JPanel pnl = new JPanel(new FlowLayout(FlowLayout.LEFT));
+      pnl.setOpaque(false);
+      for (JButton bts : bt) {
+         bts.setFocusable(false);
+         pnl.add(bts);
+      }
+      setSize(pnl);
+      return pnl;
+   }
+
+   private void setSize(Component c) {
+      Dimension dim = c.getPreferredSize();
+      dim.width = Integer.MAX_VALUE;
+      c.setMaximumSize(dim);
+   }
+
+   private void setActions() {
+      searchBt.addActionListener(e -> start(inputTf.getText()));
+      inputTf.addActionListener(e -> start(inputTf.getText()));
+      inputTf.addCaretListener(e -> {
+         searchBt.setEnabled(inputTf.getText().length() > 0);
+         replaceBt.setEnabled(inputTf.getText().length() > 0);
+      });
+      replaceBt.addActionListener(e ->
+         startReplace(inputTf.getText(), replaceTf.getText()));
+
+      stopBt.addActionListener(e -> {
+         boolean isReplace = replacing != null;
+         stop();
+         if (isReplace) {
+            statusLb.setText("Replacement cancelled");
+         }
+         else {
+            updateList();
+            showCount(" (stopped)");
+         }
+      });
+      resultList.addMouseListener(new MouseAdapter() {
+
+         @Override
+         public void mouseClicked(MouseEvent e) {
+            open(resultList.getSelectedValue());
+         }
+      });
+      resultList.addKeyListener(new KeyAdapter() {
+
+         @Override
+         public void keyPressed(KeyEvent e) {
+            if (e.getKeyCode() == KeyEvent.VK_ENTER) {
+               open(resultList.getSelectedValue());
+            }
+         }
+      });
+   }
+
+   private void start(String term) {
+      if (!isStartable(term)) {
+         return;
+      }
+      model.clear();
+      Pattern p = pattern(term);
+      if (p == null && cBxRegex.isSelected()) {
+         return;
+      }
+      File root = new File(fileTree.currentRoot());
+      if (index == null || !index.root().equals(root.getAbsoluteFile())) {
+         closeIndex();
+         index = openIndex(root);
+      }
+      FileSearch s = new FileSearch(root, excludedDir(), term,
+            cBxCase.isSelected(), cBxWord.isSelected(), p,
+            p == null && index != null ? index.candidates(term) : null);
+
+      search = s;
+      s.start(() -> {
+         if (search == s) {
+            updateList();
+            showCount(s.isCapped() ? " (stopped at maximum)" : "");
+            searchEnded();
+         }
+      });
+      statusLb.setText("Searching...");
+      stopBt.setEnabled(true);
+      listTimer.start();
+   }
+
+   //
+   // Opens the index of the tree which is kept in the 'index' folder
+   // of the '.eadgyth' directory. Returns null if the changes in the
+   // tree cannot be watched.
+   private TrigramIndex openIndex(File root) {
+      File dir = SystemParams.existsEadgythDataDir()
+            ? new File(SystemParams.EADGYTH_DATA_DIR, "index") : null;
+
+      TrigramIndex ti = new TrigramIndex(root, excludedDir(), dir);
+      if (!watcher.watchTree(ti.root().toPath(), ti::isIndexed,
+            ti::changed)) {
+
+         ti.close();
+         return null;
+      }
+      return ti;
+   }
+
+   private void closeIndex() {
+      if (index != null) {
+         watcher.unwatchTree();
+         index.close();
+         index = null;
+      }
+   }
+
+   private void startReplace(String term, String replacement) {
+      if (!isStartable(term)) {
+         return;
+      }
+      Pattern p = pattern(term);
+      if (p == null && cBxRegex.isSelected()) {
+         return;
+      }
+      Map<File, Snapshot> openTexts = new HashMap<>();
+      Set<File> lockedFiles = new HashSet<>();
+      for (EditableDocument d : documents.get()) {
+         if (d.hasFile()) {
+            File f = d.file().getAbsoluteFile();
+            if (d.isLoading() || d.isReadOnly()) {
+               lockedFiles.add(f);
+            }
+            else {
+               openTexts.put(f, d.snapshot());
+            }
+         }
+      }
+      ReplaceInFiles r = new ReplaceInFiles(new File(fileTree.currentRoot()),
+            excludedDir(), term, cBxCase.isSelected(), cBxWord.isSelected(),
+            p, replacement, openTexts, lockedFiles);
+
+      replacing = r;
+      r.start(() -> {
+         if (replacing == r) {
+            stopBt.setEnabled(false);
+            confirmReplace(r);
+         }
+      });
+      statusLb.setText("Preparing replacement...");
+      stopBt.setEnabled(true);
+   }
+
+   //
+   // Shows the preview of the replacement and applies the
+   // replacement if confirmed
+   private void confirmReplace(ReplaceInFiles r) {
+      if (r.error() != null) {
+         replacing = null;
+         statusLb.setText("");
+         Dialogs.warnMessage("The replacement is invalid:\n" + r.error());
+         return;
+      }
+      int n = r.count();
+      int nFiles = r.changes().size();
+      List<File> skipped = r.skippedFiles();
+      String skippedMsg = "";
+      if (!skipped.isEmpty()) {
+         skippedMsg = skipped.size()
+               + (skipped.size() == 1 ? " file is" : " files are")
+               + " skipped because open but not editable.";
+      }
+      if (n == 0) {
+         replacing = null;
+         statusLb.setText("0 matches");
+         Dialogs.infoMessage("\"" + inputTf.getText() + "\" was not found."
+               + (skippedMsg.isEmpty() ? "" : "\n" + skippedMsg), null);
+         return;
+      }
+      statusLb.setText(n + (n == 1 ? " match" : " matches") + " in "
+            + nFiles + (nFiles == 1 ? " file" : " files"));
+
+      int res = Dialogs.confirmYesNo("Replace " + n
+            + (n == 1 ? " match" : " matches") + " in " + nFiles
+            + (nFiles == 1 ? " file" : " files") + "? " + skippedMsg,
+            r.preview());
+
+      if (res != JOptionPane.YES_OPTION || replacing != r) {
+         r.cancel();
+         replacing = null;
+         return;
+      }
+      applyReplace(r);
+   }
+
+   //
+   // Applies the changes to open files to their documents and writes
+   // the other files
+   private void applyReplace(ReplaceInFiles r) {
+      StringBuilder failed = new StringBuilder();
+      for (FileChange c : r.changes()) {
+         if (c.isOpen()) {
+            EditableDocument d = openDocument(c.file());
+            if (d != null && !d.isChangedSince(c.snapshot())) {
+               d.replace(c.spans());
+            }
+            else {
+               failed.append(c.file().getName())
+                     .append(" was edited meanwhile\n");
+            }
+         }
+      }
+      statusLb.setText("Writing files...");
+      r.write(writeFailed -> {
+         replacing = null;
+         for (FileChange c : r.changes()) {
+            if (!c.isOpen()) {
+               fileWritten(c.file());
+            }
+         }
+         for (String s : writeFailed) {
+            failed.append(s).append('\n');
+         }
+         statusLb.setText(r.count() + " replaced");
+         if (failed.length() > 0) {
+            Dialogs.warnMessage("Some files were not changed:\n" + failed);
+         }
+         if (search != null) {
+            start(inputTf.getText());
+         }
+      });
+   }
+
+   private EditableDocument openDocument(File f) {
+      for (EditableDocument d : documents.get()) {
+         if (d.hasFile() && d.file().getAbsoluteFile().equals(f)) {
+            return d;
+         }
+      }
+      return null;
+   }
+
+   private boolean isStartable(String term) {
+      if (term.isEmpty() || fileTree == null) {
+         return false;
+      }
+      stop();
+      if (fileTree.currentRoot().isEmpty()) {
+         statusLb.setText("No project is shown in the file view");
+         return false;
+      }
+      return true;
+   }
+
+   //
+   // Returns the pattern for the search term if the search term is a
+   // regular expression. Null is returned if the search term is not a
+   // regular expression or is invalid.
+   private Pattern pattern(String term) {
+      if (!cBxRegex.isSelected()) {
+         return null;
+      }
+      try {
+         return SearchSession.pattern(term, cBxCase.isSelected(),
+               cBxWord.isSelected());
+      }
+      catch (PatternSyntaxException e) {
+         statusLb.setText("Invalid regular expression");
+         Dialogs.warnMessage(e.getMessage());
+         return null;
+      }
+   }
+
+   private File excludedDir() {
+      String dir = fileTree.deletableDir();
+      return dir != null ? new File(dir) : null;
+   }
+
+   private void stop() {
+      listTimer.stop();
+      if (search != null) {
+         search.cancel();
+         searchEnded();
+      }
+      if (replacing != null) {
+         replacing.cancel();
+         replacing = null;
+         stopBt.setEnabled(false);
+      }
+   }
+
+   private void searchEnded() {
+      listTimer.stop();
+      stopBt.setEnabled(false);
+   }
+
+   private void updateList() {
+      if (search == null) {
+         return;
+      }
+      List<FileMatch> found = search.poll();
+      for (FileMatch m : found) {
+         model.addElement(m);
+      }
+      if (listTimer.isRunning()) {
+         statusLb.setText("Searching... " + search.count());
+      }
+   }
+
+   private void showCount(String note) {
+      int n = search.count();
+      int nFiles = search.nFiles();
+      statusLb.setText(n + (n == 1 ? " match" : " matches") + " in "
+            + nFiles + (nFiles == 1 ? " file" : " files") + note);
+   }
+
+   private void open(FileMatch m) {
+      if (m == null || opener == null) {
+         return;
+      }
+      target = m;
+      opener.open(m.file());
+      selectTarget();
+   }
+
+   //
+   // Selects the match that was clicked last when the document of
+   // its file is shown and read completely
+   private void selectTarget() {
+      if (target == null || doc == null || !doc.hasFile()
+            || !doc.file().equals(target.file())) {
+         return;
+      }
+      FileMatch m = target;
+      target = null;
+      EditableDocument d = doc;
+      d.whenLoaded(() -> {
+         if (d.isReadOnly()) {
+            return;
+         }
+         int length = d.textLength();
+         int start = Math.min(m.start(), length);
+         d.textArea().select(start, Math.min(m.end(), length));
+         d.setFocused();
+      });
+   }
+}
@@ -0,0 +1,477 @@
+package eg.edittools;
+
+import java.awt.EventQueue;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+//--Eadgyth--/
+import eg.document.FileText;
+import eg.document.styledtext.EditSpans;
+import eg.document.styledtext.PieceTable.Snapshot;
+
+/**
+ * The replacement of a search term or of the matches of a regular
+ * expression in the files of a directory tree.
+ * <p>
+ * The replacements are composed for each file in parallel while the
+ * tree is walked by a {@link FileWalk} and are kept, together with
+ * a preview of the changed lines, until they are applied or
+ * discarded. The text of a file that is open in an editable document
+ * is taken from a snapshot of the document, which is copied in the
+ * pool, so that unsaved changes are included. The other files are decoded as {@link FileText}.
+ * <p>
+ * A file is written back by its <code>FileText</code> in the format
+ * in which it was read and, like the file of a document, replaces the
+ * file in one atomic move, if supported by the file system, so that a
+ * file is never left half written. Files that were modified after they
+ * were read are not written.
+ */
+final class ReplaceInFiles {
+
+   private static final int MAX_PREVIEW_LINES = 2000;
+   private static final int MAX_LINE_LENGTH = 200;
+
+   private final ForkJoinPool pool
+         = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+   private final ConcurrentLinkedQueue<FileChange> found
+         = new ConcurrentLinkedQueue<>();
+
+   private final ConcurrentLinkedQueue<File> skipped
+         = new ConcurrentLinkedQueue<>();
+
+   private final Path root;
+   private final FileWalk walk;
+   private final String term;
+   private final boolean isCaseSensitive;
+   private final boolean reqWord;
+   private final Pattern pattern;
+   private final String replacement;
+   private final Map<File, Snapshot> openTexts;
+   private final Set<File> lockedFiles;
+
+   private List<FileChange> changes = null;
+   private volatile boolean isCancelled = false;
+   private volatile String error = null;
+
+   /**
+    * @param root  the root of the directory tree
+    * @param excludedDir  the directory that is not searched; may be
+    * null
+    * @param term  the search term or regular expression which is not
+    * empty
+    * @param isCaseSensitive  true to search case-sensitive
+    * @param reqWord  true to search only whole words
+    * @param pattern  the pattern of the regular expression; null to
+    * replace the term literally
+    * @param replacement  the replacement which may refer to captured
+    * groups if a pattern is given
+    * @param openTexts  the map of the absolute files of documents that
+    * are open and can be edited to snapshots of the texts of the
+    * documents
+    * @param lockedFiles  the absolute files of documents that are open
+    * but cannot be edited. These files are skipped.
+    */
+   ReplaceInFiles(File root, File excludedDir, String term,
+         boolean isCaseSensitive, boolean reqWord, Pattern pattern,
+         String replacement, Map<File, Snapshot> openTexts,
+         Set<File> lockedFiles) {
+
+      this.root = root.toPath();
+      walk = new FileWalk(this.root,
+            excludedDir != null ? excludedDir.toPath() : null,
+            () -> isCancelled);
+
+      this.term = term;
+      this.isCaseSensitive = isCaseSensitive;
+      this.reqWord = reqWord;
+      this.pattern = pattern;
+      this.replacement = replacement;
+      this.openTexts = openTexts;
+      this.lockedFiles = lockedFiles;
+   }
+
+   /**
+    * Starts composing the replacements
+    *
+    * @param done  the Runnable that is run on the EDT when all files
+    * are searched or an invalid replacement is found. Not run if
+    * cancelled.
+    */
+   void start(Runnable done) {
+      pool.execute(() -> {
+         walk.walk(this::compose);
+         List<FileChange> list = new ArrayList<>(found);
+         list.sort(Comparator.comparing(c -> c.path));
+         EventQueue.invokeLater(() -> {
+            if (!isCancelled || error != null) {
+               changes = list;
+               done.run();
+            }
+         });
+      });
+   }
+
+   /**
+    * Cancels composing the replacements and discards any composed
+    * replacements
+    */
+   void cancel() {
+      isCancelled = true;
+      pool.shutdownNow();
+   }
+
+   /**
+    * Returns the error message if the replacement is invalid. Any
+    * composed replacements are incomplete in this case.
+    *
+    * @return  the message; null if no error occured
+    */
+   String error() {
+      return error;
+   }
+
+   /**
+    * Returns the changes to the files in the order of the paths
+    *
+    * @return  the list of changes
+    */
+   List<FileChange> changes() {
+      return Collections.unmodifiableList(changes);
+   }
+
+   /**
+    * Returns the files that were skipped because they are open but not
+    * editable
+    *
+    * @return  the list of files
+    */
+   List<File> skippedFiles() {
+      return new ArrayList<>(skipped);
+   }
+
+   /**
+    * Returns the number of replaced matches in all files
+    *
+    * @return  the number
+    */
+   int count() {
+      int n = 0;
+      for (FileChange c : changes) {
+         n += c.count;
+      }
+      return n;
+   }
+
+   /**
+    * Returns the preview of the changed lines in the files. The lines
+    * before and after replacing are prefixed with '-' and '+',
+    * respectively.
+    *
+    * @return  the preview
+    */
+   String preview() {
+      StringBuilder sb = new StringBuilder();
+      int nLines = 0;
+      int nMissing = 0;
+      for (FileChange c : changes) {
+         if (nLines >= MAX_PREVIEW_LINES) {
+            nMissing += c.preview.size();
+            continue;
+         }
+         sb.append(c.path).append(" (").append(c.count).append(")\n");
+         for (String line : c.preview) {
+            if (nLines < MAX_PREVIEW_LINES) {
+               sb.append(line).append('\n');
+               nLines++;
+            }
+            else {
+               nMissing++;
+            }
+         }
+         sb.append('\n');
+      }
+      if (nMissing > 0) {
+         sb.append("... ").append(nMissing / 2).append(" more changed lines\n");
+      }
+      return sb.toString();
+   }
+
+   /**
+    * Writes the changes to the files that are not open in a document
+    * in parallel
+    *
+    * @param done  the Consumer that is invoked on the EDT with the
+    * list of messages about files that could not be written when
+    * writing is complete
+    */
+   void write(Consumer<List<String>> done) {
+      ConcurrentLinkedQueue<String> failed = new ConcurrentLinkedQueue<>();
+      pool.execute(() -> {
+         changes.parallelStream()
+               .filter(c -> !c.isOpen())
+               .forEach(c -> {
+                  try {
+                     if (!Files.getLastModifiedTime(c.file.toPath()).equals(c.modified)) {
+                        failed.add(c.path + " was modified meanwhile");
+                     }
+                     else {
+                        c.fileText.write(c.file, c.result());
+                     }
+                  }
+                  catch (IOException e) {
+                     failed.add(c.path + ": " + e.getMessage());
+                  }
+               });
+
+         pool.shutdown();
+         EventQueue.invokeLater(() -> done.accept(new ArrayList<>(failed)));
+      });
+   }
+
+   /**
+    * The replacements in one file
+    */
+   static final class FileChange {
+
+      private final File file;
+      private final String path;
+      private final String text;
+      private final Snapshot snapshot;
+      private final FileText fileText;
+      private final EditSpans spans;
+      private final int count;
+      private final List<String> preview;
+      private final boolean isOpen;
+      private final FileTime modified;
+
+      private FileChange(File file, String path, String text,
+            Snapshot snapshot, FileText fileText, Replacements rep,
+            List<String> preview, FileTime modified) {
+
+         this.file = file;
+         this.path = path;
+         this.text = text;
+         this.snapshot = snapshot;
+         this.fileText = fileText;
+         this.count = rep.count();
+         this.spans = rep.spans();
+         this.preview = preview;
+         this.isOpen = snapshot != null;
+         this.modified = modified;
+      }
+
+      /**
+       * Returns the file
+       *
+       * @return  the file
+       */
+      File file() {
+         return file;
+      }
+
+      /**
+       * Returns if the file is open in a document. The changes to this
+       * file must be applied to the document.
+       *
+       * @return  true if open; false otherwise
+       */
+      boolean isOpen() {
+         return isOpen;
+      }
+
+      /**
+       * Returns the snapshot of the document text to which the
+       * replacements refer if the file is open
+       *
+       * @return  the snapshot; null if the file is not open
+       */
+      Snapshot snapshot() {
+         return snapshot;
+      }
+
+      /**
+       * Returns the replaced sections of the text
+       *
+       * @return  the EditSpans
+       */
+      EditSpans spans() {
+         return spans;
+      }
+
+      /**
+       * Returns the number of replaced matches
+       *
+       * @return  the number
+       */
+      int count() {
+         return count;
+      }
+
+      private String result() {
+         StringBuilder sb = new StringBuilder(text.length());
+         int prev = 0;
+         for (int i = 0; i < spans.size(); i++) {
+            sb.append(text, prev, spans.start(i)).append(spans.text(i));
+            prev = spans.end(i);
+         }
+         sb.append(text, prev, text.length());
+         return sb.toString();
+      }
+   }
+
+   //
+   //--private--/
+   //
+
+   //
+   // Composes the replacements in the content of a file or in the text
+   // of the document if the file is open
+   private void compose(Path p, ByteBuffer bb) throws IOException {
+      File f = p.toFile().getAbsoluteFile();
+      if (lockedFiles.contains(f)) {
+         skipped.add(f);
+         return;
+      }
+      Snapshot snapshot = openTexts.get(f);
+      FileText fileText = null;
+      FileTime modified = null;
+      String text;
+      if (snapshot != null) {
+         text = snapshot.toString();
+      }
+      else {
+         modified = Files.getLastModifiedTime(p);
+         fileText = FileText.decode(bb);
+         text = fileText.text();
+      }
+      List<int[]> matches = new ArrayList<>();
+      List<String> reps = new ArrayList<>();
+      try {
+         if (pattern != null) {
+            regexReplacements(text, matches, reps);
+         }
+         else {
+            literalReplacements(text, matches, reps);
+         }
+      }
+      catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+         error = e.getMessage();
+         isCancelled = true;
+         return;
+      }
+      if (matches.isEmpty() || isCancelled) {
+         return;
+      }
+      Replacements rep = new Replacements(text);
+      for (int i = 0; i < matches.size(); i++) {
+         rep.add(matches.get(i)[0], matches.get(i)[1], reps.get(i));
+      }
+      found.add(new FileChange(f, root.relativize(p).toString(), text,
+            snapshot, fileText, rep, preview(text, matches, reps),
+            modified));
+   }
+
+   private void literalReplacements(String text, List<int[]> matches,
+         List<String> reps) {
+
+      int[] starts = SearchSession.search(text, 0, text.length(), term,
+            isCaseSensitive, reqWord, () -> isCancelled);
+
+      if (starts == null) {
+         return;
+      }
+      int lastEnd = 0;
+      for (int start : starts) {
+         if (start >= lastEnd) {
+            lastEnd = start + term.length();
+            matches.add(new int[] {start, lastEnd});
+            reps.add(replacement);
+         }
+      }
+   }
+
+   //
+   // Matcher.appendReplacement appends the text since the previous
+   // match before the replacement which is cut off
+   private void regexReplacements(String text, List<int[]> matches,
+         List<String> reps) {
+
+      Matcher m = pattern.matcher(text);
+      StringBuffer sb = new StringBuffer();
+      int prevEnd = 0;
+      while (!isCancelled && m.find()) {
+         sb.setLength(0);
+         m.appendReplacement(sb, replacement);
+         matches.add(new int[] {m.start(), m.end()});
+         reps.add(sb.substring(m.start() - prevEnd));
+         prevEnd = m.end();
+      }
+   }
+
+   //
+   // Returns the changed lines before and after replacing. Matches in
+   // the same line or in lines that are joined by a match are shown
+   // together.
+   private List<String> preview(String text, List<int[]> matches,
+         List<String> reps) {
+
+      List<String> lines = new ArrayList<>();
+      int lineNr = 1;
+      int counted = 0;
+      int i = 0;
+      while (i < matches.size()) {
+         int lineStart = text.lastIndexOf('\n', matches.get(i)[0] - 1) + 1;
+         for (int k = counted; k < lineStart; k++) {
+            if (text.charAt(k) == '\n') {
+               lineNr++;
+            }
+         }
+         counted = lineStart;
+         StringBuilder after = new StringBuilder();
+         int prev = lineStart;
+         int lineEnd = lineEnd(text, matches.get(i)[1]);
+         while (i < matches.size() && matches.get(i)[0] <= lineEnd) {
+            after.append(text, prev, matches.get(i)[0]).append(reps.get(i));
+            prev = matches.get(i)[1];
+            lineEnd = Math.max(lineEnd, lineEnd(text, prev));
+            i++;
+         }
+         after.append(text, prev, lineEnd);
+         lines.add(previewLine(lineNr, '-', text.substring(lineStart, lineEnd)));
+         lines.add(previewLine(lineNr, '+', after.toString()));
+      }
+      return lines;
+   }
+
+   private static int lineEnd(String text, int pos) {
+      int end = text.indexOf('\n', pos);
+      return end != -1 ? end : text.length();
+   }
+
+   private static String previewLine(int lineNr, char sign, String line) {
+      String s = line.replace("\r", "").replace("\n", "\\n").trim();
+      if (s.length() > MAX_LINE_LENGTH) {
+         s = s.substring(0, MAX_LINE_LENGTH) + "...";
+      }
+      return String.format("%6d %c %s", lineNr, sign, s);
+   }
+}
@@ -0,0 +1,109 @@
+package eg.edittools;
+
+//--Eadgyth--/
+import eg.document.styledtext.EditSpans;
+
+/**
+ * The composition of the replacements of matches in a text to
+ * {@link EditSpans} which are applied in one change of the document.
+ * <p>
+ * Matches that are close to each other are replaced together with
+ * the text in between so that the number of replaced sections stays
+ * small.
+ */
+final class Replacements {
+
+   private static final int MERGE_GAP = 256;
+
+   private final CharSequence text;
+   private final EditSpans spans = new EditSpans();
+   private final StringBuilder sb = new StringBuilder();
+
+   private int count = 0;
+   private int shift = 0;
+   private int secStart = 0;
+   private int end = -MERGE_GAP;
+   private boolean isOpen = false;
+
+   /**
+    * @param text  the text in which matches are replaced
+    */
+   Replacements(CharSequence text) {
+      this.text = text;
+   }
+
+   /**
+    * Adds the replacement of a match. Matches must be added in
+    * ascending order and must not overlap.
+    *
+    * @param start  the start position of the match
+    * @param end  the end position of the match
+    * @param replacement  the replacement
+    */
+   void add(int start, int end, String replacement) {
+      if (start - this.end >= MERGE_GAP) {
+         addSection();
+         secStart = start;
+      }
+      else {
+         sb.append(text, this.end, start);
+      }
+      sb.append(replacement);
+      this.end = end;
+      isOpen = true;
+      count++;
+   }
+
+   /**
+    * Returns the end position of the last added match
+    *
+    * @return  the position; a negative value if no match was added
+    */
+   int lastEnd() {
+      return end;
+   }
+
+   /**
+    * Returns the number of replaced matches
+    *
+    * @return  the number
+    */
+   int count() {
+      return count;
+   }
+
+   /**
+    * Returns the position behind the last replacement in the text
+    * after replacing
+    *
+    * @return  the position
+    */
+   int endInResult() {
+      addSection();
+      return end + shift;
+   }
+
+   /**
+    * Returns the replaced sections
+    *
+    * @return  the EditSpans
+    */
+   EditSpans spans() {
+      addSection();
+      return spans;
+   }
+
+   //
+   //--private--/
+   //
+
+   private void addSection() {
+      if (isOpen) {
+         spans.remove(secStart + shift, end - secStart);
+         spans.insert(secStart + shift, sb.toString());
+         shift += sb.length() - (end - secStart);
+         sb.setLength(0);
+         isOpen = false;
+      }
+   }
+}
@@ -0,0 +1,691 @@
+package eg.edittools;
+
+import java.awt.EventQueue;
+
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import javax.swing.Timer;
+
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
+
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Document;
+
+//--Eadgyth--/
+import eg.document.EditableDocument;
+import eg.document.styledtext.PieceTable.Snapshot;
+import eg.syntax.SyntaxUtils;
+import eg.utils.FileUtils;
+
+/**
+ * The positions of all matches of a search term or of a regular
+ * expression in the text of an <code>EditableDocument</code>.
+ * <p>
+ * The matches are searched once on a background thread in a
+ * {@link Snapshot} of the text which is not copied. Characters are compared ignoring case if the
+ * search is case-insensitive so that no lower-cased copy of the text
+ * is made. Afterwards the positions of a search term are kept valid
+ * across edits: the positions behind an edit are shifted and only the
+ * section around the edit is searched again. The next and previous
+ * match are found by a binary search.
+ * <p>
+ * The pattern of a regular expression is compiled once and matched
+ * against the snapshot through a <code>CharSequence</code> that ends
+ * the matching when the search is cancelled. Empty matches are not
+ * recorded and the search stops at {@link #MAX_MATCHES} matches. The
+ * matches of a regular expression are searched again after an edit.
+ * <p>
+ * If the text is changed while the search is running the search is
+ * restarted after a short delay.
+ */
+final class SearchSession {
+
+   private static final ExecutorService EXECUTOR
+         = Executors.newSingleThreadExecutor(r -> {
+              Thread t = new Thread(r, "Text search");
+              t.setDaemon(true);
+              return t;
+           });
+
+   /**
+    * The maximum number of matches of a regular expression */
+   static final int MAX_MATCHES = 100000;
+
+   private static final int RESTART_DELAY = 250;
+   private static final int CONTEXT_LENGTH = 256;
+
+   private final EditableDocument doc;
+   private final Document textDoc;
+   private final String term;
+   private final boolean isCaseSensitive;
+   private final boolean reqWord;
+   private final Pattern pattern;
+   private final Runnable changed;
+   private final Timer restartTimer;
+
+   private int[] starts = new int[0];
+   private int[] ends = null;
+   private int size = 0;
+   private boolean isCapped = false;
+   private boolean isReady = false;
+   private Runnable whenReady = null;
+   private volatile int scan = 0;
+
+   /**
+    * Creates a <code>SearchSession</code> and starts the search
+    *
+    * @param doc  the EditableDocument
+    * @param term  the search term or regular expression which is not
+    * empty
+    * @param isCaseSensitive  true to search case-sensitive
+    * @param reqWord  true to search only whole words
+    * @param isRegex  true if the term is a regular expression
+    * @param changed  the Runnable that is run when the search is
+    * complete and when the matches changed after an edit
+    * @throws PatternSyntaxException  if the regular expression is
+    * invalid
+    */
+   SearchSession(EditableDocument doc, String term, boolean isCaseSensitive,
+         boolean reqWord, boolean isRegex, Runnable changed) {
+
+      this.doc = doc;
+      this.term = term;
+      this.isCaseSensitive = isCaseSensitive;
+      this.reqWord = reqWord;
+      this.changed = changed;
+      pattern = isRegex ? pattern(term, isCaseSensitive, reqWord) : null;
+      textDoc = doc.textArea().getDocument();
+      textDoc.addDocumentListener(docListener);
+      restartTimer = new Timer(RESTART_DELAY, e -> search());
+      restartTimer.setRepeats(false);
+      search();
+   }
+
+   /**
+    * Returns the start positions of all matches of the specified
+    * term in the specified text
+    *
+    * @param text  the text
+    * @param term  the search term which is not empty
+    * @param isCaseSensitive  true to search case-sensitive
+    * @param reqWord  true to search only whole words
+    * @return  the start positions in ascending order
+    */
+   static int[] matches(CharSequence text, String term,
+         boolean isCaseSensitive, boolean reqWord) {
+
+      return search(text, 0, text.length(), term, isCaseSensitive, reqWord,
+            () -> false);
+   }
+
+   /**
+    * Compiles the specified regular expression. '^' and '$' match at
+    * the start and the end of lines.
+    *
+    * @param regex  the regular expression
+    * @param isCaseSensitive  true to match case-sensitive
+    * @param reqWord  true to match only whole words
+    * @return  the Pattern
+    * @throws PatternSyntaxException  if the regular expression is
+    * invalid
+    */
+   static Pattern pattern(String regex, boolean isCaseSensitive,
+         boolean reqWord) {
+
+      int flags = Pattern.MULTILINE;
+      if (!isCaseSensitive) {
+         flags |= Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+      }
+      Pattern p = Pattern.compile(regex, flags);
+      if (reqWord) {
+         p = Pattern.compile("(?<![\\p{L}\\p{Nd}])(?:" + regex
+               + ")(?![\\p{L}\\p{Nd}])", flags);
+      }
+      return p;
+   }
+
+   /**
+    * Returns if this session searches the specified term with the
+    * specified options in the text of the specified document
+    *
+    * @param doc  the EditableDocument
+    * @param term  the search term or regular expression
+    * @param isCaseSensitive  true to search case-sensitive
+    * @param reqWord  true to search only whole words
+    * @param isRegex  true if the term is a regular expression
+    * @return  true if the session searches the term; false otherwise
+    */
+   boolean isSearching(EditableDocument doc, String term,
+         boolean isCaseSensitive, boolean reqWord, boolean isRegex) {
+
+      return this.doc == doc
+            && textDoc == doc.textArea().getDocument()
+            && this.term.equals(term)
+            && this.isCaseSensitive == isCaseSensitive
+            && this.reqWord == reqWord
+            && (pattern != null) == isRegex;
+   }
+
+   /**
+    * Returns the start positions of the matches of a search term that
+    * start in the specified range of the text
+    *
+    * @param text  the text
+    * @param from  the start of the range
+    * @param to  the end of the range
+    * @param term  the search term which is not empty
+    * @param isCaseSensitive  true to search case-sensitive
+    * @param reqWord  true to search only whole words
+    * @param isCancelled  the BooleanSupplier that is checked
+    * repeatedly if the search is cancelled
+    * @return  the start positions in ascending order; null if the
+    * search is cancelled
+    */
+   static int[] search(CharSequence text, int from, int to, String term,
+         boolean isCaseSensitive, boolean reqWord, BooleanSupplier isCancelled) {
+
+      int[] res = new int[16];
+      int n = 0;
+      int last = Math.min(to, text.length() - term.length() + 1);
+      char first = term.charAt(0);
+      for (int i = from; i < last; i++) {
+         if ((i & 0xffff) == 0 && isCancelled.getAsBoolean()) {
+            return null;
+         }
+         char c = text.charAt(i);
+         if (c != first && (isCaseSensitive || !equalsIgnoreCase(c, first))) {
+            continue;
+         }
+         if (regionMatches(text, i, term, isCaseSensitive)
+               && (!reqWord || SyntaxUtils.isWord(text, i, term.length(), null))) {
+
+            if (n == res.length) {
+               res = Arrays.copyOf(res, 2 * n);
+            }
+            res[n++] = i;
+         }
+      }
+      return Arrays.copyOf(res, n);
+   }
+
+   /**
+    * Returns the start and the end positions of the matches of a
+    * pattern that are not empty, at most {@link #MAX_MATCHES} + 1
+    *
+    * @param text  the text
+    * @param p  the Pattern
+    * @param isCancelled  the BooleanSupplier that is checked
+    * repeatedly if the search is cancelled
+    * @return  the array of the start positions at index 0 and the
+    * end positions at index 1; null if the search is cancelled
+    */
+   static int[][] searchRegex(CharSequence text, Pattern p,
+         BooleanSupplier isCancelled) {
+
+      int[] starts = new int[16];
+      int[] ends = new int[16];
+      int n = 0;
+      Matcher m = p.matcher(new CancellableText(text, isCancelled));
+      try {
+         while (n <= MAX_MATCHES && m.find()) {
+            if (m.start() == m.end()) {
+               continue;
+            }
+            if (n == starts.length) {
+               starts = Arrays.copyOf(starts, 2 * n);
+               ends = Arrays.copyOf(ends, 2 * n);
+            }
+            starts[n] = m.start();
+            ends[n] = m.end();
+            n++;
+         }
+      }
+      catch (CancellationException e) {
+         return null;
+      }
+      return new int[][] {Arrays.copyOf(starts, n), Arrays.copyOf(ends, n)};
+   }
+
+   /**
+    * Returns the search term
+    *
+    * @return  the search term
+    */
+   String term() {
+      return term;
+   }
+
+   /**
+    * Returns if the term is a regular expression
+    *
+    * @return  true if a regular expression; false otherwise
+    */
+   boolean isRegex() {
+      return pattern != null;
+   }
+
+   /**
+    * Returns if the search is complete
+    *
+    * @return  true if complete; false otherwise
+    */
+   boolean isReady() {
+      return isReady;
+   }
+
+   /**
+    * Runs the specified <code>Runnable</code> once the search is
+    * complete. The Runnable replaces one that was set before and is
+    * run at once if the search is complete.
+    *
+    * @param r  the Runnable
+    */
+   void whenReady(Runnable r) {
+      if (isReady) {
+         r.run();
+      }
+      else {
+         whenReady = r;
+      }
+   }
+
+   /**
+    * Returns the number of matches
+    *
+    * @return  the number; 0 if the search is not complete
+    */
+   int count() {
+      return size;
+   }
+
+   /**
+    * Returns if the search of a regular expression stopped at
+    * {@link #MAX_MATCHES} matches
+    *
+    * @return  true if stopped; false otherwise
+    */
+   boolean isCapped() {
+      return isCapped;
+   }
+
+   /**
+    * Returns the start position of the match at the specified index
+    *
+    * @param i  the index
+    * @return  the start position
+    */
+   int start(int i) {
+      return starts[i];
+   }
+
+   /**
+    * Returns the end position of the match at the specified index
+    *
+    * @param i  the index
+    * @return  the end position
+    */
+   int end(int i) {
+      return pattern != null ? ends[i] : starts[i] + term.length();
+   }
+
+   /**
+    * Returns the index of the match that starts at the specified
+    * position
+    *
+    * @param pos  the position
+    * @return  the index; -1 if no match starts at pos
+    */
+   int indexAt(int pos) {
+      int i = lowerBound(pos);
+      return i < size && starts[i] == pos ? i : -1;
+   }
+
+   /**
+    * Returns the index of the first match that starts at or behind
+    * the specified position or, if there is none, of the first match
+    * in the text
+    *
+    * @param pos  the position
+    * @return  the index; -1 if there is no match
+    */
+   int next(int pos) {
+      if (size == 0) {
+         return -1;
+      }
+      int i = lowerBound(pos);
+      return i < size ? i : 0;
+   }
+
+   /**
+    * Returns the index of the last match that starts before the
+    * specified position or, if there is none, of the last match in
+    * the text
+    *
+    * @param pos  the position
+    * @return  the index; -1 if there is no match
+    */
+   int previous(int pos) {
+      if (size == 0) {
+         return -1;
+      }
+      int i = lowerBound(pos) - 1;
+      return i >= 0 ? i : size - 1;
+   }
+
+   /**
+    * Composes the replacements of all matches of the regular
+    * expression in the background. The replacement may refer to
+    * captured groups like in <code>Matcher.appendReplacement</code>.
+    * The result is passed to <code>done</code> if the text was not
+    * changed and the session was not ended meanwhile.
+    *
+    * @param replacement  the replacement
+    * @param done  the Consumer that receives the
+    * {@link Replacements}
+    * @param failed  the Consumer that receives the message if the
+    * replacement is invalid
+    */
+   void replaceAll(String replacement, Consumer<Replacements> done,
+         Consumer<String> failed) {
+
+      int id = scan;
+      Snapshot text = doc.snapshot();
+      EXECUTOR.execute(() -> {
+         try {
+            Replacements rep = replacements(text, replacement,
+                  () -> id != scan);
+
+            EventQueue.invokeLater(() -> {
+               if (id == scan) {
+                  done.accept(rep);
+               }
+            });
+         }
+         catch (CancellationException e) {
+            // the text was changed or the session was ended
+         }
+         catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            EventQueue.invokeLater(() -> failed.accept(e.getMessage()));
+         }
+      });
+   }
+
+   /**
+    * Returns the replacement of the match of the regular expression
+    * between the specified positions
+    *
+    * @param start  the start position
+    * @param end  the end position
+    * @param replacement  the replacement which may refer to captured
+    * groups
+    * @return  the replacement; null if the section is not a match
+    * @throws IllegalArgumentException  if the replacement is invalid
+    * @throws IndexOutOfBoundsException  if the replacement refers to
+    * a group that does not exist
+    */
+   String replacement(int start, int end, String replacement) {
+      int secStart = Math.max(0, start - CONTEXT_LENGTH);
+      int secEnd = Math.min(textDoc.getLength(), end + CONTEXT_LENGTH);
+      String sec;
+      try {
+         sec = textDoc.getText(secStart, secEnd - secStart);
+      }
+      catch (BadLocationException e) {
+         FileUtils.log(e);
+         return null;
+      }
+      Matcher m = pattern.matcher(sec);
+      m.region(start - secStart, end - secStart);
+      m.useTransparentBounds(true);
+      m.useAnchoringBounds(false);
+      if (!m.matches()) {
+         return null;
+      }
+      StringBuffer sb = new StringBuffer();
+      m.appendReplacement(sb, replacement);
+      return sb.substring(start - secStart);
+   }
+
+   /**
+    * Ends this session. The matches are no more updated.
+    */
+   void end() {
+      textDoc.removeDocumentListener(docListener);
+      restartTimer.stop();
+      scan++;
+      whenReady = null;
+   }
+
+   //
+   //--private--/
+   //
+
+   private void search() {
+      int id = ++scan;
+      Snapshot text = doc.snapshot();
+      EXECUTOR.execute(() -> {
+         BooleanSupplier isCancelled = () -> id != scan;
+         int[][] res;
+         if (pattern != null) {
+            res = searchRegex(text, pattern, isCancelled);
+         }
+         else {
+            int[] found = search(text, 0, text.length(), term,
+                  isCaseSensitive, reqWord, isCancelled);
+
+            res = found != null ? new int[][] {found} : null;
+         }
+         if (res != null) {
+            EventQueue.invokeLater(() -> done(id, res));
+         }
+      });
+   }
+
+   private void done(int id, int[][] res) {
+      if (id != scan) {
+         return;
+      }
+      starts = res[0];
+      size = starts.length;
+      if (pattern != null) {
+         ends = res[1];
+         isCapped = size > MAX_MATCHES;
+         size = Math.min(size, MAX_MATCHES);
+      }
+      isReady = true;
+      changed.run();
+      if (whenReady != null) {
+         Runnable r = whenReady;
+         whenReady = null;
+         r.run();
+      }
+   }
+
+   //
+   // Composes the replacements of all matches including empty
+   // matches. Matcher.appendReplacement appends the text since the
+   // previous match before the replacement which is cut off.
+   private Replacements replacements(CharSequence text, String replacement,
+         BooleanSupplier isCancelled) {
+
+      Replacements rep = new Replacements(text);
+      Matcher m = pattern.matcher(new CancellableText(text, isCancelled));
+      StringBuffer sb = new StringBuffer();
+      int prevEnd = 0;
+      while (m.find()) {
+         sb.setLength(0);
+         m.appendReplacement(sb, replacement);
+         rep.add(m.start(), m.end(), sb.substring(m.start() - prevEnd));
+         prevEnd = m.end();
+      }
+      return rep;
+   }
+
+   //
+   // Compares like String.regionMatches
+   private static boolean regionMatches(CharSequence text, int pos,
+         String term, boolean isCaseSensitive) {
+
+      for (int i = 0; i < term.length(); i++) {
+         char c = text.charAt(pos + i);
+         char t = term.charAt(i);
+         if (c != t && (isCaseSensitive || !equalsIgnoreCase(c, t))) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   //
+   // Compares like String.regionMatches with ignoreCase true
+   private static boolean equalsIgnoreCase(char c1, char c2) {
+      char u1 = Character.toUpperCase(c1);
+      char u2 = Character.toUpperCase(c2);
+      return u1 == u2
+            || Character.toLowerCase(u1) == Character.toLowerCase(u2);
+   }
+
+   private int lowerBound(int pos) {
+      int lo = 0;
+      int hi = size;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (starts[mid] < pos) {
+            lo = mid + 1;
+         }
+         else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+
+   //
+   // Shifts the positions behind an insertion or removal at pos and
+   // removes the positions in a removed section. Then the matches
+   // that start in the section around the edit where matches may
+   // have been changed are searched again.
+   private void update(int pos, int insLength, int remLength) {
+      int iEnd = lowerBound(pos + remLength);
+      int i = lowerBound(pos);
+      if (iEnd > i) {
+         System.arraycopy(starts, iEnd, starts, i, size - iEnd);
+         size -= iEnd - i;
+      }
+      int shift = insLength - remLength;
+      for (int j = i; j < size; j++) {
+         starts[j] += shift;
+      }
+      int textLength = textDoc.getLength();
+      int from = Math.max(0, pos - term.length());
+      int to = Math.min(textLength, pos + insLength + term.length());
+      int[] found;
+      try {
+         int secStart = Math.max(0, from - 1);
+         int secEnd = Math.min(textLength, to + term.length());
+         String sec = textDoc.getText(secStart, secEnd - secStart);
+         found = search(sec, from - secStart, to - secStart, term,
+               isCaseSensitive, reqWord, () -> false);
+         for (int j = 0; j < found.length; j++) {
+            found[j] += secStart;
+         }
+      }
+      catch (BadLocationException e) {
+         FileUtils.log(e);
+         return;
+      }
+      int iFrom = lowerBound(from);
+      int iTo = lowerBound(to);
+      int newSize = size - (iTo - iFrom) + found.length;
+      if (newSize > starts.length) {
+         starts = Arrays.copyOf(starts, Math.max(newSize, 2 * starts.length));
+      }
+      System.arraycopy(starts, iTo, starts, iFrom + found.length, size - iTo);
+      System.arraycopy(found, 0, starts, iFrom, found.length);
+      size = newSize;
+      changed.run();
+   }
+
+   private void textChanged(int pos, int insLength, int remLength) {
+      if (isReady && pattern == null) {
+         update(pos, insLength, remLength);
+      }
+      else {
+         scan++;
+         restartTimer.restart();
+         if (isReady) {
+            isReady = false;
+            size = 0;
+            changed.run();
+         }
+      }
+   }
+
+   //
+   // The text that is matched against a pattern. Matching ends with
+   // a CancellationException when the search is cancelled.
+   private static final class CancellableText implements CharSequence {
+
+      private final CharSequence text;
+      private final BooleanSupplier isCancelled;
+      private int reads = 0;
+
+      private CancellableText(CharSequence text,
+            BooleanSupplier isCancelled) {
+
+
+         this.text = text;
+         this.isCancelled = isCancelled;
+      }
+
+      @Override
+      public int length() {
+         return text.length();
+      }
+
+      @Override
+      public char charAt(int index) {
+         if ((++reads & 0xffff) == 0 && isCancelled.getAsBoolean()) {
+            throw new CancellationException();
+         }
+         return text.charAt(index);
+      }
+
+      @Override
+      public CharSequence subSequence(int start, int end) {
+         return text.subSequence(start, end);
+      }
+
+      @Override
+      public String toString() {
+         return text.toString();
+      }
+   }
+
+   private final DocumentListener docListener = new DocumentListener() {
+
+      @Override
+      public void insertUpdate(DocumentEvent de) {
+         textChanged(de.getOffset(), de.getLength(), 0);
+      }
+
+      @Override
+      public void removeUpdate(DocumentEvent de) {
+         textChanged(de.getOffset(), 0, de.getLength());
+      }
+
+      @Override
+      public void changedUpdate(DocumentEvent de) {
+         // not used
+      }
+   };
+}
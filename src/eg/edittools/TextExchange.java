@@ -3,6 +3,7 @@ package eg.edittools;
 import javax.swing.JFrame;
 
 import java.io.File;
+import java.io.IOException;
 
 //--Eadgyth--/
 import eg.BusyFunction;
@@ -10,6 +11,7 @@ import eg.FileChooser;
 import eg.Languages;
 import eg.document.EditableDocument;
 import eg.utils.Dialogs;
+import eg.utils.FileUtils;
 import eg.utils.SystemParams;
 import eg.ui.menu.LanguageMenu;
 
@@ -188,11 +190,16 @@ public class TextExchange {
 
    /**
     * Saves the content in the exchange document to the file
-    * 'exchangeContent.txt' in the program folder
+    * 'exchangeContent.txt' in the program folder and waits until the
+    * file is written. Meant to be called when the application exits.
     */
    public void save() {
       if (exchFile.getParentFile().exists()) {
-         exchangeDoc.saveCopy(exchFile);
+         exchangeDoc.saveCopy(exchFile, e -> {});
+         IOException e = exchangeDoc.awaitSaving();
+         if (e != null) {
+            FileUtils.log(e);
+         }
       }
    }
 
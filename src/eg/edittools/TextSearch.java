@@ -1,25 +1,59 @@
 package eg.edittools;
 
+import java.util.function.Consumer;
+import java.util.regex.PatternSyntaxException;
+
 import javax.swing.JTextPane;
+import javax.swing.Timer;
+
+import javax.swing.event.CaretListener;
 
 //--Eadgyth--/
 import eg.utils.Dialogs;
 import eg.document.EditableDocument;
+import eg.document.styledtext.PieceTable.Snapshot;
 
 /**
- * The search and replacemant of text or words in the
- * <code>EditableDocument</code> that is currently viewed in the main
- * editor area
+ * The search and replacemant of text, words or matches of a regular
+ * expression in the <code>EditableDocument</code> that is currently
+ * viewed in the main editor area.
+ * <p>
+ * The matches of the search term are kept in a {@link SearchSession}
+ * which is reused as long as the search term, the search options and
+ * the document are unchanged. A status that shows the number of
+ * matches and the index of the selected match is passed to a
+ * <code>Consumer</code>.
+ * <p>
+ * A document that shows a file in a read-only viewer is not
+ * searched.
  */
 public class TextSearch {
 
+   private static final int COUNT_DELAY = 250;
+
+   private final Consumer<String> status;
+   private final Timer countTimer;
+
    private boolean isUpward = false;
    private boolean reqWord = false;
    private boolean isCaseSensitive = false;
+   private boolean isRegex = false;
    private int pos = 0;
+   private String countedTerm = "";
 
    private EditableDocument doc;
    private JTextPane textArea;
+   private SearchSession session = null;
+
+   /**
+    * @param status  the Consumer that receives the status of the
+    * search
+    */
+   public TextSearch(Consumer<String> status) {
+      this.status = status;
+      countTimer = new Timer(COUNT_DELAY, e -> count());
+      countTimer.setRepeats(false);
+   }
 
    /**
     * Sets the <code>EditableDocument</code> which text is searched in
@@ -27,8 +61,33 @@ public class TextSearch {
     * @param doc  the EditableDocument
     */
    public void setDocument(EditableDocument doc) {
+      if (textArea != null) {
+         textArea.removeCaretListener(caretListener);
+      }
       this.doc = doc;
       this.textArea = doc.textArea();
+      textArea.addCaretListener(caretListener);
+      endSession();
+      countTimer.restart();
+   }
+
+   /**
+    * Sets the search term whose matches are counted after a short
+    * delay
+    *
+    * @param searchTerm  the search term
+    */
+   public void setSearchTerm(String searchTerm) {
+      countedTerm = searchTerm;
+      countTimer.restart();
+   }
+
+   /**
+    * Stops searching and counting matches
+    */
+   public void end() {
+      countTimer.stop();
+      endSession();
    }
 
    /**
@@ -39,6 +98,7 @@ public class TextSearch {
     */
    public void setRequireWord(boolean b) {
       reqWord = b;
+      countTimer.restart();
    }
 
    /**
@@ -59,45 +119,58 @@ public class TextSearch {
      */
     public void setCaseSensitivity(boolean b) {
        isCaseSensitive = b;
+       countTimer.restart();
     }
 
+   /**
+    * Sets the boolean that indicates if the search term is a regular
+    * expression. Default is not a regular expression.
+    *
+    * @param b  the boolean value
+    */
+   public void setRegex(boolean b) {
+      isRegex = b;
+      countTimer.restart();
+   }
+
    /**
     * Searches the next occurrence of the search term and, if found,
-    * selects it
+    * selects it. The occurrence is selected when the search in the
+    * {@link SearchSession} is complete.
     *
     * @param searchTerm  the search term
     */
    public void searchText(String searchTerm) {
-      String content = doc.text();
-      if (!isCaseSensitive) {
-         content = content.toLowerCase();
-         searchTerm = searchTerm.toLowerCase();
+      if (searchTerm.length() == 0 || !isSearchable()) {
+         return;
       }
-      if (isUpward) {
-         pos = textArea.getSelectionStart() - 1;
-         searchTextUp(content, searchTerm);
-      }
-      else {
-         pos = textArea.getCaretPosition();
-         searchTextDown(content, searchTerm);
+      countTimer.stop();
+      SearchSession s = session(searchTerm, true);
+      if (s != null) {
+         s.whenReady(() -> selectMatch(s));
       }
    }
 
    /**
     * Replaces a selected search term or searches the next occurrence
-    * of the search term and, if found, selects it
+    * of the search term and, if found, selects it. The replacement
+    * of a match of a regular expression may refer to captured
+    * groups.
     *
     * @param searchTerm  the search term
     * @param replacement  the replacement for the search term
     */
    public void replace(String searchTerm, String replacement) {
-      if (searchTerm.length() == 0) {
+      if (searchTerm.length() == 0 || !isSearchable()) {
          return;
       }
       String sel = textArea.getSelectedText();
       if (sel == null) {
          searchText(searchTerm);
       }
+      else if (isRegex) {
+         replaceRegexMatch(searchTerm, replacement);
+      }
       else {
          //
          // check selection since a selection may be made "by hand"
@@ -120,110 +193,190 @@ public class TextSearch {
    }
 
    /**
-    * Replaces all occurrences of the search term
+    * Replaces all occurrences of the search term. The replaced text
+    * is composed in one pass and the document is changed once. The
+    * matches of a regular expression are replaced in the background.
     *
     * @param searchTerm  the search term
     * @param replacement  the replacement for the search term
     */
    public void replaceAll(String searchTerm, String replacement) {
-      if (searchTerm.length() == 0) {
+      if (searchTerm.length() == 0 || !isSearchable()) {
+         return;
+      }
+      if (isRegex) {
+         SearchSession s = session(searchTerm, true);
+         if (s != null) {
+            status.accept("Replacing...");
+            s.replaceAll(replacement, rep -> replaced(rep, searchTerm),
+                  msg -> {
+                     showStatus();
+                     Dialogs.warnMessage("The replacement is invalid:\n" + msg);
+                  });
+         }
          return;
       }
-      String content = doc.text();
-      if (!isCaseSensitive) {
-         content = content.toLowerCase();
-         searchTerm = searchTerm.toLowerCase();
-      }
-      doc.enableUndoMerging(true);
-      int count = 0;
-      int diff = searchTerm.length() - replacement.length();
-      int sumDiff = 0;
-      int ind = 0;
-      while (ind != -1) {
-         ind = nextIndex(content, searchTerm, ind);
-         if (ind != -1) {
-            count++;
-            doc.replace(ind - sumDiff, searchTerm.length(), replacement, false);
-            sumDiff += diff;
-            textArea.setCaretPosition(ind - sumDiff + diff + replacement.length());
-            ind++;
+      endSession();
+      Snapshot content = doc.snapshot();
+      int[] matches = SearchSession.matches(content, searchTerm,
+            isCaseSensitive, reqWord);
+
+      Replacements rep = new Replacements(content);
+      for (int ind : matches) {
+         if (ind >= rep.lastEnd()) {
+            rep.add(ind, ind + searchTerm.length(), replacement);
          }
       }
-      doc.enableUndoMerging(false);
-      if (count > 0) {
+      replaced(rep, searchTerm);
+   }
+
+   //
+   //--private--/
+   //
+
+   private void replaced(Replacements rep, String searchTerm) {
+      if (rep.count() > 0) {
+         doc.replace(rep.spans());
+         textArea.setCaretPosition(rep.endInResult());
          Dialogs.infoMessage("\"" + searchTerm + "\" was replaced "
-               + count + " times.", null);
+               + rep.count() + " times.", null);
       }
       else {
          Dialogs.infoMessage(notFoundMsg(searchTerm), null);
       }
       doc.setFocused();
+      countTimer.restart();
    }
 
    //
-   //--private--/
+   // Replaces the selection if it is a match of the regular expression
+   // and searches the next match
+   private void replaceRegexMatch(String searchTerm, String replacement) {
+      SearchSession s = session(searchTerm, true);
+      if (s == null) {
+         return;
+      }
+      s.whenReady(() -> {
+         int start = textArea.getSelectionStart();
+         int end = textArea.getSelectionEnd();
+         String rep;
+         try {
+            rep = s.replacement(start, end, replacement);
+         }
+         catch (IllegalArgumentException | IndexOutOfBoundsException e) {
+            Dialogs.warnMessage("The replacement is invalid:\n" + e.getMessage());
+            return;
+         }
+         if (rep != null) {
+            doc.replace(start, end - start, rep, true);
+         }
+         searchText(searchTerm);
+      });
+   }
+
    //
+   // Selects the next or previous match relative to the selection
+   private void selectMatch(SearchSession s) {
+      int i = isUpward
+            ? s.previous(textArea.getSelectionStart())
+            : s.next(textArea.getCaretPosition());
 
-   private void searchTextDown(String content, String searchTerm) {
-      int ind = nextIndex(content, searchTerm, pos);
-      if (ind == -1 & pos > 0) {
-         resetSearchStart();
-         ind = nextIndex(content, searchTerm, pos);
-      }
-      if (ind != -1) {
-         pos = ind;
-         textArea.select(pos, pos + searchTerm.length());
+      if (i != -1) {
+         pos = s.start(i);
+         textArea.select(pos, s.end(i));
+         showStatus();
       }
       else {
-         Dialogs.infoMessage(notFoundMsg(searchTerm), null);
+         Dialogs.infoMessage(notFoundMsg(s.term()), null);
          textArea.requestFocusInWindow();
       }
    }
 
-   private int nextIndex(String content, String searchTerm, int pos) {
-      int index = content.indexOf(searchTerm, pos);
-      if (reqWord) {
-         while (index != -1 && !isWord(content, searchTerm, index)) {
-            index = content.indexOf(searchTerm, index + 1);
+   //
+   // Returns the session for the specified term and the current
+   // options which is either the current session or a new session.
+   // Null is returned if the term is an invalid regular expression.
+   private SearchSession session(String searchTerm, boolean showError) {
+      if (session == null || !session.isSearching(doc, searchTerm,
+            isCaseSensitive, reqWord, isRegex)) {
+
+         endSession();
+         try {
+            session = new SearchSession(doc, searchTerm, isCaseSensitive,
+                  reqWord, isRegex, this::showStatus);
          }
+         catch (PatternSyntaxException e) {
+            status.accept("Invalid regular expression");
+            if (showError) {
+               Dialogs.warnMessage(e.getMessage());
+            }
+            return null;
+         }
+         showStatus();
       }
-      return index;
+      return session;
    }
 
-   private void searchTextUp(String content, String searchTerm) {
-      int ind = lastIndex(content, searchTerm, pos);
-      if (ind == -1 & pos < content.length() - 1) {
-         resetSearchStart();
-         ind = lastIndex(content, searchTerm, pos);
+   private void count() {
+      if (doc == null || !isSearchable()) {
+         return;
       }
-      if (ind != -1) {
-         pos = ind;
-         textArea.select(pos, pos + searchTerm.length());
+      if (countedTerm.length() == 0) {
+         endSession();
+         showStatus();
       }
       else {
-         Dialogs.infoMessage(notFoundMsg(searchTerm), null);
-         textArea.requestFocusInWindow();
+         session(countedTerm, false);
       }
    }
 
-   private int lastIndex(String content, String searchTerm, int pos) {
-      int index = content.lastIndexOf(searchTerm, pos);
-      if (reqWord) {
-         while (index != -1 && !isWord(content, searchTerm, index)) {
-            index = content.lastIndexOf(searchTerm, index - 1);
-         }
+   //
+   // Returns if the text of the document can be searched. The file
+   // shown in a read-only viewer is searched in the viewer.
+   private boolean isSearchable() {
+      if (doc.isReadOnly()) {
+         status.accept("Use 'Find' in the viewer");
+         return false;
       }
-      return index;
+      return true;
    }
 
-   private boolean isWord(String content, String searchTerm, int pos) {
-      return eg.syntax.SyntaxUtils.isWord(content, pos, searchTerm.length(), null);
+   private void endSession() {
+      if (session != null) {
+         session.end();
+         session = null;
+      }
    }
 
-   private void resetSearchStart() {
-      pos = isUpward ? doc.textLength() - 1 : 0;
+   private void showStatus() {
+      if (session == null) {
+         status.accept("");
+      }
+      else if (!session.isReady()) {
+         status.accept("Searching...");
+      }
+      else {
+         int n = session.count();
+         String count = n + (session.isCapped() ? "+" : "");
+         int i = session.indexAt(textArea.getSelectionStart());
+         if (i != -1 && session.end(i) != textArea.getSelectionEnd()) {
+            i = -1;
+         }
+         if (i != -1) {
+            status.accept((i + 1) + " of " + count);
+         }
+         else {
+            status.accept(count + (n == 1 ? " match" : " matches"));
+         }
+      }
    }
 
+   private final CaretListener caretListener = e -> {
+      if (session != null && session.isReady()) {
+         showStatus();
+      }
+   };
+
    private String notFoundMsg(String searchTerm) {
 	  return searchTerm + " was not found.";
    }
@@ -0,0 +1,583 @@
+package eg.edittools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.stream.Stream;
+
+//--Eadgyth--/
+import eg.document.FileText;
+
+/**
+ * The index of the trigrams in the text files of a directory tree
+ * which narrows the files that may contain a search term.
+ * <p>
+ * For each file the sorted trigrams of its text, which is decoded as
+ * {@link FileText} in the detected encoding, with characters folded
+ * to lower case, are stored as varint-encoded differences. A
+ * file that contains a term contains all trigrams of the term, so
+ * only files that do are candidates whose text must be searched.
+ * Files larger than 4 MB are not indexed and are always candidates.
+ * <p>
+ * The index is kept in a file in a given directory. The entries in
+ * this file are laid out such that the trigrams of each file are
+ * addressed by position; the file is read in one piece and entries
+ * refer to sections of the buffer. When the index is opened the files
+ * whose modification time or size changed are indexed again. While
+ * open, the changes in the tree, which are reported by the
+ * <code>FileWatcher</code> of the editor, are passed to
+ * {@link #changed(Set)} and files written by the editor are reported
+ * through {@link #update(File)}. The changed files are candidates
+ * until they are indexed again.
+ */
+final class TrigramIndex {
+
+   private static final int MAGIC = 0x45475449;
+   private static final int VERSION = 2;
+   private static final long MAX_INDEXED_SIZE = 4L << 20;
+   private static final long SAVE_INTERVAL = 30000;
+
+   private static final byte INDEXED = 0;
+   private static final byte BINARY = 1;
+   private static final byte NOT_INDEXED = 2;
+
+   private final ExecutorService executor
+         = Executors.newSingleThreadExecutor(r -> {
+              Thread t = new Thread(r, "Trigram index");
+              t.setDaemon(true);
+              return t;
+           });
+
+   private final Map<Path, Entry> entries = new ConcurrentHashMap<>();
+   private final Set<Path> changed = ConcurrentHashMap.newKeySet();
+   private final AtomicBoolean isUpdateScheduled = new AtomicBoolean();
+   private final Path root;
+   private final File indexFile;
+   private final FileWalk walk;
+
+   private long lastSave = 0;
+   private volatile boolean isReady = false;
+   private volatile boolean isClosed = false;
+
+   /**
+    * Creates a <code>TrigramIndex</code> and starts reading and
+    * updating the index in the background
+    *
+    * @param root  the root of the directory tree
+    * @param excludedDir  the directory that is not indexed; may be
+    * null
+    * @param dir  the directory of the index file which is created
+    * when the index is saved; null to not save the index
+    */
+   TrigramIndex(File root, File excludedDir, File dir) {
+      this.root = root.toPath().toAbsolutePath();
+      indexFile = dir == null ? null : new File(dir,
+            Long.toHexString(hash(this.root.toString())) + ".idx");
+
+      walk = new FileWalk(this.root,
+            excludedDir != null ? excludedDir.toPath().toAbsolutePath() : null,
+            () -> isClosed);
+
+      executor.execute(this::init);
+   }
+
+   /**
+    * Returns the root of the directory tree
+    *
+    * @return  the root
+    */
+   File root() {
+      return root.toFile();
+   }
+
+   /**
+    * Returns if the index is complete
+    *
+    * @return  true if ready; false otherwise
+    */
+   boolean isReady() {
+      return isReady;
+   }
+
+   /**
+    * Returns the files that may contain the specified term. The
+    * files include those that were changed but are not yet indexed
+    * again.
+    *
+    * @param term  the term
+    * @return  the files; null if the index is not ready or the term
+    * is shorter than three characters
+    */
+   List<Path> candidates(String term) {
+      if (!isReady || term.length() < 3) {
+         return null;
+      }
+      int[] query = trigrams(term);
+      List<Path> list = new ArrayList<>();
+      entries.forEach((p, e) -> {
+         if (!changed.contains(p) && e.containsAll(query)) {
+            list.add(p);
+         }
+      });
+      for (Path p : changed) {
+         if (Files.isRegularFile(p)) {
+            list.add(p);
+         }
+      }
+      return list;
+   }
+
+   /**
+    * Indexes the specified file again in the background if the file
+    * is in the directory tree
+    *
+    * @param f  the file
+    */
+   void update(File f) {
+      Path p = f.toPath().toAbsolutePath();
+      if (isInTree(p)) {
+         changed.add(p);
+         scheduleUpdate();
+      }
+   }
+
+   /**
+    * Returns if the specified directory in the tree and its
+    * subdirectories are indexed and must be watched for changes
+    *
+    * @param dir  the absolute path of the directory
+    * @return  true if indexed; false otherwise
+    */
+   boolean isIndexed(Path dir) {
+      return dir.equals(root) || !walk.isSkipped(dir);
+   }
+
+   /**
+    * Indexes the specified changed entries again in the background.
+    * The files in a changed directory whose modification time or size
+    * changed are indexed. If the root is contained the whole tree is
+    * refreshed and the index is not ready until then.
+    *
+    * @param paths  the absolute paths of the files and directories
+    * that were created, deleted or changed
+    */
+   void changed(Set<Path> paths) {
+      if (isClosed) {
+         return;
+      }
+      if (paths.contains(root)) {
+         isReady = false;
+         executor.execute(() -> {
+            refresh();
+            isReady = !isClosed;
+         });
+         return;
+      }
+      for (Path p : paths) {
+         if (isInTree(p)) {
+            changed.add(p);
+         }
+      }
+      scheduleUpdate();
+   }
+
+   /**
+    * Stops updating and writes the index file in the background
+    */
+   void close() {
+      isClosed = true;
+      isReady = false;
+      executor.execute(this::save);
+      executor.shutdown();
+   }
+
+   //
+   //--private--/
+   //
+
+   private boolean isInTree(Path p) {
+      if (!p.startsWith(root)) {
+         return false;
+      }
+      for (Path d = p.getParent(); !d.equals(root); d = d.getParent()) {
+         if (walk.isSkipped(d)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   private void init() {
+      load();
+      refresh();
+      if (isClosed) {
+         return;
+      }
+      save();
+      isReady = !isClosed;
+   }
+
+   //
+   // Reads the index file. An invalid file is ignored.
+   private void load() {
+      if (indexFile == null || !indexFile.exists()) {
+         return;
+      }
+      try (FileChannel ch = FileChannel.open(indexFile.toPath(),
+            StandardOpenOption.READ)) {
+
+         if (ch.size() > Integer.MAX_VALUE) {
+            return;
+         }
+         ByteBuffer bb = ByteBuffer.allocate((int) ch.size());
+         while (bb.hasRemaining() && ch.read(bb) != -1) {
+            // fill buffer
+         }
+         bb.flip();
+         if (bb.getInt() != MAGIC || bb.getInt() != VERSION) {
+            return;
+         }
+         int n = bb.getInt();
+         for (int i = 0; i < n; i++) {
+            Path p = root.resolve(readString(bb));
+            long modified = bb.getLong();
+            long size = bb.getLong();
+            byte kind = bb.get();
+            int length = bb.getInt();
+            ByteBuffer data = bb.slice();
+            data.limit(length);
+            bb.position(bb.position() + length);
+            entries.put(p, new Entry(modified, size, kind, data));
+         }
+      }
+      catch (IOException | BufferUnderflowException | IllegalArgumentException e) {
+         entries.clear();
+      }
+   }
+
+   //
+   // Indexes the files that are new or whose modification time or
+   // size changed and removes the entries of files that no longer
+   // exist
+   private void refresh() {
+      Set<Path> found = ConcurrentHashMap.newKeySet();
+      ForkJoinPool pool
+            = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+
+      pool.invoke(ForkJoinTask.adapt(() -> walk.walk(
+            (p, attr) -> {
+               found.add(p);
+               Entry e = entries.get(p);
+               boolean isNew = e == null
+                     || e.modified != attr.lastModifiedTime().toMillis()
+                     || e.size != attr.size();
+
+               if (isNew) {
+                  //
+                  // the binary kind is kept if the file is not read
+                  // since binary files are not visited
+                  entries.put(p, new Entry(attr.lastModifiedTime().toMillis(),
+                        attr.size(), BINARY, null));
+               }
+               return isNew;
+            },
+            this::index)));
+
+      pool.shutdown();
+      if (!isClosed) {
+         entries.keySet().retainAll(found);
+      }
+   }
+
+   private void index(Path p, ByteBuffer content) throws IOException {
+      Entry prev = entries.get(p);
+      long modified = prev != null ? prev.modified
+            : Files.getLastModifiedTime(p).toMillis();
+
+      long size = content.remaining();
+      if (size > MAX_INDEXED_SIZE) {
+         entries.put(p, new Entry(modified, size, NOT_INDEXED, null));
+         return;
+      }
+      String text = FileText.decode(content).text();
+      entries.put(p, new Entry(modified, size, INDEXED, encode(trigrams(text))));
+   }
+
+   private void scheduleUpdate() {
+      if (!isClosed && isUpdateScheduled.compareAndSet(false, true)) {
+         executor.execute(this::updateChanged);
+      }
+   }
+
+   //
+   // Indexes the changed files again. The files stay candidates until
+   // indexed. The files in a changed directory become changed files
+   // that are indexed in the next update.
+   private void updateChanged() {
+      isUpdateScheduled.set(false);
+      List<Path> files = new ArrayList<>(changed);
+      for (Path p : files) {
+         if (isClosed) {
+            return;
+         }
+         try {
+            BasicFileAttributes attr = Files.readAttributes(p,
+                  BasicFileAttributes.class);
+
+            if (attr.isDirectory()) {
+               addChangedFiles(p);
+            }
+            else if (!attr.isRegularFile()) {
+               remove(p);
+            }
+            else if (attr.size() > MAX_INDEXED_SIZE) {
+               entries.put(p, new Entry(attr.lastModifiedTime().toMillis(),
+                     attr.size(), NOT_INDEXED, null));
+            }
+            else {
+               entries.put(p, new Entry(attr.lastModifiedTime().toMillis(),
+                     attr.size(), BINARY, null));
+
+               ByteBuffer bb = ByteBuffer.wrap(Files.readAllBytes(p));
+               if (!FileWalk.isBinary(bb)) {
+                  index(p, bb);
+               }
+            }
+         }
+         catch (IOException e) {
+            remove(p);
+         }
+         changed.remove(p);
+      }
+      if (!changed.isEmpty()) {
+         scheduleUpdate();
+      }
+      if (System.currentTimeMillis() - lastSave > SAVE_INTERVAL) {
+         save();
+      }
+   }
+
+   private void addChangedFiles(Path dir) {
+      try (Stream<Path> files = Files.walk(dir)) {
+         files.filter(f -> isInTree(f) && isChangedFile(f))
+               .forEach(changed::add);
+      }
+      catch (IOException | UncheckedIOException e) {
+         // the directory was removed meanwhile
+      }
+   }
+
+   private boolean isChangedFile(Path p) {
+      try {
+         BasicFileAttributes attr = Files.readAttributes(p,
+               BasicFileAttributes.class);
+
+         Entry e = entries.get(p);
+         return attr.isRegularFile() && (e == null
+               || e.modified != attr.lastModifiedTime().toMillis()
+               || e.size != attr.size());
+      }
+      catch (IOException e) {
+         return false;
+      }
+   }
+
+   //
+   // Removes the entry of a file or the entries of the files in a
+   // directory
+   private void remove(Path p) {
+      if (entries.remove(p) == null) {
+         entries.keySet().removeIf(k -> k.startsWith(p));
+      }
+   }
+
+   //
+   // Writes the index to a temporary file that then replaces the index
+   // file
+   private void save() {
+      lastSave = System.currentTimeMillis();
+      if (indexFile == null) {
+         return;
+      }
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream dos = new DataOutputStream(bytes)) {
+         Map<Path, Entry> copy = new HashMap<>(entries);
+         dos.writeInt(MAGIC);
+         dos.writeInt(VERSION);
+         dos.writeInt(copy.size());
+         for (Map.Entry<Path, Entry> me : copy.entrySet()) {
+            Entry e = me.getValue();
+            byte[] path = root.relativize(me.getKey()).toString()
+                  .getBytes(StandardCharsets.UTF_8);
+
+            dos.writeInt(path.length);
+            dos.write(path);
+            dos.writeLong(e.modified);
+            dos.writeLong(e.size);
+            dos.writeByte(e.kind);
+            ByteBuffer data = e.data != null ? e.data.duplicate()
+                  : ByteBuffer.allocate(0);
+
+            dos.writeInt(data.remaining());
+            while (data.hasRemaining()) {
+               dos.writeByte(data.get());
+            }
+         }
+      }
+      catch (IOException e) {
+         throw new AssertionError(e); // not thrown by the byte array
+      }
+      indexFile.getParentFile().mkdirs();
+      Path tmp = Paths.get(indexFile.getPath() + ".tmp");
+      try {
+         Files.write(tmp, bytes.toByteArray());
+         Files.move(tmp, indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+               StandardCopyOption.ATOMIC_MOVE);
+      }
+      catch (IOException e) {
+         // the index is built again next time
+      }
+   }
+
+   private static String readString(ByteBuffer bb) {
+      int length = bb.getInt();
+      byte[] b = new byte[length];
+      bb.get(b);
+      return new String(b, StandardCharsets.UTF_8);
+   }
+
+   //
+   // Returns the sorted distinct trigrams. A trigram is composed of
+   // the lower 10 bits of the three folded chars; trigrams of
+   // different chars may be equal which only adds candidates.
+   private static int[] trigrams(CharSequence text) {
+      int n = text.length();
+      if (n < 3) {
+         return new int[0];
+      }
+      int[] t = new int[n - 2];
+      int k1 = fold(text.charAt(0));
+      int k2 = fold(text.charAt(1));
+      for (int i = 2; i < n; i++) {
+         int k3 = fold(text.charAt(i));
+         t[i - 2] = k1 << 20 | k2 << 10 | k3;
+         k1 = k2;
+         k2 = k3;
+      }
+      Arrays.sort(t);
+      int m = 0;
+      for (int i = 0; i < t.length; i++) {
+         if (m == 0 || t[i] != t[m - 1]) {
+            t[m++] = t[i];
+         }
+      }
+      return Arrays.copyOf(t, m);
+   }
+
+   //
+   // Folds like String.regionMatches with ignoreCase true compares
+   private static int fold(char c) {
+      if (c < 128) {
+         return c >= 'A' && c <= 'Z' ? c + 32 : c;
+      }
+      return Character.toLowerCase(Character.toUpperCase(c)) & 0x3ff;
+   }
+
+   private static ByteBuffer encode(int[] trigrams) {
+      ByteArrayOutputStream out = new ByteArrayOutputStream(trigrams.length * 2);
+      int prev = 0;
+      for (int t : trigrams) {
+         int d = t - prev;
+         prev = t;
+         while ((d & ~0x7f) != 0) {
+            out.write((d & 0x7f) | 0x80);
+            d >>>= 7;
+         }
+         out.write(d);
+      }
+      return ByteBuffer.wrap(out.toByteArray());
+   }
+
+   private static long hash(String s) {
+      long h = 0xcbf29ce484222325L;
+      for (int i = 0; i < s.length(); i++) {
+         h ^= s.charAt(i);
+         h *= 0x100000001b3L;
+      }
+      return h;
+   }
+
+   private static final class Entry {
+
+      private final long modified;
+      private final long size;
+      private final byte kind;
+      private final ByteBuffer data;
+
+      private Entry(long modified, long size, byte kind, ByteBuffer data) {
+         this.modified = modified;
+         this.size = size;
+         this.kind = kind;
+         this.data = data;
+      }
+
+      //
+      // Merges the sorted query with the decoded trigrams
+      private boolean containsAll(int[] query) {
+         if (kind == BINARY) {
+            return false;
+         }
+         if (kind == NOT_INDEXED) {
+            return true;
+         }
+         int qi = 0;
+         int t = 0;
+         int pos = 0;
+         int end = data.limit();
+         while (qi < query.length && pos < end) {
+            int d = 0;
+            int shift = 0;
+            byte b;
+            do {
+               b = data.get(pos++);
+               d |= (b & 0x7f) << shift;
+               shift += 7;
+            } while (b < 0);
+            t += d;
+            if (t == query[qi]) {
+               qi++;
+            }
+            else if (t > query[qi]) {
+               return false;
+            }
+         }
+         return qi == query.length;
+      }
+   }
+}
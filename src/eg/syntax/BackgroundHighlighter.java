@@ -0,0 +1,446 @@
+package eg.syntax;
+
+import java.awt.EventQueue;
+import java.awt.Insets;
+import java.awt.Rectangle;
+
+import java.util.BitSet;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Supplier;
+
+import javax.swing.JTextPane;
+import javax.swing.Timer;
+
+import javax.swing.text.Position;
+import javax.swing.text.View;
+
+//--Eadgyth--/
+import eg.document.styledtext.EditableText;
+import eg.document.styledtext.LineIndex;
+import eg.document.styledtext.SnapshotText;
+import eg.document.styledtext.StyleRuns;
+
+/**
+ * The syntax highlighting of the entire text outside the event
+ * dispatch thread (EDT).
+ * <p>
+ * A pass searches text elements in a snapshot of the text on a
+ * background thread and records the attributes in a
+ * {@link SnapshotText}. The resulting {@link StyleRuns} are then set
+ * on the EDT in batches that are limited in time, beginning with the
+ * runs in the visible part of the text area and proceeding outward.
+ * <p>
+ * A pass is complete when the search is finished and the state of
+ * the pass is taken over by {@link SyntaxHighlighter}. A pass that is
+ * searching becomes stale when the text is changed. It is cancelled
+ * then and a new pass starts after a short delay if {@link #update()}
+ * is called. Sections are highlighted in <code>SyntaxHighlighter</code>
+ * at any time but the highlighting is not completed outside a section
+ * while a pass is pending.
+ * <p>
+ * A text whose length reaches a minimum length is highlighted lazily.
+ * The visible lines and a margin of lines are highlighted at once on
+ * the EDT and the runs of the pass are set only for the lines that
+ * become visible while scrolling (see {@link #updateVisible()}). After
+ * the text is changed the runs which are not yet set are dropped and
+ * lines that become visible are highlighted on the EDT instead. Lines
+ * are highlighted together with a block comment or text block that
+ * starts before them.
+ */
+public class BackgroundHighlighter {
+
+   private static final ExecutorService EXECUTOR
+         = Executors.newSingleThreadExecutor(r -> {
+              Thread t = new Thread(r, "Syntax highlighting");
+              t.setDaemon(true);
+              return t;
+           });
+
+   private static final long BATCH_NANOS = 8000000L;
+   private static final int RESTART_DELAY = 250;
+   private static final int MARGIN_LINES = 100;
+   private static final String[] TEXT_BLOCK_MARKS = {
+      SyntaxConstants.TRI_DOUBLE_QUOTE, SyntaxConstants.TRI_SINGLE_QUOTE
+   };
+
+   private final EditableText txt;
+   private final SyntaxHighlighter syntax;
+   private final int lazyMinLength;
+   private final Timer restartTimer;
+
+   private Supplier<Highlighter> hlFactory = null;
+   private SnapshotText snapshot = null;
+   private RunsSetting lazyRuns = null;
+   private RunsSetting runsInBatches = null;
+   private boolean isViewHighlighting = false;
+   private int pass = 0;
+   private int visibleStart = 0;
+   private int visibleEnd = 0;
+   private boolean isVisibleUpdatePosted = false;
+
+   /**
+    * @param txt  the EditableText
+    * @param syntax  the SyntaxHighlighter that highlights sections
+    * of the same text and takes over the state of a completed pass
+    * @param lazyMinLength  the length of the text from which on the
+    * text is highlighted lazily
+    */
+   public BackgroundHighlighter(EditableText txt, SyntaxHighlighter syntax,
+         int lazyMinLength) {
+
+      this.txt = txt;
+      this.syntax = syntax;
+      this.lazyMinLength = lazyMinLength;
+      restartTimer = new Timer(RESTART_DELAY, e -> highlight());
+      restartTimer.setRepeats(false);
+   }
+
+   /**
+    * Sets the factory for the <code>Highlighter</code> that is used
+    * in a pass. A new <code>Highlighter</code> is created for each
+    * pass because implementations may hold a state. Any pending pass
+    * is cancelled.
+    *
+    * @param hlFactory  the factory; null to not highlight
+    */
+   public void setHighlighter(Supplier<Highlighter> hlFactory) {
+      cancel();
+      syntax.enableCompletion(true);
+      this.hlFactory = hlFactory;
+   }
+
+   /**
+    * Starts a pass for the current text and cancels any pending
+    * pass
+    */
+   public void highlight() {
+      cancel();
+      if (hlFactory == null || txt.content().length() == 0) {
+         syntax.enableCompletion(true);
+         return;
+      }
+      if (isLazy()) {
+         isViewHighlighting = true;
+         highlightVisible();
+      }
+      syntax.enableCompletion(false);
+      int id = pass;
+      Highlighter hl = hlFactory.get();
+      SnapshotText st = new SnapshotText(txt.text(), txt);
+      snapshot = st;
+      EXECUTOR.execute(() -> search(id, st, hl));
+   }
+
+   /**
+    * Updates this state after a change of the text. A pending pass or
+    * a pass whose runs are being set in batches is stale and is
+    * cancelled and restarted after a short delay. Runs of a completed
+    * pass that are set lazily are dropped.
+    */
+   public void update() {
+      if (isPending() || runsInBatches != null) {
+         cancel();
+         syntax.enableCompletion(false);
+         restartTimer.restart();
+      }
+      else if (isViewHighlighting) {
+         lazyRuns = null;
+         visibleEnd = 0;
+      }
+   }
+
+   /**
+    * Highlights the lines that became visible if the text is
+    * highlighted lazily and not all lines have been highlighted.
+    * Meant to be called when the view of the text area changed.
+    */
+   public void updateVisible() {
+      if (!isViewHighlighting || isVisibleUpdatePosted) {
+         return;
+      }
+      isVisibleUpdatePosted = true;
+      EventQueue.invokeLater(() -> {
+         isVisibleUpdatePosted = false;
+         if (!isViewHighlighting) {
+            return;
+         }
+         if (lazyRuns != null) {
+            lazyRuns.applyVisible();
+         }
+         else {
+            highlightVisible();
+         }
+      });
+   }
+
+   /**
+    * Returns if a pass is pending, i.e. is searching or is going to
+    * be restarted
+    *
+    * @return  true if pending; false otherwise
+    */
+   public boolean isPending() {
+      return snapshot != null || restartTimer.isRunning();
+   }
+
+   /**
+    * Cancels any pending pass
+    */
+   public void cancel() {
+      restartTimer.stop();
+      if (snapshot != null) {
+         snapshot.cancel();
+         snapshot = null;
+      }
+      lazyRuns = null;
+      runsInBatches = null;
+      isViewHighlighting = false;
+      visibleEnd = 0;
+      pass++;
+   }
+
+   //
+   //--private--/
+   //
+
+   private boolean isLazy() {
+      return hlFactory != null && txt.content().length() >= lazyMinLength;
+   }
+
+   private void search(int id, SnapshotText st, Highlighter hl) {
+      SyntaxSearcher searcher = new SyntaxSearcher(st);
+      searcher.setHighlighter(hl);
+      searcher.setTextParams(st.text(), 0, 0);
+      try {
+         hl.highlight(searcher, st.attributes());
+         StyleRuns runs = st.runs();
+         EventQueue.invokeLater(new RunsSetting(id, searcher, runs));
+      }
+      catch (CancellationException e) {
+         // a stale pass is dropped
+      }
+   }
+
+   private void highlightVisible() {
+      int[] range = visibleRange(MARGIN_LINES);
+      if (range[0] >= visibleStart && range[1] <= visibleEnd) {
+         return;
+      }
+      CharSequence text = txt.content();
+      Highlighter hl = hlFactory.get();
+      int start = contextStart(text, hl, range[0]);
+      int end = contextEnd(text, hl, range[1]);
+      String scn = text.subSequence(start, end).toString();
+      SnapshotText st = new SnapshotText(scn, txt);
+      SyntaxSearcher searcher = new SyntaxSearcher(st);
+      searcher.setHighlighter(hl);
+      searcher.setTextParams(scn, 0, 0);
+      hl.highlight(searcher, st.attributes());
+      StyleRuns runs = st.runs();
+      txt.collectAttributes();
+      for (int i = runs.indexAt(range[0] - start); i < runs.size(); i++) {
+         runs.apply(i, txt, start);
+      }
+      txt.applyCollectedAttributes();
+      visibleStart = range[0];
+      visibleEnd = range[1];
+   }
+
+   //
+   // Returns the start of the line where a block comment or text
+   // block that encloses pos starts
+   private int contextStart(CharSequence text, Highlighter hl, int pos) {
+      int start = pos;
+      int blockCmnt = hl.inBlockCmntMarks(text, pos);
+      if (blockCmnt != -1) {
+         start = blockCmnt;
+      }
+      for (String mark : TEXT_BLOCK_MARKS) {
+         if (isInTextBlock(text, mark, pos)) {
+            start = Math.min(start, MarkIndex.lastIndexOf(text, mark, pos - 1));
+         }
+      }
+      return txt.lines().lastNewline(start) + 1;
+   }
+
+   //
+   // Returns a line start behind pos which is not enclosed by a block
+   // comment or text block. The distance in lines is doubled until
+   // such a line is found.
+   private int contextEnd(CharSequence text, Highlighter hl, int pos) {
+      LineIndex lines = txt.lines();
+      int lineNr = lines.lineNrAtPos(pos);
+      int step = 1;
+      int end = pos;
+      while (end < text.length() && isEnclosed(text, hl, end)) {
+         if (lineNr + step > lines.lineCount()) {
+            end = text.length();
+         }
+         else {
+            end = lines.lineStart(lineNr + step);
+            step *= 2;
+         }
+      }
+      return end;
+   }
+
+   private boolean isEnclosed(CharSequence text, Highlighter hl, int pos) {
+      if (hl.inBlockCmntMarks(text, pos) != -1) {
+         return true;
+      }
+      for (String mark : TEXT_BLOCK_MARKS) {
+         if (isInTextBlock(text, mark, pos)) {
+            return true;
+         }
+      }
+      return false;
+   }
+
+   //
+   // A text block is assumed if an odd number of text block marks
+   // precedes pos
+   private boolean isInTextBlock(CharSequence text, String mark, int pos) {
+      return MarkIndex.count(text, mark, pos) % 2 == 1;
+   }
+
+   private int[] visibleRange(int marginLines) {
+      JTextPane area = txt.textArea();
+      Rectangle r = area.getVisibleRect();
+      int start;
+      int end;
+      if (r.isEmpty()) {
+         start = area.getCaretPosition();
+         end = start;
+      }
+      else {
+         start = viewToModel(area, r.x, r.y);
+         end = viewToModel(area, r.x + r.width, r.y + r.height);
+         start = Math.max(start, 0);
+         end = Math.max(start, end);
+      }
+      if (marginLines > 0) {
+         LineIndex lines = txt.lines();
+         int firstLine = Math.max(lines.lineNrAtPos(start) - marginLines, 1);
+         int lastLine = lines.lineNrAtPos(end) + marginLines;
+         start = lines.lineStart(firstLine);
+         end = lastLine < lines.lineCount() ? lines.lineStart(lastLine + 1)
+               : txt.content().length();
+      }
+      return new int[] {start, end};
+   }
+
+   //
+   // The position at a point in the text area, which is looked up in
+   // the root view in the same way as by viewToModel2D that exists
+   // only as of Java 9 and replaces the deprecated viewToModel
+   private int viewToModel(JTextPane area, int x, int y) {
+      View root = area.getUI().getRootView(area);
+      Insets in = area.getInsets();
+      Rectangle alloc = new Rectangle(in.left, in.top,
+            area.getWidth() - in.left - in.right,
+            area.getHeight() - in.top - in.bottom);
+
+      return root.viewToModel(x, y, alloc, new Position.Bias[1]);
+   }
+
+   private class RunsSetting implements Runnable {
+
+      private final int id;
+      private final SyntaxSearcher searcher;
+      private final StyleRuns runs;
+
+      private boolean isStarted = false;
+      private int iVisibleEnd;
+      private int iForward;
+      private int iBackward;
+      private BitSet applied = null;
+
+      private RunsSetting(int id, SyntaxSearcher searcher, StyleRuns runs) {
+         this.id = id;
+         this.searcher = searcher;
+         this.runs = runs;
+      }
+
+      @Override
+      public void run() {
+         if (id != pass) {
+            return;
+         }
+         if (!isStarted) {
+            start();
+         }
+         if (applied != null) {
+            applyVisible();
+            return;
+         }
+         long end = System.nanoTime() + BATCH_NANOS;
+         boolean upward = true;
+         while (iForward < runs.size() || iBackward >= 0) {
+            if (iForward <= iVisibleEnd || iBackward < 0
+                  || (!upward && iForward < runs.size())) {
+
+               runs.apply(iForward, txt);
+               iForward++;
+            }
+            else {
+               runs.apply(iBackward, txt);
+               iBackward--;
+            }
+            upward = !upward;
+            if (System.nanoTime() > end) {
+               break;
+            }
+         }
+         if (iForward < runs.size() || iBackward >= 0) {
+            EventQueue.invokeLater(this);
+         }
+         else {
+            runsInBatches = null;
+         }
+      }
+
+      //
+      // Completes the pass and prepares setting the runs
+      private void start() {
+         isStarted = true;
+         snapshot = null;
+         syntax.copyState(searcher);
+         syntax.enableCompletion(true);
+         if (isViewHighlighting) {
+            applied = new BitSet(runs.size());
+            lazyRuns = this;
+            return;
+         }
+         runsInBatches = this;
+         int[] visible = visibleRange(0);
+         iForward = runs.indexAt(visible[0]);
+         iVisibleEnd = Math.min(runs.indexAt(visible[1]), runs.size() - 1);
+         iBackward = iForward - 1;
+      }
+
+      //
+      // Sets the runs in the visible lines which are not yet set and
+      // ends the lazy highlighting when all runs are set
+      private void applyVisible() {
+         int[] range = visibleRange(MARGIN_LINES);
+         int from = runs.indexAt(range[0]);
+         int to = Math.min(runs.indexAt(range[1]), runs.size() - 1);
+         txt.collectAttributes();
+         for (int i = applied.nextClearBit(from); i <= to;
+               i = applied.nextClearBit(i + 1)) {
+
+            runs.apply(i, txt);
+         }
+         txt.applyCollectedAttributes();
+         if (from <= to) {
+            applied.set(from, to + 1);
+         }
+         if (applied.cardinality() == runs.size()) {
+            lazyRuns = null;
+            isViewHighlighting = false;
+         }
+      }
+   }
+}
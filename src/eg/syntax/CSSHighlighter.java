@@ -67,6 +67,15 @@ public class CSSHighlighter implements Highlighter {
       "-delay", "-duration", "-property", "-timing-function"
    };
 
+   private static final String[] EXTENSIBLE_PROPS = {
+      "background", "border", "font", "list", "margin", "outline",
+      "padding", "transition"
+   };
+   private static final String[][] EXTENSIONS = {
+      BACKGROUND_PROPS, BORDER_PROPS, FONT_PROPS, LIST_PROPS,
+      MARGIN_PROPS, OUTLINE_PROPS, PADDING_PROPS, TRANSITION_PROPS
+   };
+
    private static final char[] CLASS_START = {'.', '#'};
    private static final char[] CLASS_END = {' ', '{', ')'};
    private static final char[] NON_PROP_START = {'-', '.'};
@@ -85,28 +94,7 @@ public class CSSHighlighter implements Highlighter {
       s.signedVariables(CLASS_START, CLASS_END, null, attr.bluePlain);
 
       s.setCondition(OPEN_BRACE_AHEAD_COND);
-      s.extensibleKeyword("background", BACKGROUND_PROPS, NON_PROP_START,
-            attr.redPlain);
-
-      s.extensibleKeyword("border", BORDER_PROPS, NON_PROP_START,
-            attr.redPlain);
-
-      s.extensibleKeyword("font", FONT_PROPS, NON_PROP_START,
-            attr.redPlain);
-
-      s.extensibleKeyword("list", LIST_PROPS, NON_PROP_START,
-            attr.redPlain);
-
-      s.extensibleKeyword("margin", MARGIN_PROPS, NON_PROP_START,
-            attr.redPlain);
-
-      s.extensibleKeyword("outline", OUTLINE_PROPS, NON_PROP_START,
-            attr.redPlain);
-
-      s.extensibleKeyword("padding", PADDING_PROPS, NON_PROP_START,
-            attr.redPlain);
-
-      s.extensibleKeyword("transition", TRANSITION_PROPS, NON_PROP_START,
+      s.extensibleKeywords(EXTENSIBLE_PROPS, EXTENSIONS, NON_PROP_START,
             attr.redPlain);
 
       s.keywords(PROPS, NON_PROP_START, attr.redPlain);
@@ -119,7 +107,7 @@ public class CSSHighlighter implements Highlighter {
    }
 
    @Override
-   public boolean isValid(String text, int pos, int condition) {
+   public boolean isValid(CharSequence text, int pos, int condition) {
       if (condition == IGNORE_COND) {
          return true;
       }
@@ -139,12 +127,12 @@ public class CSSHighlighter implements Highlighter {
    }
 
    @Override
-   public int behindLineCmntMark(String text, int pos) {
+   public int behindLineCmntMark(CharSequence text, int pos) {
       return -1;
    }
 
    @Override
-   public int inBlockCmntMarks(String text, int pos) {
+   public int inBlockCmntMarks(CharSequence text, int pos) {
       return SyntaxUtils.inBlock(text, SyntaxConstants.SLASH_STAR,
             SyntaxConstants.STAR_SLASH, pos);
    }
@@ -49,28 +49,28 @@ public class CSharpHighlighter implements Highlighter, QuoteOperatorSearch {
    }
 
    @Override
-   public boolean isValid(String text, int pos, int condition) {
+   public boolean isValid(CharSequence text, int pos, int condition) {
       return true;
    }
 
    @Override
-   public int behindLineCmntMark(String text, int pos) {
+   public int behindLineCmntMark(CharSequence text, int pos) {
       return SyntaxUtils.behindMark(text, SyntaxConstants.DOUBLE_SLASH, pos);
    }
 
    @Override
-   public int inBlockCmntMarks(String text, int pos) {
+   public int inBlockCmntMarks(CharSequence text, int pos) {
       return SyntaxUtils.inBlock(text, SyntaxConstants.SLASH_STAR,
             SyntaxConstants.STAR_SLASH, pos);
    }
 
    @Override
-   public int nextQuoteOperator(String text, int start) {
-      return text.indexOf(VERBATIM_START, start);
+   public int nextQuoteOperator(CharSequence text, int start) {
+      return SyntaxUtils.indexOf(text, VERBATIM_START, start);
    }
 
    @Override
-   public int quoteIdentifierLength(String text, int pos) {
+   public int quoteIdentifierLength(CharSequence text, int pos) {
       int p1 = pos + 1;
       boolean valid = text.length() > p1
             && (text.charAt(p1) == SyntaxConstants.DOUBLE_QUOTE
@@ -81,19 +81,20 @@ public class CSharpHighlighter implements Highlighter, QuoteOperatorSearch {
    }
 
    @Override
-   public int quoteLength(String text, int pos) {
+   public int quoteLength(CharSequence text, int pos) {
       int length = 0;
       int end = -1;
       int p1 = pos + 1;
       if (text.length() > p1) {
-         end = text.indexOf(SyntaxConstants.DOUBLE_QUOTE, p1);
+         end = SyntaxUtils.indexOf(text, SyntaxConstants.DOUBLE_QUOTE, p1);
          if (end != -1) {
             length = (end - pos) + 1;
             while (end != -1
                   && text.length() > end + 2
                   && text.charAt(end + 1) == SyntaxConstants.DOUBLE_QUOTE) {
 
-               end = text.indexOf(SyntaxConstants.DOUBLE_QUOTE, end + 2);
+               end = SyntaxUtils.indexOf(text, SyntaxConstants.DOUBLE_QUOTE,
+                     end + 2);
                if (end != -1) {
                   length = (end - pos) + 1;
                }
@@ -107,7 +108,7 @@ public class CSharpHighlighter implements Highlighter, QuoteOperatorSearch {
    //--private--//
    //
 
-   private boolean inCmnt(String text, int pos) {
+   private boolean inCmnt(CharSequence text, int pos) {
       int i = -1;
       i = inBlockCmntMarks(text, pos);
       if (i == -1) {
@@ -22,17 +22,17 @@ public class HTMLHighlighter implements Highlighter {
    }
 
    @Override
-   public boolean isValid(String text, int pos, int condition) {
+   public boolean isValid(CharSequence text, int pos, int condition) {
       return true;
    }
 
    @Override
-   public int behindLineCmntMark(String text, int pos) {
+   public int behindLineCmntMark(CharSequence text, int pos) {
       return -1;
    }
 
    @Override
-   public int inBlockCmntMarks(String text, int pos) {
+   public int inBlockCmntMarks(CharSequence text, int pos) {
       return -1;
    }
 }
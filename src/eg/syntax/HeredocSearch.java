@@ -12,7 +12,7 @@ public interface HeredocSearch {
      * @param start  the position where the search starts
      * @return  the position of the identifier; -1 if not found
      */
-    public int nextHeredoc(String text, int start);
+    public int nextHeredoc(CharSequence text, int start);
 
     /**
      * Returns the heredoc tag
@@ -24,7 +24,7 @@ public interface HeredocSearch {
      * @return  the tag; the empty string if no or an invalid tag is
      * found
      */
-    public String heredocTag(String text, int pos, int lineEnd);
+    public String heredocTag(CharSequence text, int pos, int lineEnd);
 
     /**
      * Returns if the heredoc end is valid
@@ -34,5 +34,5 @@ public interface HeredocSearch {
      * @param tagLength  the length of the tag
      * @return  true if valid; false otherwise
      */
-    public boolean validHeredocEnd(String text, int end, int tagLength);
+    public boolean validHeredocEnd(CharSequence text, int end, int tagLength);
 }
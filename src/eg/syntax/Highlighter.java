@@ -19,15 +19,16 @@ import eg.document.styledtext.Attributes;
  * For special validation of found text elements a 'condition' may be
  * set by calling {@link SyntaxSearcher#setCondition(int)} before one
  * or more search methods. The validation is implemented in
- * {@link #isValid(String, int, int)}. If changed, the 'condition' must be
- * explicetely reset to the default (0) before calling methods that don't
- * need any additional validation.
+ * {@link #isValid(CharSequence, int, int)}. If changed, the 'condition'
+ * must be explicetely reset to the default (0) before calling methods
+ * that don't need any additional validation.
  * <p>
- * Implementations of {@link #behindLineCmntMark(String, int)} and/or
- * {@link #inBlockCmntMarks(String, int)} must ignore if comment marks are
- * quoted.
- * @see SyntaxUtils#behindMark(String,String,int)
- * @see SyntaxUtils#inBlock(String,String,String,int)
+ * Implementations of {@link #behindLineCmntMark(CharSequence, int)}
+ * and/or {@link #inBlockCmntMarks(CharSequence, int)} must ignore if
+ * comment marks are quoted. The text may be read without being copied
+ * as <code>String</code> and must not be kept.
+ * @see SyntaxUtils#behindMark(CharSequence,String,int)
+ * @see SyntaxUtils#inBlock(CharSequence,String,String,int)
  */
 public interface Highlighter {
 
@@ -49,7 +50,7 @@ public interface Highlighter {
     * @return  true if valid (or no additional validation is
     * necessary); false otherwise
     */
-   public boolean isValid(String text, int pos, int condition);
+   public boolean isValid(CharSequence text, int pos, int condition);
 
    /**
     * Returns if the specified position is found behind a line
@@ -60,7 +61,7 @@ public interface Highlighter {
     * @return  the position of the last line comment mark; -1 if no
     * mark is found or if line comment marks can be ignored
     */
-   public int behindLineCmntMark(String text, int pos);
+   public int behindLineCmntMark(CharSequence text, int pos);
 
    /**
     * Returns if the specified position is found between the marks
@@ -71,5 +72,5 @@ public interface Highlighter {
     * @return the position of the last block comment start; -1 if
     * not between comment marks or if block comments can be ignored
     */
-   public int inBlockCmntMarks(String text, int pos);
+   public int inBlockCmntMarks(CharSequence text, int pos);
 }
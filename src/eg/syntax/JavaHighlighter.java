@@ -1,5 +1,9 @@
 package eg.syntax;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import eg.document.styledtext.Attributes;
 
 //--Eadgyth--/
@@ -42,6 +46,10 @@ public class JavaHighlighter implements Highlighter {
       "@FunctionalInterface"
    };
 
+   private static final String[][] JAVA_KEYWORD_GROUPS = {
+      JAVA_ANNOTATIONS, javaKeywords()
+   };
+
    private static final String[] LINE_CMNT_MARK = {
       SyntaxConstants.DOUBLE_SLASH
    };
@@ -61,19 +69,12 @@ public class JavaHighlighter implements Highlighter {
       s.lineComments(LINE_CMNT_MARK);
       s.brackets();
       s.braces();
-      s.keywords(JAVA_ANNOTATIONS, null, attr.bluePlain);
-      s.keywords(JAVA_KEYWORDS, null, attr.redPlain);
-      if (SystemParams.IS_JAVA_9_OR_HIGHER) {
-         s.keywords(JAVA_9_PLUS_KEYWORDS, null, attr.redPlain);
-      }
-      if (SystemParams.IS_JAVA_10_OR_HIGHER) {
-         s.keywords(JAVA_10_PLUS_KEYWORDS, null, attr.redPlain);
-      }
+      s.keywords(JAVA_KEYWORD_GROUPS, null, attr.bluePlain, attr.redPlain);
       s.blockComments(SyntaxConstants.SLASH_STAR, SyntaxConstants.STAR_SLASH, false);
    }
 
    @Override
-   public boolean isValid(String text, int pos, int condition) {
+   public boolean isValid(CharSequence text, int pos, int condition) {
       if (condition == VALID_TEXT_BLOCK_COND && text.length() > pos + 3) {
          int nextNonSpace = SyntaxUtils.nextNonSpace(text, pos + 3, true);
          return text.charAt(nextNonSpace) == '\n';
@@ -82,13 +83,28 @@ public class JavaHighlighter implements Highlighter {
    }
 
    @Override
-   public int behindLineCmntMark(String text, int pos) {
+   public int behindLineCmntMark(CharSequence text, int pos) {
       return SyntaxUtils.behindMark(text, SyntaxConstants.DOUBLE_SLASH, pos);
    }
 
    @Override
-   public int inBlockCmntMarks(String text, int pos) {
+   public int inBlockCmntMarks(CharSequence text, int pos) {
       return SyntaxUtils.inBlock(text, SyntaxConstants.SLASH_STAR,
             SyntaxConstants.STAR_SLASH, pos);
    }
+
+   //
+   //--private--/
+   //
+
+   private static String[] javaKeywords() {
+      List<String> keys = new ArrayList<>(Arrays.asList(JAVA_KEYWORDS));
+      if (SystemParams.IS_JAVA_9_OR_HIGHER) {
+         keys.addAll(Arrays.asList(JAVA_9_PLUS_KEYWORDS));
+      }
+      if (SystemParams.IS_JAVA_10_OR_HIGHER) {
+         keys.addAll(Arrays.asList(JAVA_10_PLUS_KEYWORDS));
+      }
+      return keys.toArray(new String[keys.size()]);
+   }
 }
@@ -44,12 +44,12 @@ public class JavascriptHighlighter implements Highlighter {
    }
 
    @Override
-   public boolean isValid(String text, int pos, int condition) {
+   public boolean isValid(CharSequence text, int pos, int condition) {
       return true;
    }
 
    @Override
-   public int behindLineCmntMark(String text, int pos) {
+   public int behindLineCmntMark(CharSequence text, int pos) {
       int res;
       int slash = SyntaxUtils.behindMark(text, SyntaxConstants.DOUBLE_SLASH, pos);
       int htmlStartMark = SyntaxUtils.behindMark(text,
@@ -64,7 +64,7 @@ public class JavascriptHighlighter implements Highlighter {
    }
 
    @Override
-   public int inBlockCmntMarks(String text, int pos) {
+   public int inBlockCmntMarks(CharSequence text, int pos) {
       return SyntaxUtils.inBlock(text, SyntaxConstants.SLASH_STAR,
             SyntaxConstants.STAR_SLASH, pos);
    }
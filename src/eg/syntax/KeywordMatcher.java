@@ -0,0 +1,208 @@
+package eg.syntax;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * The search of all occurrences of a set of keywords in one pass
+ * through a text.
+ * <p>
+ * The keywords are compiled into an Aho-Corasick automaton whose
+ * transitions are completed to a table that is indexed by state and
+ * character class, so that each character of the text is read once.
+ * Keywords may be divided into groups, for example to assign
+ * different attributes. Keywords must consist of ASCII characters.
+ * <p>
+ * Matchers are cached by the identity of the keyword arrays, which
+ * are expected to be constants of a {@link Highlighter}. A matcher is
+ * immutable and may be used by several threads.
+ */
+final class KeywordMatcher {
+
+   private static final Map<Object, KeywordMatcher> CACHE
+         = Collections.synchronizedMap(new IdentityHashMap<>());
+
+   private final int[] charClass = new int[128];
+   private final int nClasses;
+   private final int[] table;
+   private final int[] output;
+   private final int[] outputLink;
+   private final int[] lengths;
+   private final int[] groups;
+
+   /**
+    * The receiver of a match
+    */
+   @FunctionalInterface
+   interface Match {
+
+      /**
+       * Receives a match
+       *
+       * @param start  the start position of the keyword
+       * @param length  the length of the keyword
+       * @param group  the index of the group of the keyword
+       */
+      void found(int start, int length, int group);
+   }
+
+   /**
+    * Returns the matcher for the specified keywords
+    *
+    * @param keys  the array of keywords
+    * @return  the KeywordMatcher
+    */
+   static KeywordMatcher of(String[] keys) {
+      return CACHE.computeIfAbsent(keys,
+            k -> new KeywordMatcher(new String[][] {keys}));
+   }
+
+   /**
+    * Returns the matcher for the specified groups of keywords
+    *
+    * @param keys  the array of arrays of keywords; the index of an
+    * array is the group index
+    * @return  the KeywordMatcher
+    */
+   static KeywordMatcher of(String[][] keys) {
+      return CACHE.computeIfAbsent(keys, k -> new KeywordMatcher(keys));
+   }
+
+   /**
+    * Returns the matcher for extensible keywords. The keywords of
+    * a group are a base keyword alone and the base keyword combined
+    * with each of its extensions.
+    *
+    * @param bases  the base keywords; the index of a base keyword
+    * is the group index
+    * @param extensions  the array of arrays of extensions where
+    * the index corresponds to the index of the base keyword
+    * @return  the KeywordMatcher
+    */
+   static KeywordMatcher ofExtensible(String[] bases, String[][] extensions) {
+      if (bases.length != extensions.length) {
+         throw new IllegalArgumentException(
+               "The numbers of bases and of extension arrays differ");
+      }
+      return CACHE.computeIfAbsent(bases, k -> {
+         String[][] keys = new String[bases.length][];
+         for (int i = 0; i < bases.length; i++) {
+            keys[i] = new String[extensions[i].length + 1];
+            keys[i][0] = bases[i];
+            for (int j = 0; j < extensions[i].length; j++) {
+               keys[i][j + 1] = bases[i] + extensions[i][j];
+            }
+         }
+         return new KeywordMatcher(keys);
+      });
+   }
+
+   /**
+    * Searches all keywords in the specified text. Matches are
+    * received in ascending order of their end position.
+    *
+    * @param text  the text
+    * @param m  the receiver of matches
+    */
+   void search(String text, Match m) {
+      int state = 0;
+      for (int i = 0; i < text.length(); i++) {
+         char c = text.charAt(i);
+         int cl = c < 128 ? charClass[c] : 0;
+         state = table[state * nClasses + cl];
+         int s = output[state] != -1 ? state : outputLink[state];
+         while (s > 0) {
+            int w = output[s];
+            m.found(i - lengths[w] + 1, lengths[w], groups[w]);
+            s = outputLink[s];
+         }
+      }
+   }
+
+   //
+   //--private--/
+   //
+
+   private KeywordMatcher(String[][] keys) {
+      int nWords = 0;
+      int nChars = 0;
+      int cl = 1;
+      for (String[] arr : keys) {
+         for (String s : arr) {
+            nWords++;
+            nChars += s.length();
+            for (int i = 0; i < s.length(); i++) {
+               char c = s.charAt(i);
+               if (c >= 128) {
+                  throw new IllegalArgumentException(
+                        "Keyword contains non ASCII character: " + s);
+               }
+               if (charClass[c] == 0) {
+                  charClass[c] = cl++;
+               }
+            }
+         }
+      }
+      nClasses = cl;
+      int maxStates = nChars + 1;
+      int[] trie = new int[maxStates * nClasses];
+      Arrays.fill(trie, -1);
+      output = new int[maxStates];
+      Arrays.fill(output, -1);
+      lengths = new int[nWords];
+      groups = new int[nWords];
+      int nStates = 1;
+      int w = 0;
+      for (int g = 0; g < keys.length; g++) {
+         for (String s : keys[g]) {
+            int state = 0;
+            for (int i = 0; i < s.length(); i++) {
+               int idx = state * nClasses + charClass[s.charAt(i)];
+               if (trie[idx] == -1) {
+                  trie[idx] = nStates++;
+               }
+               state = trie[idx];
+            }
+            if (output[state] == -1) {
+               output[state] = w;
+            }
+            lengths[w] = s.length();
+            groups[w] = g;
+            w++;
+         }
+      }
+      table = trie;
+      outputLink = new int[maxStates];
+      int[] fail = new int[maxStates];
+      Deque<Integer> queue = new ArrayDeque<>();
+      for (int c = 0; c < nClasses; c++) {
+         int next = table[c];
+         if (next == -1) {
+            table[c] = 0;
+         }
+         else {
+            queue.add(next);
+         }
+      }
+      while (!queue.isEmpty()) {
+         int state = queue.poll();
+         int f = fail[state];
+         outputLink[state] = output[f] != -1 ? f : outputLink[f];
+         for (int c = 0; c < nClasses; c++) {
+            int idx = state * nClasses + c;
+            int next = table[idx];
+            if (next == -1) {
+               table[idx] = table[f * nClasses + c];
+            }
+            else {
+               fail[next] = table[f * nClasses + c];
+               queue.add(next);
+            }
+         }
+      }
+   }
+}
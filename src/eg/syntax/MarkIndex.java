@@ -0,0 +1,160 @@
+package eg.syntax;
+
+import java.lang.ref.WeakReference;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+//--Eadgyth--/
+import eg.document.styledtext.PieceTable;
+
+/**
+ * The index of the positions of marks in a text which is used to
+ * find the last or next occurrence of a mark by binary search.
+ * <p>
+ * A long text is indexed at the first search of a mark and the index
+ * is used as long as the same text instance is searched and, if the
+ * text is a {@link PieceTable}, is not changed. The indices for the
+ * last two texts searched in the current thread are kept since the
+ * repair of lines alternately searches the current and the previous
+ * text.
+ * Short texts are searched directly.
+ */
+final class MarkIndex {
+
+   private static final int MIN_LENGTH = 16384;
+   private static final ThreadLocal<MarkIndex[]> CURRENT
+         = ThreadLocal.withInitial(() -> new MarkIndex[2]);
+
+   private final WeakReference<CharSequence> text;
+   private final int version;
+   private final Map<String, int[]> positions = new HashMap<>();
+
+   /**
+    * Returns the position of the last occurrence of a mark at or
+    * before the specified position. Equals
+    * {@link SyntaxUtils#lastIndexOf(CharSequence,String,int)}.
+    *
+    * @param text  the text
+    * @param mark  the mark
+    * @param pos  the position
+    * @return  the position of the mark; -1 if not found
+    */
+   static int lastIndexOf(CharSequence text, String mark, int pos) {
+      if (text.length() < MIN_LENGTH || mark.isEmpty()) {
+         return SyntaxUtils.lastIndexOf(text, mark, pos);
+      }
+      int[] arr = positions(text, mark);
+      int i = firstAfter(arr, pos) - 1;
+      return i >= 0 ? arr[i] : -1;
+   }
+
+   /**
+    * Returns the position of the next occurrence of a mark at or
+    * behind the specified position. Equals
+    * {@link SyntaxUtils#indexOf(CharSequence,String,int)}.
+    *
+    * @param text  the text
+    * @param mark  the mark
+    * @param pos  the position
+    * @return  the position of the mark; -1 if not found
+    */
+   static int indexOf(CharSequence text, String mark, int pos) {
+      if (text.length() < MIN_LENGTH || mark.isEmpty()) {
+         return SyntaxUtils.indexOf(text, mark, pos);
+      }
+      int[] arr = positions(text, mark);
+      int i = firstAfter(arr, pos - 1);
+      return i < arr.length ? arr[i] : -1;
+   }
+
+   /**
+    * Returns the number of occurrences of a mark before the
+    * specified position
+    *
+    * @param text  the text
+    * @param mark  the mark
+    * @param pos  the position
+    * @return  the number
+    */
+   static int count(CharSequence text, String mark, int pos) {
+      if (mark.isEmpty()) {
+         return 0;
+      }
+      if (text.length() < MIN_LENGTH) {
+         int n = 0;
+         int i = SyntaxUtils.indexOf(text, mark, 0);
+         while (i != -1 && i < pos) {
+            n++;
+            i = SyntaxUtils.indexOf(text, mark, i + 1);
+         }
+         return n;
+      }
+      return firstAfter(positions(text, mark), pos - 1);
+   }
+
+   //
+   //--private--/
+   //
+
+   private MarkIndex(CharSequence text) {
+      this.text = new WeakReference<>(text);
+      version = version(text);
+   }
+
+   private static int version(CharSequence text) {
+      return text instanceof PieceTable ? ((PieceTable) text).version() : 0;
+   }
+
+   private static int[] positions(CharSequence text, String mark) {
+      MarkIndex[] recent = CURRENT.get();
+      MarkIndex index = recent[0];
+      if (!isIndexOf(index, text)) {
+         index = recent[1];
+         if (!isIndexOf(index, text)) {
+            index = new MarkIndex(text);
+         }
+         recent[1] = recent[0];
+         recent[0] = index;
+      }
+      int[] arr = index.positions.get(mark);
+      if (arr == null) {
+         arr = new int[16];
+         int n = 0;
+         int i = SyntaxUtils.indexOf(text, mark, 0);
+         while (i != -1) {
+            if (n == arr.length) {
+               arr = Arrays.copyOf(arr, n * 2);
+            }
+            arr[n++] = i;
+            i = SyntaxUtils.indexOf(text, mark, i + 1);
+         }
+         arr = Arrays.copyOf(arr, n);
+         index.positions.put(mark, arr);
+      }
+      return arr;
+   }
+
+   private static boolean isIndexOf(MarkIndex index, CharSequence text) {
+      return index != null && index.text.get() == text
+            && index.version == version(text);
+   }
+
+   //
+   // Returns the index of the first value larger than pos
+   private static int firstAfter(int[] arr, int pos) {
+      int lo = 0;
+      int hi = arr.length;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (arr[mid] <= pos) {
+            lo = mid + 1;
+         }
+         else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+}
@@ -75,9 +75,6 @@ public class PerlHighlighter implements Highlighter, QuoteOperatorSearch,
    private static final int IGNORE_COND = 0;
    private static final int LINE_CMNT_COND = 1;
 
-   private int firstPodSignal = -1;
-   private boolean prescannedForPod = false;
-
    @Override
    public void highlight(SyntaxSearcher s, Attributes attr) {
       s.resetAttributes();
@@ -96,12 +93,10 @@ public class PerlHighlighter implements Highlighter, QuoteOperatorSearch,
 
       s.brackets();
       s.braces();
-      firstPodSignal = -1;
-      prescannedForPod = false;
    }
 
    @Override
-   public boolean isValid(String text, int pos, int condition) {
+   public boolean isValid(CharSequence text, int pos, int condition) {
       if (condition == LINE_CMNT_COND) {
          return isLineCmntStart(text, pos);
       }
@@ -109,7 +104,7 @@ public class PerlHighlighter implements Highlighter, QuoteOperatorSearch,
    }
 
    @Override
-   public int behindLineCmntMark(String text, int pos) {
+   public int behindLineCmntMark(CharSequence text, int pos) {
       int i = SyntaxUtils.behindMark(text, SyntaxConstants.HASH, pos);
       if (i != -1 && !isLineCmntStart(text, i)) {
          i = -1;
@@ -118,21 +113,19 @@ public class PerlHighlighter implements Highlighter, QuoteOperatorSearch,
    }
 
    @Override
-   public int inBlockCmntMarks(String text, int pos) {
-      if (!prescannedForPod) {
-         prescanForPod(text);
-      }
+   public int inBlockCmntMarks(CharSequence text, int pos) {
+      int firstPodSignal = firstPodSignal(text);
       if (firstPodSignal != -1 && pos > firstPodSignal) {
-         int lastStart = text.lastIndexOf(POD_SIGNAL, pos);
+         int lastStart = SyntaxUtils.lastIndexOf(text, POD_SIGNAL, pos);
          while (lastStart != -1 && text.length() > lastStart + 1
                && !Character.isLetter(text.charAt(lastStart + 2))) {
 
-            lastStart = text.lastIndexOf(POD_SIGNAL, lastStart - 1);
+            lastStart = SyntaxUtils.lastIndexOf(text, POD_SIGNAL, lastStart - 1);
          }
          if (lastStart != -1 || firstPodSignal == -2) {
             int start = lastStart == -1 && firstPodSignal == -2 ? 0 : lastStart + 1;
             if (text.length() >= start + 4
-                  && !POD_END.equals(text.substring(start, start + 4))) {
+                  && !SyntaxUtils.startsWith(text, POD_END, start)) {
 
                return start;
             }
@@ -142,12 +135,12 @@ public class PerlHighlighter implements Highlighter, QuoteOperatorSearch,
    }
 
    @Override
-   public int nextQuoteOperator(String text, int pos) {
-      return text.indexOf('q', pos);
+   public int nextQuoteOperator(CharSequence text, int pos) {
+      return SyntaxUtils.indexOf(text, 'q', pos);
    }
 
    @Override
-   public int quoteIdentifierLength(String text, int pos) {
+   public int quoteIdentifierLength(CharSequence text, int pos) {
       int length = 1;
       if (text.length() - 1 > pos
             && SyntaxUtils.isCharEqualTo(text, pos + 1, PERL_Q_KEYWORD_SEC)) {
@@ -163,7 +156,7 @@ public class PerlHighlighter implements Highlighter, QuoteOperatorSearch,
    }
 
    @Override
-   public int quoteLength(String text, int pos) {
+   public int quoteLength(CharSequence text, int pos) {
       int length = 0;
       int d = SyntaxUtils.nextNonSpace(text, pos, false);
       if (d < text.length()) {
@@ -192,12 +185,12 @@ public class PerlHighlighter implements Highlighter, QuoteOperatorSearch,
    }
 
    @Override
-   public int nextHeredoc(String text, int start) {
-      return text.indexOf(HEREDOC_SIGNAL, start);
+   public int nextHeredoc(CharSequence text, int start) {
+      return SyntaxUtils.indexOf(text, HEREDOC_SIGNAL, start);
    }
 
    @Override
-   public String heredocTag(String text, int pos, int lineEnd) {
+   public String heredocTag(CharSequence text, int pos, int lineEnd) {
       int start = pos + HEREDOC_SIGNAL.length();
       if (start == lineEnd) {
          return "";
@@ -229,11 +222,11 @@ public class PerlHighlighter implements Highlighter, QuoteOperatorSearch,
             }
          }
       }
-      return text.substring(start, start + length);
+      return text.subSequence(start, start + length).toString();
    }
 
    @Override
-   public boolean validHeredocEnd(String text, int end, int tagLength) {
+   public boolean validHeredocEnd(CharSequence text, int end, int tagLength) {
       if (text.charAt(end - 1) != '\n') {
          return false;
       }
@@ -249,23 +242,22 @@ public class PerlHighlighter implements Highlighter, QuoteOperatorSearch,
    //--private--/
    //
 
-   private void prescanForPod(String text) {
+   private int firstPodSignal(CharSequence text) {
       if (text.length() > 1 && text.charAt(0) == '='
             && Character.isLetter(text.charAt(1))) {
          //
          // -2: artificial value to indicate that the checked
          // =[letter] but not \n= is found at pos 0 
-         firstPodSignal = -2;
+         return -2;
       }
       else {
          //
          // the first occurence of \n=
-         firstPodSignal = text.indexOf(POD_SIGNAL, 0);
+         return MarkIndex.indexOf(text, POD_SIGNAL, 0);
       }
-      prescannedForPod = true;
    }
 
-   private boolean isLineCmntStart(String text, int pos) {
+   private boolean isLineCmntStart(CharSequence text, int pos) {
       if (pos > 0) {
          char c = text.charAt(pos - 1);
          for (char non : START_OF_VAR) {
@@ -277,7 +269,7 @@ public class PerlHighlighter implements Highlighter, QuoteOperatorSearch,
       return true;
    }
 
-   private boolean inLineCmnt(String text, int pos) {
+   private boolean inLineCmnt(CharSequence text, int pos) {
       int i = -1;
       i = behindLineCmntMark(text, pos);
       if (i != -1) {
@@ -15,7 +15,7 @@ public interface QuoteOperatorSearch {
      * @param pos  the position where the search starts
      * @return  the position of the identifier; -1 if not found
      */
-    public int nextQuoteOperator(String text, int pos);
+    public int nextQuoteOperator(CharSequence text, int pos);
 
     /**
      * Returns the length of the identifier
@@ -25,7 +25,7 @@ public interface QuoteOperatorSearch {
      * @return  the length; 0 to indicate that the identifier is
      * invalid in the given text context
      */
-    public int quoteIdentifierLength(String text, int pos);
+    public int quoteIdentifierLength(CharSequence text, int pos);
 
     /**
      * Returns the length of the quotation including any possible
@@ -36,5 +36,5 @@ public interface QuoteOperatorSearch {
      * @return  the length; 0 to indicate that no valid quote
      * follows the identifier
      */
-    public int quoteLength(String text, int pos);
+    public int quoteLength(CharSequence text, int pos);
 }
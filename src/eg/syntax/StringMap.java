@@ -1,18 +1,25 @@
 package eg.syntax;
 
-import java.util.List;
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
- * The mapping of strings
+ * The mapping of strings.
+ * <p>
+ * The start and end positions are kept in int arrays. Strings are
+ * normally added in ascending order of their positions, so that a
+ * position is looked up by binary search. A linear search is used
+ * only if a string was added in another order.
  */
 public class StringMap {
 
-   private final List<Integer> starts = new ArrayList<>();
-   private final List<Integer> ends = new ArrayList<>();
+   private int[] starts = new int[16];
+   private int[] ends = new int[16];
+   private int size = 0;
+   private boolean isSorted = true;
    //
    // to remember after reset
-   private final List<Boolean> types = new ArrayList<>();
+   private boolean[] types = new boolean[16];
+   private int nTypes = 0;
    private int prevSize = 0;
    private int prevNTested = 0;
    private int prevNChecked = 0;
@@ -21,13 +28,11 @@ public class StringMap {
     * Clears the string map for a renewed mapping
     */
    public void reset() {
-      if (types.size() > starts.size()) {
-         for (int i = types.size() - 1; i >= starts.size(); i--) {
-            types.remove(i);
-         }
+      if (nTypes > size) {
+         nTypes = size;
       }
-      starts.clear();
-      ends.clear();
+      size = 0;
+      isSorted = true;
    }
 
    /**
@@ -52,11 +57,11 @@ public class StringMap {
     */
    public boolean sizeChange(int nTested, int nChecked) {
       boolean b = prevNTested != nTested || prevNChecked != nChecked
-            || starts.size() != prevSize;
+            || size != prevSize;
 
       prevNTested = nTested;
       prevNChecked = nChecked;
-      prevSize = starts.size();
+      prevSize = size;
       return b;
    }
 
@@ -71,11 +76,14 @@ public class StringMap {
     */
    public boolean quoteMarkChange(int i, boolean type) {
       boolean b = markChangeImpl(i, type);
-      if (i < types.size()) {
-         types.set(i, type);
+      if (i < nTypes) {
+         types[i] = type;
       }
-      else if (i == types.size()) {
-         types.add(type);
+      else if (i == nTypes) {
+         if (nTypes == types.length) {
+            types = Arrays.copyOf(types, nTypes * 2);
+         }
+         types[nTypes++] = type;
       }
       return b;
    }
@@ -86,7 +94,7 @@ public class StringMap {
     * @return  the size
     */
    public int size() {
-      return starts.size();
+      return size;
    }
 
    /**
@@ -97,27 +105,15 @@ public class StringMap {
     * string
     */
    public int inString(int pos) {
-      if (starts.isEmpty()) {
+      if (size == 0) {
          return -1;
       }
-      int lastStart = -1;
-      int nextStart = -1;
-      for (int i : starts) {
-         if (i > pos) {
-            nextStart = i;
-            break;
-         }
-         lastStart = i;
-      }
-      int nextEnd = -1;
-      int lastEnd = -1;
-      for (int i : ends) {
-         if (i > pos) {
-            nextEnd = i;
-            break;
-         }
-         lastEnd = i;
-      }
+      int iStart = isSorted ? firstAfter(starts, pos) : firstAfterLinear(starts, pos);
+      int iEnd = isSorted ? firstAfter(ends, pos) : firstAfterLinear(ends, pos);
+      int lastStart = iStart > 0 ? starts[iStart - 1] : -1;
+      int nextStart = iStart < size ? starts[iStart] : -1;
+      int lastEnd = iEnd > 0 ? ends[iEnd - 1] : -1;
+      int nextEnd = iEnd < size ? ends[iEnd] : -1;
       if ((lastStart != -1 && lastStart > lastEnd)
             && (nextEnd != -1 && (nextStart == -1 || nextEnd < nextStart))) {
 
@@ -128,19 +124,71 @@ public class StringMap {
       }
    }
 
+   /**
+    * Takes over the state remembered after a reset from the
+    * specified <code>StringMap</code>
+    *
+    * @param from  the StringMap
+    */
+   void copyState(StringMap from) {
+      types = Arrays.copyOf(from.types, from.types.length);
+      nTypes = from.nTypes;
+      prevSize = from.prevSize;
+      prevNTested = from.prevNTested;
+      prevNChecked = from.prevNChecked;
+   }
+
    //
    //--private--/
    //
 
    private void addImpl(int start, int end) {
-      starts.add(start);
-      ends.add(end);
+      if (size == starts.length) {
+         starts = Arrays.copyOf(starts, size * 2);
+         ends = Arrays.copyOf(ends, size * 2);
+      }
+      if (size > 0 && (start < starts[size - 1] || end < ends[size - 1])) {
+         isSorted = false;
+      }
+      starts[size] = start;
+      ends[size] = end;
+      size++;
    }
 
    private boolean markChangeImpl(int i, boolean doubleQuote) {
-      if (types.isEmpty() || i >= types.size()) {
+      if (nTypes == 0 || i >= nTypes) {
          return false;
       }
-      return types.get(i) != doubleQuote;
+      return types[i] != doubleQuote;
+   }
+
+   //
+   // Returns the index of the first value larger than pos in the
+   // sorted array
+   private int firstAfter(int[] arr, int pos) {
+      int lo = 0;
+      int hi = size;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (arr[mid] <= pos) {
+            lo = mid + 1;
+         }
+         else {
+            hi = mid;
+         }
+      }
+      return lo;
+   }
+
+   //
+   // Returns the index of the first value larger than pos in the
+   // order of addition
+   private int firstAfterLinear(int[] arr, int pos) {
+      for (int i = 0; i < size; i++) {
+         if (arr[i] > pos) {
+            return i;
+         }
+      }
+      return size;
    }
 }
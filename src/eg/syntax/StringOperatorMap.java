@@ -59,7 +59,7 @@ public class StringOperatorMap {
     * @return  true if a change happened that requires repair
     * of the entire text; false otherwise
     */
-   public boolean addHeredocs(HeredocSearch hds, String text, int scnStart,
+   public boolean addHeredocs(HeredocSearch hds, CharSequence text, int scnStart,
          boolean repairMode) {
 
       int nTested = 0;
@@ -67,7 +67,7 @@ public class StringOperatorMap {
       int iLen = -1;
       boolean lengthChange = false;
       int start = 0;
-      while (start != -1 && !lengthChange) {
+      while (start != -1) {
          start = hds.nextHeredoc(text, start);
          int len = 2;
          if (start != -1) {
@@ -76,9 +76,9 @@ public class StringOperatorMap {
             String tag = hds.heredocTag(text, start, lineEnd);
             if (!tag.isEmpty()) {
                nChecked++;
-               int end = text.indexOf(tag, lineEnd);
+               int end = SyntaxUtils.indexOf(text, tag, lineEnd);
                while (end != -1 && !hds.validHeredocEnd(text, end, tag.length())) {
-                  end = text.indexOf(tag, end + 1);
+                  end = SyntaxUtils.indexOf(text, tag, end + 1);
                }
                if (end != -1) {
                   iLen++;
@@ -91,7 +91,7 @@ public class StringOperatorMap {
                   // section is updated anyway
                   if (scnStart == 0) {
                      if (!repairMode) {
-                        lengthChange = lengthChange(iLen, len, hLengths);
+                        lengthChange |= lengthChange(iLen, len, hLengths);
                      }
                      setLength(iLen, len, hLengths);
                   }
@@ -114,7 +114,7 @@ public class StringOperatorMap {
     * @return  true if a change happened that requires repair
     * of the entire text; false otherwise
     */
-   public boolean addQuoteOperators(QuoteOperatorSearch qos, String text,
+   public boolean addQuoteOperators(QuoteOperatorSearch qos, CharSequence text,
          boolean repairMode) {
 
       return addQuoteOperators(qos, text, repairMode, false);
@@ -133,15 +133,39 @@ public class StringOperatorMap {
     * @return  true if a change happened that requires repair
     * of the entire text; false otherwise
     */
-   public boolean addQuoteOperators(QuoteOperatorSearch qos, String text,
+   public boolean addQuoteOperators(QuoteOperatorSearch qos, CharSequence text,
             boolean repairMode, boolean highlight) {
 
+      return addQuoteOperators(qos, text, repairMode, highlight, 0,
+            text.length());
+   }
+
+   /**
+    * Adds all string starts and ends defined by 'quote operators'
+    * and highlights only the quote sections that overlap a range
+    * of the text
+    *
+    * @param qos  the QuoteOperatorSearch
+    * @param text  the text
+    * @param repairMode  true to indicate that the search takes
+    * place in repair mode which means that the entire text is
+    * updated
+    * @param highlight  true to highlight the quote section including
+    * identifier and end delimiter in orange; false otherwise
+    * @param hlStart  the start of the range to highlight
+    * @param hlEnd  the end of the range to highlight
+    * @return  true if a change happened that requires repair
+    * of the entire text; false otherwise
+    */
+   public boolean addQuoteOperators(QuoteOperatorSearch qos, CharSequence text,
+            boolean repairMode, boolean highlight, int hlStart, int hlEnd) {
+
       int nTested = 0;
       int nChecked = 0;
       boolean lengthChange = false;
       int iLen = -1;
       int start = 0;
-      while (start != -1 && !lengthChange) {
+      while (start != -1) {
          start = qos.nextQuoteOperator(text, start);
          int step = 1;
          if (start != -1) {
@@ -157,10 +181,10 @@ public class StringOperatorMap {
                   iLen++;
                   quoteOprs.add(qStart, qStart + len);
                   if (!repairMode) {
-                     lengthChange = lengthChange(iLen, len, qLengths);
+                     lengthChange |= lengthChange(iLen, len, qLengths);
                   }
                   setLength(iLen, len, qLengths);
-                  if (highlight) {
+                  if (highlight && start <= hlEnd && qStart + len >= hlStart) {
                      txt.setAttributes(start, len + keyLength,
                            txt.attributes().orangePlain);
                   }
@@ -218,6 +242,21 @@ public class StringOperatorMap {
       return quoteOprs.size() == 0;
    }
 
+   /**
+    * Takes over the state remembered after a reset from the
+    * specified <code>StringOperatorMap</code>
+    *
+    * @param from  the StringOperatorMap
+    */
+   void copyState(StringOperatorMap from) {
+      heredocs.copyState(from.heredocs);
+      quoteOprs.copyState(from.quoteOprs);
+      hLengths.clear();
+      hLengths.addAll(from.hLengths);
+      qLengths.clear();
+      qLengths.addAll(from.qLengths);
+   }
+
    //
    //--private--/
    //
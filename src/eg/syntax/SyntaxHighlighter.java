@@ -41,7 +41,7 @@ public class SyntaxHighlighter {
     */
    public void highlight() {
       searcher.setTextParams(txt.text(), 0, 0);
-      hl.highlight(searcher, attr);
+      highlightCollected();
    }
 
    /**
@@ -54,17 +54,18 @@ public class SyntaxHighlighter {
     * @param isNewline  if the change is a newline character
     */
    public void highlight(int chgPos, boolean isNewline) {
-      int lineStart = LinesFinder.lastNewline(txt.text(), chgPos);
+      CharSequence text = txt.content();
+      int lineStart = LinesFinder.lastNewline(text, chgPos);
       String scn;
       if (!isNewline) {
-         scn = LinesFinder.line(txt.text(), lineStart);
+         scn = LinesFinder.line(text, lineStart);
       }
       else {
-         int lineEnd = LinesFinder.nextNewline(txt.text(), chgPos + 1);
-         scn = txt.text().substring(lineStart + 1, lineEnd);
+         int lineEnd = LinesFinder.nextNewline(text, chgPos + 1);
+         scn = text.subSequence(lineStart + 1, lineEnd).toString();
       }
       searcher.setTextParams(scn, chgPos, lineStart + 1);
-      hl.highlight(searcher, attr);
+      highlightCollected();
    }
 
    /**
@@ -77,10 +78,78 @@ public class SyntaxHighlighter {
     * @param chgPos  the position where the change starts
     */
    public void highlight(String change, int chgPos) {
-      int linesStart = LinesFinder.lastNewline(txt.text(), chgPos);
+      CharSequence text = txt.content();
+      int linesStart = LinesFinder.lastNewline(text, chgPos);
       int length = chgPos - linesStart + change.length();
-      String scn = LinesFinder.lines(txt.text(), linesStart, length);
+      String scn = LinesFinder.lines(text, linesStart, length);
       searcher.setTextParams(scn, chgPos, linesStart + 1);
-      hl.highlight(searcher, attr);
+      highlightCollected();
+   }
+
+   /**
+    * Highlights text elements in a section that may be multiline
+    * like {@link #highlight(String, int)} and completes the
+    * highlighting outside the section until it matches the previous
+    * highlighting. Meant for a change that may be apart from the
+    * previous change, like undoing or redoing edits.
+    *
+    * @param change  the change to the text which may be empty
+    * @param chgPos  the position where the change starts
+    */
+   public void highlightAndComplete(String change, int chgPos) {
+      CharSequence text = txt.content();
+      int linesStart = LinesFinder.lastNewline(text, chgPos);
+      int length = chgPos - linesStart + change.length();
+      String scn = LinesFinder.lines(text, linesStart, length);
+      searcher.setTextParams(scn, chgPos, linesStart + 1);
+      txt.collectAttributes();
+      try {
+         hl.highlight(searcher, attr);
+         searcher.requestCompletion();
+         searcher.completeHighlighting();
+      }
+      finally {
+         txt.applyCollectedAttributes();
+      }
+   }
+
+   /**
+    * Enables or disables completing the highlighting outside a
+    * section. Completing is not needed while the entire text is
+    * going to be highlighted anew.
+    *
+    * @param b  true to enable, false to disable
+    */
+   void enableCompletion(boolean b) {
+      searcher.enableCompletion(b);
+   }
+
+   /**
+    * Takes over the counts of text elements from the specified
+    * <code>SyntaxSearcher</code> which has highlighted the entire
+    * current text elsewhere
+    *
+    * @param s  the SyntaxSearcher
+    */
+   void copyState(SyntaxSearcher s) {
+      searcher.copyState(s);
+   }
+
+   //
+   //--private--/
+   //
+
+   //
+   // Highlights the section set in the searcher where the attributes
+   // are collected and set at once
+   private void highlightCollected() {
+      txt.collectAttributes();
+      try {
+         hl.highlight(searcher, attr);
+         searcher.completeHighlighting();
+      }
+      finally {
+         txt.applyCollectedAttributes();
+      }
    }
 }
@@ -8,6 +8,10 @@ import java.util.ArrayList;
 //--Eadgyth--/
 import eg.utils.LinesFinder;
 import eg.document.styledtext.StyledText;
+import eg.document.styledtext.PieceTable;
+import eg.document.styledtext.PieceTable.Snapshot;
+import eg.document.styledtext.SnapshotText;
+import eg.document.styledtext.StyleRuns;
 import eg.document.styledtext.Attributes;
 
 /**
@@ -15,6 +19,8 @@ import eg.document.styledtext.Attributes;
  */
 public class SyntaxSearcher {
 
+   private static final int REPAIR_LINES = 50;
+
    private final StyledText txt;
    private final Attributes attr;
 
@@ -28,10 +34,17 @@ public class SyntaxSearcher {
    private String section = "";
    private int chgPos;
    private int scnStart;
-   private String lowerCaseText;
+   private boolean isHtml = false;
    private boolean isTypeMode = false;
    private boolean isRepair = false;
    private boolean isInnerSection = false;
+   private boolean isMarkup = false;
+   private boolean isRepairNeeded = false;
+   private boolean isCompletion = true;
+   private CharSequence prevText = null;
+   private CharSequence currText = null;
+   private HeredocSearch hds = null;
+   private QuoteOperatorSearch qos = null;
    private boolean quoteInSection;
    private int nCData;
    private int nLineCmnt;
@@ -59,6 +72,7 @@ public class SyntaxSearcher {
     */
    public void setHighlighter(Highlighter hl) {
       this.hl = hl;
+      isMarkup = false;
    }
 
    /**
@@ -71,10 +85,16 @@ public class SyntaxSearcher {
     * @param scnStart  the position of the section start
     */
    public void setTextParams(String section, int chgPos, int scnStart) {
+      if (!isRepair && !isInnerSection) {
+         prevText = currText;
+         currText = snapshot(txt.content());
+         hds = null;
+         qos = null;
+      }
       this.section = section;
       this.chgPos = chgPos;
       this.scnStart = scnStart;
-      isTypeMode = txt.text().length() > section.length();
+      isTypeMode = txt.content().length() > section.length();
       condition = 0;
       lineCmnts.clear();
       triQuotes.reset();
@@ -90,13 +110,13 @@ public class SyntaxSearcher {
       if (!isTypeMode || isRepair) {
          return;
       }
-      int start = txt.text().lastIndexOf('<', chgPos);
+      int start = SyntaxUtils.lastIndexOf(txt.content(), "<", chgPos);
       if (start == -1) {
          start = 0;
       }
       int end = markupTagEnd(scnStart + section.length() + 1);
       scnStart = start;
-      section = txt.text().substring(start, end);
+      section = txt.content().subSequence(start, end).toString();
    }
 
    /**
@@ -120,6 +140,34 @@ public class SyntaxSearcher {
       txt.resetAttributes(scnStart, section.length());
    }
 
+   /**
+    * Completes an updated highlighting if a change in the section
+    * affects the highlighting of the text outside the section.
+    * Beginning with the line where the section or a comment or
+    * string that encloses the section starts, the text is highlighted
+    * until a line end behind the section which is outside comments
+    * and strings before and after the change and where the attributes
+    * of the line end and the following line equal the previous
+    * highlighting. The entire text is highlighted if the previous
+    * text is not known. Does nothing if completing is disabled. Not
+    * meant to be used by a {@link Highlighter}.
+    */
+   public void completeHighlighting() {
+      if (!isRepairNeeded) {
+         return;
+      }
+      isRepairNeeded = false;
+      if (!isCompletion) {
+         return;
+      }
+      if (isMarkup) {
+         repair(txt.text(), 0);
+      }
+      else {
+         repairLines();
+      }
+   }
+
    /**
     * Sets a condition for validating found text elements in
     * addition to the condition(s) defined in this search methods.
@@ -147,12 +195,17 @@ public class SyntaxSearcher {
       int disabledStart = -1;
       int i = -1;
       boolean changedMark = false;
-      while (start != -1 && !changedMark) {
-         int iDouble = txt.text().indexOf(SyntaxConstants.TRI_DOUBLE_QUOTE, start);
+      CharSequence text = txt.content();
+      while (start != -1) {
+         int iDouble = SyntaxUtils.indexOf(text, SyntaxConstants.TRI_DOUBLE_QUOTE,
+               start);
+
          String mark = SyntaxConstants.TRI_DOUBLE_QUOTE;
          boolean isDouble = true;
          if (inclSingleQuotes) {
-            int iSingle = txt.text().indexOf(SyntaxConstants.TRI_SINGLE_QUOTE, start);
+            int iSingle = SyntaxUtils.indexOf(text,
+                  SyntaxConstants.TRI_SINGLE_QUOTE, start);
+
             isDouble = SyntaxUtils.firstOccurence(iDouble, iSingle);
             start = isDouble ? iDouble : iSingle;
             mark = isDouble ? mark : SyntaxConstants.TRI_SINGLE_QUOTE;
@@ -164,26 +217,28 @@ public class SyntaxSearcher {
          if (start != -1) {
             nTested++;
             if (quotable(disabledStart, start) && isValid(start)
-                  && !SyntaxUtils.isClosingQuoteMarkInLine(txt.text(), start)) {
+                  && !SyntaxUtils.isClosingQuoteMarkInLine(text, start)) {
 
                nChecked++;
-               int end = txt.text().indexOf(mark, start + 3);
+               int end = SyntaxUtils.indexOf(text, mark, start + 3);
                if (end != -1) {
                   i++;
-                  changedMark = isTypeMode && !isRepair && (inclSingleQuotes
+                  changedMark |= isTypeMode && !isRepair && (inclSingleQuotes
                         && triQuotes.quoteMarkChange(i, isDouble));
 
                   len = end - start + 3;
                   triQuotes.add(start, end);
                   disabledStart = disabledStart(end);
-                  txt.setAttributes(start, len, attr.orangePlain);
+                  if (isInUpdate(start, start + len)) {
+                     txt.setAttributes(start, len, attr.orangePlain);
+                  }
                }
             }
             start += len;
          }
       }
       if (triQuotes.sizeChange(nTested, nChecked) || changedMark) {
-         repair(txt.text(), 0);
+         repairText();
       }
    }
 
@@ -194,10 +249,11 @@ public class SyntaxSearcher {
     * @param hds  the reference to HeredocSearch
     */
    public void mapHeredocs(HeredocSearch hds) {
-      String text = isInnerSection ? section : txt.text();
+      this.hds = hds;
+      CharSequence text = isInnerSection ? section : txt.content();
       int start = isInnerSection ? scnStart : 0;
       if (stringOp.addHeredocs(hds, text, start, isRepair)) {
-         repair(txt.text(), 0);
+         repairText();
       }
    }
 
@@ -221,8 +277,15 @@ public class SyntaxSearcher {
     * @param highlight  true to highlight; false otherwise
     */
    public void mapQuoteOperators(QuoteOperatorSearch qos, boolean highlight) {
-      if (stringOp.addQuoteOperators(qos, txt.text(), isRepair, highlight)) {
-         repair(txt.text(), 0);
+      this.qos = qos;
+      boolean isSection = isTypeMode && !isRepair;
+      int hlStart = isSection ? scnStart : 0;
+      CharSequence text = txt.content();
+      int hlEnd = isSection ? scnStart + section.length() : text.length();
+      if (stringOp.addQuoteOperators(qos, text, isRepair, highlight,
+            hlStart, hlEnd)) {
+
+         repairText();
       }
    }
 
@@ -254,7 +317,7 @@ public class SyntaxSearcher {
             quote(section, scnStart, attr.orangePlain);
          }
          else {
-            quote(txt.text(), 0, attr.orangePlain);
+            quote(txt.content(), 0, attr.orangePlain);
          }
       }
    }
@@ -266,19 +329,22 @@ public class SyntaxSearcher {
     * @param marks  the possible marks for a line comment start
     */
    public void lineComments(String[] marks) {
-      String scn = isInnerSection ? section : txt.text();
+      CharSequence scn = isInnerSection ? section : txt.content();
       for (String mark : marks) {
          int start = 0;
          while (start != -1) {
             int len = mark.length();
-            start = scn.indexOf(mark, start);
+            start = SyntaxUtils.indexOf(scn, mark, start);
             if (start != -1) {
                int absStart = isInnerSection ? start + scnStart : start;
                if (!inString(absStart, false) && isValid(absStart)) {
                   lineCmnts.add(absStart);
-                  int lineEnd = scn.indexOf('\n', start);
+                  int lineEnd = SyntaxUtils.indexOf(scn, '\n', start);
                   len = lineEnd != -1 ? lineEnd - start : scn.length() - start;
-                  if (scnStart <= absStart && absStart <= scnStart + section.length()) {
+                  if (scnStart <= absStart
+                        && absStart <= scnStart + section.length()) {
+
+
                      txt.setAttributes(absStart, len, attr.comment);
                   }
                }
@@ -289,7 +355,7 @@ public class SyntaxSearcher {
       if (nLineCmnt != lineCmnts.size()
             && (!quoteInSection || !stringOp.isQuoteOperatorEmpty())) {
 
-         repair(txt.text(), 0);
+         repairText();
       }
       if (!isInnerSection) {
          nLineCmnt = lineCmnts.size();
@@ -306,9 +372,28 @@ public class SyntaxSearcher {
     * @param set  the SimpleAttributeSet set on the keywords
     */
    public void keywords(String[] keys, char[] nonStart, SimpleAttributeSet set) {
-      for (String s : keys) {
-         key(s, true, nonStart, set);
+      keywords(KeywordMatcher.of(keys), nonStart, true, set);
+   }
+
+   /**
+    * Searches and highlights several groups of keywords in one
+    * pass. Keywords of different groups are not expected to overlap.
+    * Calls {@link Highlighter#isValid}
+    *
+    * @param keys  the array of arrays of keywords
+    * @param nonStart  the characters that must not precede a
+    * keyword. Can be null.
+    * @param sets  the SimpleAttributeSets set on the keywords where
+    * the index corresponds to the index in <code>keys</code>
+    */
+   public void keywords(String[][] keys, char[] nonStart,
+         SimpleAttributeSet... sets) {
+
+      if (keys.length != sets.length) {
+         throw new IllegalArgumentException(
+               "The numbers of keyword arrays and of attribute sets differ");
       }
+      keywords(KeywordMatcher.of(keys), nonStart, true, sets);
    }
 
    /**
@@ -325,12 +410,29 @@ public class SyntaxSearcher {
 
       String scn = section;
       section = section.toLowerCase();
-      for (String s : keys) {
-         key(s, true, nonStart, set);
-      }
+      keywords(keys, nonStart, set);
       section = scn;
    }
 
+   /**
+    * Searches and highlights several extensible keywords in one
+    * pass. Calls {@link Highlighter#isValid}.
+    *
+    * @param bases  the base keywords
+    * @param extensions  the array of arrays of keywords that may
+    * extend the base keyword with the same index
+    * @param nonStart  the characters that must not precede the
+    * keywords. Can be null.
+    * @param set  the SimpleAttributeSet set on the keywords
+    * @see #extensibleKeyword(String,String[],char[],SimpleAttributeSet)
+    */
+   public void extensibleKeywords(String[] bases, String[][] extensions,
+         char[] nonStart, SimpleAttributeSet set) {
+
+      keywords(KeywordMatcher.ofExtensible(bases, extensions), nonStart,
+            false, set);
+   }
+
    /**
     * Searches and highlights an extensible keyword.
     * Calls {@link Highlighter#isValid}.
@@ -435,7 +537,7 @@ public class SyntaxSearcher {
             repair(section, scnStart);
          }
          else {
-            repair(txt.text(), 0);
+            repairText();
          }
       }
       if (!isInnerSection) {
@@ -454,8 +556,9 @@ public class SyntaxSearcher {
     */
    public void markup(boolean html) {
       quoteInSection = true;
+      isMarkup = true;
       String scn = html ? section.toLowerCase() : section;
-      lowerCaseText = html ? txt.text().toLowerCase() : txt.text();
+      isHtml = html;
       int start = 0;
       while (start != -1) {
          start = scn.indexOf('<', start);
@@ -474,7 +577,7 @@ public class SyntaxSearcher {
                   if (!isEndTag) {
                      int absStart = start + scnStart;
                      int tagEnd = markupTagEnd(absStart + 1);
-                     String tag = lowerCaseText.substring(absStart, tagEnd);
+                     String tag = tag(absStart, tagEnd);
                      if (html) {
                         htmlAttributes(tag, absStart);
                      }
@@ -508,27 +611,28 @@ public class SyntaxSearcher {
    public void innerSections(String startTag, String endTag,
          boolean reqClosingBracket, Highlighter hlSection) {
 
+      CharSequence text = txt.content();
       int start = 0;
       while (start != -1) {
-         start = lowerCaseText.indexOf(startTag, start);
+         start = tagIndex(startTag, start);
          int len = 0;
          if (start != -1) {
-            if (-1 == SyntaxUtils.inBlock(txt.text(),
+            if (-1 == SyntaxUtils.inBlock(text,
                   SyntaxConstants.HTML_BLOCK_CMNT_START,
                   SyntaxConstants.HTML_BLOCK_CMNT_END, start)) {
 
                int searchStart = start + 1;
-               int end = SyntaxUtils.nextBlockEnd(txt.text(), searchStart, startTag,
+               int end = SyntaxUtils.nextBlockEnd(text, searchStart, startTag,
                      endTag);
 
                if (end != -1) {
                   int startTagEnd = reqClosingBracket ?
-                        1 + SyntaxUtils.nextBlockEnd(txt.text(), searchStart, "<", ">")
+                        1 + SyntaxUtils.nextBlockEnd(text, searchStart, "<", ">")
                         : start + startTag.length();
 
                   if (startTagEnd != 0) {
                      isInnerSection = true;
-                     String scn = txt.text().substring(startTagEnd, end);
+                     String scn = text.subSequence(startTagEnd, end).toString();
                      setTextParams(scn, chgPos, startTagEnd);
                      Highlighter hlCurr = hl;
                      hl = hlSection;
@@ -544,10 +648,66 @@ public class SyntaxSearcher {
       }
    }
 
+   /**
+    * Requests to complete the highlighting outside the section
+    * regardless of the counts of text elements, which are not
+    * comparable if the section is not where the previous change
+    * happened
+    */
+   void requestCompletion() {
+      repairText();
+   }
+
+   /**
+    * Enables or disables completing the highlighting outside the
+    * section in {@link #completeHighlighting()}
+    *
+    * @param b  true to enable, false to disable
+    */
+   void enableCompletion(boolean b) {
+      isCompletion = b;
+   }
+
+   /**
+    * Takes over the counts of text elements from the specified
+    * <code>SyntaxSearcher</code> which has highlighted the same
+    * text. The counts are compared with new counts after a change
+    * to detect if the entire text must be repaired.
+    *
+    * @param from  the SyntaxSearcher
+    */
+   void copyState(SyntaxSearcher from) {
+      quotes.copyState(from.quotes);
+      triQuotes.copyState(from.triQuotes);
+      cData.copyState(from.cData);
+      stringOp.copyState(from.stringOp);
+      nCData = from.nCData;
+      nLineCmnt = from.nLineCmnt;
+      nBlockCmntStarts = from.nBlockCmntStarts;
+      nBlockCmntEnds = from.nBlockCmntEnds;
+      currText = from.currText;
+   }
+
    //
    //--private--/
    //
 
+   private void keywords(KeywordMatcher matcher, char[] nonStart,
+         boolean excludeStrings, SimpleAttributeSet... sets) {
+
+      matcher.search(section, (start, length, group) -> {
+         int absStart = start + scnStart;
+         if (SyntaxUtils.isWord(section, start, length, nonStart)
+               && isValid(absStart)
+               && (!excludeStrings || (!inString(absStart, false)
+               && !inLineCmnt(absStart)))) {
+
+            SimpleAttributeSet set = sets.length == 1 ? sets[0] : sets[group];
+            txt.setAttributes(absStart, length, set);
+         }
+      });
+   }
+
    private void key(String key, boolean word, char[] nonStart, SimpleAttributeSet set) {
       int start = 0;
       while (start != -1) {
@@ -601,16 +761,56 @@ public class SyntaxSearcher {
    }
 
    private int markupTagEnd(int pos) {
-      int end = SyntaxUtils.nextBlockEnd(txt.text(), pos, "<", ">");
+      CharSequence text = txt.content();
+      int end = SyntaxUtils.nextBlockEnd(text, pos, "<", ">");
       if (end == -1) {
-         end = txt.text().indexOf('<', pos);
+         end = SyntaxUtils.indexOf(text, '<', pos);
          if (end == -1) {
-            end = txt.text().length();
+            end = text.length();
          }
       }
       return end;
    }
 
+   //
+   // Returns the tag from start to end which is lower case for html.
+   // Unlike String.toLowerCase the length does not change.
+   private String tag(int start, int end) {
+      String tag = txt.content().subSequence(start, end).toString();
+      if (!isHtml) {
+         return tag;
+      }
+      char[] c = tag.toCharArray();
+      for (int i = 0; i < c.length; i++) {
+         c[i] = Character.toLowerCase(c[i]);
+      }
+      return new String(c);
+   }
+
+   //
+   // Returns the position of the tag, which is lower case for html, in
+   // the text. Characters of the text are compared in lower case for
+   // html.
+   private int tagIndex(String tag, int from) {
+      CharSequence text = txt.content();
+      if (!isHtml) {
+         return SyntaxUtils.indexOf(text, tag, from);
+      }
+      int last = text.length() - tag.length();
+      for (int i = Math.max(from, 0); i <= last; i++) {
+         int j = 0;
+         while (j < tag.length()
+               && Character.toLowerCase(text.charAt(i + j)) == tag.charAt(j)) {
+
+            j++;
+         }
+         if (j == tag.length()) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
    private int xmlKeywordLength(String section, int start, boolean html) {
       return html ?
             SyntaxUtils.wordLength(section, start, SyntaxConstants.HTML_TAGS)
@@ -647,48 +847,61 @@ public class SyntaxSearcher {
    }
 
    private void cDataTextBlock(String startTag, String endTag) {
+      CharSequence text = txt.content();
       int count = 0;
       int start = 0;
       while (start != -1) {
-         start = txt.text().indexOf(startTag, start);
+         start = SyntaxUtils.indexOf(text, startTag, start);
          int len = 1;
          if (start != -1) {
             count++;
             int tagEnd = start + startTag.length();
-            int end = txt.text().indexOf(endTag, tagEnd);
-            int nextStart = txt.text().indexOf(startTag, tagEnd);
+            int end = SyntaxUtils.indexOf(text, endTag, tagEnd);
+            int nextStart = SyntaxUtils.indexOf(text, startTag, tagEnd);
             if (end > nextStart && nextStart != -1) {
                count++;
             }
             if (end != -1) {
-               int nextEnd = txt.text().indexOf(endTag, end + endTag.length());
+               int nextEnd = SyntaxUtils.indexOf(text, endTag,
+                     end + endTag.length());
+
                if (nextEnd != -1 && (nextStart == -1 || nextEnd < nextStart)) {
                   count++;
                }
                len = end - start + endTag.length();
                count++;
                cData.add(start, end);
-               txt.resetAttributes(start, len);
+               if (isInUpdate(start, start + len)) {
+                  txt.resetAttributes(start, len);
+               }
             }
             start += len;
          }
       }
       if (nCData != count) {
-         repair(txt.text(), 0);
+         repairText();
       }
       nCData = count;
    }
 
-   private void quote(String scn, int scnPos, SimpleAttributeSet set) {
+   private void quote(CharSequence scn, int scnPos, SimpleAttributeSet set) {
       int start = 0;
       int nTested = 0;
       int nChecked = 0;
       int disabledStart = -1;
       int i = -1;
+      int iDouble = SyntaxUtils.indexOf(scn, SyntaxConstants.DOUBLE_QUOTE, 0);
+      int iSingle = SyntaxUtils.indexOf(scn, SyntaxConstants.SINGLE_QUOTE, 0);
       boolean changedMark = false;
-      while (start != -1 && !changedMark) {
-         int iDouble = scn.indexOf(SyntaxConstants.DOUBLE_QUOTE, start);
-         int iSingle = scn.indexOf(SyntaxConstants.SINGLE_QUOTE, start);
+      while (start != -1) {
+         //
+         // a quote mark found before is searched again only if passed
+         if (iDouble != -1 && iDouble < start) {
+            iDouble = SyntaxUtils.indexOf(scn, SyntaxConstants.DOUBLE_QUOTE, start);
+         }
+         if (iSingle != -1 && iSingle < start) {
+            iSingle = SyntaxUtils.indexOf(scn, SyntaxConstants.SINGLE_QUOTE, start);
+         }
          boolean isDouble = SyntaxUtils.firstOccurence(iDouble, iSingle);
          start = isDouble ? iDouble : iSingle;
          char mark = isDouble ? SyntaxConstants.DOUBLE_QUOTE
@@ -703,7 +916,7 @@ public class SyntaxSearcher {
                int end = SyntaxUtils.nextNotEscaped(scn, mark, start + 1);
                if (end != -1) {
                   i++;
-                  changedMark = isTypeMode && !isInnerSection
+                  changedMark |= isTypeMode && !isInnerSection
                            && !isRepair && quotes.quoteMarkChange(i, isDouble);
 
                   int absEnd = end + scnPos;
@@ -726,7 +939,7 @@ public class SyntaxSearcher {
       if (!quoteInSection && (quotes.sizeChange(nTested, nChecked)
             || changedMark)) {
 
-         repair(txt.text(), 0);
+         repairText();
       }
    }
 
@@ -736,7 +949,7 @@ public class SyntaxSearcher {
    }
 
    private int disabledStart(int pos) {
-      String text = isInnerSection ? section : txt.text();
+      CharSequence text = isInnerSection ? section : txt.content();
       int diff = isInnerSection ? scnStart : 0;
       int i = hl.inBlockCmntMarks(text, pos - diff);
       if (i != -1) {
@@ -763,8 +976,9 @@ public class SyntaxSearcher {
       if (!isTypeMode || isInnerSection || isRepair) {
          return;
       }
+      CharSequence text = txt.content();
       int start = 0;
-      int end = txt.text().length();
+      int end = text.length();
       int lastEnd = lastBlockCmntEnd(blockEnd, scnStart, ignoreQuotes);
       if (lastEnd != -1) {
          if (lastEnd == scnStart) {
@@ -774,12 +988,12 @@ public class SyntaxSearcher {
             start = lastEnd + blockEnd.length();
          }
       }
-      int nextEnd = txt.text().indexOf(blockEnd, scnStart + section.length());
+      int nextEnd = SyntaxUtils.indexOf(text, blockEnd, scnStart + section.length());
       if (nextEnd != -1) {
-         end = LinesFinder.nextNewline(txt.text(), nextEnd);
+         end = LinesFinder.nextNewline(text, nextEnd);
       }
       scnStart = start;
-      section = txt.text().substring(start, end);
+      section = text.subSequence(start, end).toString();
    }
 
    private int nextBlockCmntStart(String blockStart, int pos, boolean ignoreQuotes) {
@@ -817,9 +1031,10 @@ public class SyntaxSearcher {
    }
 
    private int lastBlockCmntEnd(String blockEnd, int pos, boolean ignoreQuotes) {
-      int i = txt.text().lastIndexOf(blockEnd, pos);
+      CharSequence text = txt.content();
+      int i = SyntaxUtils.lastIndexOf(text, blockEnd, pos);
       while (i != -1 && (inString(i, ignoreQuotes) || inLineCmnt(i))) {
-         i = txt.text().lastIndexOf(blockEnd, i - blockEnd.length());
+         i = SyntaxUtils.lastIndexOf(text, blockEnd, i - blockEnd.length());
       }
       return i;
    }
@@ -844,12 +1059,12 @@ public class SyntaxSearcher {
 
    private boolean inQuotes(int pos) {
       return quoteInSection ?
-          SyntaxUtils.isQuotedInLine(txt.text(), pos)
+          SyntaxUtils.isQuotedInLine(txt.content(), pos)
           : -1 != quotes.inString(pos);
    }
 
    private boolean inLineCmnt(int pos) {
-      int lastNewline = LinesFinder.lastNewline(txt.text(), pos);
+      int lastNewline = LinesFinder.lastNewline(txt.content(), pos);
       for (int i : lineCmnts) {
          if (i > lastNewline && pos > i) {
             return true;
@@ -868,7 +1083,196 @@ public class SyntaxSearcher {
       isRepair = false;
    }
 
+   //
+   // Requests to complete the highlighting outside the section once
+   // the highlighting of the section is finished
+   private void repairText() {
+      if (isRepair || !isTypeMode || isInnerSection) {
+         return;
+      }
+      isRepairNeeded = true;
+   }
+
+   private void repairLines() {
+      CharSequence text = txt.content();
+      if (!isSingleChange(text)) {
+         repair(text.toString(), 0);
+         return;
+      }
+      int delta = text.length() - prevText.length();
+      StringOperatorMap prevStringOp = new StringOperatorMap(txt);
+      if (hds != null) {
+         prevStringOp.addHeredocs(hds, prevText, 0, true);
+      }
+      if (qos != null) {
+         prevStringOp.addQuoteOperators(qos, prevText, true);
+      }
+      int start = enclosingLineStart(text, scnStart);
+      int from = notEnclosedLineStart(text, scnStart + section.length());
+      int end = from;
+      int nLines = REPAIR_LINES;
+      while (true) {
+         end = notEnclosedLineStart(text, linesEnd(text, end, nLines));
+         SnapshotText st = new SnapshotText(text.subSequence(start, end).toString(),
+               txt);
+
+         SyntaxSearcher s = new SyntaxSearcher(st);
+         s.setHighlighter(hl);
+         s.setTextParams(st.text(), 0, 0);
+         hl.highlight(s, attr);
+         int stop = end == text.length() ? end
+               : matchingLineEnd(st, start, from, delta, prevStringOp);
+         if (stop != -1) {
+            StyleRuns runs = st.runs();
+            for (int i = 0; i < runs.size() && runs.start(i) < stop - start; i++) {
+               runs.apply(i, txt, start);
+            }
+            return;
+         }
+         nLines *= 4;
+      }
+   }
+
+   //
+   // Returns if the text differs from the text of the previous
+   // highlighting only by a change that starts at chgPos and ends
+   // within the section
+   private boolean isSingleChange(CharSequence text) {
+      if (prevText == null) {
+         return false;
+      }
+      int end = Math.max(chgPos, scnStart + section.length());
+      int n = text.length() - end;
+      return n >= 0 && n <= prevText.length() - chgPos
+            && regionMatches(currText, 0, prevText, 0, chgPos)
+            && regionMatches(currText, text.length() - n, prevText,
+                  prevText.length() - n, n);
+   }
+
+   //
+   // Returns a snapshot of the text which is kept as the text of the
+   // previous highlighting without copying a PieceTable
+   private static CharSequence snapshot(CharSequence text) {
+      if (text instanceof PieceTable) {
+         return ((PieceTable) text).snapshot();
+      }
+      return text.toString();
+   }
+
+   private static boolean regionMatches(CharSequence text, int pos,
+         CharSequence other, int otherPos, int len) {
+
+      if (text instanceof Snapshot && other instanceof Snapshot) {
+         return ((Snapshot) text).regionMatches(pos, (Snapshot) other,
+               otherPos, len);
+      }
+      for (int i = 0; i < len; i++) {
+         if (text.charAt(pos + i) != other.charAt(otherPos + i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
+   //
+   // Returns the position behind the first newline at or behind from
+   // which is neither enclosed by a comment or string in the text nor
+   // at the corresponding position in the previous text and where the
+   // attributes of the newline and of the following line in the
+   // snapshot equal the attributes in the text. The attributes show
+   // the previous highlighting but not if the newline was enclosed
+   // by a string that is not highlighted.
+   private int matchingLineEnd(SnapshotText st, int offset, int from,
+         int delta, StringOperatorMap prevStringOp) {
+
+      String scn = st.text();
+      int i = scn.indexOf('\n', from - offset);
+      while (i != -1) {
+         int next = scn.indexOf('\n', i + 1);
+         if (next == -1) {
+            return -1;
+         }
+         boolean isEqual = true;
+         for (int j = i; j <= next && isEqual; j++) {
+            isEqual = txt.hasAttributes(j + offset, st.attributesAt(j));
+         }
+         int pos = i + offset;
+         if (isEqual && enclosingStart(pos) == -1
+               && hl.inBlockCmntMarks(prevText, pos - delta) == -1
+               && prevStringOp.inEitherString(pos - delta) == -1) {
+
+            return pos + 1;
+         }
+         i = next;
+      }
+      return -1;
+   }
+
+   //
+   // Returns the start of the line that contains pos or of an earlier
+   // line where a comment or string starts that encloses the line start
+   private int enclosingLineStart(CharSequence text, int pos) {
+      int start = LinesFinder.lastNewline(text, pos) + 1;
+      int i = enclosingStart(start);
+      while (i != -1 && i < start) {
+         start = LinesFinder.lastNewline(text, i) + 1;
+         i = enclosingStart(start);
+      }
+      return start;
+   }
+
+   //
+   // Returns pos or the first line start behind pos which is not
+   // enclosed by a comment or string. The distance in lines is doubled
+   // until such a line start is found.
+   private int notEnclosedLineStart(CharSequence text, int pos) {
+      int end = pos;
+      int n = 1;
+      while (end < text.length() && enclosingStart(end) != -1) {
+         end = linesEnd(text, end, n);
+         n *= 2;
+      }
+      return end;
+   }
+
+   private int linesEnd(CharSequence text, int pos, int nLines) {
+      int end = pos;
+      for (int i = 0; i < nLines && end < text.length(); i++) {
+         int next = SyntaxUtils.indexOf(text, '\n', end);
+         end = next != -1 ? next + 1 : text.length();
+      }
+      return end;
+   }
+
+   //
+   // Returns the start of a block comment or string that encloses pos
+   private int enclosingStart(int pos) {
+      int[] starts = {
+         hl.inBlockCmntMarks(txt.content(), pos),
+         quoteInSection ? -1 : quotes.inString(pos),
+         stringOp.inEitherString(pos),
+         triQuotes.inString(pos),
+         cData.inString(pos)
+      };
+      int start = -1;
+      for (int i : starts) {
+         if (i != -1 && (start == -1 || i < start)) {
+            start = i;
+         }
+      }
+      return start;
+   }
+
+   //
+   // Returns if a text element between start and end overlaps the
+   // section. Elements outside the section keep the attributes from
+   // the previous highlighting.
+   private boolean isInUpdate(int start, int end) {
+      return !isTypeMode || isRepair
+            || (start <= scnStart + section.length() && end >= scnStart);
+   }
+
    private boolean isValid(int pos) {
-      return hl.isValid(txt.text(), pos, condition);
+      return hl.isValid(txt.content(), pos, condition);
    }
 }
@@ -1,6 +1,7 @@
 package eg.syntax;
 
 import eg.utils.LinesFinder;
+import eg.document.styledtext.PieceTable;
 
 /**
  * Static methods to search for text elements
@@ -17,7 +18,9 @@ public class SyntaxUtils {
     * a word, in addition to letters and digits. Can be null
     * @return  true if the section is a word, false otherwise
     */
-   public static boolean isWord(String text, int pos, int length, char[] nonStart) {
+   public static boolean isWord(CharSequence text, int pos, int length,
+         char[] nonStart) {
+
       boolean startMatches = isWordStart(text, pos, nonStart);
       boolean endMatches   = isWordEnd(text, pos + length);
       return startMatches && endMatches;
@@ -34,7 +37,7 @@ public class SyntaxUtils {
     * @return  true if the position is a word start, false
     * otherwise
     */
-   public static boolean isWordStart(String text, int pos, char[] nonStart) {
+   public static boolean isWordStart(CharSequence text, int pos, char[] nonStart) {
       boolean isWord = true;
       if (pos > 0) {
          char c = text.charAt(pos - 1);
@@ -57,7 +60,7 @@ public class SyntaxUtils {
     * @param pos  the position
     * @return  true if position is a word end, false otherwise
     */
-   public static boolean isWordEnd(String text, int pos) {
+   public static boolean isWordEnd(CharSequence text, int pos) {
       if (text.length() > pos) {
          return !isLetterOrDigit(text.charAt(pos));
       }
@@ -77,10 +80,10 @@ public class SyntaxUtils {
     * @return  the length of the section; 0 if a keyword is not
     * found
     */
-   public static int wordLength(String text, int pos, String[] keywords) {
+   public static int wordLength(CharSequence text, int pos, String[] keywords) {
       int l = 0;
       for (String s : keywords) {
-         if (text.startsWith(s, pos) && s.length() > l) {
+         if (startsWith(text, s, pos) && s.length() > l) {
             l = s.length();
          }
       }
@@ -99,7 +102,7 @@ public class SyntaxUtils {
     * directly follow pos
     * @return  the length of the section
     */
-   public static int sectionLength(String text, int pos, char[] endMarks,
+   public static int sectionLength(CharSequence text, int pos, char[] endMarks,
          char[] successors) {
 
       boolean found = false;
@@ -133,7 +136,9 @@ public class SyntaxUtils {
     * @param endMark  the characters that mark the end of the section
     * @return  the length of the section
     */
-   public static int sectionLengthSkipEscaped(String text, int pos, char endMark) {
+   public static int sectionLengthSkipEscaped(CharSequence text, int pos,
+         char endMark) {
+
       int start = pos + 1;
       int i;
       for (i = start; i < text.length(); i++) {
@@ -153,7 +158,7 @@ public class SyntaxUtils {
     * @param targets  the target characters
     * @return  true if equal
     */
-   public static boolean isCharEqualTo(String text, int pos, char[] targets) {
+   public static boolean isCharEqualTo(CharSequence text, int pos, char[] targets) {
       char c = text.charAt(pos);
       for (int i = 0; i < targets.length; i++) {
          if (c == targets[i]) {
@@ -187,13 +192,13 @@ public class SyntaxUtils {
     * @param pos  the position
     * @return  true if inside a block, false otherwise
     */
-    public static int inBlock(String text, String blockStart, String blockEnd,
+    public static int inBlock(CharSequence text, String blockStart, String blockEnd,
          int pos) {
 
       int lastStart = SyntaxUtils.lastBlockStart(text, pos, blockStart, blockEnd);
       int nextEnd = -1;
       if (lastStart != -1) {
-         nextEnd = text.indexOf(blockEnd, pos);
+         nextEnd = MarkIndex.indexOf(text, blockEnd, pos);
       }
       if ((lastStart != -1 && nextEnd != -1) && nextEnd != lastStart) {
          return lastStart;
@@ -214,11 +219,11 @@ public class SyntaxUtils {
     * @return  the position of the last block start. -1 if a block
     * end is closer than a block start or if no block start is found
     */
-   public static int lastBlockStart(String text, int pos, String blockStart,
+   public static int lastBlockStart(CharSequence text, int pos, String blockStart,
          String blockEnd) {
 
-      int lastStart = text.lastIndexOf(blockStart, pos);
-      int lastEnd = text.lastIndexOf(blockEnd, pos);
+      int lastStart = MarkIndex.lastIndexOf(text, blockStart, pos);
+      int lastEnd = MarkIndex.lastIndexOf(text, blockEnd, pos);
       if (lastStart < lastEnd) {
          lastStart = -1;
       }
@@ -236,11 +241,11 @@ public class SyntaxUtils {
     * @return  the position of the next block end. -1 if a block
     * start is closer than a block end or if no block end is found
     */
-    public static int nextBlockEnd(String text, int pos, String blockStart,
+    public static int nextBlockEnd(CharSequence text, int pos, String blockStart,
          String blockEnd) {
 
-      int nextEnd = text.indexOf(blockEnd, pos);
-      int nextStart = text.indexOf(blockStart, pos);
+      int nextEnd = MarkIndex.indexOf(text, blockEnd, pos);
+      int nextStart = MarkIndex.indexOf(text, blockStart, pos);
       if (nextEnd > nextStart & nextStart != -1) {
          nextEnd = -1;
       }
@@ -257,10 +262,18 @@ public class SyntaxUtils {
     * @return  the position of the last mark, -1 if the mark is not
     * found
     */
-   public static int behindMark(String text, String mark, int pos) {
+   public static int behindMark(CharSequence text, String mark, int pos) {
       int lineStart = LinesFinder.lastNewline(text, pos) + 1;
-      int i = text.lastIndexOf(mark, pos);
-      return (i != -1 && i >= lineStart) ? i : -1;
+      //
+      // search the line only instead of the text before the line
+      for (int i = Math.min(pos, text.length() - mark.length());
+            i >= lineStart; i--) {
+
+         if (startsWith(text, mark, i)) {
+            return i;
+         }
+      }
+      return -1;
    }
 
    /**
@@ -272,7 +285,7 @@ public class SyntaxUtils {
     * @param pos  the position
     * @return  true if quoted
     */
-   public static boolean isQuotedInLine(String text, int pos) {
+   public static boolean isQuotedInLine(CharSequence text, int pos) {
       String line = LinesFinder.lineAtPos(text, pos);
       int relStart = pos - LinesFinder.lastNewline(text, pos);
       return isQuoted(line, relStart - 1); // <--here changed to -1
@@ -286,12 +299,12 @@ public class SyntaxUtils {
     * @param pos  the position
     * @return  true if quoted
     */
-   public static boolean isQuoted(String text, int pos) {
+   public static boolean isQuoted(CharSequence text, int pos) {
       int i = 0;
       boolean found = false;
       while (i != -1 && !found) {
-         int startDouble = text.indexOf(SyntaxConstants.DOUBLE_QUOTE, i);
-         int startSingle = text.indexOf(SyntaxConstants.SINGLE_QUOTE, i);
+         int startDouble = indexOf(text, SyntaxConstants.DOUBLE_QUOTE, i);
+         int startSingle = indexOf(text, SyntaxConstants.SINGLE_QUOTE, i);
          boolean isDouble = SyntaxUtils.firstOccurence(startDouble, startSingle);
          i = isDouble ? startDouble : startSingle;
          char endMark = isDouble ?
@@ -327,7 +340,7 @@ public class SyntaxUtils {
     * @param pos  the position
     * @return  true if a closing quote; false otherwise
     */
-   public static boolean isClosingQuoteMarkInLine(String text, int pos) {
+   public static boolean isClosingQuoteMarkInLine(CharSequence text, int pos) {
       String line = LinesFinder.lineAtPos(text, pos);
       int relStart = pos - LinesFinder.lastNewline(text, pos) - 1;
       int i = 0;
@@ -370,10 +383,10 @@ public class SyntaxUtils {
     * @param pos  the position where the search starts
     * @return  the position
     */
-    public static int nextNotEscaped(String text, char toSearch, int pos) {
-      int index = text.indexOf(toSearch, pos);
+    public static int nextNotEscaped(CharSequence text, char toSearch, int pos) {
+      int index = indexOf(text, toSearch, pos);
       while (SyntaxUtils.isEscaped(text, index)) {
-         index = text.indexOf(toSearch, index + 1);
+         index = indexOf(text, toSearch, index + 1);
       }
       return index;
    }
@@ -386,7 +399,7 @@ public class SyntaxUtils {
     * @param lineEnd  true stop at the next newline character
     * @return  the position
     */
-   public static int nextNonSpace(String text, int pos, boolean lineEnd) {
+   public static int nextNonSpace(CharSequence text, int pos, boolean lineEnd) {
       if (pos == text.length()) {
          return pos;
       }
@@ -400,6 +413,111 @@ public class SyntaxUtils {
       return i == text.length() ? i - 1 : i;
    }
 
+   /**
+    * Returns the position of the first occurrence of a character
+    * starting at the specified position. Equals
+    * {@link String#indexOf(int,int)}. A <code>String</code> or a
+    * <code>PieceTable</code> is searched without copying the text.
+    *
+    * @param text  the text
+    * @param c  the character
+    * @param pos  the position where the search starts
+    * @return  the position; -1 if not found
+    */
+   public static int indexOf(CharSequence text, char c, int pos) {
+      if (text instanceof String) {
+         return ((String) text).indexOf(c, pos);
+      }
+      if (text instanceof PieceTable) {
+         return ((PieceTable) text).indexOf(c, pos);
+      }
+      for (int i = Math.max(pos, 0); i < text.length(); i++) {
+         if (text.charAt(i) == c) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Returns the position of the first occurrence of a string
+    * starting at the specified position. Equals
+    * {@link String#indexOf(String,int)}.
+    *
+    * @param text  the text
+    * @param s  the string
+    * @param pos  the position where the search starts
+    * @return  the position; -1 if not found
+    */
+   public static int indexOf(CharSequence text, String s, int pos) {
+      if (text instanceof String) {
+         return ((String) text).indexOf(s, pos);
+      }
+      if (text instanceof PieceTable) {
+         return ((PieceTable) text).indexOf(s, pos);
+      }
+      if (s.isEmpty()) {
+         return Math.max(0, Math.min(pos, text.length()));
+      }
+      int i = indexOf(text, s.charAt(0), pos);
+      while (i != -1 && i + s.length() <= text.length()) {
+         if (startsWith(text, s, i)) {
+            return i;
+         }
+         i = indexOf(text, s.charAt(0), i + 1);
+      }
+      return -1;
+   }
+
+   /**
+    * Returns the position of the last occurrence of a string
+    * searching backward from the specified position. Equals
+    * {@link String#lastIndexOf(String,int)}.
+    *
+    * @param text  the text
+    * @param s  the string
+    * @param pos  the position where the search starts
+    * @return  the position; -1 if not found
+    */
+   public static int lastIndexOf(CharSequence text, String s, int pos) {
+      if (text instanceof String) {
+         return ((String) text).lastIndexOf(s, pos);
+      }
+      if (text instanceof PieceTable) {
+         return ((PieceTable) text).lastIndexOf(s, pos);
+      }
+      for (int i = Math.min(pos, text.length() - s.length()); i >= 0; i--) {
+         if (startsWith(text, s, i)) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   /**
+    * Returns if the string is found at the specified position.
+    * Equals {@link String#startsWith(String,int)}.
+    *
+    * @param text  the text
+    * @param s  the string
+    * @param pos  the position
+    * @return  true if found; false otherwise
+    */
+   public static boolean startsWith(CharSequence text, String s, int pos) {
+      if (text instanceof String) {
+         return ((String) text).startsWith(s, pos);
+      }
+      if (pos < 0 || pos > text.length() - s.length()) {
+         return false;
+      }
+      for (int i = 0; i < s.length(); i++) {
+         if (text.charAt(pos + i) != s.charAt(i)) {
+            return false;
+         }
+      }
+      return true;
+   }
+
    /**
     * Retuns if the specified character is letter or a digit
     *
@@ -414,7 +532,7 @@ public class SyntaxUtils {
    //--private--/
    //
 
-   private static boolean isEscaped(String text, int pos) {
+   private static boolean isEscaped(CharSequence text, int pos) {
       if (pos > 0) {
          return text.charAt(pos - 1) == '\\' && !isEscaped(text, pos - 1);
       }
@@ -5,9 +5,16 @@ import java.awt.EventQueue;
 import java.awt.Font;
 import java.awt.Shape;
 
+import java.awt.event.ActionListener;
 import java.awt.event.FocusAdapter;
 import java.awt.event.FocusEvent;
 
+import javax.swing.BorderFactory;
+import javax.swing.Box;
+import javax.swing.BoxLayout;
+import javax.swing.JButton;
+import javax.swing.JComponent;
+import javax.swing.JProgressBar;
 import javax.swing.JTextPane;
 import javax.swing.JPanel;
 import javax.swing.JScrollPane;
@@ -17,6 +24,7 @@ import javax.swing.ScrollPaneConstants;
 import javax.swing.border.LineBorder;
 import javax.swing.border.MatteBorder;
 
+import javax.swing.event.ChangeListener;
 import javax.swing.event.DocumentListener;
 import javax.swing.event.DocumentEvent;
 
@@ -24,6 +32,7 @@ import javax.swing.text.AbstractDocument;
 import javax.swing.text.BoxView;
 import javax.swing.text.ComponentView;
 import javax.swing.text.DefaultCaret;
+import javax.swing.text.Document;
 import javax.swing.text.Element;
 import javax.swing.text.IconView;
 import javax.swing.text.LabelView;
@@ -35,6 +44,7 @@ import javax.swing.text.ViewFactory;
 
 //--Eadgyth--/
 import eg.BackgroundTheme;
+import eg.document.styledtext.BatchStyledDocument;
 import eg.utils.ScreenParams;
 
 /**
@@ -70,6 +80,8 @@ public final class EditArea {
          ScrollPaneConstants.HORIZONTAL_SCROLLBAR_NEVER);
 
    private boolean isWordwrap;
+   private JComponent topBar = null;
+   private JProgressBar progressBar = null;
 
    /**
     * @param wordwrap  true to enable, false to disable wordwrap
@@ -173,6 +185,79 @@ public final class EditArea {
       showLineNumbersImpl(b);
    }
 
+   /**
+    * Adds a <code>ChangeListener</code> that is notified when the
+    * view of the text area, i.e. its size or scroll position,
+    * changes
+    *
+    * @param cl  the ChangeListener
+    */
+   public void addViewportChangeListener(ChangeListener cl) {
+      nonWordwrapScroll.getViewport().addChangeListener(cl);
+      wordwrapScroll.getViewport().addChangeListener(cl);
+   }
+
+   /**
+    * Shows the specified component in a bar above the text area. A
+    * component shown before is replaced.
+    *
+    * @param c  the component
+    */
+   public void showTopBar(JComponent c) {
+      hideTopBar();
+      topBar = c;
+      content.add(c, BorderLayout.NORTH);
+      revalidate();
+   }
+
+   /**
+    * Hides the bar shown by {@link #showTopBar}
+    */
+   public void hideTopBar() {
+      if (topBar != null) {
+         content.remove(topBar);
+         topBar = null;
+         progressBar = null;
+         revalidate();
+      }
+   }
+
+   /**
+    * Shows a bar above the text area that displays a message, the
+    * progress of a task and a button to cancel the task
+    *
+    * @param msg  the message
+    * @param cancel  the ActionListener that cancels the task
+    */
+   public void showProgress(String msg, ActionListener cancel) {
+      JProgressBar bar = new JProgressBar(0, 100);
+      JButton bt = new JButton("Cancel");
+      bt.setFocusable(false);
+      bt.addActionListener(cancel);
+      JPanel pnl = new JPanel();
+      pnl.setLayout(new BoxLayout(pnl, BoxLayout.LINE_AXIS));
+      pnl.setBorder(BorderFactory.createEmptyBorder(3, 5, 3, 5));
+      pnl.add(UIComponents.label(msg));
+      pnl.add(Box.createRigidArea(ScreenParams.scaledDimension(10, 0)));
+      pnl.add(bar);
+      pnl.add(Box.createRigidArea(ScreenParams.scaledDimension(10, 0)));
+      pnl.add(bt);
+      showTopBar(pnl);
+      progressBar = bar;
+   }
+
+   /**
+    * Sets the progress displayed in the bar shown by
+    * {@link #showProgress}. Does nothing if the bar is not shown.
+    *
+    * @param percent  the progress in percent
+    */
+   public void setProgress(int percent) {
+      if (progressBar != null) {
+         progressBar.setValue(percent);
+      }
+   }
+
    /**
     * Sets the font
     *
@@ -279,6 +364,11 @@ public final class EditArea {
       public ViewFactory getViewFactory() {
          return vf;
       }
+
+      @Override
+      public Document createDefaultDocument() {
+         return new BatchStyledDocument();
+      }
    }
 
    private static class WrapColumnFactory implements ViewFactory {
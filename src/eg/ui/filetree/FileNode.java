@@ -0,0 +1,102 @@
+package eg.ui.filetree;
+
+import javax.swing.Icon;
+
+import javax.swing.filechooser.FileSystemView;
+
+import javax.swing.tree.DefaultMutableTreeNode;
+
+import java.io.File;
+
+import java.util.Comparator;
+
+/**
+ * The node of a file or a directory in the {@link FileTree}.
+ * <p>
+ * Whether the file is a directory is read once when the node is
+ * created. The node of a directory is shown as expandable before its
+ * children are loaded.
+ */
+@SuppressWarnings("serial")
+final class FileNode extends DefaultMutableTreeNode {
+
+   /**
+    * The order of nodes with the same parent: directories first and
+    * each group by name ignoring case */
+   static final Comparator<FileNode> ORDER = (a, b) -> {
+      if (a.isDir != b.isDir) {
+         return a.isDir ? -1 : 1;
+      }
+      String na = a.file().getName();
+      String nb = b.file().getName();
+      int res = na.compareToIgnoreCase(nb);
+      return res != 0 ? res : na.compareTo(nb);
+   };
+
+   private final boolean isDir;
+
+   private boolean isLoaded = false;
+   private transient Icon icon = null;
+
+   /**
+    * @param f  the file which has an absolute path
+    * @param isDir  true if the file is a directory
+    */
+   FileNode(File f, boolean isDir) {
+      super(f, isDir);
+      this.isDir = isDir;
+   }
+
+   /**
+    * Returns the file
+    *
+    * @return  the file
+    */
+   File file() {
+      return (File) getUserObject();
+   }
+
+   /**
+    * Returns if the file is a directory
+    *
+    * @return  true if a directory; false otherwise
+    */
+   boolean isDirectory() {
+      return isDir;
+   }
+
+   /**
+    * Returns if the children of this node are loaded
+    *
+    * @return  true if loaded; false otherwise
+    */
+   boolean isLoaded() {
+      return isLoaded;
+   }
+
+   /**
+    * Marks the children of this node as loaded
+    */
+   void setLoaded() {
+      isLoaded = true;
+   }
+
+   /**
+    * Returns the icon of the file which is requested from the
+    * specified <code>FileSystemView</code> once
+    *
+    * @param fsv  the FileSystemView
+    * @return  the icon
+    */
+   Icon icon(FileSystemView fsv) {
+      if (icon == null) {
+         icon = fsv.getSystemIcon(file());
+      }
+      return icon;
+   }
+
+   @Override
+   public boolean isLeaf() {
+      return !isDir;
+   }
+}
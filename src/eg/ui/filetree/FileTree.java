@@ -12,21 +12,30 @@ import javax.swing.JOptionPane;
 import javax.swing.SwingUtilities;
 
 import javax.swing.event.TreeExpansionEvent;
-import javax.swing.event.TreeExpansionListener;
+import javax.swing.event.TreeWillExpandListener;
 
 import javax.swing.tree.DefaultMutableTreeNode;
 import javax.swing.tree.DefaultTreeModel;
+import javax.swing.tree.ExpandVetoException;
 import javax.swing.tree.TreePath;
 
 import java.io.File;
 import java.io.IOException;
 
+import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 //--Eadgyth--/
 import eg.FileOpener;
@@ -35,24 +44,40 @@ import eg.utils.FileUtils;
 
 /**
  * The display of a project's file system in a <code>JTree</code>.
+ * <p>
+ * The children of a directory are loaded when the directory is first
+ * expanded. Directories are listed by a <code>DirectoryStream</code>
+ * and the attributes of the entries are read in a background thread.
+ * A directory that is listed again after changes, for example when
+ * reported by a file watcher, is compared with the shown nodes so that
+ * only nodes of new and removed files are inserted and removed and
+ * expanded nodes stay expanded.
  */
 public class FileTree {
 
+   private static final ExecutorService LISTING
+         = Executors.newSingleThreadExecutor(r -> {
+              Thread t = new Thread(r, "File tree listing");
+              t.setDaemon(true);
+              return t;
+           });
+
    private final TreePanel treePnl;
    private final FileOpener opener;
    private final PopupMenu popupFile = new PopupMenu(PopupMenu.FILE_OPT);
    private final PopupMenu popupDir  = new PopupMenu(PopupMenu.FOLDER_OPT);
-   private final HashSet<String> checkDupl = new HashSet<>();
+   private final Map<File, FileNode> loadedDirs = new HashMap<>();
+   private final Set<File> toExpand = new HashSet<>();
+   private final Map<String, Set<File>> prevExpandedDirs = new HashMap<>();
 
    private JTree tree = null;
    private DefaultTreeModel model;
 
    private String projRoot = "";
    private String deletableDir = null;
-   private List<TreePath> expandedNodes = null;
-   private HashMap<String, List<TreePath>> prevExpandedNodes = new HashMap<>();
    private File selectedFile = null;
    private DefaultMutableTreeNode selectedNode = null;
+   private Runnable listingChanged = null;
 
    /**
     * @param treePnl  the TreePanel
@@ -66,7 +91,8 @@ public class FileTree {
 
    /**
     * Sets the project's root directory and displays the file system at
-    * this root
+    * this root. The directories that were expanded when the root was
+    * shown before are expanded again.
     *
     * @param projectRoot  the project's root directory
     */
@@ -77,15 +103,14 @@ public class FileTree {
       if (projRoot.equals(projectRoot) || projectRoot.isEmpty()) {
          return;
       }
-      if (tree != null) {
-         setExpandedNodeList();
-         prevExpandedNodes.put(projRoot, expandedNodes);
-      }
-      if (prevExpandedNodes.containsKey(projectRoot)) {
-         expandedNodes = prevExpandedNodes.get(projectRoot);
-      }
+      String prevRoot = projRoot;
       projRoot = projectRoot;
-      setNewTree();
+      EventQueue.invokeLater(() -> {
+         if (tree != null) {
+            prevExpandedDirs.put(prevRoot, expandedDirs());
+         }
+         setNewTree();
+      });
    }
 
    /**
@@ -117,14 +142,60 @@ public class FileTree {
    }
 
    /**
-    * Updates the tree to display any possible changes
+    * Returns the directory that may be deleted although it is not
+    * empty
+    *
+    * @return  the directory; null if no such directory is set
+    * @see #setDeletableDir(String)
+    */
+   public String deletableDir() {
+      return deletableDir;
+   }
+
+   /**
+    * Lists the directories whose entries are shown again in the
+    * background and updates the nodes of files that were created or
+    * deleted
     */
    public void updateTree() {
       if (projRoot.isEmpty() || tree == null) {
          return;
       }
-      setExpandedNodeList();
-      setNewTree();
+      loadedDirs.values().forEach(this::load);
+   }
+
+   /**
+    * Lists the specified directory again in the background if its
+    * entries are shown and updates the nodes of files that were
+    * created or deleted
+    *
+    * @param dir  the directory
+    */
+   public void updateDirectory(File dir) {
+      FileNode node = loadedDirs.get(dir.getAbsoluteFile());
+      if (node != null) {
+         load(node);
+      }
+   }
+
+   /**
+    * Returns the directories whose entries are shown in the tree
+    *
+    * @return  the directories with absolute paths
+    */
+   public Set<File> listedDirectories() {
+      return new HashSet<>(loadedDirs.keySet());
+   }
+
+   /**
+    * Sets the <code>Runnable</code> that is run on the EDT when the
+    * directories whose entries are shown changed
+    *
+    * @param r  the Runnable
+    * @see #listedDirectories()
+    */
+   public void setListingListener(Runnable r) {
+      listingChanged = r;
    }
 
    /**
@@ -141,18 +212,19 @@ public class FileTree {
    //
 
    private void setNewTree() {
-      EventQueue.invokeLater(() -> {
-         checkDupl.clear();
-         File rootFile = new File(projRoot);
-         setModel(rootFile);
-         setTree();
-      });
-   }
-
-   private void setModel(File f) {
-      DefaultMutableTreeNode root = new DefaultMutableTreeNode(f);
+      File rootFile = new File(projRoot).getAbsoluteFile();
+      FileNode root = new FileNode(rootFile, true);
       model = new DefaultTreeModel(root);
-      getFiles(root, f);
+      loadedDirs.clear();
+      toExpand.clear();
+      Set<File> prev = prevExpandedDirs.get(projRoot);
+      if (prev != null) {
+         toExpand.addAll(prev);
+      }
+      toExpand.add(rootFile);
+      setTree();
+      load(root);
+      notifyListingChanged();
    }
 
    private void setTree() {
@@ -160,46 +232,198 @@ public class FileTree {
          tree = new JTree(model);
          tree.addMouseListener(mouseListener);
          treePnl.setTree(tree);
-         tree.addTreeExpansionListener(expansionListner);
+         tree.addTreeWillExpandListener(expansionListener);
       }
       else {
          tree.setModel(model);
-         expand();
       }
    }
 
-   private void getFiles(DefaultMutableTreeNode node, File f) {
-      File[] fList = f.listFiles();
-      if (fList != null) {
-         File[] fListSorted = sortedFiles(fList);
-         for (File fs : fListSorted) {
-            if (!checkDupl.contains(fs.getAbsolutePath())) {
-               checkDupl.add(fs.getAbsolutePath());
-            }
-            else {
-               continue;
+   private Set<File> expandedDirs() {
+      Set<File> dirs = new HashSet<>();
+      for (FileNode n : loadedDirs.values()) {
+         if (tree.isExpanded(new TreePath(n.getPath()))) {
+            dirs.add(n.file());
+         }
+      }
+      return dirs;
+   }
+
+   //
+   // Lists the directory of the node in the background and applies
+   // the listing on the EDT
+   private void load(FileNode node) {
+      Path dir = node.file().toPath();
+      LISTING.execute(() -> {
+         List<FileNode> entries = list(dir);
+         EventQueue.invokeLater(() -> applyListing(node, entries));
+      });
+   }
+
+   //
+   // Returns the nodes of the entries of the directory in the order of
+   // FileNode.ORDER or null if the directory cannot be read. Runs in
+   // the background.
+   private static List<FileNode> list(Path dir) {
+      List<FileNode> entries = new ArrayList<>();
+      try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir)) {
+         for (Path p : ds) {
+            boolean isDir;
+            try {
+               isDir = Files.readAttributes(p,
+                     BasicFileAttributes.class).isDirectory();
             }
-            DefaultMutableTreeNode child = new DefaultMutableTreeNode(fs);
-            node.add(child);
-            if (fs.isDirectory() && node.getLevel() == 0) {
-               getFiles(child, fs);
+            catch (IOException e) {
+               isDir = false; // e.g. a broken link
             }
+            entries.add(new FileNode(p.toFile(), isDir));
+         }
+      }
+      catch (IOException | RuntimeException e) {
+         return null;
+      }
+      entries.sort(FileNode.ORDER);
+      return entries;
+   }
+
+   //
+   // Makes the children of the node match the listed entries. The
+   // children of a node that is loaded the first time are added at
+   // once. Otherwise new nodes are inserted before removed nodes are
+   // removed so that an expanded node is not collapsed when all its
+   // children are replaced.
+   private void applyListing(FileNode node, List<FileNode> entries) {
+      if (model == null || node.getRoot() != model.getRoot()
+            || entries == null) {
+
+         return;
+      }
+      if (!node.isLoaded()) {
+         int[] indices = new int[entries.size()];
+         for (int i = 0; i < indices.length; i++) {
+            node.add(entries.get(i));
+            indices[i] = i;
          }
+         node.setLoaded();
+         model.nodesWereInserted(node, indices);
       }
+      else {
+         updateChildren(node, entries);
+      }
+      boolean isNewListing = loadedDirs.put(node.file(), node) == null;
+      if (toExpand.remove(node.file())) {
+         tree.expandPath(new TreePath(node.getPath()));
+      }
+      for (int i = 0; i < node.getChildCount() && !toExpand.isEmpty(); i++) {
+         FileNode child = (FileNode) node.getChildAt(i);
+         if (child.isDirectory() && !child.isLoaded()
+               && toExpand.contains(child.file())) {
+
+            load(child);
+         }
+      }
+      if (isNewListing) {
+         notifyListingChanged();
+      }
+   }
+
+   //
+   // Inserts the nodes of new entries and then removes the nodes of
+   // files that are not listed. Each step fires one event.
+   private void updateChildren(FileNode node, List<FileNode> entries) {
+      Map<File, FileNode> shown = new HashMap<>();
+      for (int i = 0; i < node.getChildCount(); i++) {
+         FileNode child = (FileNode) node.getChildAt(i);
+         shown.put(child.file(), child);
+      }
+      Set<FileNode> kept = new HashSet<>();
+      Set<FileNode> inserted = new HashSet<>();
+      for (FileNode e : entries) {
+         FileNode child = shown.get(e.file());
+         if (child != null && child.isDirectory() == e.isDirectory()) {
+            kept.add(child);
+         }
+         else {
+            node.insert(e, insertIndex(node, e));
+            inserted.add(e);
+         }
+      }
+      if (!inserted.isEmpty()) {
+         model.nodesWereInserted(node, indices(node, inserted));
+      }
+      kept.addAll(inserted);
+      if (kept.size() == node.getChildCount()) {
+         return;
+      }
+      List<FileNode> removed = new ArrayList<>();
+      int[] removedIndices = new int[node.getChildCount() - kept.size()];
+      for (int i = 0; i < node.getChildCount(); i++) {
+         FileNode child = (FileNode) node.getChildAt(i);
+         if (!kept.contains(child)) {
+            removedIndices[removed.size()] = i;
+            removed.add(child);
+         }
+      }
+      for (int i = removedIndices.length - 1; i >= 0; i--) {
+         node.remove(removedIndices[i]);
+      }
+      model.nodesWereRemoved(node, removedIndices, removed.toArray());
+      boolean isListedDirRemoved = false;
+      for (FileNode child : removed) {
+         isListedDirRemoved |= removeLoaded(child.file());
+      }
+      if (isListedDirRemoved) {
+         notifyListingChanged();
+      }
+   }
+
+   //
+   // Returns the ascending indices of the specified children
+   private int[] indices(FileNode node, Set<FileNode> children) {
+      int[] indices = new int[children.size()];
+      int n = 0;
+      for (int i = 0; i < node.getChildCount() && n < indices.length; i++) {
+         if (children.contains(node.getChildAt(i))) {
+            indices[n++] = i;
+         }
+      }
+      return indices;
    }
 
-   private File[] sortedFiles(File[] toSort) {
-      List<File> all = new ArrayList<>();
-      List<File> files = new ArrayList<>();
-      for (File f : toSort) {
-         if (f.isDirectory()) {
-             all.add(f);
-         } else {
-             files.add(f);
+   private int insertIndex(FileNode node, FileNode e) {
+      int lo = 0;
+      int hi = node.getChildCount();
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (FileNode.ORDER.compare((FileNode) node.getChildAt(mid), e) < 0) {
+            lo = mid + 1;
+         }
+         else {
+            hi = mid;
          }
       }
-      all.addAll(files);
-      return all.toArray(new File[toSort.length]);
+      return lo;
+   }
+
+   //
+   // Removes the specified directory and the directories below from
+   // the loaded directories and returns if any was removed
+   private boolean removeLoaded(File f) {
+      boolean isRemoved = false;
+      Iterator<File> it = loadedDirs.keySet().iterator();
+      while (it.hasNext()) {
+         if (it.next().toPath().startsWith(f.toPath())) {
+            it.remove();
+            isRemoved = true;
+         }
+      }
+      return isRemoved;
+   }
+
+   private void notifyListingChanged() {
+      if (listingChanged != null) {
+         listingChanged.run();
+      }
    }
 
    private void openFile() {
@@ -224,6 +448,9 @@ public class FileTree {
                deleteFolder(selectedFile);
             }
             model.removeNodeFromParent(selectedNode);
+            if (removeLoaded(selectedFile)) {
+               notifyListingChanged();
+            }
          }
          catch (IOException e) {
             Dialogs.errorMessage(
@@ -270,9 +497,9 @@ public class FileTree {
       }
       boolean succes = newDir.mkdirs();
       if (succes) {
-         DefaultMutableTreeNode newNode = new DefaultMutableTreeNode(newDir);
-         model.insertNodeInto(newNode, selectedNode, 0);
-         tree.expandPath(tree.getSelectionPath());
+         FileNode node = (FileNode) selectedNode;
+         toExpand.add(node.file());
+         load(node);
          tree.clearSelection();
       }
       else {
@@ -284,25 +511,6 @@ public class FileTree {
       }
    }
 
-   private void setExpandedNodeList() {
-      expandedNodes = new ArrayList<>();
-      for (int i = 0; i < tree.getRowCount(); i++) {
-         if (tree.isExpanded(i)) {
-            expandedNodes.add(tree.getPathForRow(i));
-         }
-      }
-   }
-
-   private void expand() {
-      expandedNodes.forEach(treePath -> {
-         for (int i = 0; i < tree.getRowCount(); i++) {
-            if (treePath.toString().equals(tree.getPathForRow(i).toString())) {
-               tree.expandRow(i);
-            }
-         }
-      });
-   }
-
    private void setActions() {
       popupFile.setOpenAction(e -> openFile());
       popupFile.setDeleteAct(e -> delete());
@@ -310,38 +518,27 @@ public class FileTree {
       popupDir.setDeleteAct(e -> delete());
    }
 
-   private final TreeExpansionListener expansionListner
-         = new TreeExpansionListener() {
+   //
+   // Vetoes the expansion of a node whose children are not loaded yet
+   // and expands the node when they are loaded
+   private final TreeWillExpandListener expansionListener
+         = new TreeWillExpandListener() {
 
       @Override
-      public void treeExpanded(TreeExpansionEvent event) {
-         TreePath expPath = event.getPath();
-         DefaultMutableTreeNode node =
-               (DefaultMutableTreeNode) expPath.getLastPathComponent();
-
-         int n = model.getChildCount(node);
-         for (int i = 0; i < n; i++) {
-            DefaultMutableTreeNode childNode
-                  = (DefaultMutableTreeNode) model.getChild(node, i);
-
-            Object nodeInfo = childNode.getUserObject();
-            File f = (File) nodeInfo;
-            if (f.isDirectory() && childNode.isLeaf()) {
-               File[] fList = f.listFiles();
-               if (fList != null) {
-                  File[] fListSorted = sortedFiles(fList);
-                  for (File fs : fListSorted) {
-                     DefaultMutableTreeNode grandchild = new DefaultMutableTreeNode(fs);
-                     childNode.add(grandchild);
-                  }
-               }
-            }
+      public void treeWillExpand(TreeExpansionEvent event)
+            throws ExpandVetoException {
+
+         FileNode node = (FileNode) event.getPath().getLastPathComponent();
+         if (!node.isLoaded()) {
+            toExpand.add(node.file());
+            load(node);
+            throw new ExpandVetoException(event);
          }
       }
 
       @Override
-      public void treeCollapsed(TreeExpansionEvent event) {
-    	   // not used
+      public void treeWillCollapse(TreeExpansionEvent event) {
+         // not used
       }
    };
 
@@ -133,10 +133,12 @@ public class TreePanel {
 
         setForeground(theme.normalText());
         if (value instanceof DefaultMutableTreeNode) {
+           Object node = value;
            value = ((DefaultMutableTreeNode) value).getUserObject();
            if (value instanceof File) {
               File f = (File) value;
-              setIcon(fsv.getSystemIcon(f));
+              setIcon(node instanceof FileNode
+                    ? ((FileNode) node).icon(fsv) : fsv.getSystemIcon(f));
               setFont(ScreenParams.scaledFontToPlain(getFont(), 8));
               setText(f.getName());
            }
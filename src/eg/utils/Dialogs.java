@@ -1,10 +1,13 @@
 package eg.utils;
 
 import java.awt.BorderLayout;
+import java.awt.Font;
 
 import javax.swing.Icon;
 import javax.swing.JDialog;
 import javax.swing.JOptionPane;
+import javax.swing.JScrollPane;
+import javax.swing.JTextArea;
 import javax.swing.JTextField;
 import javax.swing.JPanel;
 import javax.swing.JLabel;
@@ -95,6 +98,30 @@ public class Dialogs {
             JOptionPane.YES_NO_OPTION, JOptionPane.PLAIN_MESSAGE);
    }
 
+   /**
+    * Shows a confirmation dialog with Yes and No options and a
+    * scrollable text below the message
+    *
+    * @param message  the message for the dialog
+    * @param details  the text that is shown below the message
+    * @return  the Yes or No option specified in <code>JOptionPane</code>
+    */
+   public static int confirmYesNo(String message, String details) {
+      JTextArea area = new JTextArea(details);
+      area.setEditable(false);
+      area.setFont(ScreenParams.scaledFontToPlain(
+            new Font(Font.MONOSPACED, Font.PLAIN, 1), 8));
+
+      area.setCaretPosition(0);
+      JScrollPane scroll = new JScrollPane(area);
+      scroll.setPreferredSize(ScreenParams.scaledDimension(500, 300));
+      JPanel pnl = new JPanel(new BorderLayout(0, 5));
+      pnl.add(new JLabel(message), BorderLayout.NORTH);
+      pnl.add(scroll, BorderLayout.CENTER);
+      return JOptionPane.showConfirmDialog(null, pnl, null,
+            JOptionPane.YES_NO_OPTION, JOptionPane.PLAIN_MESSAGE);
+   }
+
    /**
     * Shows an info kind of confirmation dialog with Yes and No options
     *
@@ -1,5 +1,8 @@
 package eg.utils;
 
+//--Eadgyth--/
+import eg.document.styledtext.PieceTable;
+
 /**
  * Static methods to search for lines and line parameters
  */
@@ -15,7 +18,7 @@ public class LinesFinder {
     * @param pos  the pos
     * @return  the line
     */
-   public static String lineAtPos(String text, int pos) {
+   public static String lineAtPos(CharSequence text, int pos) {
       int lastNewline = LinesFinder.lastNewline(text, pos);
       return line(text, lastNewline);
    }
@@ -29,14 +32,14 @@ public class LinesFinder {
     * @return  the line
     * @see #lastNewline
     */
-   public static String line(String text, int lastNewline) {
+   public static String line(CharSequence text, int lastNewline) {
       if (text.length() == 0) {
-         return text;
+         return "";
       }
       else {
          int start = lastNewline + 1;
          int lineEnd = LinesFinder.nextNewline(text, start);
-         return text.substring(start, lineEnd);
+         return text.subSequence(start, lineEnd).toString();
       }
    }
 
@@ -51,9 +54,9 @@ public class LinesFinder {
     * @return  the line or lines
     * @see #lastNewline
     */
-   public static String lines(String text, int lastNewline, int length) {
+   public static String lines(CharSequence text, int lastNewline, int length) {
       int linesEnd = LinesFinder.nextNewline(text, lastNewline + length);
-      return text.substring(lastNewline + 1, linesEnd);
+      return text.subSequence(lastNewline + 1, linesEnd).toString();
    }
 
    /**
@@ -64,10 +67,10 @@ public class LinesFinder {
     * @param pos  the position
     * @return  the last newline position, -1 if the line is the first line
     */
-   public static int lastNewline(String text, int pos) {
-      int i = text.lastIndexOf(NEW_LINE, pos);
+   public static int lastNewline(CharSequence text, int pos) {
+      int i = lastIndexOf(text, pos);
       if (i == pos) {
-         i = text.lastIndexOf(NEW_LINE, pos - 1);
+         i = lastIndexOf(text, pos - 1);
       }
       return i;
    }
@@ -82,8 +85,8 @@ public class LinesFinder {
     * @return  the position of the next newline character. The length
     * of text if no newline character is found
     */
-   public static int nextNewline(String text, int pos) {
-      int i = text.indexOf(NEW_LINE, pos);
+   public static int nextNewline(CharSequence text, int pos) {
+      int i = indexOf(text, pos);
       if (i == -1) {
          i = text.length();
       }
@@ -97,11 +100,11 @@ public class LinesFinder {
     * @param pos  the position
     * @return  the number
     */
-   public static int lineNrAtPos(String text, int pos) {
+   public static int lineNrAtPos(CharSequence text, int pos) {
       int count = 0;
       int i = 0;
       while (i != -1) {
-         i = text.indexOf(NEW_LINE, i);
+         i = indexOf(text, i);
          if (i != -1) {
             if (i >= pos) {
                break;
@@ -119,11 +122,11 @@ public class LinesFinder {
     * @param text  the text
     * @return  the line number
     */
-   public static int lineCount(String text) {
+   public static int lineCount(CharSequence text) {
       int count = 1;
       int i = 0;
       while (i != -1) {
-         i = text.indexOf(NEW_LINE, i);
+         i = indexOf(text, i);
          if (i != -1) {
             count++;
             i++;
@@ -139,13 +142,43 @@ public class LinesFinder {
     * @param text  the text
     * @return  the boolean value; true if multiline
     */
-   public static boolean isMultiline(String text) {
-      return text.length() > 1 && text.indexOf(NEW_LINE) > -1;
+   public static boolean isMultiline(CharSequence text) {
+      return text.length() > 1 && indexOf(text, 0) > -1;
    }
 
    //
    //--private--/
    //
 
+   private static int indexOf(CharSequence text, int pos) {
+      if (text instanceof String) {
+         return ((String) text).indexOf(NEW_LINE, pos);
+      }
+      if (text instanceof PieceTable) {
+         return ((PieceTable) text).indexOf(NEW_LINE, pos);
+      }
+      for (int i = Math.max(pos, 0); i < text.length(); i++) {
+         if (text.charAt(i) == NEW_LINE) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
+   private static int lastIndexOf(CharSequence text, int pos) {
+      if (text instanceof String) {
+         return ((String) text).lastIndexOf(NEW_LINE, pos);
+      }
+      if (text instanceof PieceTable) {
+         return ((PieceTable) text).lastIndexOf(NEW_LINE, pos);
+      }
+      for (int i = Math.min(pos, text.length() - 1); i >= 0; i--) {
+         if (text.charAt(i) == NEW_LINE) {
+            return i;
+         }
+      }
+      return -1;
+   }
+
    private LinesFinder() {}
 }
@@ -0,0 +1,138 @@
+package eg.document;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link FileFormat}
+ */
+public class FileFormatTest {
+
+   @Test
+   public void utf8WithoutBom() {
+      FileFormat ff = detect("a\nb\r\nc\nü".getBytes(StandardCharsets.UTF_8),
+            true);
+
+      assertEquals(StandardCharsets.UTF_8, ff.charset());
+      assertEquals(0, ff.bom().length);
+      assertEquals("\n", ff.lineSeparator());
+      assertTrue(ff.isFinalLineSeparator());
+   }
+
+   @Test
+   public void boms() {
+      FileFormat ff = detect(new byte[] {(byte) 0xef, (byte) 0xbb,
+            (byte) 0xbf, 'a', '\r', '\n'}, true);
+
+      assertEquals(StandardCharsets.UTF_8, ff.charset());
+      assertEquals(3, ff.bom().length);
+      assertEquals("\r\n", ff.lineSeparator());
+
+      ff = detect(new byte[] {(byte) 0xfe, (byte) 0xff, 0, 'a', 0, '\r'},
+            true);
+
+      assertEquals(StandardCharsets.UTF_16BE, ff.charset());
+      assertEquals("\r", ff.lineSeparator());
+
+      ff = detect(new byte[] {(byte) 0xff, (byte) 0xfe, '\n', 0}, true);
+      assertEquals(StandardCharsets.UTF_16LE, ff.charset());
+      assertArrayEquals(new byte[] {(byte) 0xff, (byte) 0xfe}, ff.bom());
+      assertEquals("\n", ff.lineSeparator());
+   }
+
+   @Test
+   public void invalidUtf8IsLatin1() {
+      FileFormat ff = detect("café\r\n".getBytes(StandardCharsets.ISO_8859_1),
+            true);
+
+      assertEquals(StandardCharsets.ISO_8859_1, ff.charset());
+      assertEquals("\r\n", ff.lineSeparator());
+   }
+
+   @Test
+   public void sequenceCutOffInIncompleteSampleIsUtf8() {
+      byte[] b = "aé".getBytes(StandardCharsets.UTF_8);
+      byte[] cut = {b[0], b[1]};
+      assertEquals(StandardCharsets.UTF_8, detect(cut, false).charset());
+      assertEquals(StandardCharsets.ISO_8859_1, detect(cut, true).charset());
+   }
+
+   @Test
+   public void noLineSeparatorIsSystemSeparator() {
+      assertEquals(System.lineSeparator(),
+            detect("abc".getBytes(StandardCharsets.UTF_8), true)
+                  .lineSeparator());
+   }
+
+   @Test
+   public void sampleIsNotConsumed() {
+      ByteBuffer bb = ByteBuffer.wrap("abc\n".getBytes(StandardCharsets.UTF_8));
+      FileFormat.detect(bb, true);
+      assertEquals(0, bb.position());
+   }
+
+   @Test
+   public void detectFile() throws IOException {
+      File f = File.createTempFile("format", ".txt");
+      try {
+         Files.write(f.toPath(), "x\r\ny\r\n".getBytes(StandardCharsets.UTF_8));
+         FileFormat ff = FileFormat.detect(f);
+         assertEquals(StandardCharsets.UTF_8, ff.charset());
+         assertEquals("\r\n", ff.lineSeparator());
+      }
+      finally {
+         f.delete();
+      }
+   }
+
+   @Test
+   public void withCharsetRemovesBom() {
+      FileFormat ff = detect(new byte[] {(byte) 0xef, (byte) 0xbb,
+            (byte) 0xbf, 'a', '\r', '\n'}, true);
+
+      FileFormat changed = ff.withCharset(StandardCharsets.UTF_16LE)
+            .withFinalLineSeparator(false);
+
+      assertEquals(StandardCharsets.UTF_16LE, changed.charset());
+      assertEquals(0, changed.bom().length);
+      assertEquals("\r\n", changed.lineSeparator());
+      assertFalse(changed.isFinalLineSeparator());
+      assertTrue(ff.isFinalLineSeparator());
+   }
+
+   @Test(expected = CharacterCodingException.class)
+   public void utf8DecoderReportsMalformedInput()
+         throws CharacterCodingException {
+
+      FileFormat.DEFAULT.newDecoder().decode(
+            ByteBuffer.wrap(new byte[] {'a', (byte) 0xe9}));
+   }
+
+   @Test
+   public void latin1DecoderReadsAnyByte() throws CharacterCodingException {
+      FileFormat ff = detect(new byte[] {'a', (byte) 0xe9}, true);
+      assertEquals("aé",
+            ff.newDecoder().decode(ByteBuffer.wrap(new byte[] {'a',
+                  (byte) 0xe9})).toString());
+   }
+
+   //
+   //--private--/
+   //
+
+   private FileFormat detect(byte[] b, boolean isComplete) {
+      return FileFormat.detect(ByteBuffer.wrap(b), isComplete);
+   }
+}
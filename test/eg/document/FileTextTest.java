@@ -0,0 +1,77 @@
+package eg.document;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link FileText}. A changed text must be written back in
+ * the format of the decoded bytes.
+ */
+public class FileTextTest {
+
+   @Test
+   public void lineSeparatorsAreNewlines() {
+      assertEquals("a\nb\nc\n", decode("a\r\nb\rc".getBytes(
+            StandardCharsets.UTF_8)).text());
+      assertEquals("", decode(new byte[0]).text());
+   }
+
+   @Test
+   public void latin1IsDecoded() {
+      assertEquals("café\n", decode("café".getBytes(
+            StandardCharsets.ISO_8859_1)).text());
+   }
+
+   @Test
+   public void malformedUtf8AfterSampleIsLatin1() {
+      byte[] b = new byte[FileFormat.SAMPLE_LENGTH + 2];
+      Arrays.fill(b, (byte) 'a');
+      b[b.length - 1] = (byte) 0xe9;
+      String text = decode(b).text();
+      assertEquals(b.length + 1, text.length());
+      assertEquals('é', text.charAt(b.length - 1));
+   }
+
+   @Test
+   public void writeKeepsFormat() throws IOException {
+      byte[] bom = {(byte) 0xff, (byte) 0xfe};
+      byte[] content = "ä\r\nb".getBytes(StandardCharsets.UTF_16LE);
+      byte[] b = new byte[bom.length + content.length];
+      System.arraycopy(bom, 0, b, 0, bom.length);
+      System.arraycopy(content, 0, b, bom.length, content.length);
+      FileText ft = decode(b);
+      assertEquals("ä\nb\n", ft.text());
+
+      File f = File.createTempFile("filetext", ".txt");
+      try {
+         ft.write(f, "ä\nc\n");
+         byte[] changed = "ä\r\nc".getBytes(StandardCharsets.UTF_16LE);
+         byte[] expected = new byte[bom.length + changed.length];
+         System.arraycopy(bom, 0, expected, 0, bom.length);
+         System.arraycopy(changed, 0, expected, bom.length, changed.length);
+         assertArrayEquals(expected, Files.readAllBytes(f.toPath()));
+      }
+      finally {
+         f.delete();
+      }
+   }
+
+   //
+   //--private--/
+   //
+
+   private FileText decode(byte[] b) {
+      return FileText.decode(ByteBuffer.wrap(b));
+   }
+}
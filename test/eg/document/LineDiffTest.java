@@ -0,0 +1,131 @@
+package eg.document;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+//--Eadgyth--/
+import eg.document.styledtext.EditSpans;
+
+/**
+ * Tests of {@link LineDiff}. The spans applied to the old text must
+ * give the new text and the number of changed lines is compared with
+ * the length of the longest common subsequence of lines.
+ */
+public class LineDiffTest {
+
+   @Test
+   public void equalTexts() {
+      assertEquals(0, LineDiff.spans("a\nb\n", "a\nb\n").size());
+   }
+
+   @Test
+   public void changedLine() {
+      String oldText = "a\nb\nc\n";
+      String newText = "a\nx\nc\n";
+      EditSpans es = LineDiff.spans(oldText, newText);
+      assertEquals(1, es.size());
+      assertEquals(2, es.start(0));
+      assertEquals(4, es.end(0));
+      assertEquals("x\n", es.text(0));
+   }
+
+   @Test
+   public void insertedAndRemovedLines() {
+      String oldText = "a\nb\nc\nd\n";
+      String newText = "a\nnew\nb\nd\n";
+      EditSpans es = LineDiff.spans(oldText, newText);
+      assertEquals(2, es.size());
+      assertEquals(newText, apply(oldText, es));
+   }
+
+   @Test
+   public void lastLineWithoutNewline() {
+      String oldText = "a\nb";
+      String newText = "a\nb\nc";
+      assertEquals(newText, apply(oldText, LineDiff.spans(oldText, newText)));
+      assertEquals(oldText, apply(newText, LineDiff.spans(newText, oldText)));
+      assertEquals("x", apply("", LineDiff.spans("", "x")));
+      assertEquals("", apply("x\n", LineDiff.spans("x\n", "")));
+   }
+
+   @Test
+   public void manyEditsReplaceLinesAsWhole() {
+      StringBuilder oldText = new StringBuilder("first\n");
+      StringBuilder newText = new StringBuilder("first\n");
+      for (int i = 0; i < LineDiff.MAX_EDITS; i++) {
+         oldText.append("old ").append(i).append('\n');
+         newText.append("new ").append(i).append('\n');
+      }
+      oldText.append("last\n");
+      newText.append("last\n");
+      EditSpans es = LineDiff.spans(oldText.toString(), newText.toString());
+      assertEquals(1, es.size());
+      assertEquals(6, es.start(0));
+      assertEquals(oldText.length() - 5, es.end(0));
+      assertEquals(newText.toString(), apply(oldText.toString(), es));
+   }
+
+   @Test
+   public void randomTextsGiveShortestDiff() {
+      Random r = new Random(6);
+      for (int run = 0; run < 300; run++) {
+         String[] a = randomLines(r);
+         String[] b = randomLines(r);
+         String oldText = String.join("", a);
+         String newText = String.join("", b);
+         EditSpans es = LineDiff.spans(oldText, newText);
+         assertEquals(newText, apply(oldText, es));
+         assertEquals(a.length + b.length - 2 * lcs(a, b),
+               changedLines(es));
+      }
+   }
+
+   //
+   //--private--/
+   //
+
+   private String apply(String oldText, EditSpans es) {
+      StringBuilder sb = new StringBuilder();
+      int pos = 0;
+      for (int i = 0; i < es.size(); i++) {
+         sb.append(oldText, pos, es.start(i));
+         sb.append(es.text(i));
+         pos = es.end(i);
+      }
+      sb.append(oldText, pos, oldText.length());
+      return sb.toString();
+   }
+
+   private String[] randomLines(Random r) {
+      String[] lines = new String[r.nextInt(12)];
+      for (int i = 0; i < lines.length; i++) {
+         lines[i] = (char) ('a' + r.nextInt(4)) + "\n";
+      }
+      return lines;
+   }
+
+   //
+   // The number of removed and inserted lines where each line is one
+   // character and '\n'
+   private int changedLines(EditSpans es) {
+      int n = 0;
+      for (int i = 0; i < es.size(); i++) {
+         n += (es.end(i) - es.start(i)) / 2 + es.text(i).length() / 2;
+      }
+      return n;
+   }
+
+   private int lcs(String[] a, String[] b) {
+      int[][] l = new int[a.length + 1][b.length + 1];
+      for (int i = a.length - 1; i >= 0; i--) {
+         for (int j = b.length - 1; j >= 0; j--) {
+            l[i][j] = a[i].equals(b[j]) ? l[i + 1][j + 1] + 1
+                  : Math.max(l[i + 1][j], l[i][j + 1]);
+         }
+      }
+      return l[0][0];
+   }
+}
@@ -0,0 +1,197 @@
+package eg.document;
+
+import java.awt.EventQueue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import java.nio.file.Files;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link UndoJournal}. A journal is written for a temporary
+ * file and replayed by a new journal for the same file. The journal
+ * is kept in a temporary directory that is deleted after each test.
+ */
+public class UndoJournalTest {
+
+   private static final long TIMEOUT = 5000;
+
+   private File file;
+   private File dir;
+   private File journalFile;
+
+   @Before
+   public void createFile() throws IOException {
+      file = File.createTempFile("journal", ".txt");
+      dir = Files.createTempDirectory("undo").toFile();
+      journalFile = new File(dir,
+            Long.toHexString(UndoJournal.hash(file.getAbsolutePath()))
+            + ".journal");
+   }
+
+   @After
+   public void deleteFiles() {
+      file.delete();
+      journalFile.delete();
+      dir.delete();
+   }
+
+   @Test
+   public void hash() {
+      long h = UndoJournal.HASH_BASIS;
+      for (char c : "text".toCharArray()) {
+         h = UndoJournal.hash(h, c);
+      }
+      assertEquals(UndoJournal.hash("text"), h);
+      assertEquals(UndoJournal.HASH_BASIS, UndoJournal.hash(""));
+      assertFalse(UndoJournal.hash("ab") == UndoJournal.hash("ba"));
+   }
+
+   @Test
+   public void replayRecords() throws Exception {
+      onEdt(() -> {
+         UndoJournal j = newJournal();
+         j.saved(-1, UndoJournal.hash("saved"));
+         j.add("abc", 5, true);
+         j.breakpoint(0);
+         j.add("é\n", 2, false);
+         j.removeEnd(0);
+         j.cut(1);
+         j.saved(0);
+         j.close();
+      });
+      UndoJournal.awaitWriting(TIMEOUT);
+      Recording rec = new Recording();
+      assertTrue(replay("saved", rec));
+      assertEquals("[saved -1, add abc 5 true, breakpoint 0, add é\n 2 false,"
+            + " removeEnd 0, cut 1, saved 0]", rec.records.toString());
+   }
+
+   @Test
+   public void notRestorableForChangedText() throws Exception {
+      onEdt(() -> {
+         UndoJournal j = newJournal();
+         j.saved(-1, UndoJournal.hash("saved"));
+         j.add("abc", 0, true);
+         j.close();
+      });
+      UndoJournal.awaitWriting(TIMEOUT);
+      assertFalse(replay("changed", new Recording()));
+   }
+
+   @Test
+   public void notRestorableWithoutSavingPoint() throws Exception {
+      onEdt(() -> {
+         UndoJournal j = newJournal();
+         j.add("abc", 0, true);
+         j.saved(0);
+         j.close();
+      });
+      UndoJournal.awaitWriting(TIMEOUT);
+      assertFalse(replay("", new Recording()));
+   }
+
+   @Test
+   public void notRestorableWithoutJournalFile() throws Exception {
+      assertFalse(replay("", new Recording()));
+   }
+
+   @Test
+   public void incompleteLastRecordIsIgnored() throws Exception {
+      onEdt(() -> {
+         UndoJournal j = newJournal();
+         j.saved(-1, UndoJournal.hash(""));
+         j.add("abc", 0, true);
+         j.close();
+      });
+      UndoJournal.awaitWriting(TIMEOUT);
+      try (FileOutputStream out = new FileOutputStream(journalFile, true)) {
+         out.write(new byte[] {1, 0, 0});
+      }
+      Recording rec = new Recording();
+      assertTrue(replay("", rec));
+      assertEquals("[saved -1, add abc 0 true]", rec.records.toString());
+   }
+
+   @Test
+   public void resetReplacesContent() throws Exception {
+      onEdt(() -> {
+         UndoJournal j = newJournal();
+         j.saved(-1, UndoJournal.hash(""));
+         j.add("abc", 0, true);
+         j.close();
+         j.reset();
+         j.saved(-1, UndoJournal.hash(""));
+         j.add("xyz", 0, true);
+         j.close();
+      });
+      UndoJournal.awaitWriting(TIMEOUT);
+      Recording rec = new Recording();
+      assertTrue(replay("", rec));
+      assertEquals("[saved -1, add xyz 0 true]", rec.records.toString());
+   }
+
+   //
+   //--private--/
+   //
+
+   private UndoJournal newJournal() {
+      return new UndoJournal(file, dir, Long.MAX_VALUE, () -> {});
+   }
+
+   private boolean replay(String text, UndoJournal.Replay r)
+         throws Exception {
+
+      CompletableFuture<Boolean> result = new CompletableFuture<>();
+      onEdt(() -> newJournal().replay(text, r, result::complete));
+      return result.get(TIMEOUT, TimeUnit.MILLISECONDS);
+   }
+
+   private void onEdt(Runnable r) throws Exception {
+      EventQueue.invokeAndWait(r);
+   }
+
+   private static class Recording implements UndoJournal.Replay {
+
+      private final List<String> records = new ArrayList<>();
+
+      @Override
+      public void add(String content, int pos, boolean isInsert) {
+         records.add("add " + content + " " + pos + " " + isInsert);
+      }
+
+      @Override
+      public void breakpoint(int index) {
+         records.add("breakpoint " + index);
+      }
+
+      @Override
+      public void removeEnd(int index) {
+         records.add("removeEnd " + index);
+      }
+
+      @Override
+      public void cut(int length) {
+         records.add("cut " + length);
+      }
+
+      @Override
+      public void saved(int index) {
+         records.add("saved " + index);
+      }
+   }
+}
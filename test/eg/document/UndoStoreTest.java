@@ -0,0 +1,122 @@
+package eg.document;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link UndoStore}. The stored edits are compared with
+ * the edits kept in a list.
+ */
+public class UndoStoreTest {
+
+   @Test
+   public void addAndRead() {
+      UndoStore store = new UndoStore();
+      store.add("abc", 4, true);
+      store.add("", 0, false);
+      store.add("x\ny", 10, false);
+      assertEquals(3, store.size());
+      assertEquals("abc", store.content(0));
+      assertEquals(4, store.pos(0));
+      assertTrue(store.isInsert(0));
+      assertEquals("", store.content(1));
+      assertEquals("x\ny", store.content(2));
+      assertEquals(3, store.length(2));
+      assertEquals(10, store.pos(2));
+      assertFalse(store.isInsert(2));
+   }
+
+   @Test
+   public void removeLastAndFirst() {
+      UndoStore store = new UndoStore();
+      for (int i = 0; i < 5; i++) {
+         store.add("e" + i, i, i % 2 == 0);
+      }
+      store.removeLast();
+      store.removeFirst(2);
+      assertEquals(2, store.size());
+      assertEquals("e2", store.content(0));
+      assertEquals("e3", store.content(1));
+      store.add("e5", 5, false);
+      assertEquals("e5", store.content(2));
+      store.removeFirst(3);
+      assertEquals(0, store.size());
+      assertEquals(0, store.usedBytes());
+   }
+
+   @Test
+   public void usedBytes() {
+      UndoStore store = new UndoStore();
+      store.add("abcd", 0, true);
+      long perEdit = store.usedBytes() - 8;
+      store.add("ef", 0, true);
+      assertEquals(12 + 2 * perEdit, store.usedBytes());
+      store.removeFirst(1);
+      assertEquals(4 + perEdit, store.usedBytes());
+   }
+
+   @Test
+   public void arenaShrinksWhenMuchLargerThanNeeded() {
+      UndoStore store = new UndoStore();
+      char[] large = new char[100000];
+      store.add(new String(large), 0, true);
+      long grown = store.memoryUse();
+      //
+      // the arena is shrunk when it is full
+      for (int i = 0; i < 20000; i++) {
+         store.add("small edit", i, true);
+         store.removeFirst(1);
+      }
+      assertEquals(1, store.size());
+      assertTrue(store.memoryUse() < grown / 4);
+   }
+
+   @Test
+   public void randomEditsMatchList() {
+      Random r = new Random(4);
+      UndoStore store = new UndoStore();
+      List<String> contents = new ArrayList<>();
+      List<Integer> positions = new ArrayList<>();
+      for (int i = 0; i < 20000; i++) {
+         int op = r.nextInt(10);
+         if (op < 6 || contents.isEmpty()) {
+            StringBuilder sb = new StringBuilder();
+            int len = r.nextInt(5) == 0 ? r.nextInt(3000) : r.nextInt(20);
+            for (int j = 0; j < len; j++) {
+               sb.append((char) ('a' + r.nextInt(26)));
+            }
+            store.add(sb.toString(), i, i % 3 == 0);
+            contents.add(sb.toString());
+            positions.add(i);
+         }
+         else if (op < 8) {
+            store.removeLast();
+            contents.remove(contents.size() - 1);
+            positions.remove(positions.size() - 1);
+         }
+         else {
+            int n = 1 + r.nextInt(contents.size());
+            store.removeFirst(n);
+            contents.subList(0, n).clear();
+            positions.subList(0, n).clear();
+         }
+         assertEquals(contents.size(), store.size());
+         if (!contents.isEmpty()) {
+            int k = r.nextInt(contents.size());
+            assertEquals(contents.get(k), store.content(k));
+            assertEquals((int) positions.get(k), store.pos(k));
+            assertEquals(positions.get(k) % 3 == 0, store.isInsert(k));
+         }
+      }
+      for (int k = 0; k < contents.size(); k++) {
+         assertEquals(contents.get(k), store.content(k));
+      }
+   }
+}
@@ -0,0 +1,122 @@
+package eg.document.styledtext;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link EditSpans}. The spans applied to the original text
+ * are compared with the same edits in a <code>StringBuilder</code>.
+ */
+public class EditSpansTest {
+
+   @Test
+   public void typingIsOneSpan() {
+      EditSpans es = new EditSpans();
+      String s = "int x;";
+      for (int i = 0; i < s.length(); i++) {
+         es.insert(10 + i, s.substring(i, i + 1));
+      }
+      assertEquals(1, es.size());
+      assertEquals(10, es.start(0));
+      assertEquals(10, es.end(0));
+      assertEquals("int x;", es.text(0));
+   }
+
+   @Test
+   public void removalsBehindEachOtherAreOneSpan() {
+      EditSpans es = new EditSpans();
+      for (int i = 0; i < 5; i++) {
+         es.remove(20 - i, 1);
+      }
+      assertEquals(1, es.size());
+      assertEquals(16, es.start(0));
+      assertEquals(21, es.end(0));
+      assertEquals("", es.text(0));
+   }
+
+   @Test
+   public void removalOfInsertionLeavesNoSpan() {
+      EditSpans es = new EditSpans();
+      es.insert(3, "abc");
+      es.remove(3, 3);
+      assertEquals(0, es.size());
+   }
+
+   @Test
+   public void removalMergesSpans() {
+      String original = "0123456789";
+      StringBuilder sb = new StringBuilder(original);
+      EditSpans es = new EditSpans();
+      insert(es, sb, 2, "ab");
+      insert(es, sb, 8, "cd");
+      assertEquals(2, es.size());
+      remove(es, sb, 3, 5);
+      assertEquals(1, es.size());
+      assertEquals(sb.toString(), apply(original, es));
+   }
+
+   @Test
+   public void randomEditsMatchStringBuilder() {
+      Random r = new Random(5);
+      for (int run = 0; run < 50; run++) {
+         StringBuilder orig = new StringBuilder();
+         for (int i = 0; i < 200; i++) {
+            orig.append((char) ('a' + r.nextInt(26)));
+         }
+         String original = orig.toString();
+         StringBuilder sb = new StringBuilder(original);
+         EditSpans es = new EditSpans();
+         for (int i = 0; i < 300; i++) {
+            //
+            // edits near the previous edit alternate with jumps
+            int pos = i % 7 == 0 || sb.length() < 40
+                  ? r.nextInt(sb.length() + 1)
+                  : Math.min(sb.length(), 20 + r.nextInt(20));
+
+            if (r.nextBoolean() || sb.length() == 0) {
+               insert(es, sb, pos, "xyz".substring(r.nextInt(3)));
+            }
+            else {
+               remove(es, sb, pos,
+                     r.nextInt(Math.min(30, sb.length() - pos) + 1));
+            }
+            assertEquals(sb.toString(), apply(original, es));
+         }
+      }
+   }
+
+   //
+   //--private--/
+   //
+
+   private void insert(EditSpans es, StringBuilder sb, int pos, String s) {
+      es.insert(pos, s);
+      sb.insert(pos, s);
+   }
+
+   private void remove(EditSpans es, StringBuilder sb, int pos, int len) {
+      es.remove(pos, len);
+      sb.delete(pos, pos + len);
+   }
+
+   //
+   // Replaces the sections of the original text by the spans and
+   // asserts that the spans are sorted and neither overlap nor touch
+   private String apply(String original, EditSpans es) {
+      StringBuilder res = new StringBuilder();
+      int pos = 0;
+      for (int i = 0; i < es.size(); i++) {
+         assertTrue("span " + i, es.start(i) <= es.end(i));
+         assertTrue("span " + i, i == 0 || es.start(i) > es.end(i - 1));
+         res.append(original, pos, es.start(i));
+         res.append(es.text(i));
+         pos = es.end(i);
+      }
+      res.append(original, pos, original.length());
+      return res.toString();
+   }
+}
@@ -0,0 +1,113 @@
+package eg.document.styledtext;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@link LineIndex}. The index is compared with the lines
+ * found by a search in the text.
+ */
+public class LineIndexTest {
+
+   @Test
+   public void setText() {
+      LineIndex li = new LineIndex();
+      li.setText("ab\ncd\n\nef");
+      assertEquals(4, li.lineCount());
+      assertEquals(0, li.lineStart(1));
+      assertEquals(3, li.lineStart(2));
+      assertEquals(6, li.lineStart(3));
+      assertEquals(7, li.lineStart(4));
+      assertEquals(1, li.lineNrAtPos(2));
+      assertEquals(2, li.lineNrAtPos(3));
+      assertEquals(4, li.lineNrAtPos(9));
+      assertEquals(-1, li.lastNewline(2));
+      assertEquals(5, li.lastNewline(6));
+   }
+
+   @Test
+   public void emptyText() {
+      LineIndex li = new LineIndex();
+      li.setText("");
+      assertEquals(1, li.lineCount());
+      assertEquals(0, li.lineStart(1));
+      assertEquals(1, li.lineNrAtPos(0));
+   }
+
+   @Test(expected = IndexOutOfBoundsException.class)
+   public void lineStartOutOfRange() {
+      LineIndex li = new LineIndex();
+      li.setText("a\nb");
+      li.lineStart(3);
+   }
+
+   @Test
+   public void insertAndRemove() {
+      LineIndex li = new LineIndex();
+      li.setText("a\nb");
+      li.insert(1, "x\ny\n");
+      // "ax\ny\n\nb"
+      assertEquals(4, li.lineCount());
+      assertEquals(5, li.lineStart(3));
+      li.remove(0, 3);
+      // "y\n\nb"
+      assertEquals(3, li.lineCount());
+      assertEquals(2, li.lineStart(2));
+      assertEquals(3, li.lineStart(3));
+   }
+
+   @Test
+   public void randomEditsMatchText() {
+      Random r = new Random(2);
+      LineIndex li = new LineIndex();
+      StringBuilder sb = new StringBuilder("first\nsecond\n\nfourth");
+      li.setText(sb);
+      String[] inserts = {"\n", "ab", "c\nd", "\n\n", "efg\n"};
+      for (int i = 0; i < 3000; i++) {
+         //
+         // edits are clustered to exercise the pending shift
+         int pos = i % 50 < 40 && sb.length() > 0
+               ? Math.min(sb.length(), r.nextInt(20))
+               : r.nextInt(sb.length() + 1);
+
+         if (r.nextInt(3) > 0 || sb.length() == 0) {
+            String s = inserts[r.nextInt(inserts.length)];
+            sb.insert(pos, s);
+            li.insert(pos, s);
+         }
+         else {
+            int len = r.nextInt(Math.min(6, sb.length() - pos) + 1);
+            sb.delete(pos, pos + len);
+            li.remove(pos, len);
+         }
+         if (i % 100 == 0) {
+            assertMatches(sb.toString(), li);
+         }
+      }
+      assertMatches(sb.toString(), li);
+   }
+
+   //
+   //--private--/
+   //
+
+   private void assertMatches(String text, LineIndex li) {
+      int lineNr = 1;
+      int lineStart = 0;
+      for (int pos = 0; pos <= text.length(); pos++) {
+         assertEquals("line at " + pos, lineNr, li.lineNrAtPos(pos));
+         assertEquals("last newline before " + pos, lineStart - 1,
+               li.lastNewline(pos));
+
+         if (pos < text.length() && text.charAt(pos) == '\n') {
+            lineNr++;
+            lineStart = pos + 1;
+            assertEquals(lineStart, li.lineStart(lineNr));
+         }
+      }
+      assertEquals(lineNr, li.lineCount());
+   }
+}
@@ -0,0 +1,158 @@
+package eg.document.styledtext;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link PieceTable}. Edits are compared with the same edits
+ * in a <code>StringBuilder</code>.
+ */
+public class PieceTableTest {
+
+   @Test
+   public void insertAndRemove() {
+      PieceTable pt = new PieceTable();
+      pt.setText("hello world");
+      pt.insert(5, ",");
+      pt.insert(pt.length(), "!");
+      pt.insert(0, ">");
+      assertEquals(">hello, world!", pt.toString());
+      pt.remove(1, 7);
+      assertEquals(">world!", pt.toString());
+      pt.remove(0, pt.length());
+      assertEquals("", pt.toString());
+      assertEquals(0, pt.length());
+   }
+
+   @Test
+   public void readAcrossPieces() {
+      PieceTable pt = new PieceTable();
+      pt.setText("abcabc");
+      pt.insert(3, "xyz");
+      assertEquals('x', pt.charAt(3));
+      assertEquals("cxyza", pt.subSequence(2, 7));
+      assertEquals(3, pt.indexOf("xyz", 0));
+      assertEquals(6, pt.indexOf('a', 1));
+      assertEquals(6, pt.indexOf("abc", 1));
+      assertEquals(0, pt.lastIndexOf("abc", 5));
+      assertEquals(5, pt.lastIndexOf('z', pt.length()));
+      assertEquals(-1, pt.indexOf("zz", 0));
+      assertEquals(-1, pt.lastIndexOf('q', pt.length()));
+   }
+
+   @Test(expected = IndexOutOfBoundsException.class)
+   public void charAtOutOfRange() {
+      PieceTable pt = new PieceTable();
+      pt.setText("abc");
+      pt.charAt(3);
+   }
+
+   @Test(expected = IndexOutOfBoundsException.class)
+   public void removeOutOfRange() {
+      PieceTable pt = new PieceTable();
+      pt.setText("abc");
+      pt.remove(2, 2);
+   }
+
+   @Test
+   public void versionChangesWithEdits() {
+      PieceTable pt = new PieceTable();
+      pt.setText("abc");
+      PieceTable.Snapshot snap = pt.snapshot();
+      assertFalse(pt.isChangedSince(snap));
+      pt.insert(1, "");
+      assertFalse(pt.isChangedSince(snap));
+      pt.insert(1, "x");
+      assertTrue(pt.isChangedSince(snap));
+   }
+
+   @Test
+   public void snapshotOfOtherTableIsChanged() {
+      PieceTable pt = new PieceTable();
+      PieceTable other = new PieceTable();
+      pt.setText("abc");
+      other.setText("abc");
+      assertTrue(pt.isChangedSince(other.snapshot()));
+   }
+
+   @Test
+   public void snapshotIsUnchangedByLaterEdits() {
+      PieceTable pt = new PieceTable();
+      pt.setText("abcdef");
+      pt.insert(3, "123");
+      PieceTable.Snapshot snap = pt.snapshot();
+      pt.remove(0, 4);
+      pt.insert(2, "long insertion that lets the buffer grow");
+      assertEquals("abc123def", snap.toString());
+      assertEquals("c12", snap.subSequence(2, 5));
+      assertEquals('d', snap.charAt(6));
+   }
+
+   @Test
+   public void snapshotRegionMatches() {
+      PieceTable pt = new PieceTable();
+      pt.setText("one two three");
+      pt.insert(4, "and ");
+      PieceTable.Snapshot before = pt.snapshot();
+      pt.insert(0, "X");
+      PieceTable.Snapshot after = pt.snapshot();
+      assertTrue(before.regionMatches(0, after, 1, before.length()));
+      assertFalse(before.regionMatches(0, after, 0, 2));
+      assertFalse(before.regionMatches(0, after, 1, before.length() + 1));
+
+      PieceTable other = new PieceTable();
+      other.setText("Xone and two three");
+      assertTrue(after.regionMatches(0, other.snapshot(), 0, after.length()));
+   }
+
+   @Test
+   public void bufferMuchLongerThanTextIsCompacted() {
+      PieceTable pt = new PieceTable();
+      pt.setText("start\n");
+      String s = "0123456789";
+      int maxAdded = 0;
+      for (int i = 0; i < 2 * PieceTable.MIN_ADDED_COMPACTED / 10; i++) {
+         pt.insert(3, s);
+         pt.remove(3, s.length());
+         maxAdded = Math.max(maxAdded, pt.addedLength());
+      }
+      assertEquals("start\n", pt.toString());
+      assertTrue(maxAdded <= PieceTable.MIN_ADDED_COMPACTED + s.length());
+   }
+
+   @Test
+   public void randomEditsMatchStringBuilder() {
+      Random r = new Random(1);
+      PieceTable pt = new PieceTable();
+      StringBuilder sb = new StringBuilder("The quick brown fox\njumps over\n");
+      pt.setText(sb.toString());
+      for (int i = 0; i < 5000; i++) {
+         int pos = r.nextInt(sb.length() + 1);
+         if (r.nextInt(3) > 0 || sb.length() == 0) {
+            String s = Integer.toString(r.nextInt(1000), 36);
+            pt.insert(pos, s);
+            sb.insert(pos, s);
+         }
+         else {
+            int len = r.nextInt(Math.min(8, sb.length() - pos) + 1);
+            pt.remove(pos, len);
+            sb.delete(pos, pos + len);
+         }
+         if (i % 250 == 0) {
+            String text = sb.toString();
+            assertEquals(text, pt.toString());
+            int from = r.nextInt(text.length() + 1);
+            assertEquals(text.indexOf('a', from), pt.indexOf('a', from));
+            assertEquals(text.lastIndexOf('z', from),
+                  pt.lastIndexOf('z', from));
+         }
+      }
+      assertEquals(sb.toString(), pt.toString());
+      assertEquals(sb.length(), pt.length());
+   }
+}
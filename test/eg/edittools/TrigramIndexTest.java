@@ -0,0 +1,206 @@
+package eg.edittools;
+
+import java.io.File;
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Tests of {@link TrigramIndex}. The index is built for a temporary
+ * directory tree and saved in a temporary directory. Both are deleted
+ * after each test.
+ */
+public class TrigramIndexTest {
+
+   private static final long TIMEOUT = 5000;
+
+   private Path root;
+   private Path indexDir;
+   private TrigramIndex index;
+
+   @Before
+   public void createTree() throws Exception {
+      root = Files.createTempDirectory("trigram").toAbsolutePath();
+      indexDir = Files.createTempDirectory("index").toAbsolutePath();
+      write("a.txt", "Hello World");
+      write("b.txt", "another text");
+      write("sub/c.java", "class C { // HELLO again }");
+      write("excluded/d.txt", "hello");
+      write(".hidden/e.txt", "hello");
+      Files.write(root.resolve("f.dat"),
+            new byte[] {'h', 'e', 'l', 'l', 'o', 0});
+      Files.write(root.resolve("g.txt"),
+            "Café crème".getBytes(StandardCharsets.ISO_8859_1));
+
+      index = new TrigramIndex(root.toFile(),
+            root.resolve("excluded").toFile(), indexDir.toFile());
+
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      while (!index.isReady() && System.currentTimeMillis() < deadline) {
+         Thread.sleep(20);
+      }
+      assertTrue("index ready", index.isReady());
+   }
+
+   @After
+   public void deleteFiles() throws Exception {
+      index.close();
+      File indexFile = new File(indexDir.toFile(),
+            Long.toHexString(hash(root.toString())) + ".idx");
+
+      //
+      // the index is saved in the background when closed
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      long absentSince = -1;
+      while (System.currentTimeMillis() < deadline) {
+         if (indexFile.delete() || absentSince == -1) {
+            absentSince = System.currentTimeMillis();
+         }
+         else if (System.currentTimeMillis() - absentSince > 200) {
+            break;
+         }
+         Thread.sleep(20);
+      }
+      delete(root);
+      delete(indexDir);
+   }
+
+   @Test
+   public void candidatesContainTerm() {
+      assertEquals("[a.txt, sub/c.java]", names(index.candidates("hello")));
+      assertEquals("[a.txt]", names(index.candidates("o w")));
+      assertEquals("[]", names(index.candidates("hello text")));
+      assertEquals("[b.txt]", names(index.candidates("TEXT")));
+   }
+
+   @Test
+   public void latin1FileIsDecoded() {
+      assertEquals("[g.txt]", names(index.candidates("café CRÈME")));
+   }
+
+   @Test
+   public void shortTermIsNotLookedUp() {
+      assertNull(index.candidates("he"));
+   }
+
+   @Test
+   public void changedFileIsCandidate() throws IOException {
+      write("b.txt", "hello");
+      index.update(root.resolve("b.txt").toFile());
+      assertEquals("[a.txt, b.txt, sub/c.java]",
+            names(index.candidates("hello")));
+   }
+
+   @Test
+   public void deletedFileIsNoCandidate() throws IOException {
+      Files.delete(root.resolve("a.txt"));
+      index.update(root.resolve("a.txt").toFile());
+      assertEquals("[sub/c.java]", names(index.candidates("hello")));
+   }
+
+   @Test
+   public void filesInChangedDirectoryAreCandidates() throws Exception {
+      write("new/sub/h.txt", "hello");
+      Set<Path> paths = new HashSet<>();
+      paths.add(root.resolve("new"));
+      index.changed(paths);
+      assertEquals("[a.txt, new/sub/h.txt, sub/c.java]",
+            names(awaitCandidates("hello", 3)));
+   }
+
+   @Test
+   public void deletedDirectoryIsNoCandidate() throws Exception {
+      delete(root.resolve("sub"));
+      Set<Path> paths = new HashSet<>();
+      paths.add(root.resolve("sub"));
+      index.changed(paths);
+      assertEquals("[a.txt]", names(awaitCandidates("hello", 1)));
+   }
+
+   @Test
+   public void skippedDirectoriesAreNotIndexed() {
+      assertTrue(index.isIndexed(root));
+      assertTrue(index.isIndexed(root.resolve("sub")));
+      assertFalse(index.isIndexed(root.resolve(".hidden")));
+      assertFalse(index.isIndexed(root.resolve("excluded")));
+   }
+
+   //
+   //--private--/
+   //
+
+   //
+   // Waits until the number of candidates is n since the changes are
+   // indexed in the background
+   private List<Path> awaitCandidates(String term, int n)
+         throws InterruptedException {
+
+      long deadline = System.currentTimeMillis() + TIMEOUT;
+      List<Path> candidates = index.candidates(term);
+      while (candidates.size() != n
+            && System.currentTimeMillis() < deadline) {
+
+         Thread.sleep(20);
+         candidates = index.candidates(term);
+      }
+      return candidates;
+   }
+
+   private void delete(Path dir) throws IOException {
+      try (Stream<Path> files = Files.walk(dir)) {
+         List<Path> list = files.sorted(Comparator.reverseOrder())
+               .collect(Collectors.toList());
+
+         for (Path p : list) {
+            Files.delete(p);
+         }
+      }
+   }
+
+   private void write(String path, String content) throws IOException {
+      Path p = root.resolve(path);
+      Files.createDirectories(p.getParent());
+      Files.write(p, content.getBytes(StandardCharsets.UTF_8));
+   }
+
+   private String names(List<Path> candidates) {
+      List<String> names = new ArrayList<>();
+      for (Path p : candidates) {
+         String name = root.relativize(p).toString();
+         names.add(name.replace(File.separatorChar, '/'));
+      }
+      Collections.sort(names);
+      return names.toString();
+   }
+
+   //
+   // The hash of the root that names the index file
+   private static long hash(String s) {
+      long h = 0xcbf29ce484222325L;
+      for (int i = 0; i < s.length(); i++) {
+         h ^= s.charAt(i);
+         h *= 0x100000001b3L;
+      }
+      return h;
+   }
+}
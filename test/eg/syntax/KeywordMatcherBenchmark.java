@@ -0,0 +1,137 @@
+package eg.syntax;
+
+import java.io.IOException;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the time to find the Java keywords in a text by a search
+ * with <code>indexOf</code> per keyword, as done before
+ * {@link KeywordMatcher} was used, with the time of the one-pass
+ * search of <code>KeywordMatcher</code>.
+ * <p>
+ * Usage: <code>java eg.syntax.KeywordMatcherBenchmark [file]</code>.
+ * Without a file the Java sources below the directory 'src' are
+ * concatenated to a text of at least 1 MB. Prints the median time
+ * of each search and the number of keywords found which must be
+ * equal.
+ */
+public class KeywordMatcherBenchmark {
+
+   private static final int MIN_LENGTH = 1 << 20;
+   private static final int WARMUP = 20;
+   private static final int RUNS = 30;
+
+   private static final String[][] GROUPS = {
+      {"@Override", "@Deprecated", "@SuppressWarnings", "@SafeVarargs",
+       "@FunctionalInterface"},
+      {"abstract", "assert", "break", "boolean", "Boolean", "byte", "catch",
+       "case", "const", "continue", "class", "char", "default", "do",
+       "double", "else", "enum", "extends", "false", "finally", "final",
+       "float", "for", "if", "implements", "import", "instanceof", "int",
+       "interface", "long", "native", "new", "null", "package", "private",
+       "protected", "public", "return", "strictfp", "switch",
+       "synchronized", "short", "static", "super", "String", "this",
+       "throw", "throws", "transient", "true", "try", "void", "volatile",
+       "while", "var"}
+   };
+
+   public static void main(String[] args) throws IOException {
+      String text = args.length > 0 ? read(Paths.get(args[0]))
+            : concatSources(Paths.get("src"));
+
+      KeywordMatcher matcher = KeywordMatcher.of(GROUPS);
+      int nIndexOf = 0;
+      int nMatcher = 0;
+      for (int i = 0; i < WARMUP; i++) {
+         nIndexOf = searchByIndexOf(text);
+         nMatcher = searchByMatcher(matcher, text);
+      }
+      long[] tIndexOf = new long[RUNS];
+      long[] tMatcher = new long[RUNS];
+      for (int i = 0; i < RUNS; i++) {
+         long t0 = System.nanoTime();
+         nIndexOf = searchByIndexOf(text);
+         long t1 = System.nanoTime();
+         nMatcher = searchByMatcher(matcher, text);
+         long t2 = System.nanoTime();
+         tIndexOf[i] = t1 - t0;
+         tMatcher[i] = t2 - t1;
+      }
+      System.out.printf("text length: %d chars%n", text.length());
+      System.out.printf("indexOf per keyword: %6.2f ms, %d keywords%n",
+            median(tIndexOf), nIndexOf);
+      System.out.printf("KeywordMatcher:      %6.2f ms, %d keywords%n",
+            median(tMatcher), nMatcher);
+
+      if (nIndexOf != nMatcher) {
+         throw new IllegalStateException("The numbers of keywords differ");
+      }
+   }
+
+   //
+   //--private--/
+   //
+
+   private static int searchByIndexOf(String text) {
+      int n = 0;
+      for (String[] keys : GROUPS) {
+         for (String key : keys) {
+            int start = text.indexOf(key);
+            while (start != -1) {
+               if (SyntaxUtils.isWord(text, start, key.length(), null)) {
+                  n++;
+               }
+               start = text.indexOf(key, start + key.length());
+            }
+         }
+      }
+      return n;
+   }
+
+   private static int searchByMatcher(KeywordMatcher matcher, String text) {
+      int[] n = new int[1];
+      matcher.search(text, (start, length, group) -> {
+         if (SyntaxUtils.isWord(text, start, length, null)) {
+            n[0]++;
+         }
+      });
+      return n[0];
+   }
+
+   private static String concatSources(Path dir) throws IOException {
+      List<Path> files;
+      try (Stream<Path> s = Files.walk(dir)) {
+         files = s.filter(p -> p.toString().endsWith(".java")).sorted()
+               .collect(Collectors.toList());
+      }
+      if (files.isEmpty()) {
+         throw new IOException("No Java sources found in " + dir);
+      }
+      StringBuilder sb = new StringBuilder();
+      while (sb.length() < MIN_LENGTH) {
+         for (Path f : files) {
+            sb.append(read(f));
+         }
+      }
+      return sb.toString();
+   }
+
+   private static String read(Path f) throws IOException {
+      return new String(Files.readAllBytes(f), StandardCharsets.UTF_8);
+   }
+
+   private static double median(long[] nanos) {
+      long[] sorted = nanos.clone();
+      Arrays.sort(sorted);
+      return sorted[sorted.length / 2] / 1e6;
+   }
+}
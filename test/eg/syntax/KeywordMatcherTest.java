@@ -0,0 +1,110 @@
+package eg.syntax;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Tests of {@link KeywordMatcher}. Matches are compared with the
+ * matches found by <code>indexOf</code> per keyword.
+ */
+public class KeywordMatcherTest {
+
+   @Test
+   public void overlappingKeywords() {
+      String[] keys = {"he", "she", "his", "hers"};
+      List<String> found = new ArrayList<>();
+      KeywordMatcher.of(keys).search("ushers",
+            (start, length, group) -> found.add(start + ":" + length));
+
+      //
+      // in ascending order of the end position
+      assertEquals(3, found.size());
+      assertEquals("1:3", found.get(0));
+      assertEquals("2:2", found.get(1));
+      assertEquals("2:4", found.get(2));
+   }
+
+   @Test
+   public void groups() {
+      String[][] keys = {{"int", "long"}, {"@Override"}};
+      List<Integer> groups = new ArrayList<>();
+      KeywordMatcher.of(keys).search("@Override long f(int i)",
+            (start, length, group) -> groups.add(group));
+
+      assertEquals(3, groups.size());
+      assertEquals(1, (int) groups.get(0));
+      assertEquals(0, (int) groups.get(1));
+      assertEquals(0, (int) groups.get(2));
+   }
+
+   @Test
+   public void extensibleKeywords() {
+      String[] bases = {"print", "say"};
+      String[][] extensions = {{"f", "ln"}, {}};
+      List<String> found = new ArrayList<>();
+      String text = "printf say println";
+      KeywordMatcher.ofExtensible(bases, extensions).search(text,
+            (start, length, group) ->
+               found.add(text.substring(start, start + length) + group));
+
+      Collections.sort(found);
+      assertEquals("[print0, print0, printf0, println0, say1]",
+            found.toString());
+   }
+
+   @Test
+   public void nonAsciiText() {
+      List<Integer> starts = new ArrayList<>();
+      KeywordMatcher.of(new String[] {"for"}).search("éfor€for",
+            (start, length, group) -> starts.add(start));
+
+      assertEquals("[1, 5]", starts.toString());
+   }
+
+   @Test(expected = IllegalArgumentException.class)
+   public void nonAsciiKeyword() {
+      KeywordMatcher.of(new String[] {"für"});
+   }
+
+   @Test
+   public void cachedByIdentity() {
+      String[] keys = {"if", "else"};
+      assertSame(KeywordMatcher.of(keys), KeywordMatcher.of(keys));
+      assertNotSame(KeywordMatcher.of(keys),
+            KeywordMatcher.of(keys.clone()));
+   }
+
+   @Test
+   public void randomTextMatchesIndexOf() {
+      String[] keys = {"a", "ab", "bab", "abc", "cca", "caab", "bb"};
+      Random r = new Random(3);
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 2000; i++) {
+         sb.append((char) ('a' + r.nextInt(4)));
+      }
+      String text = sb.toString();
+      List<String> expected = new ArrayList<>();
+      for (String k : keys) {
+         int i = text.indexOf(k);
+         while (i != -1) {
+            expected.add(i + ":" + k);
+            i = text.indexOf(k, i + 1);
+         }
+      }
+      List<String> found = new ArrayList<>();
+      KeywordMatcher.of(keys).search(text, (start, length, group) ->
+            found.add(start + ":" + text.substring(start, start + length)));
+
+      Collections.sort(expected);
+      Collections.sort(found);
+      assertEquals(expected, found);
+   }
+}